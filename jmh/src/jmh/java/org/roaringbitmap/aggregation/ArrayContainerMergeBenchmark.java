@@ -0,0 +1,139 @@
+package org.roaringbitmap.aggregation;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.ArrayContainer;
+import org.roaringbitmap.ArrayKernels;
+import org.roaringbitmap.Container;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar and the Vector API versions of the {@link ArrayKernels} merges behind
+ * ArrayContainer.or/andNot/xor. Both run the same code, the *Scalar benchmarks are forked without
+ * jdk.incubator.vector so that the shim falls back to the scalar merge.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Measurement(iterations = 10, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+public class ArrayContainerMergeBenchmark {
+
+  private static final String VECTOR = "--add-modules=jdk.incubator.vector";
+
+  @Param({"interleaved", "clustered"})
+  public String layout;
+
+  @Param({"256", "2000"})
+  public int cardinality;
+
+  private ArrayContainer ac1;
+  private ArrayContainer ac2;
+  private char[] set1;
+  private char[] set2;
+  private char[] buffer;
+
+  @Setup
+  public void setup() {
+    Random r = new Random(42);
+    // clustered: runs of 64 values alternate between the two sets, each run about half full
+    boolean clustered = "clustered".equals(layout);
+    int range = clustered ? 4 * cardinality : 1 << 16;
+    int runMask = clustered ? 64 : 0;
+    set1 = sortedValues(r, range, runMask, 0);
+    set2 = sortedValues(r, range, runMask, runMask);
+    ac1 = new ArrayContainer(set1.clone());
+    ac2 = new ArrayContainer(set2.clone());
+    buffer = new char[2 * cardinality];
+  }
+
+  private char[] sortedValues(Random r, int range, int runMask, int run) {
+    BitSet values = new BitSet(range);
+    while (values.cardinality() < cardinality) {
+      int v = r.nextInt(range);
+      if ((v & runMask) == run) {
+        values.set(v);
+      }
+    }
+    char[] array = new char[cardinality];
+    int i = 0;
+    for (int v = values.nextSetBit(0); v >= 0; v = values.nextSetBit(v + 1)) {
+      array[i++] = (char) v;
+    }
+    return array;
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = VECTOR)
+  public int union() {
+    return ArrayKernels.union(set1, 0, set1.length, set2, 0, set2.length, buffer);
+  }
+
+  @Benchmark
+  @Fork(1)
+  public int unionScalar() {
+    return ArrayKernels.union(set1, 0, set1.length, set2, 0, set2.length, buffer);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = VECTOR)
+  public int difference() {
+    return ArrayKernels.difference(set1, set1.length, set2, set2.length, buffer);
+  }
+
+  @Benchmark
+  @Fork(1)
+  public int differenceScalar() {
+    return ArrayKernels.difference(set1, set1.length, set2, set2.length, buffer);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = VECTOR)
+  public int exclusiveUnion() {
+    return ArrayKernels.exclusiveUnion(set1, set1.length, set2, set2.length, buffer);
+  }
+
+  @Benchmark
+  @Fork(1)
+  public int exclusiveUnionScalar() {
+    return ArrayKernels.exclusiveUnion(set1, set1.length, set2, set2.length, buffer);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = VECTOR)
+  public Container or() {
+    return ac1.or(ac2);
+  }
+
+  @Benchmark
+  @Fork(1)
+  public Container orScalar() {
+    return ac1.or(ac2);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = VECTOR)
+  public Container andNot() {
+    return ac1.andNot(ac2);
+  }
+
+  @Benchmark
+  @Fork(1)
+  public Container andNotScalar() {
+    return ac1.andNot(ac2);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = VECTOR)
+  public Container xor() {
+    return ac1.xor(ac2);
+  }
+
+  @Benchmark
+  @Fork(1)
+  public Container xorScalar() {
+    return ac1.xor(ac2);
+  }
+}
@@ -0,0 +1,75 @@
+package org.roaringbitmap.aggregation;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.BitmapExpression;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates a selective filter, (a AND (b1 OR ... OR bn)) AND NOT c, either by composing the
+ * static operations, which materialises the union, or as a {@link BitmapExpression}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Measurement(iterations = 10, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Fork(1)
+public class BitmapExpressionBenchmark {
+
+  @Param({"8", "64"})
+  int unionSize;
+
+  @Param("99999")
+  long seed;
+
+  RoaringBitmap a;
+  RoaringBitmap[] b;
+  RoaringBitmap c;
+  BitmapExpression expression;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    SplittableRandom random = new SplittableRandom(seed);
+    // a is sparse and only covers a few of the keys of the union
+    a = random(random, 0, 256, 16, 0.001);
+    b = new RoaringBitmap[unionSize];
+    for (int i = 0; i < b.length; ++i) {
+      b[i] = random(random, 0, 256, 1, 0.05);
+    }
+    c = random(random, 0, 256, 1, 0.1);
+    BitmapExpression[] union = new BitmapExpression[b.length];
+    for (int i = 0; i < b.length; ++i) {
+      union[i] = BitmapExpression.of(b[i]);
+    }
+    expression = BitmapExpression.andNot(
+        BitmapExpression.and(BitmapExpression.of(a), BitmapExpression.or(union)),
+        BitmapExpression.of(c));
+  }
+
+  private static RoaringBitmap random(SplittableRandom random, int minKey, int maxKey, int step,
+      double density) {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    for (int key = minKey; key < maxKey; key += step) {
+      for (int v = key << 16; v < (key + 1) << 16; ++v) {
+        if (random.nextDouble() < density) {
+          bitmap.add(v);
+        }
+      }
+    }
+    return bitmap;
+  }
+
+  @Benchmark
+  public RoaringBitmap composed() {
+    return RoaringBitmap.andNot(RoaringBitmap.and(a, FastAggregation.or(b)), c);
+  }
+
+  @Benchmark
+  public RoaringBitmap expression() {
+    return expression.evaluate();
+  }
+}
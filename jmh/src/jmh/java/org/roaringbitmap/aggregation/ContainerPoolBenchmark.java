@@ -0,0 +1,88 @@
+package org.roaringbitmap.aggregation;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.ContainerPool;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes and discards results, with or without a container pool. Run with {@code -prof gc} to
+ * compare the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Measurement(iterations = 10, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Fork(1)
+public class ContainerPoolBenchmark {
+
+  @Param({"false", "true"})
+  boolean pooled;
+
+  @Param("99999")
+  long seed;
+
+  RoaringBitmap[] bitmaps;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    SplittableRandom random = new SplittableRandom(seed);
+    bitmaps = new RoaringBitmap[8];
+    for (int i = 0; i < bitmaps.length; ++i) {
+      RoaringBitmap bitmap = new RoaringBitmap();
+      for (int key = 0; key < 32; ++key) {
+        // sparse and dense containers, so that results have arrays and bitmaps
+        double density = (key & 1) == 0 ? 0.01 : 0.3;
+        for (int v = key << 16; v < (key + 1) << 16; ++v) {
+          if (random.nextDouble() < density) {
+            bitmap.add(v);
+          }
+        }
+      }
+      bitmaps[i] = bitmap;
+    }
+    if (pooled) {
+      ContainerPool.enable();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    ContainerPool.disable();
+  }
+
+  private int consume(RoaringBitmap result) {
+    int cardinality = result.getCardinality();
+    result.release();
+    return cardinality;
+  }
+
+  @Benchmark
+  public int and() {
+    return consume(RoaringBitmap.and(bitmaps[0], bitmaps[1]));
+  }
+
+  @Benchmark
+  public int or() {
+    return consume(RoaringBitmap.or(bitmaps[0], bitmaps[1]));
+  }
+
+  @Benchmark
+  public int xor() {
+    return consume(RoaringBitmap.xor(bitmaps[0], bitmaps[1]));
+  }
+
+  @Benchmark
+  public int andNot() {
+    return consume(RoaringBitmap.andNot(bitmaps[0], bitmaps[1]));
+  }
+
+  @Benchmark
+  public int fastAggregationOr() {
+    return consume(FastAggregation.or(bitmaps));
+  }
+}
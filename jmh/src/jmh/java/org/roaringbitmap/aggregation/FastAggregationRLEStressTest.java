@@ -143,4 +143,45 @@ public class FastAggregationRLEStressTest {
     return BufferFastAggregation.or(state.bufferBitmaps).getCardinality();
   }
 
+  @Benchmark
+  public int xorCardinality(BitmapState state) {
+    return FastAggregation.xorCardinality(state.buffer, state.bitmaps);
+  }
+
+  @Benchmark
+  public int xorCardinalityMaterialize(BitmapState state) {
+    return FastAggregation.xor(state.bitmaps).getCardinality();
+  }
+
+  @Benchmark
+  public int xorCardinalityBuffer(BitmapState state) {
+    return BufferFastAggregation.xorCardinality(state.buffer, state.bufferBitmaps);
+  }
+
+  @Benchmark
+  public int xorCardinalityBufferMaterialize(BitmapState state) {
+    return BufferFastAggregation.xor(state.bufferBitmaps).getCardinality();
+  }
+
+  @Benchmark
+  public int andNotCardinality(BitmapState state) {
+    RoaringBitmap[] bitmaps = state.bitmaps;
+    return FastAggregation.andNotCardinality(state.buffer, bitmaps[0],
+        Arrays.copyOfRange(bitmaps, 1, bitmaps.length));
+  }
+
+  @Benchmark
+  public int andNotCardinalityMaterialize(BitmapState state) {
+    RoaringBitmap[] bitmaps = state.bitmaps;
+    return RoaringBitmap.andNot(bitmaps[0],
+        FastAggregation.or(Arrays.copyOfRange(bitmaps, 1, bitmaps.length))).getCardinality();
+  }
+
+  @Benchmark
+  public int andNotCardinalityBuffer(BitmapState state) {
+    ImmutableRoaringBitmap[] bitmaps = state.bufferBitmaps;
+    return BufferFastAggregation.andNotCardinality(state.buffer, bitmaps[0],
+        Arrays.copyOfRange(bitmaps, 1, bitmaps.length));
+  }
+
 }
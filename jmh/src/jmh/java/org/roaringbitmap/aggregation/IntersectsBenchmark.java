@@ -0,0 +1,113 @@
+package org.roaringbitmap.aggregation;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.buffer.BufferFastAggregation;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the short-circuiting predicates to the aggregations they replace, on bitmaps sharing
+ * values or not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Measurement(iterations = 10, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Fork(1)
+public class IntersectsBenchmark {
+
+  @Param({"8", "32"})
+  int count;
+
+  @Param({"true", "false"})
+  boolean overlapping;
+
+  @Param("99999")
+  long seed;
+
+  RoaringBitmap[] bitmaps;
+  RoaringBitmap[] others;
+  ImmutableRoaringBitmap[] bufferBitmaps;
+  ImmutableRoaringBitmap[] bufferOthers;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    SplittableRandom random = new SplittableRandom(seed);
+    bitmaps = new RoaringBitmap[count];
+    for (int i = 0; i < count; ++i) {
+      RoaringBitmap bitmap = new RoaringBitmap();
+      for (int key = 0; key < 64; ++key) {
+        // sparse and dense containers
+        double density = (key & 1) == 0 ? 0.01 : 0.5;
+        for (int v = key << 16; v < (key + 1) << 16; ++v) {
+          // without overlap, each bitmap has its own residue modulo count
+          if (random.nextDouble() < density && (overlapping || v % count == i)) {
+            bitmap.add(v);
+          }
+        }
+      }
+      bitmaps[i] = bitmap;
+    }
+    others = Arrays.copyOfRange(bitmaps, 1, count);
+    bufferBitmaps = Arrays.stream(bitmaps)
+        .map(RoaringBitmap::toMutableRoaringBitmap)
+        .toArray(ImmutableRoaringBitmap[]::new);
+    bufferOthers = Arrays.copyOfRange(bufferBitmaps, 1, count);
+  }
+
+  @Benchmark
+  public boolean intersects() {
+    return FastAggregation.intersects(bitmaps);
+  }
+
+  @Benchmark
+  public boolean intersectsByAnd() {
+    return !FastAggregation.and(bitmaps).isEmpty();
+  }
+
+  @Benchmark
+  public boolean intersectsBuffer() {
+    return BufferFastAggregation.intersects(bufferBitmaps);
+  }
+
+  @Benchmark
+  public boolean intersectsBufferByAnd() {
+    return !BufferFastAggregation.and(bufferBitmaps).isEmpty();
+  }
+
+  @Benchmark
+  public boolean containsAny() {
+    return FastAggregation.containsAny(bitmaps[0], others);
+  }
+
+  @Benchmark
+  public boolean containsAnyByOr() {
+    return RoaringBitmap.intersects(bitmaps[0], FastAggregation.or(others));
+  }
+
+  @Benchmark
+  public boolean containsAll() {
+    return FastAggregation.containsAll(bitmaps[0], others);
+  }
+
+  @Benchmark
+  public boolean containsAllByOr() {
+    return FastAggregation.or(others).contains(bitmaps[0]);
+  }
+
+  @Benchmark
+  public boolean containsAllBuffer() {
+    return BufferFastAggregation.containsAll(bufferBitmaps[0], bufferOthers);
+  }
+
+  @Benchmark
+  public boolean containsAllBufferByOr() {
+    return BufferFastAggregation.or(bufferOthers).contains(bufferBitmaps[0]);
+  }
+}
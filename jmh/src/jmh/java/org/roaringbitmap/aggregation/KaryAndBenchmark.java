@@ -0,0 +1,96 @@
+package org.roaringbitmap.aggregation;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.buffer.BufferFastAggregation;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Intersects many bitmaps whose containers are mostly arrays of very different sizes, the case
+ * where the k-ary container intersection of FastAggregation avoids intermediate containers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Measurement(iterations = 10, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Fork(1)
+public class KaryAndBenchmark {
+
+  @Param({"3", "10", "32"})
+  int count;
+
+  // the densities of the bitmaps are spread between 1/dispersion and 1
+  @Param({"1", "1000"})
+  int dispersion;
+
+  @Param("99999")
+  long seed;
+
+  RoaringBitmap[] bitmaps;
+  ImmutableRoaringBitmap[] bufferBitmaps;
+  long[] buffer = new long[1024];
+
+  @Setup(Level.Trial)
+  public void createBitmaps() {
+    SplittableRandom random = new SplittableRandom(seed);
+    bitmaps = new RoaringBitmap[count];
+    bufferBitmaps = new ImmutableRoaringBitmap[count];
+    for (int i = 0; i < count; ++i) {
+      // at most 1 value in 20 so that most containers are arrays
+      double density = Math.pow(dispersion, -random.nextDouble()) / 20;
+      RoaringBitmap bitmap = new RoaringBitmap();
+      for (int key = 0; key < 64; ++key) {
+        for (int v = key << 16; v < (key + 1) << 16; ++v) {
+          if (random.nextDouble() < density) {
+            bitmap.add(v);
+          }
+        }
+      }
+      bitmaps[i] = bitmap;
+      bufferBitmaps[i] = bitmap.toMutableRoaringBitmap();
+    }
+  }
+
+  @Benchmark
+  public RoaringBitmap and() {
+    return FastAggregation.and(bitmaps);
+  }
+
+  @Benchmark
+  public RoaringBitmap naiveAnd() {
+    return FastAggregation.naive_and(bitmaps);
+  }
+
+  @Benchmark
+  public RoaringBitmap workShyAnd() {
+    Arrays.fill(buffer, 0L);
+    return FastAggregation.workShyAnd(buffer, bitmaps);
+  }
+
+  @Benchmark
+  public int andCardinality() {
+    return FastAggregation.andCardinality(bitmaps);
+  }
+
+  @Benchmark
+  public MutableRoaringBitmap andBuffer() {
+    return BufferFastAggregation.and(bufferBitmaps);
+  }
+
+  @Benchmark
+  public MutableRoaringBitmap naiveAndBuffer() {
+    return BufferFastAggregation.naive_and(bufferBitmaps);
+  }
+
+  @Benchmark
+  public int andCardinalityBuffer() {
+    return BufferFastAggregation.andCardinality(bufferBitmaps);
+  }
+}
@@ -0,0 +1,73 @@
+package org.roaringbitmap.aggregation;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.MaterializedUnion;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes values from a member of a union and adds them back, maintaining the union with a
+ * {@link MaterializedUnion} or computing it from scratch after each change.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Measurement(iterations = 10, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Fork(1)
+public class MaterializedUnionBenchmark {
+
+  @Param({"1000", "5000"})
+  int count;
+
+  @Param("99999")
+  long seed;
+
+  RoaringBitmap[] members;
+  MaterializedUnion union;
+  RoaringBitmap delta;
+  int id;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    SplittableRandom random = new SplittableRandom(seed);
+    members = new RoaringBitmap[count];
+    RoaringBitmap[] copies = new RoaringBitmap[count];
+    for (int i = 0; i < count; ++i) {
+      RoaringBitmap member = new RoaringBitmap();
+      for (int k = 0; k < 16; ++k) {
+        int key = random.nextInt(256);
+        for (int j = 0; j < 200; ++j) {
+          member.add((key << 16) | random.nextInt(1 << 16));
+        }
+      }
+      members[i] = member;
+      copies[i] = member.clone();
+    }
+    union = new MaterializedUnion(copies);
+    id = random.nextInt(count);
+    delta = new RoaringBitmap();
+    for (int j = 0; j < 100; ++j) {
+      delta.add(members[id].select(random.nextInt(members[id].getCardinality())));
+    }
+  }
+
+  @Benchmark
+  public int materialized() {
+    union.andNot(id, delta);
+    int cardinality = union.getUnion().getCardinality();
+    union.or(id, delta);
+    return cardinality + union.getUnion().getCardinality();
+  }
+
+  @Benchmark
+  public int rebuild() {
+    members[id].andNot(delta);
+    int cardinality = FastAggregation.or(members).getCardinality();
+    members[id].or(delta);
+    return cardinality + FastAggregation.or(members).getCardinality();
+  }
+}
@@ -0,0 +1,85 @@
+package org.roaringbitmap.aggregation;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.OverlapIndex;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the catalog bitmaps intersecting the most with a query, with an {@link OverlapIndex} or
+ * by computing the intersection with every bitmap of the catalog. Each catalog bitmap is a
+ * segment spread over a few of the keys of a large universe, as audience segments usually are,
+ * and the query is made of a few catalog segments along with values of its own, so that the
+ * top k matches overlap it much more than the rest of the catalog.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Measurement(iterations = 10, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Fork(1)
+public class OverlapIndexBenchmark {
+
+  @Param({"10000", "100000"})
+  int catalogSize;
+
+  @Param("10")
+  int k;
+
+  @Param("99999")
+  long seed;
+
+  RoaringBitmap[] catalog;
+  OverlapIndex index;
+  RoaringBitmap query;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    SplittableRandom random = new SplittableRandom(seed);
+    catalog = new RoaringBitmap[catalogSize];
+    for (int i = 0; i < catalogSize; ++i) {
+      catalog[i] = segment(random);
+    }
+    index = new OverlapIndex(catalog);
+    query = segment(random);
+    for (int i = 0; i < 2 * k; ++i) {
+      query.or(catalog[random.nextInt(catalogSize)]);
+    }
+  }
+
+  private static RoaringBitmap segment(SplittableRandom random) {
+    RoaringBitmap segment = new RoaringBitmap();
+    int numKeys = 1 + random.nextInt(8);
+    for (int i = 0; i < numKeys; ++i) {
+      int key = random.nextInt(1024);
+      int cardinality = 1 + random.nextInt(2000);
+      for (int j = 0; j < cardinality; ++j) {
+        segment.add((key << 16) | random.nextInt(1 << 16));
+      }
+    }
+    return segment;
+  }
+
+  @Benchmark
+  public OverlapIndex.Match[] index() {
+    return index.topK(query, k, OverlapIndex.Similarity.INTERSECTION);
+  }
+
+  @Benchmark
+  public int[] scan() {
+    PriorityQueue<long[]> best = new PriorityQueue<>(k, (l, r) -> Long.compare(l[0], r[0]));
+    for (int id = 0; id < catalog.length; ++id) {
+      int intersection = RoaringBitmap.andCardinality(query, catalog[id]);
+      if (best.size() < k) {
+        best.offer(new long[] {intersection, id});
+      } else if (intersection > best.peek()[0]) {
+        best.poll();
+        best.offer(new long[] {intersection, id});
+      }
+    }
+    return best.stream().mapToInt(match -> (int) match[1]).toArray();
+  }
+}
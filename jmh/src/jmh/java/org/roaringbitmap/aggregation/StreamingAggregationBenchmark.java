@@ -0,0 +1,82 @@
+package org.roaringbitmap.aggregation;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the values of aggregates, either from the materialised bitmap or from the containers
+ * streamed one key at a time. Run with {@code -prof gc} to compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Measurement(iterations = 10, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Fork(1)
+public class StreamingAggregationBenchmark {
+
+  @Param("99999")
+  long seed;
+
+  RoaringBitmap[] bitmaps;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    SplittableRandom random = new SplittableRandom(seed);
+    bitmaps = new RoaringBitmap[16];
+    for (int i = 0; i < bitmaps.length; ++i) {
+      RoaringBitmap bitmap = new RoaringBitmap();
+      for (int key = 0; key < 256; ++key) {
+        double density = (key & 1) == 0 ? 0.01 : 0.3;
+        for (int v = key << 16; v < (key + 1) << 16; ++v) {
+          if (random.nextDouble() < density) {
+            bitmap.add(v);
+          }
+        }
+      }
+      bitmaps[i] = bitmap;
+    }
+  }
+
+  @Benchmark
+  public int materialisedOr() {
+    return FastAggregation.or(bitmaps).getCardinality();
+  }
+
+  @Benchmark
+  public int streamedOr() {
+    int[] cardinality = new int[1];
+    FastAggregation.or((key, container) -> cardinality[0] += container.getCardinality(), bitmaps);
+    return cardinality[0];
+  }
+
+  @Benchmark
+  public int materialisedXor() {
+    return FastAggregation.xor(bitmaps).getCardinality();
+  }
+
+  @Benchmark
+  public int streamedXor() {
+    int[] cardinality = new int[1];
+    FastAggregation.xor((key, container) -> cardinality[0] += container.getCardinality(), bitmaps);
+    return cardinality[0];
+  }
+
+  @Benchmark
+  public int materialisedAndNot() {
+    RoaringBitmap[] subtrahends = {bitmaps[1], bitmaps[2], bitmaps[3]};
+    return RoaringBitmap.andNot(bitmaps[0], FastAggregation.or(subtrahends)).getCardinality();
+  }
+
+  @Benchmark
+  public int streamedAndNot() {
+    int[] cardinality = new int[1];
+    FastAggregation.andNot((key, container) -> cardinality[0] += container.getCardinality(),
+        bitmaps[0], bitmaps[1], bitmaps[2], bitmaps[3]);
+    return cardinality[0];
+  }
+}
@@ -0,0 +1,91 @@
+package org.roaringbitmap.aggregation;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.ParallelAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes the values present in at least threshold of the bitmaps, either with bit-sliced
+ * counters or by accumulating the values seen at least once, twice... with ORs and ANDs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Measurement(iterations = 10, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Fork(1)
+public class ThresholdBenchmark {
+
+  @Param({"16", "64"})
+  int count;
+
+  @Param({"2", "4"})
+  int divisor;
+
+  @Param("99999")
+  long seed;
+
+  RoaringBitmap[] bitmaps;
+  int threshold;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    SplittableRandom random = new SplittableRandom(seed);
+    bitmaps = new RoaringBitmap[count];
+    for (int i = 0; i < count; ++i) {
+      RoaringBitmap bitmap = new RoaringBitmap();
+      for (int key = 0; key < 32; ++key) {
+        // sparse, dense and run containers
+        int kind = random.nextInt(3);
+        if (kind == 2) {
+          int start = (key << 16) + random.nextInt(1 << 15);
+          bitmap.add((long) start, start + random.nextInt(1 << 15));
+        } else {
+          double density = kind == 0 ? 0.02 : 0.4;
+          for (int v = key << 16; v < (key + 1) << 16; ++v) {
+            if (random.nextDouble() < density) {
+              bitmap.add(v);
+            }
+          }
+        }
+      }
+      bitmaps[i] = bitmap;
+    }
+    threshold = count / divisor;
+  }
+
+  @Benchmark
+  public RoaringBitmap threshold() {
+    return FastAggregation.threshold(threshold, bitmaps);
+  }
+
+  @Benchmark
+  public int thresholdCardinality() {
+    return FastAggregation.thresholdCardinality(threshold, bitmaps);
+  }
+
+  @Benchmark
+  public RoaringBitmap parallelThreshold() {
+    return ParallelAggregation.threshold(threshold, bitmaps);
+  }
+
+  @Benchmark
+  public RoaringBitmap orsAndAnds() {
+    // seen[k] holds the values seen more than k times
+    RoaringBitmap[] seen = new RoaringBitmap[threshold];
+    for (int k = 0; k < threshold; ++k) {
+      seen[k] = new RoaringBitmap();
+    }
+    for (RoaringBitmap bitmap : bitmaps) {
+      for (int k = threshold - 1; k > 0; --k) {
+        seen[k].or(RoaringBitmap.and(seen[k - 1], bitmap));
+      }
+      seen[0].or(bitmap);
+    }
+    return seen[threshold - 1];
+  }
+}
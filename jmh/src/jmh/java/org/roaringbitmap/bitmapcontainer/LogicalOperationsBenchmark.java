@@ -0,0 +1,134 @@
+package org.roaringbitmap.bitmapcontainer;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.BitmapContainer;
+import org.roaringbitmap.BitmapKernels;
+import org.roaringbitmap.Container;
+import org.roaringbitmap.buffer.MappeableBitmapContainer;
+import org.roaringbitmap.buffer.MappeableContainer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the BitmapContainer logical operations, which go through {@link BitmapKernels}, with
+ * the plain word-at-a-time loops they replaced. The Vector API kernels are only used on JDK 17+
+ * when jdk.incubator.vector is resolved, so run once with and once without the module to compare
+ * both versions of the shim.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Measurement(iterations = 10, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector"})
+public class LogicalOperationsBenchmark {
+
+  @Param({"0.1", "0.5", "0.9"})
+  public double density;
+
+  private BitmapContainer bc1;
+  private BitmapContainer bc2;
+  private MappeableBitmapContainer mbc1;
+  private MappeableBitmapContainer mbc2;
+  private long[] words1;
+  private long[] words2;
+  private long[] scratch;
+
+  @Setup
+  public void setup() {
+    Random r = new Random(42);
+    bc1 = new BitmapContainer();
+    bc2 = new BitmapContainer();
+    for (int i = 0; i < BitmapContainer.MAX_CAPACITY; ++i) {
+      if (r.nextDouble() < density) {
+        bc1.add((char) i);
+      }
+      if (r.nextDouble() < density) {
+        bc2.add((char) i);
+      }
+    }
+    mbc1 = new MappeableBitmapContainer(bc1.toLongBuffer(), bc1.getCardinality());
+    mbc2 = new MappeableBitmapContainer(bc2.toLongBuffer(), bc2.getCardinality());
+    words1 = mbc1.toLongArray();
+    words2 = mbc2.toLongArray();
+    scratch = new long[words1.length];
+  }
+
+  @Benchmark
+  public Container and() {
+    return bc1.and(bc2);
+  }
+
+  @Benchmark
+  public Container or() {
+    return bc1.or(bc2);
+  }
+
+  @Benchmark
+  public Container xor() {
+    return bc1.xor(bc2);
+  }
+
+  @Benchmark
+  public Container andNot() {
+    return bc1.andNot(bc2);
+  }
+
+  @Benchmark
+  public int andCardinality() {
+    return bc1.andCardinality(bc2);
+  }
+
+  @Benchmark
+  public MappeableContainer mappeableAnd() {
+    return mbc1.and(mbc2);
+  }
+
+  @Benchmark
+  public MappeableContainer mappeableOr() {
+    return mbc1.or(mbc2);
+  }
+
+  @Benchmark
+  public MappeableContainer mappeableXor() {
+    return mbc1.xor(mbc2);
+  }
+
+  @Benchmark
+  public MappeableContainer mappeableAndNot() {
+    return mbc1.andNot(mbc2);
+  }
+
+  @Benchmark
+  public int kernelOr() {
+    return BitmapKernels.or(words1, words2, scratch);
+  }
+
+  @Benchmark
+  public int kernelAndCardinality() {
+    return BitmapKernels.andCardinality(words1, words2);
+  }
+
+  @Benchmark
+  public int scalarOr() {
+    // the loop formerly used by BitmapContainer.ior: op first, separate popcount pass
+    for (int k = 0; k < scratch.length; ++k) {
+      scratch[k] = words1[k] | words2[k];
+    }
+    int card = 0;
+    for (int k = 0; k < scratch.length; ++k) {
+      card += Long.bitCount(scratch[k]);
+    }
+    return card;
+  }
+
+  @Benchmark
+  public int scalarAndCardinality() {
+    int card = 0;
+    for (int k = 0; k < words1.length; ++k) {
+      card += Long.bitCount(words1[k] & words2[k]);
+    }
+    return card;
+  }
+}
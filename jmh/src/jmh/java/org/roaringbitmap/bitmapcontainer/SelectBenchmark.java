@@ -22,12 +22,14 @@ public class SelectBenchmark {
   public int valuesCount;
 
   public char[] indexes;
+  public char[] values;
 
   @Setup
   public void setup() throws ExecutionException {
     bc1 = new BitmapContainer();
     mbc1 = new MappeableBitmapContainer();
     indexes = new char[valuesCount];
+    values = new char[valuesCount];
     Random r = new Random(123);
     for (int i = 0; i < valuesCount; i++) {
       char value = (char) r.nextInt(Character.MAX_VALUE);
@@ -38,6 +40,9 @@ public class SelectBenchmark {
     for (int i = 0; i < actualCardinality; i++) {
       indexes[i] = (char) r.nextInt(actualCardinality);
     }
+    for (int i = 0; i < valuesCount; i++) {
+      values[i] = (char) r.nextInt(Character.MAX_VALUE);
+    }
   }
 
   @Benchmark
@@ -58,6 +63,27 @@ public class SelectBenchmark {
     return accumulator;
   }
 
+  @Benchmark
+  public long bitmapContainer_rank() {
+    long accumulator = 0;
+    for (int i = 0; i < values.length; i++) {
+      accumulator += bc1.rank(values[i]);
+    }
+    return accumulator;
+  }
+
+  // every add drops the rank directory, even when the value is already there, so each select
+  // scans the words
+  @Benchmark
+  public long bitmapContainer_selectAfterAdd() {
+    long accumulator = 0;
+    for (int i = 0; i < bc1.getCardinality(); i++) {
+      bc1.add((char) bc1.first());
+      accumulator += bc1.select(indexes[i]);
+    }
+    return accumulator;
+  }
+
   @Benchmark
   public long mappeableBitmapContainer_selectOneSide() {
     long accumulator = 0;
@@ -0,0 +1,75 @@
+package org.roaringbitmap.combinedcardinality;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.ParallelAggregation;
+import org.roaringbitmap.RandomData;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes the cardinalities of the intersections of all the pairs of a list of bitmaps, with
+ * one call to {@link RoaringBitmap#andCardinality(RoaringBitmap, RoaringBitmap)} per pair or
+ * with a single {@link ParallelAggregation#andCardinalityMatrix(RoaringBitmap...)}.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 1, jvmArgsPrepend =
+        {
+                "-XX:-TieredCompilation",
+                "-XX:+UseParallelGC",
+                "-mx2G",
+                "-ms2G",
+                "-XX:+AlwaysPreTouch"
+        })
+@State(Scope.Benchmark)
+public class CardinalityMatrixBenchmark {
+
+    @Param({"64", "256"})
+    int count;
+
+    @Param({"32", "256"})
+    int maxKeys;
+
+    RoaringBitmap[] bitmaps;
+
+    @Setup(Level.Trial)
+    public void init() {
+        bitmaps = new RoaringBitmap[count];
+        for (int i = 0; i < count; ++i) {
+            bitmaps[i] = RandomData.randomBitmap(maxKeys, 0.2, 0.3);
+        }
+    }
+
+    @Benchmark
+    public int[][] andCardinalityMatrix() {
+        return ParallelAggregation.andCardinalityMatrix(bitmaps);
+    }
+
+    @Benchmark
+    public int[][] andCardinalityMatrixBaseline() {
+        int[][] matrix = new int[count][count];
+        for (int i = 0; i < count; ++i) {
+            for (int j = i; j < count; ++j) {
+                matrix[i][j] = matrix[j][i] = RoaringBitmap.andCardinality(bitmaps[i], bitmaps[j]);
+            }
+        }
+        return matrix;
+    }
+
+    @Benchmark
+    public int[][] xorCardinalityMatrix() {
+        return ParallelAggregation.xorCardinalityMatrix(bitmaps);
+    }
+
+    @Benchmark
+    public int[][] xorCardinalityMatrixBaseline() {
+        int[][] matrix = new int[count][count];
+        for (int i = 0; i < count; ++i) {
+            for (int j = i; j < count; ++j) {
+                matrix[i][j] = matrix[j][i] = RoaringBitmap.xorCardinality(bitmaps[i], bitmaps[j]);
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,70 @@
+package org.roaringbitmap.deserialization;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.LazyRoaringBitmap;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserializes a bitmap of 1000 containers and checks a few values, copying all the containers
+ * to the heap or only those holding the values.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Measurement(iterations = 10, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+public class LazyDeserializationBenchmark {
+
+  @Param({"1", "16"})
+  int lookups;
+
+  private ByteBuffer buffer;
+  private int[] values;
+
+  @Setup
+  public void prepare() {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    Random random = new Random(1234);
+    for (int key = 0; key < 1000; key++) {
+      // array and bitmap containers
+      int cardinality = (key & 1) == 0 ? 1000 : 10_000;
+      for (int j = 0; j < cardinality; j++) {
+        bitmap.add((key << 16) | random.nextInt(65536));
+      }
+    }
+    buffer = ByteBuffer.allocate(bitmap.serializedSizeInBytes());
+    bitmap.serialize(buffer);
+    buffer.flip();
+    values = new int[lookups];
+    for (int i = 0; i < lookups; ++i) {
+      values[i] = random.nextInt(1000 << 16);
+    }
+  }
+
+  @Benchmark
+  public int deserialize() throws IOException {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    bitmap.deserialize(buffer);
+    int found = 0;
+    for (int value : values) {
+      found += bitmap.contains(value) ? 1 : 0;
+    }
+    return found;
+  }
+
+  @Benchmark
+  public int lazy() {
+    LazyRoaringBitmap bitmap = new LazyRoaringBitmap(buffer);
+    int found = 0;
+    for (int value : values) {
+      found += bitmap.contains(value) ? 1 : 0;
+    }
+    return found;
+  }
+}
@@ -0,0 +1,75 @@
+package org.roaringbitmap.deserialization;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserializes a large bitmap from a direct buffer, on the calling thread or on the common
+ * fork join pool. The bitmap of 16384 containers takes about 80MB.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Measurement(iterations = 10, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 1, jvmArgsPrepend = "-Xmx2G")
+public class ParallelDeserializationBenchmark {
+
+  @Param({"1024", "16384"})
+  int containers;
+
+  private ByteBuffer buffer;
+
+  @Setup
+  public void prepare() {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    Random random = new Random(1234);
+    for (int key = 0; key < containers; key++) {
+      // array and bitmap containers
+      int cardinality = (key & 1) == 0 ? 1000 : 10_000;
+      for (int j = 0; j < cardinality; j++) {
+        bitmap.add((key << 16) | random.nextInt(65536));
+      }
+    }
+    buffer = ByteBuffer.allocateDirect(bitmap.serializedSizeInBytes())
+        .order(ByteOrder.LITTLE_ENDIAN);
+    bitmap.serialize(buffer);
+    buffer.flip();
+  }
+
+  @Benchmark
+  public RoaringBitmap deserialize() throws IOException {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    bitmap.deserialize(buffer);
+    return bitmap;
+  }
+
+  @Benchmark
+  public RoaringBitmap deserializeParallel() throws IOException {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    bitmap.deserialize(buffer, ForkJoinPool.commonPool());
+    return bitmap;
+  }
+
+  @Benchmark
+  public MutableRoaringBitmap deserializeMutable() throws IOException {
+    MutableRoaringBitmap bitmap = new MutableRoaringBitmap();
+    bitmap.deserialize(buffer);
+    return bitmap;
+  }
+
+  @Benchmark
+  public MutableRoaringBitmap deserializeMutableParallel() throws IOException {
+    MutableRoaringBitmap bitmap = new MutableRoaringBitmap();
+    bitmap.deserialize(buffer, ForkJoinPool.commonPool());
+    return bitmap;
+  }
+}
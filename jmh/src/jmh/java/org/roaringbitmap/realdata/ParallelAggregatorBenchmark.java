@@ -3,6 +3,8 @@ package org.roaringbitmap.realdata;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.Container;
+import org.roaringbitmap.ContainerPointer;
 import org.roaringbitmap.FastAggregation;
 import org.roaringbitmap.ParallelAggregation;
 import org.roaringbitmap.RoaringBitmap;
@@ -12,7 +14,12 @@ import org.roaringbitmap.buffer.BufferParallelAggregation;
 import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
 import org.roaringbitmap.buffer.MutableRoaringBitmap;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.StreamSupport;
 
@@ -60,11 +67,45 @@ public class ParallelAggregatorBenchmark {
     return ParallelAggregation.xor(bitmaps);
   }
 
+  @Benchmark
+  public RoaringBitmap parallelAnd() {
+    return ParallelAggregation.and(bitmaps);
+  }
+
+  @Benchmark
+  public RoaringBitmap parallelAndNot() {
+    return ParallelAggregation.andNot(bitmaps[0], Arrays.copyOfRange(bitmaps, 1, bitmaps.length));
+  }
+
+  @Benchmark
+  public int parallelAndCardinality() {
+    return ParallelAggregation.andCardinality(bitmaps);
+  }
+
+  @Benchmark
+  public int parallelOrCardinality() {
+    return ParallelAggregation.orCardinality(bitmaps);
+  }
+
   @Benchmark
   public Object groupByKey() {
     return ParallelAggregation.groupByKey(bitmaps);
   }
 
+  // the grouping or and xor used to start with, for comparison with parallelOr and parallelXor
+  @Benchmark
+  public Object boxedGroupByKey() {
+    Map<Character, List<Container>> grouped = new HashMap<>();
+    for (RoaringBitmap bitmap : bitmaps) {
+      ContainerPointer it = bitmap.getContainerPointer();
+      while (null != it.getContainer()) {
+        grouped.computeIfAbsent(it.key(), key -> new ArrayList<>()).add(it.getContainer());
+        it.advance();
+      }
+    }
+    return new TreeMap<>(grouped);
+  }
+
   @Benchmark
   public RoaringBitmap fastOr() {
     return FastAggregation.or(bitmaps);
@@ -75,6 +116,16 @@ public class ParallelAggregatorBenchmark {
     return FastAggregation.and(bitmaps);
   }
 
+  @Benchmark
+  public int fastAndCardinality() {
+    return FastAggregation.andCardinality(bitmaps);
+  }
+
+  @Benchmark
+  public int fastOrCardinality() {
+    return FastAggregation.orCardinality(bitmaps);
+  }
+
   @Benchmark
   public RoaringBitmap fastXor() {
     return FastAggregation.xor(bitmaps);
@@ -91,6 +142,16 @@ public class ParallelAggregatorBenchmark {
     return BufferParallelAggregation.xor(immutableRoaringBitmaps);
   }
 
+  @Benchmark
+  public MutableRoaringBitmap bufferParallelAnd() {
+    return BufferParallelAggregation.and(immutableRoaringBitmaps);
+  }
+
+  @Benchmark
+  public int bufferParallelOrCardinality() {
+    return BufferParallelAggregation.orCardinality(immutableRoaringBitmaps);
+  }
+
   @Benchmark
   public Object bufferGroupByKey() {
     return BufferParallelAggregation.groupByKey(immutableRoaringBitmaps);
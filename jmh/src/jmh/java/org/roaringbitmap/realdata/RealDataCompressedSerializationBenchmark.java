@@ -0,0 +1,106 @@
+package org.roaringbitmap.realdata;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.roaringbitmap.CompressedRoaringFormat;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.ZipRealDataRetriever;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+import static org.roaringbitmap.RealDataset.*;
+
+/**
+ * Serializes and deserializes the bitmaps of the real data sets in the portable format and in
+ * the compressed format, the sizes of both being printed when the data set is loaded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RealDataCompressedSerializationBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class BenchmarkState {
+
+    @Param({
+        CENSUS_INCOME, CENSUS1881, DIMENSION_008,
+        DIMENSION_003, DIMENSION_033, USCENSUS2000,
+        WEATHER_SEPT_85, WIKILEAKS_NOQUOTES, CENSUS_INCOME_SRT, CENSUS1881_SRT,
+        WEATHER_SEPT_85_SRT, WIKILEAKS_NOQUOTES_SRT
+    })
+    public String dataset;
+
+    @Param({"true", "false"})
+    boolean runOptimise;
+
+    RoaringBitmap[] bitmaps;
+    byte[][] portable;
+    byte[][] compressed;
+    ByteBuffer output;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+      ZipRealDataRetriever dataRetriever = new ZipRealDataRetriever(dataset);
+      bitmaps = StreamSupport.stream(dataRetriever.fetchBitPositions().spliterator(), false)
+          .map(RoaringBitmap::bitmapOf)
+          .toArray(RoaringBitmap[]::new);
+      portable = new byte[bitmaps.length][];
+      compressed = new byte[bitmaps.length][];
+      long portableSize = 0;
+      long compressedSize = 0;
+      int maxSize = 0;
+      for (int i = 0; i < bitmaps.length; ++i) {
+        if (runOptimise) {
+          bitmaps[i].runOptimize();
+        }
+        portable[i] = new byte[bitmaps[i].serializedSizeInBytes()];
+        bitmaps[i].serialize(ByteBuffer.wrap(portable[i]));
+        compressed[i] = new byte[CompressedRoaringFormat.serializedSizeInBytes(bitmaps[i])];
+        CompressedRoaringFormat.serialize(bitmaps[i], ByteBuffer.wrap(compressed[i]));
+        portableSize += portable[i].length;
+        compressedSize += compressed[i].length;
+        maxSize = Math.max(maxSize, Math.max(portable[i].length, compressed[i].length));
+      }
+      output = ByteBuffer.allocate(maxSize);
+      System.out.println();
+      System.out.println(dataset + " runOptimise=" + runOptimise + ": portable " + portableSize
+          + " bytes, compressed " + compressedSize + " bytes");
+    }
+  }
+
+  @Benchmark
+  public void serializePortable(BenchmarkState state, Blackhole bh) {
+    for (RoaringBitmap bitmap : state.bitmaps) {
+      state.output.clear();
+      bitmap.serialize(state.output);
+      bh.consume(state.output.position());
+    }
+  }
+
+  @Benchmark
+  public void serializeCompressed(BenchmarkState state, Blackhole bh) {
+    for (RoaringBitmap bitmap : state.bitmaps) {
+      state.output.clear();
+      CompressedRoaringFormat.serialize(bitmap, state.output);
+      bh.consume(state.output.position());
+    }
+  }
+
+  @Benchmark
+  public void deserializePortable(BenchmarkState state, Blackhole bh) throws IOException {
+    for (byte[] bytes : state.portable) {
+      RoaringBitmap bitmap = new RoaringBitmap();
+      bitmap.deserialize(ByteBuffer.wrap(bytes));
+      bh.consume(bitmap);
+    }
+  }
+
+  @Benchmark
+  public void deserializeCompressed(BenchmarkState state, Blackhole bh) {
+    for (byte[] bytes : state.compressed) {
+      bh.consume(CompressedRoaringFormat.deserialize(ByteBuffer.wrap(bytes)));
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package org.roaringbitmap.runcontainer;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.ArrayContainer;
+import org.roaringbitmap.Container;
+import org.roaringbitmap.RunContainer;
+import org.roaringbitmap.buffer.MappeableArrayContainer;
+import org.roaringbitmap.buffer.MappeableContainer;
+import org.roaringbitmap.buffer.MappeableRunContainer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Intersects a run container holding thousands of short runs with a container holding only a
+ * few values or runs: the intersections gallop over the large side once the run counts are
+ * skewed enough.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Measurement(iterations = 10, timeUnit = TimeUnit.MILLISECONDS, time = 1000)
+@Fork(1)
+public class SkewedRunContainerAndBenchmark {
+
+  @Param({"4", "32", "256"})
+  public int smallSize;
+
+  @Param({"4000"})
+  public int largeRuns;
+
+  private RunContainer large;
+  private RunContainer smallRuns;
+  private ArrayContainer smallArray;
+  private MappeableRunContainer mappeableLarge;
+  private MappeableRunContainer mappeableSmallRuns;
+  private MappeableArrayContainer mappeableSmallArray;
+
+  @Setup
+  public void setup() {
+    Random r = new Random(1234);
+    Container container = new RunContainer();
+    int gap = 65536 / largeRuns;
+    for (int i = 0; i < largeRuns; ++i) {
+      int start = i * gap;
+      container = container.iadd(start, start + 1 + r.nextInt(gap / 2));
+    }
+    large = (RunContainer) container;
+    Container runs = new RunContainer();
+    Container values = new ArrayContainer();
+    for (int i = 0; i < smallSize; ++i) {
+      int start = r.nextInt(65000);
+      runs = runs.iadd(start, start + 1 + r.nextInt(32));
+      values = values.add((char) start);
+    }
+    smallRuns = (RunContainer) runs;
+    smallArray = (ArrayContainer) values;
+    mappeableLarge = new MappeableRunContainer(large);
+    mappeableSmallRuns = new MappeableRunContainer(smallRuns);
+    mappeableSmallArray = new MappeableArrayContainer(smallArray);
+  }
+
+  @Benchmark
+  public Container andRun() {
+    return large.and(smallRuns);
+  }
+
+  @Benchmark
+  public Container andArray() {
+    return large.and(smallArray);
+  }
+
+  @Benchmark
+  public int andCardinalityRun() {
+    return smallRuns.andCardinality(large);
+  }
+
+  @Benchmark
+  public int andCardinalityArray() {
+    return large.andCardinality(smallArray);
+  }
+
+  @Benchmark
+  public boolean intersectsRun() {
+    return large.intersects(smallRuns);
+  }
+
+  @Benchmark
+  public MappeableContainer mappeableAndRun() {
+    return mappeableLarge.and(mappeableSmallRuns);
+  }
+
+  @Benchmark
+  public MappeableContainer mappeableAndArray() {
+    return mappeableLarge.and(mappeableSmallArray);
+  }
+
+  @Benchmark
+  public int mappeableAndCardinalityRun() {
+    return mappeableSmallRuns.andCardinality(mappeableLarge);
+  }
+}
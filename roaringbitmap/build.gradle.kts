@@ -64,6 +64,7 @@ sourceSets {
             srcDir("src/java11/main")
         }
     }
+    create("java17")
 }
 
 tasks.named<JavaCompile>("compileJava11Java") {
@@ -72,19 +73,62 @@ tasks.named<JavaCompile>("compileJava11Java") {
     options.release.set(9)
 }
 
+tasks.named<JavaCompile>("compileJava17Java") {
+    // the Vector API is an incubator module in 17, it is only used at runtime when the application
+    // resolves it (--add-modules jdk.incubator.vector), otherwise the scalar code is used
+    val javaToolchains = project.extensions.getByType<JavaToolchainService>()
+    javaCompiler.set(javaToolchains.compilerFor {
+        languageVersion.set(JavaLanguageVersion.of(17))
+    })
+    options.release.set(17)
+    options.compilerArgs = listOf("-Xlint:unchecked", "--add-modules", "jdk.incubator.vector")
+}
+
 tasks.named<Jar>("jar") {
     into("META-INF/versions/11") {
         from(sourceSets.named("java11").get().output)
     }
+    into("META-INF/versions/17") {
+        from(sourceSets.named("java17").get().output)
+    }
     manifest.attributes(
             Pair("Multi-Release", "true")
     )
 
     // normally jar is just main classes but we also have another sourceset
     dependsOn(tasks.named("compileJava11Java"))
+    dependsOn(tasks.named("compileJava17Java"))
+}
+
+// the plain test task only sees the scalar kernels of the main source set, this one runs the
+// kernel and container tests against the java17 classes with the Vector API resolved
+val testVectorized = tasks.register<Test>("testVectorized") {
+    description = "Runs the kernel and container tests with the Vector API kernels."
+    group = "verification"
+    val javaToolchains = project.extensions.getByType<JavaToolchainService>()
+    javaLauncher.set(javaToolchains.launcherFor {
+        languageVersion.set(JavaLanguageVersion.of(17))
+    })
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.named("java17").get().output + sourceSets.test.get().runtimeClasspath
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+    systemProperty("roaringbitmap.vectorized", "true")
+    systemProperty("kryo.unsafe", "false")
+    useJUnitPlatform()
+    filter {
+        includeTestsMatching("org.roaringbitmap.TestArrayKernels")
+        includeTestsMatching("org.roaringbitmap.TestBitmapKernels")
+        includeTestsMatching("org.roaringbitmap.TestArrayContainer")
+        includeTestsMatching("org.roaringbitmap.TestBitmapContainer")
+        includeTestsMatching("org.roaringbitmap.TestRunContainer")
+        includeTestsMatching("org.roaringbitmap.TestContainer")
+    }
+    minHeapSize = "2G"
+    maxHeapSize = "2G"
 }
 
 tasks.test {
+    finalizedBy(testVectorized)
     systemProperty("kryo.unsafe", "false")
     useJUnitPlatform()
     failFast = true
@@ -0,0 +1,467 @@
+package org.roaringbitmap;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Shim over merge kernels on sorted arrays of 16-bit values to support multi-release. This
+ * version uses the Vector API when {@link VectorSupport} finds it, and falls back to scalar loops
+ * otherwise.
+ */
+public class ArrayKernels {
+
+  private static final boolean VECTORIZED = VectorSupport.AVAILABLE;
+
+  /**
+   * Whether the kernels are vectorized in this runtime.
+   *
+   * @return true if the Vector API is used
+   */
+  public static boolean isVectorized() {
+    return VECTORIZED;
+  }
+
+  /**
+   * Intersect two sorted lists and write the result to the provided output array. The output may
+   * be the first array.
+   *
+   * @param set1 first array
+   * @param length1 length of first array
+   * @param set2 second array
+   * @param length2 length of second array
+   * @param buffer output array
+   * @return cardinality of the intersection
+   */
+  public static int intersect(final char[] set1, final int length1,
+      final char[] set2, final int length2, final char[] buffer) {
+    // extracting the matching lanes from a mask (VectorMask.toLong, compress) is not intrinsified
+    // before JDK 19, which makes a vectorized intersection slower than the scalar merge
+    return intersect(set1, 0, length1, set2, 0, length2, buffer, 0);
+  }
+
+  /**
+   * Compute the cardinality of the intersection of two sorted lists
+   *
+   * @param set1 first set
+   * @param length1 how many values to consider in the first set
+   * @param set2 second set
+   * @param length2 how many values to consider in the second set
+   * @return cardinality of the intersection
+   */
+  public static int intersectCardinality(final char[] set1, final int length1,
+      final char[] set2, final int length2) {
+    if (VECTORIZED) {
+      return Vectorized.intersectCardinality(set1, length1, set2, length2);
+    }
+    return intersectCardinality(set1, 0, length1, set2, 0, length2, 0);
+  }
+
+  /**
+   * Unite two sorted lists and write the result to the provided output array. The output may be
+   * the first array provided that the first list starts at an offset no smaller than the length
+   * of the second one.
+   *
+   * @param set1 first array
+   * @param offset1 offset of first array
+   * @param length1 length of first array
+   * @param set2 second array
+   * @param offset2 offset of second array
+   * @param length2 length of second array
+   * @param buffer output array
+   * @return cardinality of the union
+   */
+  public static int union(final char[] set1, final int offset1, final int length1,
+      final char[] set2, final int offset2, final int length2, final char[] buffer) {
+    if (VECTORIZED) {
+      return Vectorized.union(set1, offset1, length1, set2, offset2, length2, buffer);
+    }
+    return union(set1, offset1, offset1 + length1, set2, offset2, offset2 + length2, buffer, 0);
+  }
+
+  /**
+   * Compute the difference between two sorted lists and write the result to the provided output
+   * array. The output may be the first array.
+   *
+   * @param set1 first array
+   * @param length1 length of first array
+   * @param set2 second array
+   * @param length2 length of second array
+   * @param buffer output array
+   * @return cardinality of the difference
+   */
+  public static int difference(final char[] set1, final int length1,
+      final char[] set2, final int length2, final char[] buffer) {
+    if (VECTORIZED) {
+      return Vectorized.difference(set1, length1, set2, length2, buffer);
+    }
+    return difference(set1, 0, length1, set2, 0, length2, buffer, 0);
+  }
+
+  /**
+   * Compute the exclusive union of two sorted lists and write the result to the provided output
+   * array
+   *
+   * @param set1 first array
+   * @param length1 length of first array
+   * @param set2 second array
+   * @param length2 length of second array
+   * @param buffer output array
+   * @return cardinality of the exclusive union
+   */
+  public static int exclusiveUnion(final char[] set1, final int length1,
+      final char[] set2, final int length2, final char[] buffer) {
+    if (VECTORIZED) {
+      return Vectorized.exclusiveUnion(set1, length1, set2, length2, buffer);
+    }
+    return exclusiveUnion(set1, 0, length1, set2, 0, length2, buffer, 0);
+  }
+
+  static int intersect(char[] set1, int k1, int length1,
+      char[] set2, int k2, int length2, char[] buffer, int pos) {
+    if (k1 >= length1 || k2 >= length2) {
+      return pos;
+    }
+    char s1 = set1[k1];
+    char s2 = set2[k2];
+    while (true) {
+      if (s1 < s2) {
+        if (++k1 == length1) {
+          break;
+        }
+        s1 = set1[k1];
+      } else if (s2 < s1) {
+        if (++k2 == length2) {
+          break;
+        }
+        s2 = set2[k2];
+      } else {
+        buffer[pos++] = s1;
+        if (++k1 == length1 || ++k2 == length2) {
+          break;
+        }
+        s1 = set1[k1];
+        s2 = set2[k2];
+      }
+    }
+    return pos;
+  }
+
+  static int intersectCardinality(char[] set1, int k1, int length1,
+      char[] set2, int k2, int length2, int card) {
+    if (k1 >= length1 || k2 >= length2) {
+      return card;
+    }
+    char s1 = set1[k1];
+    char s2 = set2[k2];
+    while (true) {
+      if (s1 < s2) {
+        if (++k1 == length1) {
+          break;
+        }
+        s1 = set1[k1];
+      } else if (s2 < s1) {
+        if (++k2 == length2) {
+          break;
+        }
+        s2 = set2[k2];
+      } else {
+        ++card;
+        if (++k1 == length1 || ++k2 == length2) {
+          break;
+        }
+        s1 = set1[k1];
+        s2 = set2[k2];
+      }
+    }
+    return card;
+  }
+
+  static int union(char[] set1, int k1, int end1,
+      char[] set2, int k2, int end2, char[] buffer, int pos) {
+    if (k1 >= end1) {
+      System.arraycopy(set2, k2, buffer, pos, end2 - k2);
+      return pos + end2 - k2;
+    }
+    if (k2 >= end2) {
+      System.arraycopy(set1, k1, buffer, pos, end1 - k1);
+      return pos + end1 - k1;
+    }
+    char s1 = set1[k1];
+    char s2 = set2[k2];
+    while (true) {
+      if (s1 < s2) {
+        buffer[pos++] = s1;
+        if (++k1 == end1) {
+          break;
+        }
+        s1 = set1[k1];
+      } else if (s2 < s1) {
+        buffer[pos++] = s2;
+        if (++k2 == end2) {
+          break;
+        }
+        s2 = set2[k2];
+      } else {
+        buffer[pos++] = s1;
+        ++k2;
+        if (++k1 == end1 || k2 == end2) {
+          break;
+        }
+        s1 = set1[k1];
+        s2 = set2[k2];
+      }
+    }
+    System.arraycopy(set1, k1, buffer, pos, end1 - k1);
+    pos += end1 - k1;
+    System.arraycopy(set2, k2, buffer, pos, end2 - k2);
+    return pos + end2 - k2;
+  }
+
+  static int difference(char[] set1, int k1, int end1,
+      char[] set2, int k2, int end2, char[] buffer, int pos) {
+    if (k1 < end1 && k2 < end2) {
+      char s1 = set1[k1];
+      char s2 = set2[k2];
+      while (true) {
+        if (s1 < s2) {
+          buffer[pos++] = s1;
+          if (++k1 == end1) {
+            break;
+          }
+          s1 = set1[k1];
+        } else if (s2 < s1) {
+          if (++k2 == end2) {
+            break;
+          }
+          s2 = set2[k2];
+        } else {
+          ++k2;
+          if (++k1 == end1 || k2 == end2) {
+            break;
+          }
+          s1 = set1[k1];
+          s2 = set2[k2];
+        }
+      }
+    }
+    System.arraycopy(set1, k1, buffer, pos, end1 - k1);
+    return pos + end1 - k1;
+  }
+
+  static int exclusiveUnion(char[] set1, int k1, int end1,
+      char[] set2, int k2, int end2, char[] buffer, int pos) {
+    if (k1 < end1 && k2 < end2) {
+      char s1 = set1[k1];
+      char s2 = set2[k2];
+      while (true) {
+        if (s1 < s2) {
+          buffer[pos++] = s1;
+          if (++k1 == end1) {
+            break;
+          }
+          s1 = set1[k1];
+        } else if (s2 < s1) {
+          buffer[pos++] = s2;
+          if (++k2 == end2) {
+            break;
+          }
+          s2 = set2[k2];
+        } else {
+          ++k2;
+          if (++k1 == end1 || k2 == end2) {
+            break;
+          }
+          s1 = set1[k1];
+          s2 = set2[k2];
+        }
+      }
+    }
+    System.arraycopy(set1, k1, buffer, pos, end1 - k1);
+    pos += end1 - k1;
+    System.arraycopy(set2, k2, buffer, pos, end2 - k2);
+    return pos + end2 - k2;
+  }
+
+  /**
+   * Only loaded once the Vector API is known to be readable, see {@link VectorSupport}. All
+   * references to jdk.incubator.vector are kept in here so that verifying the outer class never
+   * loads them.
+   */
+  private static final class Vectorized {
+
+    static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_128;
+
+    static final int LANES = SPECIES.length();
+
+    // number of scalar merge steps between two block tests once blocks overlap
+    static final int WINDOW = 4 * LANES;
+
+    static final VectorShuffle<Short> ROTATE = VectorShuffle.iota(SPECIES, 1, 1, true);
+
+    /**
+     * Compares a block of the first set against all rotations of a block of the second set
+     * (block size is the number of lanes), the equal lanes are the common values. Whichever block
+     * has the smaller maximum is then replaced by the next one, until a set has less than a block
+     * left and the scalar merge finishes the job.
+     */
+    static int intersectCardinality(char[] set1, int length1, char[] set2, int length2) {
+      int k1 = 0;
+      int k2 = 0;
+      int card = 0;
+      if (length1 >= LANES && length2 >= LANES) {
+        ShortVector v1 = ShortVector.fromCharArray(SPECIES, set1, k1);
+        char max1 = set1[k1 + LANES - 1];
+        while (true) {
+          card += matches(v1, set2, k2).trueCount();
+          char max2 = set2[k2 + LANES - 1];
+          if (max2 <= max1) {
+            k2 += LANES;
+            if (k2 > length2 - LANES) {
+              if (max1 == max2) {
+                k1 += LANES;
+              }
+              break;
+            }
+          }
+          if (max1 <= max2) {
+            k1 += LANES;
+            if (k1 > length1 - LANES) {
+              break;
+            }
+            v1 = ShortVector.fromCharArray(SPECIES, set1, k1);
+            max1 = set1[k1 + LANES - 1];
+          }
+        }
+      }
+      return ArrayKernels.intersectCardinality(set1, k1, length1, set2, k2, length2, card);
+    }
+
+    /**
+     * Merges block by block: a block of one set lying entirely below the current value of the
+     * other is copied with a single vector load and store, otherwise a window of scalar merge steps
+     * is run before testing again. Clustered sets are mostly copied, interleaved ones pay two
+     * comparisons per window. Both sets are read ahead of the output, so the output may alias the
+     * first set under the same conditions as the scalar merge.
+     */
+    static int union(char[] set1, int offset1, int length1,
+        char[] set2, int offset2, int length2, char[] buffer) {
+      int k1 = offset1;
+      int k2 = offset2;
+      final int end1 = offset1 + length1;
+      final int end2 = offset2 + length2;
+      int pos = 0;
+      while (k1 <= end1 - WINDOW && k2 <= end2 - WINDOW) {
+        if (set1[k1 + LANES - 1] < set2[k2]) {
+          ShortVector.fromCharArray(SPECIES, set1, k1).intoCharArray(buffer, pos);
+          k1 += LANES;
+          pos += LANES;
+        } else if (set2[k2 + LANES - 1] < set1[k1]) {
+          ShortVector.fromCharArray(SPECIES, set2, k2).intoCharArray(buffer, pos);
+          k2 += LANES;
+          pos += LANES;
+        } else {
+          for (int step = 0; step < WINDOW; ++step) {
+            char s1 = set1[k1];
+            char s2 = set2[k2];
+            if (s1 < s2) {
+              buffer[pos++] = s1;
+              ++k1;
+            } else if (s2 < s1) {
+              buffer[pos++] = s2;
+              ++k2;
+            } else {
+              buffer[pos++] = s1;
+              ++k1;
+              ++k2;
+            }
+          }
+        }
+      }
+      return ArrayKernels.union(set1, k1, end1, set2, k2, end2, buffer, pos);
+    }
+
+    /**
+     * Same block by block scheme as {@link #union}, except that blocks of the second set lying
+     * entirely below the current value of the first set are skipped.
+     */
+    static int difference(char[] set1, int length1, char[] set2, int length2, char[] buffer) {
+      int k1 = 0;
+      int k2 = 0;
+      int pos = 0;
+      while (k1 <= length1 - WINDOW && k2 <= length2 - WINDOW) {
+        if (set1[k1 + LANES - 1] < set2[k2]) {
+          ShortVector.fromCharArray(SPECIES, set1, k1).intoCharArray(buffer, pos);
+          k1 += LANES;
+          pos += LANES;
+        } else if (set2[k2 + LANES - 1] < set1[k1]) {
+          k2 += LANES;
+        } else {
+          for (int step = 0; step < WINDOW; ++step) {
+            char s1 = set1[k1];
+            char s2 = set2[k2];
+            if (s1 < s2) {
+              buffer[pos++] = s1;
+              ++k1;
+            } else if (s2 < s1) {
+              ++k2;
+            } else {
+              ++k1;
+              ++k2;
+            }
+          }
+        }
+      }
+      return ArrayKernels.difference(set1, k1, length1, set2, k2, length2, buffer, pos);
+    }
+
+    /**
+     * Same block by block scheme as {@link #union}, except that common values are dropped.
+     */
+    static int exclusiveUnion(char[] set1, int length1, char[] set2, int length2, char[] buffer) {
+      int k1 = 0;
+      int k2 = 0;
+      int pos = 0;
+      while (k1 <= length1 - WINDOW && k2 <= length2 - WINDOW) {
+        if (set1[k1 + LANES - 1] < set2[k2]) {
+          ShortVector.fromCharArray(SPECIES, set1, k1).intoCharArray(buffer, pos);
+          k1 += LANES;
+          pos += LANES;
+        } else if (set2[k2 + LANES - 1] < set1[k1]) {
+          ShortVector.fromCharArray(SPECIES, set2, k2).intoCharArray(buffer, pos);
+          k2 += LANES;
+          pos += LANES;
+        } else {
+          for (int step = 0; step < WINDOW; ++step) {
+            char s1 = set1[k1];
+            char s2 = set2[k2];
+            if (s1 < s2) {
+              buffer[pos++] = s1;
+              ++k1;
+            } else if (s2 < s1) {
+              buffer[pos++] = s2;
+              ++k2;
+            } else {
+              ++k1;
+              ++k2;
+            }
+          }
+        }
+      }
+      return ArrayKernels.exclusiveUnion(set1, k1, length1, set2, k2, length2, buffer, pos);
+    }
+
+    // lanes of v1 which are equal to one of the values set2[k2 .. k2 + LANES), comparing against
+    // every rotation of the block of set2
+    private static VectorMask<Short> matches(ShortVector v1, char[] set2, int k2) {
+      ShortVector v2 = ShortVector.fromCharArray(SPECIES, set2, k2);
+      VectorMask<Short> eq = v1.eq(v2);
+      for (int k = 1; k < LANES; ++k) {
+        v2 = v2.rearrange(ROTATE);
+        eq = eq.or(v1.eq(v2));
+      }
+      return eq;
+    }
+  }
+}
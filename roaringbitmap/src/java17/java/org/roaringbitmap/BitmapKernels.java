@@ -0,0 +1,379 @@
+package org.roaringbitmap;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Shim over fused "logical operation + population count" kernels on bitmap words to support
+ * multi-release. This version uses the Vector API when {@link VectorSupport} finds it, and falls
+ * back to scalar loops otherwise.
+ */
+public class BitmapKernels {
+
+  private static final boolean VECTORIZED = VectorSupport.AVAILABLE;
+
+  /**
+   * Whether the kernels are vectorized in this runtime.
+   *
+   * @return true if the Vector API is used
+   */
+  public static boolean isVectorized() {
+    return VECTORIZED;
+  }
+
+  /**
+   * Counts the bits set in the given words.
+   *
+   * @param a the words
+   * @return the number of set bits
+   */
+  public static int cardinality(long[] a) {
+    if (VECTORIZED) {
+      return Vectorized.cardinality(a);
+    }
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      card += Long.bitCount(a[k]);
+    }
+    return card;
+  }
+
+  /**
+   * Computes the cardinality of the intersection of two bitmaps of the same length.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @return the number of bits set in a AND b
+   */
+  public static int andCardinality(long[] a, long[] b) {
+    if (VECTORIZED) {
+      return Vectorized.andCardinality(a, b);
+    }
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      card += Long.bitCount(a[k] & b[k]);
+    }
+    return card;
+  }
+
+  /**
+   * Computes the cardinality of the difference of two bitmaps of the same length.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @return the number of bits set in a AND NOT b
+   */
+  public static int andNotCardinality(long[] a, long[] b) {
+    if (VECTORIZED) {
+      return Vectorized.andNotCardinality(a, b);
+    }
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      card += Long.bitCount(a[k] & ~b[k]);
+    }
+    return card;
+  }
+
+  /**
+   * Computes the cardinality of the union of two bitmaps of the same length.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @return the number of bits set in a OR b
+   */
+  public static int orCardinality(long[] a, long[] b) {
+    if (VECTORIZED) {
+      return Vectorized.orCardinality(a, b);
+    }
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      card += Long.bitCount(a[k] | b[k]);
+    }
+    return card;
+  }
+
+  /**
+   * Computes the cardinality of the symmetric difference of two bitmaps of the same length.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @return the number of bits set in a XOR b
+   */
+  public static int xorCardinality(long[] a, long[] b) {
+    if (VECTORIZED) {
+      return Vectorized.xorCardinality(a, b);
+    }
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      card += Long.bitCount(a[k] ^ b[k]);
+    }
+    return card;
+  }
+
+  /**
+   * Writes a AND b into dest and counts the result. dest may alias a or b.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @param dest where the result is written
+   * @return the number of bits set in the result
+   */
+  public static int and(long[] a, long[] b, long[] dest) {
+    if (VECTORIZED) {
+      return Vectorized.and(a, b, dest);
+    }
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      long w = a[k] & b[k];
+      dest[k] = w;
+      card += Long.bitCount(w);
+    }
+    return card;
+  }
+
+  /**
+   * Writes a AND NOT b into dest and counts the result. dest may alias a or b.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @param dest where the result is written
+   * @return the number of bits set in the result
+   */
+  public static int andNot(long[] a, long[] b, long[] dest) {
+    if (VECTORIZED) {
+      return Vectorized.andNot(a, b, dest);
+    }
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      long w = a[k] & ~b[k];
+      dest[k] = w;
+      card += Long.bitCount(w);
+    }
+    return card;
+  }
+
+  /**
+   * Writes a OR b into dest and counts the result. dest may alias a or b.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @param dest where the result is written
+   * @return the number of bits set in the result
+   */
+  public static int or(long[] a, long[] b, long[] dest) {
+    if (VECTORIZED) {
+      return Vectorized.or(a, b, dest);
+    }
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      long w = a[k] | b[k];
+      dest[k] = w;
+      card += Long.bitCount(w);
+    }
+    return card;
+  }
+
+  /**
+   * Writes a XOR b into dest and counts the result. dest may alias a or b.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @param dest where the result is written
+   * @return the number of bits set in the result
+   */
+  public static int xor(long[] a, long[] b, long[] dest) {
+    if (VECTORIZED) {
+      return Vectorized.xor(a, b, dest);
+    }
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      long w = a[k] ^ b[k];
+      dest[k] = w;
+      card += Long.bitCount(w);
+    }
+    return card;
+  }
+
+  /**
+   * Only loaded once the Vector API is known to be readable, see {@link VectorSupport}. All
+   * references to jdk.incubator.vector are kept in here so that verifying the outer class never
+   * loads them. Each operation gets its own loop: the operator must be a constant for the JIT to
+   * intrinsify the lanewise operation.
+   */
+  private static final class Vectorized {
+
+    static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    static int cardinality(long[] a) {
+      LongVector acc = LongVector.zero(SPECIES);
+      int upper = SPECIES.loopBound(a.length);
+      int k = 0;
+      for (; k < upper; k += SPECIES.length()) {
+        acc = acc.add(popcount(LongVector.fromArray(SPECIES, a, k)));
+      }
+      int card = (int) acc.reduceLanes(VectorOperators.ADD);
+      for (; k < a.length; ++k) {
+        card += Long.bitCount(a[k]);
+      }
+      return card;
+    }
+
+    static int andCardinality(long[] a, long[] b) {
+      LongVector acc = LongVector.zero(SPECIES);
+      int upper = SPECIES.loopBound(a.length);
+      int k = 0;
+      for (; k < upper; k += SPECIES.length()) {
+        LongVector va = LongVector.fromArray(SPECIES, a, k);
+        LongVector vb = LongVector.fromArray(SPECIES, b, k);
+        acc = acc.add(popcount(va.and(vb)));
+      }
+      int card = (int) acc.reduceLanes(VectorOperators.ADD);
+      for (; k < a.length; ++k) {
+        card += Long.bitCount(a[k] & b[k]);
+      }
+      return card;
+    }
+
+    static int and(long[] a, long[] b, long[] dest) {
+      LongVector acc = LongVector.zero(SPECIES);
+      int upper = SPECIES.loopBound(a.length);
+      int k = 0;
+      for (; k < upper; k += SPECIES.length()) {
+        LongVector va = LongVector.fromArray(SPECIES, a, k);
+        LongVector vb = LongVector.fromArray(SPECIES, b, k);
+        LongVector w = va.and(vb);
+        w.intoArray(dest, k);
+        acc = acc.add(popcount(w));
+      }
+      int card = (int) acc.reduceLanes(VectorOperators.ADD);
+      for (; k < a.length; ++k) {
+        long w = a[k] & b[k];
+        dest[k] = w;
+        card += Long.bitCount(w);
+      }
+      return card;
+    }
+
+    static int andNotCardinality(long[] a, long[] b) {
+      LongVector acc = LongVector.zero(SPECIES);
+      int upper = SPECIES.loopBound(a.length);
+      int k = 0;
+      for (; k < upper; k += SPECIES.length()) {
+        LongVector va = LongVector.fromArray(SPECIES, a, k);
+        LongVector vb = LongVector.fromArray(SPECIES, b, k);
+        acc = acc.add(popcount(va.and(vb.not())));
+      }
+      int card = (int) acc.reduceLanes(VectorOperators.ADD);
+      for (; k < a.length; ++k) {
+        card += Long.bitCount(a[k] & ~b[k]);
+      }
+      return card;
+    }
+
+    static int andNot(long[] a, long[] b, long[] dest) {
+      LongVector acc = LongVector.zero(SPECIES);
+      int upper = SPECIES.loopBound(a.length);
+      int k = 0;
+      for (; k < upper; k += SPECIES.length()) {
+        LongVector va = LongVector.fromArray(SPECIES, a, k);
+        LongVector vb = LongVector.fromArray(SPECIES, b, k);
+        LongVector w = va.and(vb.not());
+        w.intoArray(dest, k);
+        acc = acc.add(popcount(w));
+      }
+      int card = (int) acc.reduceLanes(VectorOperators.ADD);
+      for (; k < a.length; ++k) {
+        long w = a[k] & ~b[k];
+        dest[k] = w;
+        card += Long.bitCount(w);
+      }
+      return card;
+    }
+
+    static int orCardinality(long[] a, long[] b) {
+      LongVector acc = LongVector.zero(SPECIES);
+      int upper = SPECIES.loopBound(a.length);
+      int k = 0;
+      for (; k < upper; k += SPECIES.length()) {
+        LongVector va = LongVector.fromArray(SPECIES, a, k);
+        LongVector vb = LongVector.fromArray(SPECIES, b, k);
+        acc = acc.add(popcount(va.or(vb)));
+      }
+      int card = (int) acc.reduceLanes(VectorOperators.ADD);
+      for (; k < a.length; ++k) {
+        card += Long.bitCount(a[k] | b[k]);
+      }
+      return card;
+    }
+
+    static int or(long[] a, long[] b, long[] dest) {
+      LongVector acc = LongVector.zero(SPECIES);
+      int upper = SPECIES.loopBound(a.length);
+      int k = 0;
+      for (; k < upper; k += SPECIES.length()) {
+        LongVector va = LongVector.fromArray(SPECIES, a, k);
+        LongVector vb = LongVector.fromArray(SPECIES, b, k);
+        LongVector w = va.or(vb);
+        w.intoArray(dest, k);
+        acc = acc.add(popcount(w));
+      }
+      int card = (int) acc.reduceLanes(VectorOperators.ADD);
+      for (; k < a.length; ++k) {
+        long w = a[k] | b[k];
+        dest[k] = w;
+        card += Long.bitCount(w);
+      }
+      return card;
+    }
+
+    static int xorCardinality(long[] a, long[] b) {
+      LongVector acc = LongVector.zero(SPECIES);
+      int upper = SPECIES.loopBound(a.length);
+      int k = 0;
+      for (; k < upper; k += SPECIES.length()) {
+        LongVector va = LongVector.fromArray(SPECIES, a, k);
+        LongVector vb = LongVector.fromArray(SPECIES, b, k);
+        acc = acc.add(popcount(va.lanewise(VectorOperators.XOR, vb)));
+      }
+      int card = (int) acc.reduceLanes(VectorOperators.ADD);
+      for (; k < a.length; ++k) {
+        card += Long.bitCount(a[k] ^ b[k]);
+      }
+      return card;
+    }
+
+    static int xor(long[] a, long[] b, long[] dest) {
+      LongVector acc = LongVector.zero(SPECIES);
+      int upper = SPECIES.loopBound(a.length);
+      int k = 0;
+      for (; k < upper; k += SPECIES.length()) {
+        LongVector va = LongVector.fromArray(SPECIES, a, k);
+        LongVector vb = LongVector.fromArray(SPECIES, b, k);
+        LongVector w = va.lanewise(VectorOperators.XOR, vb);
+        w.intoArray(dest, k);
+        acc = acc.add(popcount(w));
+      }
+      int card = (int) acc.reduceLanes(VectorOperators.ADD);
+      for (; k < a.length; ++k) {
+        long w = a[k] ^ b[k];
+        dest[k] = w;
+        card += Long.bitCount(w);
+      }
+      return card;
+    }
+
+    // there is no lanewise BIT_COUNT before JDK 19, so this is the classic SWAR popcount
+    // applied to each lane, using only shifts, masks and additions
+    private static LongVector popcount(LongVector v) {
+      v = v.sub(v.lanewise(VectorOperators.LSHR, 1).and(0x5555555555555555L));
+      v = v.and(0x3333333333333333L)
+          .add(v.lanewise(VectorOperators.LSHR, 2).and(0x3333333333333333L));
+      v = v.add(v.lanewise(VectorOperators.LSHR, 4)).and(0x0F0F0F0F0F0F0F0FL);
+      v = v.add(v.lanewise(VectorOperators.LSHR, 8));
+      v = v.add(v.lanewise(VectorOperators.LSHR, 16));
+      v = v.add(v.lanewise(VectorOperators.LSHR, 32));
+      return v.and(0x7FL);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package org.roaringbitmap;
+
+import java.util.Optional;
+
+/**
+ * Detects whether the Vector API (jdk.incubator.vector) can be used by the kernel shims. The
+ * incubator module is only resolved when the application asks for it, e.g. with
+ * --add-modules jdk.incubator.vector.
+ */
+final class VectorSupport {
+
+  static final boolean AVAILABLE = vectorApiAvailable();
+
+  private static boolean vectorApiAvailable() {
+    Optional<Module> vector = ModuleLayer.boot().findModule("jdk.incubator.vector");
+    if (!vector.isPresent()) {
+      return false;
+    }
+    try {
+      // no-op when running from the classpath, required when running as a named module
+      VectorSupport.class.getModule().addReads(vector.get());
+      return Probe.lanes() > 1;
+    } catch (Throwable t) {
+      return false;
+    }
+  }
+
+  private VectorSupport() {
+  }
+
+  /**
+   * Only loaded once the module is known to be present.
+   */
+  private static final class Probe {
+    static int lanes() {
+      return jdk.incubator.vector.LongVector.SPECIES_PREFERRED.length();
+    }
+  }
+}
@@ -54,7 +54,7 @@ public final class ArrayContainer extends Container implements Cloneable {
    * @param capacity The capacity of the container
    */
   public ArrayContainer(final int capacity) {
-    content = new char[capacity];
+    content = ContainerPool.chars(capacity);
   }
 
   /**
@@ -203,7 +203,7 @@ public final class ArrayContainer extends Container implements Cloneable {
 
   @Override
   public int andCardinality(final ArrayContainer value2) {
-    return Util.unsignedLocalIntersect2by2Cardinality(content, cardinality, value2.content,
+    return Util.unsignedIntersect2by2Cardinality(content, cardinality, value2.content,
         value2.getCardinality());
   }
 
@@ -220,6 +220,10 @@ public final class ArrayContainer extends Container implements Cloneable {
 
   @Override
   public ArrayContainer andNot(final ArrayContainer value2) {
+    if (cardinality == 1) {
+      // a binary search rather than a merge over all of value2
+      return value2.contains(content[0]) ? empty() : clone();
+    }
     ArrayContainer value1 = this;
     final int desiredCapacity = value1.getCardinality();
     ArrayContainer answer = new ArrayContainer(desiredCapacity);
@@ -695,6 +699,11 @@ public final class ArrayContainer extends Container implements Cloneable {
 
   @Override
   public boolean intersects(ArrayContainer value2) {
+    if (cardinality == 1) {
+      return value2.contains(content[0]);
+    } else if (value2.cardinality == 1) {
+      return contains(value2.content[0]);
+    }
     ArrayContainer value1 = this;
     return Util.unsignedIntersects(value1.content, value1.getCardinality(), value2.content,
         value2.getCardinality());
@@ -1098,6 +1107,15 @@ public final class ArrayContainer extends Container implements Cloneable {
     }
   }
 
+  @Override
+  Container runOptimize(char key, ContainerOptimizationPolicy policy) {
+    int numRuns = numberOfRuns();
+    if (policy.useRunContainer(key, cardinality, numRuns)) {
+      return new RunContainer(this, numRuns);
+    }
+    return this;
+  }
+
   @Override
   public char select(int j) {
     return this.content[j];
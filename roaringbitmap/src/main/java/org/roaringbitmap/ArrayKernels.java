@@ -0,0 +1,322 @@
+package org.roaringbitmap;
+
+/**
+ * Shim over merge kernels on sorted arrays of 16-bit values to support multi-release. The JDK17+
+ * version uses the Vector API (jdk.incubator.vector) when the module is available at runtime,
+ * this version is the scalar fallback.
+ */
+public class ArrayKernels {
+
+  /**
+   * Whether the kernels are vectorized in this runtime.
+   *
+   * @return true if the Vector API is used
+   */
+  public static boolean isVectorized() {
+    return false;
+  }
+
+  /**
+   * Intersect two sorted lists and write the result to the provided output array. The output may
+   * be the first array.
+   *
+   * @param set1 first array
+   * @param length1 length of first array
+   * @param set2 second array
+   * @param length2 length of second array
+   * @param buffer output array
+   * @return cardinality of the intersection
+   */
+  public static int intersect(final char[] set1, final int length1,
+      final char[] set2, final int length2, final char[] buffer) {
+    if ((0 == length1) || (0 == length2)) {
+      return 0;
+    }
+    int k1 = 0;
+    int k2 = 0;
+    int pos = 0;
+    char s1 = set1[k1];
+    char s2 = set2[k2];
+
+    mainwhile: while (true) {
+      int v1 = (s1);
+      int v2 = s2;
+      if (v2 < v1) {
+        do {
+          ++k2;
+          if (k2 == length2) {
+            break mainwhile;
+          }
+          s2 = set2[k2];
+          v2 = s2;
+        } while (v2 < v1);
+      }
+      if (v1 < v2) {
+        do {
+          ++k1;
+          if (k1 == length1) {
+            break mainwhile;
+          }
+          s1 = set1[k1];
+          v1 = s1;
+        } while (v1 < v2);
+      } else {
+        // (set2[k2] == set1[k1])
+        buffer[pos++] = s1;
+        ++k1;
+        if (k1 == length1) {
+          break;
+        }
+        ++k2;
+        if (k2 == length2) {
+          break;
+        }
+        s1 = set1[k1];
+        s2 = set2[k2];
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Compute the cardinality of the intersection of two sorted lists
+   *
+   * @param set1 first set
+   * @param length1 how many values to consider in the first set
+   * @param set2 second set
+   * @param length2 how many values to consider in the second set
+   * @return cardinality of the intersection
+   */
+  public static int intersectCardinality(final char[] set1, final int length1,
+      final char[] set2, final int length2) {
+    if ((0 == length1) || (0 == length2)) {
+      return 0;
+    }
+    int k1 = 0;
+    int k2 = 0;
+    int pos = 0;
+    char s1 = set1[k1];
+    char s2 = set2[k2];
+
+    mainwhile: while (true) {
+      int v1 = s1;
+      int v2 = s2;
+      if (v2 < v1) {
+        do {
+          ++k2;
+          if (k2 == length2) {
+            break mainwhile;
+          }
+          s2 = set2[k2];
+          v2 = s2;
+        } while (v2 < v1);
+      }
+      if (v1 < v2) {
+        do {
+          ++k1;
+          if (k1 == length1) {
+            break mainwhile;
+          }
+          s1 = set1[k1];
+          v1 = s1;
+        } while (v1 < v2);
+      } else {
+        // (set2[k2] == set1[k1])
+        pos++;
+        ++k1;
+        if (k1 == length1) {
+          break;
+        }
+        ++k2;
+        if (k2 == length2) {
+          break;
+        }
+        s1 = set1[k1];
+        s2 = set2[k2];
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Unite two sorted lists and write the result to the provided output array. The output may be
+   * the first array provided that the first list starts at an offset no smaller than the length
+   * of the second one.
+   *
+   * @param set1 first array
+   * @param offset1 offset of first array
+   * @param length1 length of first array
+   * @param set2 second array
+   * @param offset2 offset of second array
+   * @param length2 length of second array
+   * @param buffer output array
+   * @return cardinality of the union
+   */
+  public static int union(final char[] set1, final int offset1, final int length1,
+      final char[] set2, final int offset2, final int length2, final char[] buffer) {
+    if (0 == length2) {
+      System.arraycopy(set1, offset1, buffer, 0, length1);
+      return length1;
+    }
+    if (0 == length1) {
+      System.arraycopy(set2, offset2, buffer, 0, length2);
+      return length2;
+    }
+    int pos = 0;
+    int k1 = offset1, k2 = offset2;
+    char s1 = set1[k1];
+    char s2 = set2[k2];
+    while (true) {
+      int v1 = s1;
+      int v2 = s2;
+      if (v1 < v2) {
+        buffer[pos++] = s1;
+        ++k1;
+        if (k1 >= length1 + offset1) {
+          System.arraycopy(set2, k2, buffer, pos, length2 - k2 + offset2);
+          return pos + length2 - k2 + offset2;
+        }
+        s1 = set1[k1];
+      } else if (v1 == v2) {
+        buffer[pos++] = s1;
+        ++k1;
+        ++k2;
+        if (k1 >= length1 + offset1) {
+          System.arraycopy(set2, k2, buffer, pos, length2 - k2 + offset2);
+          return pos + length2 - k2 + offset2;
+        }
+        if (k2 >= length2 + offset2) {
+          System.arraycopy(set1, k1, buffer, pos, length1 - k1 + offset1);
+          return pos + length1 - k1 + offset1;
+        }
+        s1 = set1[k1];
+        s2 = set2[k2];
+      } else {// if (set1[k1]>set2[k2])
+        buffer[pos++] = s2;
+        ++k2;
+        if (k2 >= length2 + offset2) {
+          System.arraycopy(set1, k1, buffer, pos, length1 - k1 + offset1);
+          return pos + length1 - k1 + offset1;
+        }
+        s2 = set2[k2];
+      }
+    }
+    // return pos;
+  }
+
+  /**
+   * Compute the difference between two sorted lists and write the result to the provided output
+   * array. The output may be the first array.
+   *
+   * @param set1 first array
+   * @param length1 length of first array
+   * @param set2 second array
+   * @param length2 length of second array
+   * @param buffer output array
+   * @return cardinality of the difference
+   */
+  public static int difference(final char[] set1, final int length1,
+      final char[] set2, final int length2, final char[] buffer) {
+    int pos = 0;
+    int k1 = 0, k2 = 0;
+    if (0 == length2) {
+      System.arraycopy(set1, 0, buffer, 0, length1);
+      return length1;
+    }
+    if (0 == length1) {
+      return 0;
+    }
+    char s1 = set1[k1];
+    char s2 = set2[k2];
+    while (true) {
+      if (s1 < s2) {
+        buffer[pos++] = s1;
+        ++k1;
+        if (k1 >= length1) {
+          break;
+        }
+        s1 = set1[k1];
+      } else if (s1 == s2) {
+        ++k1;
+        ++k2;
+        if (k1 >= length1) {
+          break;
+        }
+        if (k2 >= length2) {
+          System.arraycopy(set1, k1, buffer, pos, length1 - k1);
+          return pos + length1 - k1;
+        }
+        s1 = set1[k1];
+        s2 = set2[k2];
+      } else {// if (val1>val2)
+        ++k2;
+        if (k2 >= length2) {
+          System.arraycopy(set1, k1, buffer, pos, length1 - k1);
+          return pos + length1 - k1;
+        }
+        s2 = set2[k2];
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Compute the exclusive union of two sorted lists and write the result to the provided output
+   * array
+   *
+   * @param set1 first array
+   * @param length1 length of first array
+   * @param set2 second array
+   * @param length2 length of second array
+   * @param buffer output array
+   * @return cardinality of the exclusive union
+   */
+  public static int exclusiveUnion(final char[] set1, final int length1,
+      final char[] set2, final int length2, final char[] buffer) {
+    int pos = 0;
+    int k1 = 0, k2 = 0;
+    if (0 == length2) {
+      System.arraycopy(set1, 0, buffer, 0, length1);
+      return length1;
+    }
+    if (0 == length1) {
+      System.arraycopy(set2, 0, buffer, 0, length2);
+      return length2;
+    }
+    char s1 = set1[k1];
+    char s2 = set2[k2];
+    while (true) {
+      if (s1 < s2) {
+        buffer[pos++] = s1;
+        ++k1;
+        if (k1 >= length1) {
+          System.arraycopy(set2, k2, buffer, pos, length2 - k2);
+          return pos + length2 - k2;
+        }
+        s1 = set1[k1];
+      } else if (s1 == s2) {
+        ++k1;
+        ++k2;
+        if (k1 >= length1) {
+          System.arraycopy(set2, k2, buffer, pos, length2 - k2);
+          return pos + length2 - k2;
+        }
+        if (k2 >= length2) {
+          System.arraycopy(set1, k1, buffer, pos, length1 - k1);
+          return pos + length1 - k1;
+        }
+        s1 = set1[k1];
+        s2 = set2[k2];
+      } else {// if (val1>val2)
+        buffer[pos++] = s2;
+        ++k2;
+        if (k2 >= length2) {
+          System.arraycopy(set1, k1, buffer, pos, length1 - k1);
+          return pos + length1 - k1;
+        }
+        s2 = set2[k2];
+      }
+    }
+    // return pos;
+  }
+}
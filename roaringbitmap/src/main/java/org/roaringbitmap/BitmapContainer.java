@@ -68,19 +68,25 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   final long[] bitmap;
 
+  // -1 when unknown: in-place operations then skip counting the bits (lazy mode), the
+  // cardinality is recomputed by getCardinality or repairAfterLazy
   int cardinality;
 
   // nruns value for which RunContainer.serializedSizeInBytes ==
   // BitmapContainer.getArraySizeInBytes()
   private static final int MAXRUNS = (MAX_CAPACITY_BYTE - 2) / 4;
 
+  // speeds up rank and select once they are called twice without modification in between,
+  // every method writing to the bitmap drops it
+  private transient RankDirectory rankDirectory;
+
 
   /**
    * Create a bitmap container with all bits set to false
    */
   public BitmapContainer() {
     this.cardinality = 0;
-    this.bitmap = new long[MAX_CAPACITY_LONG];
+    this.bitmap = ContainerPool.bitmap();
   }
 
 
@@ -94,13 +100,13 @@ public final class BitmapContainer extends Container implements Cloneable {
    */
   public BitmapContainer(final int firstOfRun, final int lastOfRun) {
     this.cardinality = lastOfRun - firstOfRun;
-    this.bitmap = new long[MAX_CAPACITY / 64];
+    this.bitmap = ContainerPool.bitmap();
     Util.setBitmapRange(bitmap, firstOfRun, lastOfRun);
   }
 
   private BitmapContainer(int newCardinality, long[] newBitmap) {
     this.cardinality = newCardinality;
-    this.bitmap = Arrays.copyOf(newBitmap, newBitmap.length);
+    this.bitmap = ContainerPool.copy(newBitmap);
   }
 
   /**
@@ -147,9 +153,14 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container add(final char i) {
+    rankDirectory = null;
     final long previous = bitmap[i >>> 6];
     long newval = previous | (1L << i);
     bitmap[i >>> 6] = newval;
+    if (-1 == cardinality) {
+      // lazy mode, the cardinality is computed on repair
+      return this;
+    }
     if (USE_BRANCHLESS) {
       cardinality += (int)((previous ^ newval) >>> i);
     } else if (previous != newval) {
@@ -205,11 +216,7 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public int andCardinality(final BitmapContainer value2) {
-    int newCardinality = 0;
-    for (int k = 0; k < this.bitmap.length; ++k) {
-      newCardinality += Long.bitCount(this.bitmap[k] & value2.bitmap[k]);
-    }
-    return newCardinality;
+    return BitmapKernels.andCardinality(this.bitmap, value2.bitmap);
   }
 
   @Override
@@ -237,10 +244,7 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container andNot(final BitmapContainer value2) {
-    int newCardinality = 0;
-    for (int k = 0; k < this.bitmap.length; ++k) {
-      newCardinality += Long.bitCount(this.bitmap[k] & (~value2.bitmap[k]));
-    }
+    int newCardinality = BitmapKernels.andNotCardinality(this.bitmap, value2.bitmap);
     if (newCardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
       final BitmapContainer answer = new BitmapContainer();
       for (int k = 0; k < answer.bitmap.length; ++k) {
@@ -257,6 +261,9 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container andNot(RunContainer x) {
+    if (x.isFull()) {
+      return ArrayContainer.empty();
+    }
     // could be rewritten as return andNot(x.toBitmapOrArrayContainer());
     BitmapContainer answer = this.clone();
     for (int rlepos = 0; rlepos < x.nbrruns; ++rlepos) {
@@ -275,6 +282,7 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public void clear() {
+    rankDirectory = null;
     if (cardinality != 0) {
       cardinality = 0;
       Arrays.fill(bitmap, 0);
@@ -288,17 +296,14 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public boolean isEmpty() {
-    return cardinality == 0;
+    return getCardinality() == 0;
   }
 
   /**
    * Recomputes the cardinality of the bitmap.
    */
   void computeCardinality() {
-    this.cardinality = 0;
-    for (int k = 0; k < this.bitmap.length; k++) {
-      this.cardinality += Long.bitCount(this.bitmap[k]);
-    }
+    this.cardinality = BitmapKernels.cardinality(this.bitmap);
   }
 
   int cardinalityInRange(int start, int end) {
@@ -404,6 +409,7 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public void deserialize(DataInput in) throws IOException {
+    rankDirectory = null;
     // little endian
     this.cardinality = 0;
     for (int k = 0; k < bitmap.length; ++k) {
@@ -454,9 +460,14 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container flip(char i) {
+    rankDirectory = null;
     int index = i >>> 6;
     long bef = bitmap[index];
     long mask = 1L << i;
+    if (-1 == cardinality) {
+      bitmap[index] = bef ^ mask;
+      return this;
+    }
     if (cardinality == ArrayContainer.DEFAULT_MAX_SIZE + 1) {// this is
       // the
       // uncommon
@@ -480,6 +491,9 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public int getCardinality() {
+    if (cardinality < 0) {
+      computeCardinality();
+    }
     return cardinality;
   }
 
@@ -515,6 +529,7 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container iadd(int begin, int end) {
+    rankDirectory = null;
     // TODO: may need to convert to a RunContainer
     if (end == begin) {
       return this;
@@ -522,6 +537,10 @@ public final class BitmapContainer extends Container implements Cloneable {
     if ((begin > end) || (end > (1 << 16))) {
       throw new IllegalArgumentException("Invalid range [" + begin + "," + end + ")");
     }
+    if (-1 == cardinality) {
+      Util.setBitmapRange(bitmap, begin, end);
+      return this;
+    }
     int prevOnesInRange = cardinalityInRange(begin, end);
     Util.setBitmapRange(bitmap, begin, end);
     updateCardinality(prevOnesInRange, end - begin);
@@ -530,6 +549,7 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container iand(final ArrayContainer b2) {
+    rankDirectory = null;
     if (-1 == cardinality) {
       // actually we can avoid allocating in lazy mode
       Util.intersectArrayIntoBitmap(bitmap, b2.content, b2.cardinality);
@@ -541,6 +561,7 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container iand(final BitmapContainer b2) {
+    rankDirectory = null;
     if (-1 == cardinality) {
       // in lazy mode, just intersect the bitmaps, can repair afterwards
       for (int i = 0; i < bitmap.length; ++i) {
@@ -548,23 +569,18 @@ public final class BitmapContainer extends Container implements Cloneable {
       }
       return this;
     } else {
-      int newCardinality = andCardinality(b2);
-      if (newCardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
-        for (int k = 0; k < this.bitmap.length; ++k) {
-          this.bitmap[k] = this.bitmap[k] & b2.bitmap[k];
-        }
-        this.cardinality = newCardinality;
+      // fused intersection and count, the words are ours to overwrite either way
+      this.cardinality = BitmapKernels.and(this.bitmap, b2.bitmap, this.bitmap);
+      if (this.cardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
         return this;
       }
-      ArrayContainer ac = new ArrayContainer(newCardinality);
-      Util.fillArrayAND(ac.content, this.bitmap, b2.bitmap);
-      ac.cardinality = newCardinality;
-      return ac;
+      return toArrayContainer();
     }
   }
 
   @Override
   public Container iand(RunContainer x) {
+    rankDirectory = null;
     // could probably be replaced with return iand(x.toBitmapOrArrayContainer());
     final int card = x.getCardinality();
     if (-1 != cardinality && card <= ArrayContainer.DEFAULT_MAX_SIZE) {
@@ -609,6 +625,14 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container iandNot(final ArrayContainer b2) {
+    rankDirectory = null;
+    if (-1 == cardinality) {
+      for (int k = 0; k < b2.cardinality; ++k) {
+        char v = b2.content[k];
+        bitmap[v >>> 6] &= ~(1L << v);
+      }
+      return this;
+    }
     for (int k = 0; k < b2.cardinality; ++k) {
       this.remove(b2.content[k]);
     }
@@ -620,26 +644,31 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container iandNot(final BitmapContainer b2) {
-    int newCardinality = 0;
-    for (int k = 0; k < this.bitmap.length; ++k) {
-      newCardinality += Long.bitCount(this.bitmap[k] & (~b2.bitmap[k]));
-    }
-    if (newCardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
-      for (int k = 0; k < this.bitmap.length; ++k) {
-        this.bitmap[k] = this.bitmap[k] & (~b2.bitmap[k]);
+    rankDirectory = null;
+    if (-1 == cardinality) {
+      for (int k = 0; k < bitmap.length; ++k) {
+        bitmap[k] &= ~b2.bitmap[k];
       }
-      this.cardinality = newCardinality;
       return this;
     }
-    ArrayContainer ac = new ArrayContainer(newCardinality);
-    Util.fillArrayANDNOT(ac.content, this.bitmap, b2.bitmap);
-    ac.cardinality = newCardinality;
-    return ac;
+    this.cardinality = BitmapKernels.andNot(this.bitmap, b2.bitmap, this.bitmap);
+    if (this.cardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
+      return this;
+    }
+    return toArrayContainer();
   }
 
   @Override
   public Container iandNot(RunContainer x) {
+    rankDirectory = null;
     // could probably be replaced with return iandNot(x.toBitmapOrArrayContainer());
+    if (-1 == cardinality) {
+      for (int rlepos = 0; rlepos < x.nbrruns; ++rlepos) {
+        int start = (x.getValue(rlepos));
+        Util.resetBitmapRange(this.bitmap, start, start + (x.getLength(rlepos)) + 1);
+      }
+      return this;
+    }
     for (int rlepos = 0; rlepos < x.nbrruns; ++rlepos) {
       int start = (x.getValue(rlepos));
       int end = start + (x.getLength(rlepos)) + 1;
@@ -655,6 +684,7 @@ public final class BitmapContainer extends Container implements Cloneable {
   }
 
   Container ilazyor(ArrayContainer value2) {
+    rankDirectory = null;
     this.cardinality = -1;// invalid
     int c = value2.cardinality;
     for (int k = 0; k < c; ++k) {
@@ -666,6 +696,7 @@ public final class BitmapContainer extends Container implements Cloneable {
   }
 
   Container ilazyor(BitmapContainer x) {
+    rankDirectory = null;
     this.cardinality = -1;// invalid
     for (int k = 0; k < this.bitmap.length; k++) {
       this.bitmap[k] |= x.bitmap[k];
@@ -674,6 +705,7 @@ public final class BitmapContainer extends Container implements Cloneable {
   }
 
   Container ilazyor(RunContainer x) {
+    rankDirectory = null;
     // could be implemented as return ilazyor(x.toTemporaryBitmap());
     cardinality = -1; // invalid
     for (int rlepos = 0; rlepos < x.nbrruns; ++rlepos) {
@@ -686,6 +718,11 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container inot(final int firstOfRange, final int lastOfRange) {
+    rankDirectory = null;
+    if (-1 == cardinality) {
+      Util.flipBitmapRange(bitmap, firstOfRange, lastOfRange);
+      return this;
+    }
     int prevOnes = cardinalityInRange(firstOfRange, lastOfRange);
     Util.flipBitmapRange(bitmap, firstOfRange, lastOfRange);
     updateCardinality(prevOnes, lastOfRange - firstOfRange - prevOnes);
@@ -747,6 +784,11 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public BitmapContainer ior(final ArrayContainer value2) {
+    rankDirectory = null;
+    if (-1 == cardinality) {
+      ilazyor(value2);
+      return this;
+    }
     int c = value2.cardinality;
     for (int k = 0; k < c; ++k) {
       final int i = (value2.content[k]) >>> 6;
@@ -767,10 +809,11 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container ior(final BitmapContainer b2) {
-    for (int k = 0; k < this.bitmap.length & k < b2.bitmap.length; k++) {
-      this.bitmap[k] |= b2.bitmap[k];
+    rankDirectory = null;
+    if (-1 == cardinality) {
+      return ilazyor(b2);
     }
-    computeCardinality();
+    this.cardinality = BitmapKernels.or(this.bitmap, b2.bitmap, this.bitmap);
     if (isFull()) {
       return RunContainer.full();
     }
@@ -779,7 +822,11 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container ior(RunContainer x) {
+    rankDirectory = null;
     // could probably be replaced with return ior(x.toBitmapOrArrayContainer());
+    if (-1 == cardinality) {
+      return ilazyor(x);
+    }
     for (int rlepos = 0; rlepos < x.nbrruns; ++rlepos) {
       int start = (x.getValue(rlepos));
       int end = start + (x.getLength(rlepos)) + 1;
@@ -795,12 +842,17 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container iremove(int begin, int end) {
+    rankDirectory = null;
     if (end == begin) {
       return this;
     }
     if ((begin > end) || (end > (1 << 16))) {
       throw new IllegalArgumentException("Invalid range [" + begin + "," + end + ")");
     }
+    if (-1 == cardinality) {
+      Util.resetBitmapRange(bitmap, begin, end);
+      return this;
+    }
     int prevOnesInRange = cardinalityInRange(begin, end);
     Util.resetBitmapRange(bitmap, begin, end);
     updateCardinality(prevOnesInRange, 0);
@@ -835,6 +887,14 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container ixor(final ArrayContainer value2) {
+    rankDirectory = null;
+    if (-1 == cardinality) {
+      for (int k = 0; k < value2.cardinality; ++k) {
+        char v = value2.content[k];
+        bitmap[v >>> 6] ^= 1L << v;
+      }
+      return this;
+    }
     int c = value2.cardinality;
     for (int k = 0; k < c; ++k) {
       char vc = value2.content[k];
@@ -854,13 +914,15 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container ixor(BitmapContainer b2) {
-    // do this first because we have to compute the xor no matter what, and this loop gets
-    // vectorized and is faster than computing the cardinality or filling the array
-    for (int k = 0; k < this.bitmap.length & k < b2.bitmap.length; ++k) {
-      this.bitmap[k] ^= b2.bitmap[k];
+    rankDirectory = null;
+    if (-1 == cardinality) {
+      for (int k = 0; k < bitmap.length; ++k) {
+        bitmap[k] ^= b2.bitmap[k];
+      }
+      return this;
     }
-    // now count the bits
-    computeCardinality();
+    // we have to compute the xor no matter what, so count the bits while we are at it
+    this.cardinality = BitmapKernels.xor(this.bitmap, b2.bitmap, this.bitmap);
     if (cardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
       return this;
     }
@@ -869,7 +931,15 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container ixor(RunContainer x) {
+    rankDirectory = null;
     // could probably be replaced with return ixor(x.toBitmapOrArrayContainer());
+    if (-1 == cardinality) {
+      for (int rlepos = 0; rlepos < x.nbrruns; ++rlepos) {
+        int start = x.getValue(rlepos);
+        Util.flipBitmapRange(this.bitmap, start, start + x.getLength(rlepos) + 1);
+      }
+      return this;
+    }
     for (int rlepos = 0; rlepos < x.nbrruns; ++rlepos) {
       int start = x.getValue(rlepos);
       int end = start + x.getLength(rlepos) + 1;
@@ -948,6 +1018,7 @@ public final class BitmapContainer extends Container implements Cloneable {
   }
 
   void loadData(final ArrayContainer arrayContainer) {
+    rankDirectory = null;
     this.cardinality = arrayContainer.cardinality;
     for (int k = 0; k < arrayContainer.cardinality; ++k) {
       final char x = arrayContainer.content[k];
@@ -1100,8 +1171,12 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container or(final BitmapContainer value2) {
-    BitmapContainer value1 = this.clone();
-    return value1.ior(value2);
+    BitmapContainer answer = new BitmapContainer();
+    answer.cardinality = BitmapKernels.or(this.bitmap, value2.bitmap, answer.bitmap);
+    if (answer.isFull()) {
+      return RunContainer.full();
+    }
+    return answer;
   }
 
   @Override
@@ -1154,6 +1229,10 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public int rank(char lowbits) {
+    RankDirectory directory = rankDirectory();
+    if (directory != null) {
+      return directory.rank(bitmap, lowbits);
+    }
     int leftover = (lowbits + 1) & 63;
     int answer = 0;
     for (int k = 0; k < (lowbits + 1) >>> 6; ++k) {
@@ -1191,9 +1270,14 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container remove(final char i) {
+    rankDirectory = null;
     int index = i >>> 6;
     long bef = bitmap[index];
     long mask = 1L << i;
+    if (-1 == cardinality) {
+      bitmap[index] = bef & ~mask;
+      return this;
+    }
     if (cardinality == ArrayContainer.DEFAULT_MAX_SIZE + 1) {// this is
       // the
       // uncommon
@@ -1212,13 +1296,12 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container repairAfterLazy() {
-    if (getCardinality() < 0) {
-      computeCardinality();
-      if(getCardinality() <= ArrayContainer.DEFAULT_MAX_SIZE) {
-        return this.toArrayContainer();
-      } else if (isFull()) {
-        return RunContainer.full();
-      }
+    // the cardinality may have been resolved by getCardinality since the lazy operations, so the
+    // container is normalized either way
+    if (getCardinality() <= ArrayContainer.DEFAULT_MAX_SIZE) {
+      return this.toArrayContainer();
+    } else if (isFull()) {
+      return RunContainer.full();
     }
     return this;
   }
@@ -1245,8 +1328,21 @@ public final class BitmapContainer extends Container implements Cloneable {
     }
   }
 
+  @Override
+  Container runOptimize(char key, ContainerOptimizationPolicy policy) {
+    int numRuns = numberOfRuns();
+    if (policy.useRunContainer(key, getCardinality(), numRuns)) {
+      return new RunContainer(this, numRuns);
+    }
+    return this;
+  }
+
   @Override
   public char select(int j) {
+    RankDirectory directory = rankDirectory();
+    if (directory != null) {
+      return directory.select(bitmap, j);
+    }
     if (//cardinality != -1 && // omitted as (-1>>>1) > j as j < (1<<16)
         cardinality >>> 1 < j && j < cardinality) {
       int leftover = cardinality - j;
@@ -1276,6 +1372,21 @@ public final class BitmapContainer extends Container implements Cloneable {
     throw new IllegalArgumentException("Insufficient cardinality.");
   }
 
+  // the first rank or select after a modification scans the words and only the second one builds
+  // the directory, so that one-off queries cost no more than before
+  private RankDirectory rankDirectory() {
+    RankDirectory directory = rankDirectory;
+    if (directory == null) {
+      rankDirectory = RankDirectory.QUERIED_ONCE;
+      return null;
+    }
+    if (directory == RankDirectory.QUERIED_ONCE) {
+      directory = new RankDirectory(bitmap);
+      rankDirectory = directory;
+    }
+    return directory;
+  }
+
   /** TODO For comparison only, should be removed before merge.
    *
    * @param j ...
@@ -1398,10 +1509,7 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container xor(BitmapContainer value2) {
-    int newCardinality = 0;
-    for (int k = 0; k < this.bitmap.length; ++k) {
-      newCardinality += Long.bitCount(this.bitmap[k] ^ value2.bitmap[k]);
-    }
+    int newCardinality = BitmapKernels.xorCardinality(this.bitmap, value2.bitmap);
     if (newCardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
       final BitmapContainer answer = new BitmapContainer();
       for (int k = 0; k < answer.bitmap.length; ++k) {
@@ -1727,6 +1835,71 @@ public final class BitmapContainer extends Container implements Cloneable {
     // sizeof(long) * #words from start - number of bits after the last bit set
     return (i + 1) * 64 - Long.numberOfLeadingZeros(bitmap[i]) - 1;
   }
+
+  /**
+   * Number of bits set before every block of 8 words, so that rank and select only count the
+   * bits of a single block. The counts are final so that a directory built by one reader is
+   * safely published to the others.
+   */
+  private static final class RankDirectory {
+
+    static final RankDirectory QUERIED_ONCE = new RankDirectory(null);
+
+    private static final int WORDS_PER_BLOCK = 8;
+    private static final int BLOCKS = MAX_CAPACITY_LONG / WORDS_PER_BLOCK;
+
+    // at most 127 * 512 bits precede the last block, so the counts fit in chars
+    private final char[] counts;
+
+    RankDirectory(long[] bitmap) {
+      if (bitmap == null) {
+        counts = null;
+        return;
+      }
+      counts = new char[BLOCKS];
+      int count = 0;
+      for (int block = 0; block < BLOCKS; ++block) {
+        counts[block] = (char) count;
+        for (int k = block * WORDS_PER_BLOCK; k < (block + 1) * WORDS_PER_BLOCK; ++k) {
+          count += Long.bitCount(bitmap[k]);
+        }
+      }
+    }
+
+    int rank(long[] bitmap, char lowbits) {
+      // the block holding lowbits, so that rank(65535) does not need a count past the last block
+      int block = lowbits / (WORDS_PER_BLOCK * 64);
+      int words = (lowbits + 1) >>> 6;
+      int answer = counts[block];
+      for (int k = block * WORDS_PER_BLOCK; k < words; ++k) {
+        answer += Long.bitCount(bitmap[k]);
+      }
+      int leftover = (lowbits + 1) & 63;
+      if (leftover != 0) {
+        answer += Long.bitCount(bitmap[words] << (64 - leftover));
+      }
+      return answer;
+    }
+
+    char select(long[] bitmap, int j) {
+      // the last block preceded by at most j bits
+      int block = 0;
+      for (int step = BLOCKS / 2; step > 0; step >>>= 1) {
+        if (counts[block + step] <= j) {
+          block += step;
+        }
+      }
+      int leftover = j - counts[block];
+      for (int k = block * WORDS_PER_BLOCK; k < (block + 1) * WORDS_PER_BLOCK; ++k) {
+        int bits = Long.bitCount(bitmap[k]);
+        if (bits > leftover) {
+          return (char) (k * 64 + Util.select(bitmap[k], leftover));
+        }
+        leftover -= bits;
+      }
+      throw new IllegalArgumentException("Insufficient cardinality.");
+    }
+  }
 }
 
 
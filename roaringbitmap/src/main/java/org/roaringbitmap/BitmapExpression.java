@@ -0,0 +1,515 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A tree of logical operations over bitmaps, evaluated without materialising the intermediate
+ * bitmaps.
+ *
+ * Evaluation first plans the tree: nested intersections and unions are flattened, the operands
+ * of intersections are sorted by estimated cardinality so that the most selective come first,
+ * and differences found below intersections are moved above them, so that a subtrahend is only
+ * looked at where the intersection is not empty. The set of keys each operation may produce is
+ * then computed from the keys of the bitmaps, and the result is built one key at a time:
+ * only the containers sharing that key are combined, and an operand is only evaluated for the
+ * keys its parent still needs.
+ *
+ * Expressions are immutable and may be evaluated concurrently, as long as the bitmaps they
+ * refer to are not modified.
+ *
+ * <pre>
+ * {@code
+ *      // (a AND (b OR c)) AND NOT d
+ *      RoaringBitmap result = BitmapExpression.andNot(
+ *          BitmapExpression.and(BitmapExpression.of(a),
+ *              BitmapExpression.or(BitmapExpression.of(b), BitmapExpression.of(c))),
+ *          BitmapExpression.of(d)).evaluate();
+ * }
+ * </pre>
+ */
+public abstract class BitmapExpression {
+
+  private static final Comparator<Operator> BY_CARDINALITY =
+      Comparator.comparingLong(operator -> operator.cardinality);
+
+  BitmapExpression() {
+  }
+
+  /**
+   * @param bitmap a bitmap, which must not be modified while the expression is evaluated
+   * @return an expression evaluating to the values of the bitmap
+   */
+  public static BitmapExpression of(RoaringBitmap bitmap) {
+    return new Leaf(bitmap);
+  }
+
+  /**
+   * @param operands at least one expression
+   * @return an expression evaluating to the intersection of the operands
+   */
+  public static BitmapExpression and(BitmapExpression... operands) {
+    if (operands.length == 0) {
+      throw new IllegalArgumentException("An intersection needs at least one operand");
+    }
+    return new And(operands.clone());
+  }
+
+  /**
+   * @param operands the expressions
+   * @return an expression evaluating to the union of the operands
+   */
+  public static BitmapExpression or(BitmapExpression... operands) {
+    return new Or(operands.clone());
+  }
+
+  /**
+   * @param minuend the expression to remove values from
+   * @param subtrahend the expression whose values are removed
+   * @return an expression evaluating to the values of the minuend absent from the subtrahend
+   */
+  public static BitmapExpression andNot(BitmapExpression minuend, BitmapExpression subtrahend) {
+    return new AndNot(minuend, subtrahend);
+  }
+
+  /**
+   * Complements an expression within a range, like {@link RoaringBitmap#flip(RoaringBitmap,
+   * long, long)}.
+   *
+   * @param operand the expression
+   * @param rangeStart inclusive beginning of range, in [0, 0xffffffff]
+   * @param rangeEnd exclusive ending of range, in [0, 0xffffffff + 1]
+   * @return an expression evaluating to the values of the operand outside the range and to the
+   *     values of the range absent from the operand
+   */
+  public static BitmapExpression flip(BitmapExpression operand, long rangeStart, long rangeEnd) {
+    RoaringBitmap.rangeSanityCheck(rangeStart, rangeEnd);
+    return new Flip(operand, rangeStart, rangeEnd);
+  }
+
+  /**
+   * Computes the value of the expression.
+   *
+   * @return a new bitmap
+   */
+  public RoaringBitmap evaluate() {
+    Operator root = plan();
+    long[] keys = new long[1 << 10];
+    root.addKeys(keys);
+    RoaringArray result = new RoaringArray();
+    for (int i = 0; i < keys.length; ++i) {
+      long word = keys[i];
+      while (word != 0) {
+        char key = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+        Container container = root.evaluate(key);
+        if (container != null) {
+          result.append(key, root.owned ? container : container.clone());
+        }
+        word &= word - 1;
+      }
+    }
+    return new RoaringBitmap(result);
+  }
+
+  /**
+   * @return a new operator tree evaluating the expression
+   */
+  abstract Operator plan();
+
+  private static Operator planAnd(List<BitmapExpression> operands,
+      List<BitmapExpression> subtrahends) {
+    List<Operator> intersected = new ArrayList<>();
+    List<Operator> subtracted = new ArrayList<>();
+    for (BitmapExpression operand : operands) {
+      flattenAnd(operand, intersected, subtracted);
+    }
+    for (BitmapExpression subtrahend : subtrahends) {
+      flattenSubtrahend(subtrahend, subtracted);
+    }
+    Operator operator;
+    if (intersected.size() == 1) {
+      operator = intersected.get(0);
+    } else {
+      intersected.sort(BY_CARDINALITY);
+      operator = new AndOperator(intersected.toArray(new Operator[0]));
+    }
+    if (subtracted.isEmpty()) {
+      return operator;
+    }
+    // the largest subtrahends are the most likely to empty a container early
+    subtracted.sort(BY_CARDINALITY.reversed());
+    return new AndNotOperator(operator, subtracted.toArray(new Operator[0]));
+  }
+
+  private static void flattenAnd(BitmapExpression operand, List<Operator> intersected,
+      List<Operator> subtracted) {
+    if (operand instanceof And) {
+      for (BitmapExpression nested : ((And) operand).operands) {
+        flattenAnd(nested, intersected, subtracted);
+      }
+    } else if (operand instanceof AndNot) {
+      // (a AND NOT b) AND c == (a AND c) AND NOT b
+      flattenAnd(((AndNot) operand).minuend, intersected, subtracted);
+      flattenSubtrahend(((AndNot) operand).subtrahend, subtracted);
+    } else {
+      intersected.add(operand.plan());
+    }
+  }
+
+  private static void flattenSubtrahend(BitmapExpression subtrahend, List<Operator> subtracted) {
+    if (subtrahend instanceof Or) {
+      // a AND NOT (b OR c) == (a AND NOT b) AND NOT c
+      for (BitmapExpression nested : ((Or) subtrahend).operands) {
+        flattenSubtrahend(nested, subtracted);
+      }
+    } else {
+      subtracted.add(subtrahend.plan());
+    }
+  }
+
+  private static void flattenOr(BitmapExpression operand, List<Operator> united) {
+    if (operand instanceof Or) {
+      for (BitmapExpression nested : ((Or) operand).operands) {
+        flattenOr(nested, united);
+      }
+    } else {
+      united.add(operand.plan());
+    }
+  }
+
+  private static final class Leaf extends BitmapExpression {
+
+    private final RoaringBitmap bitmap;
+
+    Leaf(RoaringBitmap bitmap) {
+      this.bitmap = bitmap;
+    }
+
+    @Override
+    Operator plan() {
+      return new LeafOperator(bitmap.highLowContainer, bitmap.getLongCardinality());
+    }
+  }
+
+  private static final class And extends BitmapExpression {
+
+    private final BitmapExpression[] operands;
+
+    And(BitmapExpression[] operands) {
+      this.operands = operands;
+    }
+
+    @Override
+    Operator plan() {
+      return planAnd(Arrays.asList(operands), new ArrayList<>());
+    }
+  }
+
+  private static final class Or extends BitmapExpression {
+
+    private final BitmapExpression[] operands;
+
+    Or(BitmapExpression[] operands) {
+      this.operands = operands;
+    }
+
+    @Override
+    Operator plan() {
+      List<Operator> united = new ArrayList<>();
+      for (BitmapExpression operand : operands) {
+        flattenOr(operand, united);
+      }
+      return united.size() == 1
+          ? united.get(0)
+          : new OrOperator(united.toArray(new Operator[0]));
+    }
+  }
+
+  private static final class AndNot extends BitmapExpression {
+
+    private final BitmapExpression minuend;
+    private final BitmapExpression subtrahend;
+
+    AndNot(BitmapExpression minuend, BitmapExpression subtrahend) {
+      this.minuend = minuend;
+      this.subtrahend = subtrahend;
+    }
+
+    @Override
+    Operator plan() {
+      List<BitmapExpression> minuends = new ArrayList<>();
+      minuends.add(minuend);
+      List<BitmapExpression> subtrahends = new ArrayList<>();
+      subtrahends.add(subtrahend);
+      return planAnd(minuends, subtrahends);
+    }
+  }
+
+  private static final class Flip extends BitmapExpression {
+
+    private final BitmapExpression operand;
+    private final long rangeStart;
+    private final long rangeEnd;
+
+    Flip(BitmapExpression operand, long rangeStart, long rangeEnd) {
+      this.operand = operand;
+      this.rangeStart = rangeStart;
+      this.rangeEnd = rangeEnd;
+    }
+
+    @Override
+    Operator plan() {
+      Operator planned = operand.plan();
+      return rangeStart >= rangeEnd ? planned : new FlipOperator(planned, rangeStart, rangeEnd);
+    }
+  }
+
+  /**
+   * Evaluates a node of a planned expression. The keys an operator is evaluated for must
+   * increase from one call to the next.
+   */
+  abstract static class Operator {
+
+    /**
+     * An upper bound of the cardinality of the result, used for ordering operands.
+     */
+    final long cardinality;
+
+    /**
+     * Whether the last container returned belongs to the caller, which may then modify it,
+     * rather than to a bitmap of the expression.
+     */
+    boolean owned;
+
+    Operator(long cardinality) {
+      this.cardinality = cardinality;
+    }
+
+    /**
+     * Sets the bits of the keys the operator may produce a container for.
+     *
+     * @param words a 1024-word bitmap of keys
+     */
+    abstract void addKeys(long[] words);
+
+    /**
+     * @param key the key of the container
+     * @return the container of the result with the key, or null if it is empty
+     */
+    abstract Container evaluate(char key);
+  }
+
+  private abstract static class CompositeOperator extends Operator {
+
+    final long[] keys = new long[1 << 10];
+
+    CompositeOperator(long cardinality) {
+      super(cardinality);
+    }
+
+    @Override
+    void addKeys(long[] words) {
+      for (int i = 0; i < words.length; ++i) {
+        words[i] |= keys[i];
+      }
+    }
+
+    @Override
+    Container evaluate(char key) {
+      return (keys[key >>> 6] & (1L << key)) == 0 ? null : compute(key);
+    }
+
+    abstract Container compute(char key);
+  }
+
+  private static final class LeafOperator extends Operator {
+
+    private final RoaringArray highLowContainer;
+    private int position;
+
+    LeafOperator(RoaringArray highLowContainer, long cardinality) {
+      super(cardinality);
+      this.highLowContainer = highLowContainer;
+    }
+
+    @Override
+    void addKeys(long[] words) {
+      for (int i = 0; i < highLowContainer.size; ++i) {
+        char key = highLowContainer.keys[i];
+        words[key >>> 6] |= 1L << key;
+      }
+    }
+
+    @Override
+    Container evaluate(char key) {
+      position = highLowContainer.advanceUntil(key, position - 1);
+      owned = false;
+      return position < highLowContainer.size && highLowContainer.keys[position] == key
+          ? highLowContainer.values[position]
+          : null;
+    }
+  }
+
+  private static final class AndOperator extends CompositeOperator {
+
+    private final Operator[] operands;
+    private final Container[] slice;
+    private final long[] words = new long[1 << 10];
+    private final char[] values = new char[ArrayContainer.DEFAULT_MAX_SIZE];
+
+    AndOperator(Operator[] operands) {
+      super(operands[0].cardinality);
+      this.operands = operands;
+      this.slice = new Container[operands.length];
+      operands[0].addKeys(keys);
+      for (int i = 1; i < operands.length; ++i) {
+        Arrays.fill(words, 0L);
+        operands[i].addKeys(words);
+        for (int k = 0; k < keys.length; ++k) {
+          keys[k] &= words[k];
+        }
+      }
+    }
+
+    @Override
+    Container compute(char key) {
+      for (int i = 0; i < operands.length; ++i) {
+        Container container = operands[i].evaluate(key);
+        if (container == null) {
+          return null;
+        }
+        slice[i] = container;
+      }
+      Container and = FastAggregation.and(slice, words, values);
+      Arrays.fill(slice, null);
+      if (and.isEmpty()) {
+        return null;
+      }
+      owned = true;
+      // a bitmap is backed by the words of this operator
+      return and instanceof BitmapContainer ? and.clone() : and;
+    }
+  }
+
+  private static final class OrOperator extends CompositeOperator {
+
+    private final Operator[] operands;
+
+    OrOperator(Operator[] operands) {
+      super(sumOfCardinalities(operands));
+      this.operands = operands;
+      for (Operator operand : operands) {
+        operand.addKeys(keys);
+      }
+    }
+
+    private static long sumOfCardinalities(Operator[] operands) {
+      long cardinality = 0;
+      for (Operator operand : operands) {
+        cardinality += operand.cardinality;
+      }
+      return Math.min(cardinality, 1L << 32);
+    }
+
+    @Override
+    Container compute(char key) {
+      Container union = null;
+      boolean unionOwned = false;
+      boolean lazy = false;
+      for (Operator operand : operands) {
+        Container container = operand.evaluate(key);
+        if (container == null) {
+          continue;
+        }
+        if (union == null) {
+          union = container;
+          unionOwned = operand.owned;
+        } else {
+          union = unionOwned ? union.lazyIOR(container) : union.lazyOR(container);
+          unionOwned = true;
+          lazy = true;
+        }
+      }
+      owned = unionOwned;
+      return lazy ? union.repairAfterLazy() : union;
+    }
+  }
+
+  private static final class AndNotOperator extends CompositeOperator {
+
+    private final Operator minuend;
+    private final Operator[] subtrahends;
+
+    AndNotOperator(Operator minuend, Operator[] subtrahends) {
+      super(minuend.cardinality);
+      this.minuend = minuend;
+      this.subtrahends = subtrahends;
+      minuend.addKeys(keys);
+    }
+
+    @Override
+    Container compute(char key) {
+      Container difference = minuend.evaluate(key);
+      if (difference == null) {
+        return null;
+      }
+      boolean differenceOwned = minuend.owned;
+      for (Operator subtrahend : subtrahends) {
+        Container container = subtrahend.evaluate(key);
+        if (container != null) {
+          difference = differenceOwned
+              ? difference.iandNot(container)
+              : difference.andNot(container);
+          differenceOwned = true;
+          if (difference.isEmpty()) {
+            return null;
+          }
+        }
+      }
+      owned = differenceOwned;
+      return difference;
+    }
+  }
+
+  private static final class FlipOperator extends CompositeOperator {
+
+    private final Operator operand;
+    private final int startKey;
+    private final int lastKey;
+    private final int startLow;
+    private final int lastLow;
+
+    FlipOperator(Operator operand, long rangeStart, long rangeEnd) {
+      super(Math.min(operand.cardinality + rangeEnd - rangeStart, 1L << 32));
+      this.operand = operand;
+      this.startKey = Util.highbits(rangeStart);
+      this.lastKey = Util.highbits(rangeEnd - 1);
+      this.startLow = Util.lowbits(rangeStart);
+      this.lastLow = Util.lowbits(rangeEnd - 1);
+      operand.addKeys(keys);
+      Util.setBitmapRange(keys, startKey, lastKey + 1);
+    }
+
+    @Override
+    Container compute(char key) {
+      Container container = operand.evaluate(key);
+      if (key < startKey || key > lastKey) {
+        owned = operand.owned;
+        return container;
+      }
+      int start = key == startKey ? startLow : 0;
+      int end = key == lastKey ? lastLow + 1 : 1 << 16;
+      owned = true;
+      if (container == null) {
+        return Container.rangeOfOnes(start, end);
+      }
+      Container flipped = operand.owned ? container.inot(start, end) : container.not(start, end);
+      return flipped.isEmpty() ? null : flipped;
+    }
+  }
+}
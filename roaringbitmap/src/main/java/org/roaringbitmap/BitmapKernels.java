@@ -0,0 +1,164 @@
+package org.roaringbitmap;
+
+/**
+ * Shim over fused "logical operation + population count" kernels on bitmap words to support
+ * multi-release. The JDK17+ version uses the Vector API (jdk.incubator.vector) when the module
+ * is available at runtime, this version is the scalar fallback.
+ */
+public class BitmapKernels {
+
+  /**
+   * Whether the kernels are vectorized in this runtime.
+   *
+   * @return true if the Vector API is used
+   */
+  public static boolean isVectorized() {
+    return false;
+  }
+
+  /**
+   * Counts the bits set in the given words.
+   *
+   * @param a the words
+   * @return the number of set bits
+   */
+  public static int cardinality(long[] a) {
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      card += Long.bitCount(a[k]);
+    }
+    return card;
+  }
+
+  /**
+   * Computes the cardinality of the intersection of two bitmaps of the same length.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @return the number of bits set in a AND b
+   */
+  public static int andCardinality(long[] a, long[] b) {
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      card += Long.bitCount(a[k] & b[k]);
+    }
+    return card;
+  }
+
+  /**
+   * Computes the cardinality of the difference of two bitmaps of the same length.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @return the number of bits set in a AND NOT b
+   */
+  public static int andNotCardinality(long[] a, long[] b) {
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      card += Long.bitCount(a[k] & ~b[k]);
+    }
+    return card;
+  }
+
+  /**
+   * Computes the cardinality of the union of two bitmaps of the same length.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @return the number of bits set in a OR b
+   */
+  public static int orCardinality(long[] a, long[] b) {
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      card += Long.bitCount(a[k] | b[k]);
+    }
+    return card;
+  }
+
+  /**
+   * Computes the cardinality of the symmetric difference of two bitmaps of the same length.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @return the number of bits set in a XOR b
+   */
+  public static int xorCardinality(long[] a, long[] b) {
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      card += Long.bitCount(a[k] ^ b[k]);
+    }
+    return card;
+  }
+
+  /**
+   * Writes a AND b into dest and counts the result. dest may alias a or b.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @param dest where the result is written
+   * @return the number of bits set in the result
+   */
+  public static int and(long[] a, long[] b, long[] dest) {
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      long w = a[k] & b[k];
+      dest[k] = w;
+      card += Long.bitCount(w);
+    }
+    return card;
+  }
+
+  /**
+   * Writes a AND NOT b into dest and counts the result. dest may alias a or b.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @param dest where the result is written
+   * @return the number of bits set in the result
+   */
+  public static int andNot(long[] a, long[] b, long[] dest) {
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      long w = a[k] & ~b[k];
+      dest[k] = w;
+      card += Long.bitCount(w);
+    }
+    return card;
+  }
+
+  /**
+   * Writes a OR b into dest and counts the result. dest may alias a or b.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @param dest where the result is written
+   * @return the number of bits set in the result
+   */
+  public static int or(long[] a, long[] b, long[] dest) {
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      long w = a[k] | b[k];
+      dest[k] = w;
+      card += Long.bitCount(w);
+    }
+    return card;
+  }
+
+  /**
+   * Writes a XOR b into dest and counts the result. dest may alias a or b.
+   *
+   * @param a the first bitmap
+   * @param b the second bitmap
+   * @param dest where the result is written
+   * @return the number of bits set in the result
+   */
+  public static int xor(long[] a, long[] b, long[] dest) {
+    int card = 0;
+    for (int k = 0; k < a.length; ++k) {
+      long w = a[k] ^ b[k];
+      dest[k] = w;
+      card += Long.bitCount(w);
+    }
+    return card;
+  }
+}
@@ -0,0 +1,589 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+/**
+ * A compressed wire format for RoaringBitmap, for network transfer and cold storage. The
+ * portable format of {@link RoaringBitmap#serialize(DataOutput)} stores 16 bits per value of
+ * an array container and 8KB per bitmap container, so that it can be memory mapped. This format
+ * cannot be mapped, but it is usually several times smaller:
+ * <ul>
+ *   <li>the values of an array container are stored as the gaps between consecutive values,
+ *   bit packed by blocks of 128 gaps, each block storing its smallest gap and then the
+ *   difference of each gap with it on as few bits as the block needs,</li>
+ *   <li>the words of a bitmap container are run-length encoded, runs of empty words and of
+ *   full words taking a byte or two,</li>
+ *   <li>the runs of a run container are stored as varints, the gap since the end of the
+ *   previous run followed by the length.</li>
+ * </ul>
+ *
+ * The bitmap starts with its own cookie, which the portable format rejects, and with the number
+ * of containers. Each container follows: the gap since the previous key, the type of the
+ * container and the size of its payload in bytes, so that both ends stream one container at a
+ * time. The integers are unsigned LEB128 varints and the words are little endian.
+ *
+ * <pre>
+ * {@code
+ *      CompressedRoaringFormat.serialize(bitmap, out);
+ *      // ...
+ *      RoaringBitmap copy = CompressedRoaringFormat.deserialize(in);
+ * }
+ * </pre>
+ */
+public final class CompressedRoaringFormat {
+
+  /**
+   * The cookie the serialized bitmaps start with, distinct from the cookies of the portable
+   * format.
+   */
+  public static final int COOKIE = 12348;
+
+  private static final int ARRAY = 0;
+  private static final int BITMAP = 1;
+  private static final int RUN = 2;
+
+  private static final int BLOCK_SIZE = 128;
+
+  // the kinds of the runs of words of a bitmap container
+  private static final int EMPTY_WORDS = 0;
+  private static final int FULL_WORDS = 1;
+  private static final int LITERAL_WORDS = 2;
+
+  private CompressedRoaringFormat() {
+  }
+
+  /**
+   * Serializes a bitmap, writing one container at a time.
+   *
+   * @param bitmap the bitmap
+   * @param out the output
+   * @throws IOException if the output fails
+   */
+  public static void serialize(RoaringBitmap bitmap, DataOutput out) throws IOException {
+    RoaringArray ra = bitmap.highLowContainer;
+    Output header = new Output(16);
+    Output payload = new Output(1024);
+    header.writeInt(COOKIE);
+    header.writeVarint(ra.size);
+    out.write(header.bytes, 0, header.length);
+    for (int i = 0; i < ra.size; ++i) {
+      payload.length = 0;
+      header.length = 0;
+      int type = encode(ra.values[i], payload);
+      header.writeVarint(i == 0 ? ra.keys[i] : ra.keys[i] - ra.keys[i - 1] - 1);
+      header.writeByte(type);
+      header.writeVarint(payload.length);
+      out.write(header.bytes, 0, header.length);
+      out.write(payload.bytes, 0, payload.length);
+    }
+  }
+
+  /**
+   * Computes the size of a serialized bitmap, which takes encoding its containers.
+   *
+   * @param bitmap the bitmap
+   * @return the number of bytes {@link #serialize(RoaringBitmap, ByteBuffer)} writes
+   */
+  public static int serializedSizeInBytes(RoaringBitmap bitmap) {
+    RoaringArray ra = bitmap.highLowContainer;
+    Output payload = new Output(1024);
+    int size = 4 + varintSize(ra.size);
+    for (int i = 0; i < ra.size; ++i) {
+      payload.length = 0;
+      encode(ra.values[i], payload);
+      size += varintSize(i == 0 ? ra.keys[i] : ra.keys[i] - ra.keys[i - 1] - 1) + 1
+          + varintSize(payload.length) + payload.length;
+    }
+    return size;
+  }
+
+  private static int varintSize(int value) {
+    int size = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      ++size;
+    }
+    return size;
+  }
+
+  /**
+   * Serializes a bitmap into a buffer, from its position, which is then moved past the bitmap.
+   *
+   * @param bitmap the bitmap
+   * @param buffer the output, with at least {@link #serializedSizeInBytes(RoaringBitmap)} bytes
+   *        remaining
+   * @throws java.nio.BufferOverflowException if the bitmap does not fit in the buffer
+   */
+  public static void serialize(RoaringBitmap bitmap, ByteBuffer buffer) {
+    Output out = new Output(1024);
+    RoaringArray ra = bitmap.highLowContainer;
+    Output payload = new Output(1024);
+    out.writeInt(COOKIE);
+    out.writeVarint(ra.size);
+    for (int i = 0; i < ra.size; ++i) {
+      payload.length = 0;
+      int type = encode(ra.values[i], payload);
+      out.writeVarint(i == 0 ? ra.keys[i] : ra.keys[i] - ra.keys[i - 1] - 1);
+      out.writeByte(type);
+      out.writeVarint(payload.length);
+      out.write(payload.bytes, payload.length);
+    }
+    buffer.put(out.bytes, 0, out.length);
+  }
+
+  /**
+   * Deserializes a bitmap, reading one container at a time.
+   *
+   * @param in the input, positioned at the cookie of the bitmap
+   * @return the bitmap
+   * @throws IOException if the input fails or does not hold a valid bitmap
+   */
+  public static RoaringBitmap deserialize(DataInput in) throws IOException {
+    try {
+      int cookie = Integer.reverseBytes(in.readInt());
+      if (cookie != COOKIE) {
+        throw new InvalidRoaringFormat("I failed to find the compressed cookie. " + cookie);
+      }
+      RoaringArray ra = newArray(readVarint(in));
+      Input payload = new Input(new byte[1024]);
+      int key = -1;
+      for (int i = 0; i < ra.keys.length; ++i) {
+        key = nextKey(key, readVarint(in));
+        int type = in.readUnsignedByte();
+        int length = readVarint(in);
+        if (length < 0) {
+          throw new InvalidRoaringFormat("The container " + i + " has a negative size.");
+        }
+        if (payload.bytes.length < length) {
+          payload.bytes = new byte[length];
+        }
+        in.readFully(payload.bytes, 0, length);
+        payload.position = 0;
+        payload.limit = length;
+        ra.append((char) key, decode(type, payload));
+      }
+      return new RoaringBitmap(ra);
+    } catch (InvalidRoaringFormat invalid) {
+      throw invalid.toIOException();
+    }
+  }
+
+  /**
+   * Deserializes a bitmap from a buffer, from its position, which is then moved past the bitmap
+   * so that several bitmaps can be read in a row.
+   *
+   * @param buffer the input
+   * @return the bitmap
+   * @throws InvalidRoaringFormat if the buffer does not hold a valid bitmap
+   */
+  public static RoaringBitmap deserialize(ByteBuffer buffer) {
+    try {
+      return deserialize(buffer, buffer.slice().order(LITTLE_ENDIAN));
+    } catch (BufferUnderflowException truncated) {
+      throw new InvalidRoaringFormat("The bitmap is truncated.");
+    }
+  }
+
+  private static RoaringBitmap deserialize(ByteBuffer buffer, ByteBuffer in) {
+    int cookie = in.getInt();
+    if (cookie != COOKIE) {
+      throw new InvalidRoaringFormat("I failed to find the compressed cookie. " + cookie);
+    }
+    RoaringArray ra = newArray(readVarint(in));
+    Input payload = in.hasArray() ? new Input(in.array()) : new Input(new byte[1024]);
+    int key = -1;
+    for (int i = 0; i < ra.keys.length; ++i) {
+      key = nextKey(key, readVarint(in));
+      int type = in.get() & 0xFF;
+      int length = readVarint(in);
+      if (length < 0 || length > in.remaining()) {
+        throw new InvalidRoaringFormat("The container " + i + " is truncated.");
+      }
+      if (in.hasArray()) {
+        payload.position = in.arrayOffset() + in.position();
+        in.position(in.position() + length);
+      } else {
+        if (payload.bytes.length < length) {
+          payload.bytes = new byte[length];
+        }
+        in.get(payload.bytes, 0, length);
+        payload.position = 0;
+      }
+      payload.limit = payload.position + length;
+      ra.append((char) key, decode(type, payload));
+    }
+    buffer.position(buffer.position() + in.position());
+    return new RoaringBitmap(ra);
+  }
+
+  private static RoaringArray newArray(int size) {
+    if (size < 0 || size > (1 << 16)) {
+      throw new InvalidRoaringFormat("Size too large");
+    }
+    return new RoaringArray(new char[size], new Container[size], 0);
+  }
+
+  private static int nextKey(int key, int gap) {
+    if (gap < 0 || gap > 0xFFFF - key - 1) {
+      throw new InvalidRoaringFormat("The key after " + key + " is out of range.");
+    }
+    return key + gap + 1;
+  }
+
+  /**
+   * Writes the payload of a container.
+   *
+   * @return the type of the container
+   */
+  private static int encode(Container container, Output out) {
+    if (container instanceof ArrayContainer) {
+      ArrayContainer array = (ArrayContainer) container;
+      int cardinality = array.getCardinality();
+      out.writeVarint(cardinality - 1);
+      encodeValues(array.content, cardinality, out);
+      return ARRAY;
+    }
+    if (container instanceof BitmapContainer) {
+      BitmapContainer bitmap = (BitmapContainer) container;
+      // resolves the cardinality of a lazy container
+      out.writeVarint(bitmap.getCardinality() - 1);
+      encodeWords(bitmap.bitmap, out);
+      return BITMAP;
+    }
+    RunContainer run = (RunContainer) container;
+    out.writeVarint(run.nbrruns);
+    int end = -1;
+    for (int i = 0; i < run.nbrruns; ++i) {
+      out.writeVarint(run.getValue(i) - end - 1);
+      out.writeVarint(run.getLength(i));
+      end = run.getValue(i) + run.getLength(i);
+    }
+    return RUN;
+  }
+
+  private static Container decode(int type, Input in) {
+    Container container;
+    switch (type) {
+      case ARRAY: {
+        int cardinality = in.readVarint() + 1;
+        if (cardinality < 1 || cardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
+          throw new InvalidRoaringFormat("Invalid array container cardinality: " + cardinality);
+        }
+        container = new ArrayContainer(decodeValues(in, cardinality));
+        break;
+      }
+      case BITMAP: {
+        int cardinality = in.readVarint() + 1;
+        if (cardinality <= ArrayContainer.DEFAULT_MAX_SIZE
+            || cardinality > BitmapContainer.MAX_CAPACITY) {
+          throw new InvalidRoaringFormat("Invalid bitmap container cardinality: " + cardinality);
+        }
+        long[] words = decodeWords(in);
+        if (Util.cardinalityInBitmapRange(words, 0, BitmapContainer.MAX_CAPACITY)
+            != cardinality) {
+          throw new InvalidRoaringFormat("The bitmap container does not hold "
+              + cardinality + " values.");
+        }
+        container = new BitmapContainer(words, cardinality);
+        break;
+      }
+      case RUN: {
+        int nbrruns = in.readVarint();
+        if (nbrruns == 0 || nbrruns > (1 << 15)) {
+          throw new InvalidRoaringFormat("Invalid number of runs: " + nbrruns);
+        }
+        char[] valueslength = new char[2 * nbrruns];
+        int end = -1;
+        for (int i = 0; i < nbrruns; ++i) {
+          int gap = in.readVarint();
+          int length = in.readVarint();
+          if (gap < 0 || length < 0 || (long) gap + length > 0xFFFF - end - 1) {
+            throw new InvalidRoaringFormat("The run " + i + " is out of range.");
+          }
+          valueslength[2 * i] = (char) (end + 1 + gap);
+          valueslength[2 * i + 1] = (char) length;
+          end += 1 + gap + length;
+        }
+        container = new RunContainer(valueslength, nbrruns);
+        break;
+      }
+      default:
+        throw new InvalidRoaringFormat("Unknown container type: " + type);
+    }
+    if (in.position != in.limit) {
+      throw new InvalidRoaringFormat("The container does not match the size of its payload.");
+    }
+    return container;
+  }
+
+  private static void encodeValues(char[] values, int cardinality, Output out) {
+    int[] gaps = new int[BLOCK_SIZE];
+    int previous = -1;
+    for (int start = 0; start < cardinality; start += BLOCK_SIZE) {
+      int count = Math.min(BLOCK_SIZE, cardinality - start);
+      int min = Integer.MAX_VALUE;
+      int max = 0;
+      for (int i = 0; i < count; ++i) {
+        gaps[i] = values[start + i] - previous - 1;
+        previous = values[start + i];
+        min = Math.min(min, gaps[i]);
+        max = Math.max(max, gaps[i]);
+      }
+      int width = 32 - Integer.numberOfLeadingZeros(max - min);
+      out.writeVarint(min);
+      out.writeByte(width);
+      out.ensureCapacity((count * width + 7) / 8 + 3);
+      byte[] bytes = out.bytes;
+      int length = out.length;
+      // the gaps are accumulated in a long, flushed 4 bytes at a time
+      long bits = 0;
+      int numBits = 0;
+      for (int i = 0; i < count; ++i) {
+        bits |= (long) (gaps[i] - min) << numBits;
+        numBits += width;
+        if (numBits >= 32) {
+          bytes[length] = (byte) bits;
+          bytes[length + 1] = (byte) (bits >>> 8);
+          bytes[length + 2] = (byte) (bits >>> 16);
+          bytes[length + 3] = (byte) (bits >>> 24);
+          length += 4;
+          bits >>>= 32;
+          numBits -= 32;
+        }
+      }
+      for (; numBits > 0; numBits -= 8) {
+        bytes[length++] = (byte) bits;
+        bits >>>= 8;
+      }
+      out.length = length;
+    }
+  }
+
+  private static char[] decodeValues(Input in, int cardinality) {
+    char[] values = new char[cardinality];
+    int previous = -1;
+    for (int start = 0; start < cardinality; start += BLOCK_SIZE) {
+      int count = Math.min(BLOCK_SIZE, cardinality - start);
+      int min = in.readVarint();
+      int width = in.readByte();
+      if (min < 0 || min > 0xFFFF || width > 16) {
+        throw new InvalidRoaringFormat("Invalid block of values.");
+      }
+      int end = in.position + (count * width + 7) / 8;
+      if (end > in.limit) {
+        throw new InvalidRoaringFormat("The container is truncated.");
+      }
+      byte[] bytes = in.bytes;
+      int mask = (1 << width) - 1;
+      for (int i = 0, bit = 0; i < count; ++i, bit += width) {
+        // the 3 bytes the gap spans, the bytes past the end of the array reading as zeros
+        int p = in.position + (bit >>> 3);
+        int word = width == 0 ? 0 : bytes[p] & 0xFF;
+        if (p + 2 < bytes.length) {
+          word |= (bytes[p + 1] & 0xFF) << 8 | (bytes[p + 2] & 0xFF) << 16;
+        } else if (p + 1 < bytes.length) {
+          word |= (bytes[p + 1] & 0xFF) << 8;
+        }
+        previous += 1 + min + ((word >>> (bit & 7)) & mask);
+        values[start + i] = (char) previous;
+      }
+      in.position = end;
+      // the values are increasing, so that only the last one of a block may overflow
+      if (previous > 0xFFFF) {
+        throw new InvalidRoaringFormat("The value " + previous + " is out of range.");
+      }
+    }
+    return values;
+  }
+
+  private static void encodeWords(long[] words, Output out) {
+    int i = 0;
+    while (i < words.length) {
+      int start = i;
+      long word = words[i];
+      if (word == 0L || word == -1L) {
+        while (i < words.length && words[i] == word) {
+          ++i;
+        }
+        out.writeVarint(((i - start) << 2) | (word == 0L ? EMPTY_WORDS : FULL_WORDS));
+      } else {
+        while (i < words.length && words[i] != 0L && words[i] != -1L) {
+          ++i;
+        }
+        out.writeVarint(((i - start) << 2) | LITERAL_WORDS);
+        out.ensureCapacity(8 * (i - start));
+        for (int j = start; j < i; ++j) {
+          out.writeLong(words[j]);
+        }
+      }
+    }
+  }
+
+  private static long[] decodeWords(Input in) {
+    long[] words = new long[BitmapContainer.MAX_CAPACITY / 64];
+    int i = 0;
+    while (i < words.length) {
+      int token = in.readVarint();
+      int count = token >>> 2;
+      if (count == 0 || count > words.length - i) {
+        throw new InvalidRoaringFormat("Invalid run of " + count + " words.");
+      }
+      switch (token & 3) {
+        case EMPTY_WORDS:
+          break;
+        case FULL_WORDS:
+          Arrays.fill(words, i, i + count, -1L);
+          break;
+        case LITERAL_WORDS:
+          for (int j = i; j < i + count; ++j) {
+            words[j] = in.readLong();
+          }
+          break;
+        default:
+          throw new InvalidRoaringFormat("Unknown kind of words: " + (token & 3));
+      }
+      i += count;
+    }
+    return words;
+  }
+
+  private static int readVarint(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      if (shift == 28 && b > 0x07) {
+        throw new InvalidRoaringFormat("Malformed varint");
+      }
+      value |= (b & 0x7F) << shift;
+      if (b < 0x80) {
+        return value;
+      }
+    }
+    throw new InvalidRoaringFormat("Malformed varint");
+  }
+
+  private static int readVarint(ByteBuffer in) {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.get() & 0xFF;
+      if (shift == 28 && b > 0x07) {
+        throw new InvalidRoaringFormat("Malformed varint");
+      }
+      value |= (b & 0x7F) << shift;
+      if (b < 0x80) {
+        return value;
+      }
+    }
+    throw new InvalidRoaringFormat("Malformed varint");
+  }
+
+  /**
+   * A growable array of bytes.
+   */
+  private static final class Output {
+
+    byte[] bytes;
+    int length;
+
+    Output(int capacity) {
+      this.bytes = new byte[capacity];
+    }
+
+    void ensureCapacity(int extra) {
+      if (length + extra > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + extra));
+      }
+    }
+
+    void writeByte(int b) {
+      ensureCapacity(1);
+      bytes[length++] = (byte) b;
+    }
+
+    void writeVarint(int value) {
+      ensureCapacity(5);
+      while ((value & ~0x7F) != 0) {
+        bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[length++] = (byte) value;
+    }
+
+    void writeInt(int value) {
+      ensureCapacity(4);
+      for (int i = 0; i < 4; ++i) {
+        bytes[length++] = (byte) (value >>> (8 * i));
+      }
+    }
+
+    void writeLong(long value) {
+      ensureCapacity(8);
+      for (int i = 0; i < 8; ++i) {
+        bytes[length++] = (byte) (value >>> (8 * i));
+      }
+    }
+
+    void write(byte[] source, int count) {
+      ensureCapacity(count);
+      System.arraycopy(source, 0, bytes, length, count);
+      length += count;
+    }
+  }
+
+  /**
+   * The payload of a container, from position until limit.
+   */
+  private static final class Input {
+
+    byte[] bytes;
+    int position;
+    int limit;
+
+    Input(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    int readByte() {
+      if (position == limit) {
+        throw new InvalidRoaringFormat("The container is truncated.");
+      }
+      return bytes[position++] & 0xFF;
+    }
+
+    int readVarint() {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        int b = readByte();
+        if (shift == 28 && b > 0x07) {
+          throw new InvalidRoaringFormat("Malformed varint");
+        }
+        value |= (b & 0x7F) << shift;
+        if (b < 0x80) {
+          return value;
+        }
+      }
+      throw new InvalidRoaringFormat("Malformed varint");
+    }
+
+    long readLong() {
+      if (limit - position < 8) {
+        throw new InvalidRoaringFormat("The container is truncated.");
+      }
+      long value = 0;
+      for (int i = 0; i < 8; ++i) {
+        value |= (bytes[position++] & 0xFFL) << (8 * i);
+      }
+      return value;
+    }
+  }
+}
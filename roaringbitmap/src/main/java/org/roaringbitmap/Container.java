@@ -704,17 +704,74 @@ public abstract class Container implements Iterable<Character>, Cloneable, Exter
    */
   public abstract Container ixor(RunContainer x);
 
+  /**
+   * Computes the in-place bitwise AND of this container with another (intersection). The current
+   * container is generally modified, whereas the provided container (x) is unaffected. May generate
+   * a new container. A bitmap container is left in lazy mode: it does not track its cardinality,
+   * may be empty or small enough for an array, until repairAfterLazy is called on it.
+   *
+   * @param x other container, possibly in lazy mode
+   * @return aggregated container
+   */
+  public Container lazyIAND(Container x) {
+    return toLazyReceiver(x).iand(x);
+  }
+
+  /**
+   * Computes the in-place bitwise ANDNOT of this container with another (difference). The current
+   * container is generally modified, whereas the provided container (x) is unaffected. May generate
+   * a new container. A bitmap container is left in lazy mode: it does not track its cardinality,
+   * may be empty or small enough for an array, until repairAfterLazy is called on it.
+   *
+   * @param x other container, possibly in lazy mode
+   * @return aggregated container
+   */
+  public Container lazyIANDNOT(Container x) {
+    return toLazyReceiver(x).iandNot(x);
+  }
+
+  /**
+   * Computes the in-place bitwise XOR of this container with another (symmetric difference). The
+   * current container is generally modified, whereas the provided container (x) is unaffected. May
+   * generate a new container. A bitmap container is left in lazy mode: it does not track its
+   * cardinality, may be empty or small enough for an array, until repairAfterLazy is called on it.
+   *
+   * @param x other container, possibly in lazy mode
+   * @return aggregated container
+   */
+  public Container lazyIXOR(Container x) {
+    return toLazyReceiver(x).ixor(x);
+  }
+
+  // A bitmap container in lazy mode is only safe on the receiving end of an in-place operation,
+  // so when x is one the operation is carried out on a bitmap copy of this container.
+  private Container toLazyReceiver(Container x) {
+    if (this instanceof BitmapContainer) {
+      ((BitmapContainer) this).cardinality = -1;
+      return this;
+    }
+    if (x instanceof BitmapContainer && ((BitmapContainer) x).cardinality < 0) {
+      BitmapContainer bc = toBitmapContainer();
+      bc.cardinality = -1;
+      return bc;
+    }
+    return this;
+  }
+
   /**
    * Computes the in-place bitwise OR of this container with another (union). The current container
    * is generally modified, whereas the provided container (x) is unaffected. May generate a new
-   * container. The resulting container may not track its cardinality correctly. The resulting
-   * container may not track its cardinality correctly. This can be fixed as follows:
-   * if(c.getCardinality()&lt;0) ((BitmapContainer)c).computeCardinality();
+   * container. The resulting container may not track its cardinality correctly and may be small
+   * enough for an array, this is fixed by calling repairAfterLazy on it.
    *
-   * @param x other container
+   * @param x other container, possibly in lazy mode
    * @return aggregated container
    */
   public Container lazyIOR(Container x) {
+    if (x instanceof BitmapContainer && ((BitmapContainer) x).cardinality < 0
+        && !(this instanceof BitmapContainer)) {
+      return toLazyReceiver(x).lazyIOR(x);
+    }
     if (this instanceof ArrayContainer) {
       if (x instanceof ArrayContainer) {
         return ((ArrayContainer)this).lazyor((ArrayContainer) x);
@@ -742,8 +799,8 @@ public abstract class Container implements Iterable<Character>, Cloneable, Exter
   /**
    * Computes the bitwise OR of this container with another (union). This container as well as the
    * provided container are left unaffected. The resulting container may not track its cardinality
-   * correctly. This can be fixed as follows: if(c.getCardinality()&lt;0)
-   * ((BitmapContainer)c).computeCardinality();
+   * correctly and may be small enough for an array, this is fixed by calling repairAfterLazy on
+   * it.
    *
    * @param x other container
    * @return aggregated container
@@ -866,7 +923,8 @@ public abstract class Container implements Iterable<Character>, Cloneable, Exter
   public abstract Container remove(char x);
 
   /**
-   * The output of a lazyOR or lazyIOR might be an invalid container, this should be called on it.
+   * The output of a lazy operation (lazyOR, lazyIOR, lazyIAND, ...) might be an invalid container,
+   * this should be called on it.
    *
    * @return a new valid container
    */
@@ -881,6 +939,15 @@ public abstract class Container implements Iterable<Character>, Cloneable, Exter
    */
   public abstract Container runOptimize();
 
+  /**
+   * Convert to or from a RunContainer as decided by the policy.
+   *
+   * @param key the high 16 bits of the container, passed to the policy
+   * @param policy decides whether the container should be run-encoded
+   * @return the new container
+   */
+  abstract Container runOptimize(char key, ContainerOptimizationPolicy policy);
+
   /**
    * Return the jth value
    *
@@ -0,0 +1,19 @@
+package org.roaringbitmap;
+
+/**
+ * A ContainerConsumer receives the containers of a bitmap as they are computed, in increasing
+ * order of their keys, for instance from {@link FastAggregation#or(ContainerConsumer,
+ * RoaringBitmap...)}.
+ * <p>
+ * A container may belong to one of the input bitmaps, or be overwritten once the call returns:
+ * it must not be modified, and must be cloned to be kept.
+ */
+public interface ContainerConsumer {
+  /**
+   * Consume a non-empty container.
+   *
+   * @param key the 16 most significant bits of the values in the container
+   * @param container the 16 least significant bits of the values
+   */
+  void accept(char key, Container container);
+}
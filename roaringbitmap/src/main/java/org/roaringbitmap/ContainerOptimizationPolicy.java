@@ -0,0 +1,69 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap;
+
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+/**
+ * Decides which containers {@link RoaringBitmap#runOptimize(ContainerOptimizationPolicy)} and
+ * {@link MutableRoaringBitmap#runOptimize(ContainerOptimizationPolicy)} store as run containers.
+ *
+ * Containers which are not run-encoded are array containers up to 4096 values and bitmap
+ * containers above, as the serialized format requires, so the policy only chooses between the
+ * run-length encoding and this default type. The plain {@code runOptimize()} picks whichever
+ * is smaller, which is not always the best choice for the CPU: a lookup in a run container is a
+ * binary search where a bitmap container answers with a single word, and aggregations over run
+ * containers do more work per value than over bitmaps. A policy can account for the expected
+ * query mix, or keep known hot containers (by key) as bitmaps even when runs would be smaller.
+ *
+ * <pre>
+ * {@code
+ *      // contains-heavy: only use runs when they are at least 4 times smaller
+ *      bitmap.runOptimize(ContainerOptimizationPolicy.sizeRatio(4));
+ *      // keep the containers of the hot key range as bitmaps
+ *      bitmap.runOptimize((key, cardinality, runs) -> key >= 16
+ *          && ContainerOptimizationPolicy.SMALLEST.useRunContainer(key, cardinality, runs));
+ * }
+ * </pre>
+ */
+@FunctionalInterface
+public interface ContainerOptimizationPolicy {
+
+  /**
+   * Picks the smallest serialized form, like {@link RoaringBitmap#runOptimize()}.
+   */
+  ContainerOptimizationPolicy SMALLEST = sizeRatio(1);
+
+  /**
+   * Decides whether a container should be run-encoded.
+   *
+   * @param key the high 16 bits shared by the values of the container
+   * @param cardinality the number of values in the container
+   * @param numberOfRuns the number of runs of consecutive values in the container
+   * @return true if the container should be a run container
+   */
+  boolean useRunContainer(char key, int cardinality, int numberOfRuns);
+
+  /**
+   * Run-encodes a container only when the run container is more than ratio times smaller than
+   * the array or bitmap container it would replace. A ratio of 1 picks the smallest form, larger
+   * ratios favour the faster lookups of arrays and bitmaps over memory.
+   *
+   * @param ratio how many times smaller the run container has to be, at least 1
+   * @return the policy
+   */
+  static ContainerOptimizationPolicy sizeRatio(double ratio) {
+    if (!(ratio >= 1)) {
+      throw new IllegalArgumentException("The size ratio must be at least 1: " + ratio);
+    }
+    return (key, cardinality, numberOfRuns) -> {
+      int sizeAsRunContainer = RunContainer.serializedSizeInBytes(numberOfRuns);
+      // the sizes compared by runOptimize, see getArraySizeInBytes
+      int sizeAsOtherContainer = cardinality <= ArrayContainer.DEFAULT_MAX_SIZE
+          ? 2 * cardinality
+          : BitmapContainer.serializedSizeInBytes(cardinality);
+      return sizeAsRunContainer * ratio < sizeAsOtherContainer;
+    };
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap;
+
+import java.util.Arrays;
+
+/**
+ * Recycles the arrays backing containers within a thread. Once enabled on a thread, the
+ * containers created there, for instance by the static operations of {@link RoaringBitmap} or
+ * by {@link FastAggregation}, take their arrays from the pool, and
+ * {@link RoaringBitmap#release()} gives back the arrays of a result which is no longer needed.
+ * A loop computing and discarding results then stops allocating container storage once the pool
+ * is warm.
+ *
+ * The pool is opt-in and thread confined: threads which never call {@link #enable()} allocate
+ * as before. The 8KB arrays of bitmap containers form one size class, the char arrays of array
+ * and run containers form power of two size classes from 4 to 4096 values; larger arrays are
+ * left to the garbage collector. Each size class keeps a bounded number of arrays.
+ *
+ * <pre>
+ * {@code
+ *      ContainerPool.enable();
+ *      try {
+ *        for (Query query : queries) {
+ *          RoaringBitmap result = RoaringBitmap.and(query.left(), query.right());
+ *          respond(query, result);
+ *          result.release();
+ *        }
+ *      } finally {
+ *        ContainerPool.disable();
+ *      }
+ * }
+ * </pre>
+ */
+public final class ContainerPool {
+
+  /**
+   * The number of arrays kept per size class by {@link #enable()}.
+   */
+  public static final int DEFAULT_CAPACITY = 64;
+
+  private static final ThreadLocal<ContainerPool> POOL = new ThreadLocal<>();
+
+  // set by every thread enabling a pool, which reads back its own write: the threads which never
+  // enable a pool can skip the thread local lookup, no matter what they see
+  private static boolean used;
+
+  private static final int BITMAP_LENGTH = BitmapContainer.MAX_CAPACITY / 64;
+  // 4 chars, the default capacity of array and run containers
+  private static final int MIN_CHARS_CLASS = 2;
+  // 4096 chars, the largest array container
+  private static final int MAX_CHARS_CLASS = 12;
+
+  private final int capacity;
+  private final long[][] bitmaps;
+  private int bitmapCount;
+  private final char[][][] chars;
+  private final int[] charsCount;
+
+  private ContainerPool(int capacity) {
+    this.capacity = capacity;
+    this.bitmaps = new long[capacity][];
+    this.chars = new char[MAX_CHARS_CLASS + 1][capacity][];
+    this.charsCount = new int[MAX_CHARS_CLASS + 1];
+  }
+
+  /**
+   * Enables a pool keeping {@link #DEFAULT_CAPACITY} arrays per size class on the current thread.
+   */
+  public static void enable() {
+    enable(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Enables a pool on the current thread, replacing the pool it may already have.
+   *
+   * @param capacity the number of arrays kept per size class
+   */
+  public static void enable(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+    }
+    POOL.set(new ContainerPool(capacity));
+    used = true;
+  }
+
+  /**
+   * Disables the pool of the current thread, letting the garbage collector reclaim its arrays.
+   */
+  public static void disable() {
+    POOL.remove();
+  }
+
+  /**
+   * @return whether the current thread has a pool
+   */
+  public static boolean isEnabled() {
+    return current() != null;
+  }
+
+  private static ContainerPool current() {
+    return used ? POOL.get() : null;
+  }
+
+  /**
+   * @return zeroed words for a bitmap container
+   */
+  static long[] bitmap() {
+    ContainerPool pool = current();
+    if (pool != null && pool.bitmapCount > 0) {
+      return pool.pollBitmap();
+    }
+    return new long[BITMAP_LENGTH];
+  }
+
+  /**
+   * @param words the words of a bitmap container
+   * @return a copy of the words
+   */
+  static long[] copy(long[] words) {
+    ContainerPool pool = current();
+    if (pool != null && pool.bitmapCount > 0 && words.length == BITMAP_LENGTH) {
+      long[] copy = pool.pollBitmap();
+      System.arraycopy(words, 0, copy, 0, BITMAP_LENGTH);
+      return copy;
+    }
+    return Arrays.copyOf(words, words.length);
+  }
+
+  /**
+   * @param capacity the minimum length
+   * @return an array of at least capacity chars, which may hold stale values
+   */
+  static char[] chars(int capacity) {
+    ContainerPool pool = current();
+    if (pool != null) {
+      int sizeClass = Math.max(MIN_CHARS_CLASS, 32 - Integer.numberOfLeadingZeros(capacity - 1));
+      if (sizeClass <= MAX_CHARS_CLASS && pool.charsCount[sizeClass] > 0) {
+        char[] array = pool.chars[sizeClass][--pool.charsCount[sizeClass]];
+        pool.chars[sizeClass][pool.charsCount[sizeClass]] = null;
+        return array;
+      }
+    }
+    return new char[capacity];
+  }
+
+  /**
+   * Gives the storage of a container to the pool of the current thread, if any. The container
+   * must not be used afterwards.
+   *
+   * @param container a container no longer referenced
+   */
+  static void recycle(Container container) {
+    ContainerPool pool = current();
+    if (pool == null) {
+      return;
+    }
+    if (container instanceof BitmapContainer) {
+      long[] words = ((BitmapContainer) container).bitmap;
+      if (words.length == BITMAP_LENGTH && pool.bitmapCount < pool.capacity) {
+        Arrays.fill(words, 0L);
+        pool.bitmaps[pool.bitmapCount++] = words;
+      }
+    } else if (container instanceof ArrayContainer) {
+      pool.offer(((ArrayContainer) container).content);
+    } else if (container instanceof RunContainer) {
+      pool.offer(((RunContainer) container).valueslength);
+    }
+    // containers of any other type are left to the garbage collector
+  }
+
+  private long[] pollBitmap() {
+    long[] words = bitmaps[--bitmapCount];
+    bitmaps[bitmapCount] = null;
+    return words;
+  }
+
+  private void offer(char[] array) {
+    // the largest class whose requests the array can serve
+    int sizeClass = 31 - Integer.numberOfLeadingZeros(array.length);
+    if (sizeClass >= MIN_CHARS_CLASS && sizeClass <= MAX_CHARS_CLASS
+        && charsCount[sizeClass] < capacity) {
+      chars[sizeClass][charsCount[sizeClass]++] = array;
+    }
+  }
+}
@@ -100,6 +100,479 @@ public final class FastAggregation {
     }
   }
 
+  /**
+   * Compute cardinality of the XOR aggregate.
+   *
+   * @param bitmaps input bitmaps
+   * @return aggregated cardinality
+   */
+  public static int xorCardinality(RoaringBitmap... bitmaps) {
+    switch (bitmaps.length) {
+      case 0:
+        return 0;
+      case 1:
+        return bitmaps[0].getCardinality();
+      case 2:
+        return RoaringBitmap.xorCardinality(bitmaps[0], bitmaps[1]);
+      default:
+        return xorCardinality(new long[1024], bitmaps);
+    }
+  }
+
+  /**
+   * Compute cardinality of the XOR aggregate without materialising any container: the
+   * containers sharing a key are flipped into the buffer, and the cardinality of a container
+   * whose key no other bitmap holds is used as is.
+   *
+   * @param aggregationBuffer a buffer for aggregation, overwritten
+   * @param bitmaps input bitmaps
+   * @return aggregated cardinality
+   */
+  public static int xorCardinality(long[] aggregationBuffer, RoaringBitmap... bitmaps) {
+    if (aggregationBuffer.length < 1024) {
+      throw new IllegalArgumentException("buffer should have at least 1024 elements.");
+    }
+    long[] words = aggregationBuffer;
+    int[] positions = new int[bitmaps.length];
+    int cardinality = 0;
+    for (int key = nextKey(positions, bitmaps); key >= 0; key = nextKey(positions, bitmaps)) {
+      Container first = null;
+      boolean shared = false;
+      for (int j = 0; j < bitmaps.length; ++j) {
+        RoaringArray highLowContainer = bitmaps[j].highLowContainer;
+        if (positions[j] < highLowContainer.size && highLowContainer.keys[positions[j]] == key) {
+          Container container = highLowContainer.values[positions[j]++];
+          if (first == null) {
+            first = container;
+          } else {
+            if (!shared) {
+              Arrays.fill(words, 0, 1024, 0L);
+              flip(words, first);
+              shared = true;
+            }
+            flip(words, container);
+          }
+        }
+      }
+      cardinality += shared
+          ? Util.cardinalityInBitmapRange(words, 0, 1 << 16)
+          : first.getCardinality();
+    }
+    return cardinality;
+  }
+
+  /**
+   * Compute cardinality of the difference between the minuend and the union of the subtrahends.
+   *
+   * @param minuend the bitmap to remove values from
+   * @param subtrahends the bitmaps whose values are removed
+   * @return aggregated cardinality
+   */
+  public static int andNotCardinality(RoaringBitmap minuend, RoaringBitmap... subtrahends) {
+    switch (subtrahends.length) {
+      case 0:
+        return minuend.getCardinality();
+      case 1:
+        return RoaringBitmap.andNotCardinality(minuend, subtrahends[0]);
+      default:
+        return andNotCardinality(new long[1024], minuend, subtrahends);
+    }
+  }
+
+  /**
+   * Compute cardinality of the difference between the minuend and the union of the subtrahends
+   * without materialising any container: the values of an array container of the minuend are
+   * looked up in the subtrahends, other containers are copied into the buffer and the
+   * subtrahends cleared from it.
+   *
+   * @param aggregationBuffer a buffer for aggregation, overwritten
+   * @param minuend the bitmap to remove values from
+   * @param subtrahends the bitmaps whose values are removed
+   * @return aggregated cardinality
+   */
+  public static int andNotCardinality(long[] aggregationBuffer, RoaringBitmap minuend,
+      RoaringBitmap... subtrahends) {
+    if (aggregationBuffer.length < 1024) {
+      throw new IllegalArgumentException("buffer should have at least 1024 elements.");
+    }
+    long[] words = aggregationBuffer;
+    RoaringArray minuendArray = minuend.highLowContainer;
+    Container[] slice = new Container[subtrahends.length];
+    int[] positions = new int[subtrahends.length];
+    int cardinality = 0;
+    for (int i = 0; i < minuendArray.size; ++i) {
+      char key = minuendArray.keys[i];
+      Container container = minuendArray.values[i];
+      int count = 0;
+      for (int j = 0; j < subtrahends.length; ++j) {
+        RoaringArray highLowContainer = subtrahends[j].highLowContainer;
+        int position = highLowContainer.advanceUntil(key, positions[j] - 1);
+        positions[j] = position;
+        if (position < highLowContainer.size && highLowContainer.keys[position] == key) {
+          slice[count++] = highLowContainer.values[position];
+        }
+      }
+      if (count == 0) {
+        cardinality += container.getCardinality();
+      } else if (container instanceof ArrayContainer) {
+        ArrayContainer array = (ArrayContainer) container;
+        for (int k = 0; k < array.cardinality; ++k) {
+          char value = array.content[k];
+          int j = 0;
+          while (j < count && !slice[j].contains(value)) {
+            ++j;
+          }
+          cardinality += j == count ? 1 : 0;
+        }
+      } else {
+        Arrays.fill(words, 0, 1024, 0L);
+        flip(words, container);
+        for (int j = 0; j < count; ++j) {
+          clear(words, slice[j]);
+        }
+        cardinality += Util.cardinalityInBitmapRange(words, 0, 1 << 16);
+      }
+    }
+    return cardinality;
+  }
+
+  /**
+   * Checks whether all the bitmaps share at least one value, without computing their
+   * intersection. The bitmaps with the fewest containers are looked at first, so that the keys
+   * missing from one of them are skipped early, and the search stops at the first key whose
+   * containers share a value.
+   *
+   * @param bitmaps input bitmaps
+   * @return whether the intersection of the bitmaps is not empty
+   */
+  public static boolean intersects(RoaringBitmap... bitmaps) {
+    switch (bitmaps.length) {
+      case 0:
+        return false;
+      case 1:
+        return !bitmaps[0].isEmpty();
+      case 2:
+        return RoaringBitmap.intersects(bitmaps[0], bitmaps[1]);
+      default:
+    }
+    RoaringBitmap[] sorted = bitmaps.clone();
+    Arrays.sort(sorted, Comparator.comparingInt(bitmap -> bitmap.highLowContainer.size));
+    RoaringArray driver = sorted[0].highLowContainer;
+    Container[] slice = new Container[sorted.length];
+    int[] positions = new int[sorted.length];
+    long[] words = null;
+    char[] values = null;
+    int i = 0;
+    while (i < driver.size) {
+      char key = driver.keys[i];
+      slice[0] = driver.values[i];
+      int next = -1;
+      for (int j = 1; j < sorted.length && next < 0; ++j) {
+        RoaringArray highLowContainer = sorted[j].highLowContainer;
+        int position = highLowContainer.advanceUntil(key, positions[j] - 1);
+        positions[j] = position;
+        if (position == highLowContainer.size) {
+          // no larger key is common to all the bitmaps
+          return false;
+        }
+        if (highLowContainer.keys[position] == key) {
+          slice[j] = highLowContainer.values[position];
+        } else {
+          next = highLowContainer.keys[position];
+        }
+      }
+      if (next < 0) {
+        if (words == null) {
+          words = new long[1024];
+          values = new char[ArrayContainer.DEFAULT_MAX_SIZE];
+        }
+        if (intersects(slice, words, values)) {
+          return true;
+        }
+        ++i;
+      } else {
+        // leapfrogs to the first key of the driver which may be common to all the bitmaps
+        i = driver.advanceUntil((char) next, i);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the union of the bitmaps contains any of the values of a bitmap, without
+   * computing the union, stopping at the first key where a common value is found.
+   *
+   * @param bitmap the values to look for
+   * @param bitmaps input bitmaps
+   * @return whether the bitmap intersects any of the bitmaps
+   */
+  public static boolean containsAny(RoaringBitmap bitmap, RoaringBitmap... bitmaps) {
+    RoaringArray array = bitmap.highLowContainer;
+    Container[] slice = new Container[bitmaps.length];
+    int[] positions = new int[bitmaps.length];
+    long[] words = null;
+    for (int i = 0; i < array.size; ++i) {
+      Container container = array.values[i];
+      int count = slice(array.keys[i], positions, slice, bitmaps);
+      if (count == 0) {
+        continue;
+      }
+      if (count == 1) {
+        if (container.intersects(slice[0])) {
+          return true;
+        }
+      } else if (probes(container, count)) {
+        ArrayContainer values = (ArrayContainer) container;
+        for (int k = 0; k < values.cardinality; ++k) {
+          for (int j = 0; j < count; ++j) {
+            if (slice[j].contains(values.content[k])) {
+              return true;
+            }
+          }
+        }
+      } else {
+        words = zeroed(words);
+        flip(words, container);
+        for (int j = 0; j < count; ++j) {
+          if (intersects(words, slice[j])) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the union of the bitmaps contains all the values of a bitmap, without
+   * computing the union, stopping at the first key where a value is missing from all the
+   * bitmaps.
+   *
+   * @param subset the values to look for
+   * @param bitmaps input bitmaps
+   * @return whether the subset is a subset of the union of the bitmaps
+   */
+  public static boolean containsAll(RoaringBitmap subset, RoaringBitmap... bitmaps) {
+    RoaringArray array = subset.highLowContainer;
+    Container[] slice = new Container[bitmaps.length];
+    int[] positions = new int[bitmaps.length];
+    long[] words = null;
+    for (int i = 0; i < array.size; ++i) {
+      Container container = array.values[i];
+      int count = slice(array.keys[i], positions, slice, bitmaps);
+      if (count == 0) {
+        return false;
+      }
+      if (count == 1) {
+        if (!slice[0].contains(container)) {
+          return false;
+        }
+      } else if (probes(container, count)) {
+        ArrayContainer values = (ArrayContainer) container;
+        for (int k = 0; k < values.cardinality; ++k) {
+          int j = 0;
+          while (j < count && !slice[j].contains(values.content[k])) {
+            ++j;
+          }
+          if (j == count) {
+            return false;
+          }
+        }
+      } else {
+        words = zeroed(words);
+        flip(words, container);
+        for (int j = 0; j < count; ++j) {
+          clear(words, slice[j]);
+        }
+        for (long word : words) {
+          if (word != 0) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Collects the containers with a key.
+   *
+   * @param key the key
+   * @param positions the positions of the cursors in the bitmaps, advanced to the key
+   * @param slice receives the containers with the key
+   * @param bitmaps input bitmaps
+   * @return the number of containers with the key
+   */
+  private static int slice(char key, int[] positions, Container[] slice,
+      RoaringBitmap... bitmaps) {
+    int count = 0;
+    for (int j = 0; j < bitmaps.length; ++j) {
+      RoaringArray highLowContainer = bitmaps[j].highLowContainer;
+      int position = highLowContainer.advanceUntil(key, positions[j] - 1);
+      positions[j] = position;
+      if (position < highLowContainer.size && highLowContainer.keys[position] == key) {
+        slice[count++] = highLowContainer.values[position];
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param container a container
+   * @param count the number of containers to look its values up in
+   * @return whether looking each value up is cheaper than setting up a buffer
+   */
+  private static boolean probes(Container container, int count) {
+    return container instanceof ArrayContainer && container.getCardinality() * count < 1024;
+  }
+
+  private static long[] zeroed(long[] words) {
+    if (words == null) {
+      return new long[1024];
+    }
+    Arrays.fill(words, 0L);
+    return words;
+  }
+
+  /**
+   * @param slice containers sharing a key
+   * @param words an 8KB buffer, overwritten
+   * @param values a buffer of 4096 values, overwritten
+   * @return whether the containers share at least one value
+   */
+  private static boolean intersects(Container[] slice, long[] words, char[] values) {
+    int common = intersectValues(slice, values);
+    if (common >= 0) {
+      return common > 0;
+    }
+    Arrays.fill(words, -1L);
+    for (Container container : slice) {
+      if (container instanceof RunContainer) {
+        // clears the gaps between the runs
+        RunContainer runs = (RunContainer) container;
+        int start = 0;
+        for (int r = 0; r < runs.nbrruns; ++r) {
+          Util.resetBitmapRange(words, start, runs.getValue(r));
+          start = runs.getValue(r) + runs.getLength(r) + 1;
+        }
+        Util.resetBitmapRange(words, start, 1 << 16);
+      }
+    }
+    // a block of words at a time, which is abandoned as soon as it is empty
+    for (int from = 0; from < words.length; from += 32) {
+      long any = 0;
+      for (int w = from; w < from + 32; ++w) {
+        any |= words[w];
+      }
+      for (int j = 0; j < slice.length && any != 0; ++j) {
+        if (slice[j] instanceof BitmapContainer) {
+          long[] bitmap = ((BitmapContainer) slice[j]).bitmap;
+          any = 0;
+          for (int w = from; w < from + 32; ++w) {
+            words[w] &= bitmap[w];
+            any |= words[w];
+          }
+        }
+      }
+      if (any != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param words the values of a container
+   * @param container a container with the same key
+   * @return whether the container holds any of the values
+   */
+  private static boolean intersects(long[] words, Container container) {
+    if (container instanceof BitmapContainer) {
+      long[] bitmap = ((BitmapContainer) container).bitmap;
+      for (int w = 0; w < 1024; ++w) {
+        if ((words[w] & bitmap[w]) != 0) {
+          return true;
+        }
+      }
+    } else if (container instanceof ArrayContainer) {
+      ArrayContainer array = (ArrayContainer) container;
+      for (int k = 0; k < array.cardinality; ++k) {
+        char value = array.content[k];
+        if ((words[value >>> 6] & (1L << value)) != 0) {
+          return true;
+        }
+      }
+    } else {
+      RunContainer runs = (RunContainer) container;
+      for (int r = 0; r < runs.nbrruns; ++r) {
+        int start = runs.getValue(r);
+        if (Util.cardinalityInBitmapRange(words, start, start + runs.getLength(r) + 1) > 0) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param positions the positions of the next containers of the bitmaps
+   * @param bitmaps input bitmaps
+   * @return the smallest key of the next containers, or -1 if all the bitmaps are exhausted
+   */
+  private static int nextKey(int[] positions, RoaringBitmap... bitmaps) {
+    int key = -1;
+    for (int j = 0; j < bitmaps.length; ++j) {
+      RoaringArray highLowContainer = bitmaps[j].highLowContainer;
+      if (positions[j] < highLowContainer.size
+          && (key < 0 || highLowContainer.keys[positions[j]] < key)) {
+        key = highLowContainer.keys[positions[j]];
+      }
+    }
+    return key;
+  }
+
+  private static void flip(long[] words, Container container) {
+    if (container instanceof BitmapContainer) {
+      long[] bitmap = ((BitmapContainer) container).bitmap;
+      for (int w = 0; w < 1024; ++w) {
+        words[w] ^= bitmap[w];
+      }
+    } else if (container instanceof ArrayContainer) {
+      ArrayContainer array = (ArrayContainer) container;
+      for (int k = 0; k < array.cardinality; ++k) {
+        char value = array.content[k];
+        words[value >>> 6] ^= 1L << value;
+      }
+    } else {
+      RunContainer runs = (RunContainer) container;
+      for (int r = 0; r < runs.nbrruns; ++r) {
+        int start = runs.getValue(r);
+        Util.flipBitmapRange(words, start, start + runs.getLength(r) + 1);
+      }
+    }
+  }
+
+  private static void clear(long[] words, Container container) {
+    if (container instanceof BitmapContainer) {
+      long[] bitmap = ((BitmapContainer) container).bitmap;
+      for (int w = 0; w < 1024; ++w) {
+        words[w] &= ~bitmap[w];
+      }
+    } else if (container instanceof ArrayContainer) {
+      ArrayContainer array = (ArrayContainer) container;
+      for (int k = 0; k < array.cardinality; ++k) {
+        char value = array.content[k];
+        words[value >>> 6] &= ~(1L << value);
+      }
+    } else {
+      RunContainer runs = (RunContainer) container;
+      for (int r = 0; r < runs.nbrruns; ++r) {
+        int start = runs.getValue(r);
+        Util.resetBitmapRange(words, start, start + runs.getLength(r) + 1);
+      }
+    }
+  }
+
   /**
    * Calls naive_or.
    *
@@ -374,20 +847,9 @@ public final class FastAggregation {
 
     RoaringArray array =
             new RoaringArray(keys, new Container[numContainers], 0);
+    char[] values = new char[ArrayContainer.DEFAULT_MAX_SIZE];
     for (int i = 0; i < numContainers; ++i) {
-      Container[] slice = containers[i];
-      Arrays.fill(words, -1L);
-      Container tmp = new BitmapContainer(words, -1);
-      for (Container container : slice) {
-        // We only assign to 'tmp' when 'tmp != tmp.iand(container)'
-        // as a garbage-collection optimization: we want to avoid
-        // the write barrier. (Richard Startin)
-        Container and = tmp.iand(container);
-        if (and != tmp) {
-          tmp = and;
-        }
-      }
-      tmp = tmp.repairAfterLazy();
+      Container tmp = and(containers[i], words, values);
       if (!tmp.isEmpty()) {
         array.append(keys[i], tmp instanceof BitmapContainer ? tmp.clone() : tmp);
       }
@@ -395,6 +857,115 @@ public final class FastAggregation {
     return new RoaringBitmap(array);
   }
 
+  /**
+   * Intersects the containers sharing a key. When one of them is an array container, its values
+   * are filtered through all the others at once, smallest arrays first, galloping over the larger
+   * arrays and testing bits of the bitmaps, so that no intermediate container is built. Otherwise
+   * the containers are folded into the words of a lazy bitmap container.
+   *
+   * @param slice the containers, all with the same key
+   * @param words an 8KB buffer, overwritten
+   * @param values a buffer of 4096 values, overwritten
+   * @return the intersection, may be empty or backed by words
+   */
+  static Container and(Container[] slice, long[] words, char[] values) {
+    int cardinality = intersectValues(slice, values);
+    if (cardinality >= 0) {
+      return new ArrayContainer(cardinality, values);
+    }
+    Arrays.fill(words, -1L);
+    Container tmp = new BitmapContainer(words, -1);
+    for (Container container : slice) {
+      // We only assign to 'tmp' when 'tmp != tmp.iand(container)'
+      // as a garbage-collection optimization: we want to avoid
+      // the write barrier. (Richard Startin)
+      Container and = tmp.iand(container);
+      if (and != tmp) {
+        tmp = and;
+      }
+    }
+    return tmp.repairAfterLazy();
+  }
+
+  /**
+   * Writes the values common to all the containers to values when at least one of them is an
+   * array container.
+   *
+   * @param slice the containers, all with the same key
+   * @param values a buffer of 4096 values, overwritten
+   * @return the number of common values, or -1 if there is no array container
+   */
+  static int intersectValues(Container[] slice, char[] values) {
+    ArrayContainer smallest = null;
+    for (Container container : slice) {
+      if (container instanceof ArrayContainer
+          && (smallest == null || container.getCardinality() < smallest.cardinality)) {
+        smallest = (ArrayContainer) container;
+      }
+    }
+    if (smallest == null) {
+      return -1;
+    }
+    int cardinality = smallest.cardinality;
+    System.arraycopy(smallest.content, 0, values, 0, cardinality);
+    // the bitmaps first: a branch-free lookup per value is cheaper than merging arrays of
+    // similar sizes
+    for (int i = 0; i < slice.length && cardinality > 0; ++i) {
+      if (slice[i] instanceof BitmapContainer) {
+        long[] bitmap = ((BitmapContainer) slice[i]).bitmap;
+        int pos = 0;
+        for (int k = 0; k < cardinality; ++k) {
+          char v = values[k];
+          values[pos] = v;
+          pos += (int) (bitmap[v >>> 6] >>> v) & 1;
+        }
+        cardinality = pos;
+      }
+    }
+    // then the other arrays, galloping over the larger ones
+    for (int i = 0; i < slice.length && cardinality > 0; ++i) {
+      if (slice[i] instanceof ArrayContainer && slice[i] != smallest) {
+        ArrayContainer array = (ArrayContainer) slice[i];
+        cardinality = Util.unsignedIntersect2by2(values, cardinality,
+            array.content, array.cardinality, values);
+      }
+    }
+    for (int i = 0; i < slice.length && cardinality > 0; ++i) {
+      if (slice[i] instanceof RunContainer && !slice[i].isFull()) {
+        cardinality = intersectRuns(values, cardinality, (RunContainer) slice[i]);
+      }
+    }
+    return cardinality;
+  }
+
+  private static int intersectRuns(char[] values, int cardinality, RunContainer runs) {
+    int pos = 0;
+    if (runs.nbrruns > RunContainer.GALLOPING_RATIO * cardinality) {
+      for (int k = 0; k < cardinality; ++k) {
+        char v = values[k];
+        if (runs.contains(v)) {
+          values[pos++] = v;
+        }
+      }
+      return pos;
+    }
+    int rlepos = 0;
+    int runEnd = runs.getValue(0) + runs.getLength(0);
+    for (int k = 0; k < cardinality; ++k) {
+      char v = values[k];
+      while (runEnd < v) {
+        if (++rlepos == runs.nbrruns) {
+          return pos;
+        }
+        runEnd = runs.getValue(rlepos) + runs.getLength(rlepos);
+      }
+      if (v >= runs.getValue(rlepos)) {
+        values[pos++] = v;
+      }
+    }
+    return pos;
+  }
+
   private static int workShyAndCardinality(RoaringBitmap... bitmaps) {
     long[] words = new long[1024];
     char[] keys = Util.intersectKeys(words, bitmaps);
@@ -403,24 +974,15 @@ public final class FastAggregation {
     }
     int numKeys = keys.length;
     int cardinality = 0;
+    Container[] slice = new Container[bitmaps.length];
+    char[] values = new char[ArrayContainer.DEFAULT_MAX_SIZE];
     for (int i = 0; i < numKeys; i++) {
-      Arrays.fill(words, -1L);
-      Container tmp = new BitmapContainer(words, -1);
-      for (RoaringBitmap bitmap : bitmaps) {
-        int index = bitmap.highLowContainer.getIndex(keys[i]);
-        if (index < 0) {
-          continue;
-        }
-        Container container = bitmap.highLowContainer.getContainerAtIndex(index);
-        // We only assign to 'tmp' when 'tmp != tmp.iand(container)'
-        // as a garbage-collection optimization: we want to avoid
-        // the write barrier. (Richard Startin)
-        Container and = tmp.iand(container);
-        if (and != tmp) {
-          tmp = and;
-        }
+      for (int j = 0; j < bitmaps.length; ++j) {
+        RoaringArray highLowContainer = bitmaps[j].highLowContainer;
+        slice[j] = highLowContainer.getContainerAtIndex(highLowContainer.getIndex(keys[i]));
       }
-      cardinality += tmp.repairAfterLazy().getCardinality();
+      int common = intersectValues(slice, values);
+      cardinality += common >= 0 ? common : and(slice, words, values).getCardinality();
     }
     return cardinality;
   }
@@ -487,25 +1049,15 @@ public final class FastAggregation {
 
     RoaringArray array =
             new RoaringArray(keys, new Container[numContainers], 0);
+    Container[] slice = new Container[bitmaps.length];
+    char[] values = new char[ArrayContainer.DEFAULT_MAX_SIZE];
     for (int i = 0; i < numContainers; ++i) {
       char MatchingKey = keys[i];
-      Arrays.fill(words, -1L);
-      Container tmp = new BitmapContainer(words, -1);
-      for(RoaringBitmap bitmap: bitmaps) {
-        int idx = bitmap.highLowContainer.getIndex(MatchingKey);
-        if(idx < 0) {
-          continue;
-        }
-        Container container = bitmap.highLowContainer.getContainerAtIndex(idx);
-        // We only assign to 'tmp' when 'tmp != tmp.iand(container)'
-        // as a garbage-collection optimization: we want to avoid
-        // the write barrier. (Richard Startin)
-        Container and = tmp.iand(container);
-        if (and != tmp) {
-          tmp = and;
-        }
+      for (int j = 0; j < bitmaps.length; ++j) {
+        RoaringArray highLowContainer = bitmaps[j].highLowContainer;
+        slice[j] = highLowContainer.getContainerAtIndex(highLowContainer.getIndex(MatchingKey));
       }
-      tmp = tmp.repairAfterLazy();
+      Container tmp = and(slice, words, values);
       if (!tmp.isEmpty()) {
         array.append(keys[i], tmp instanceof BitmapContainer ? tmp.clone() : tmp);
       }
@@ -773,6 +1325,365 @@ public final class FastAggregation {
     return naive_xor(bitmaps);
   }
 
+  /**
+   * Computes the intersection one key at a time, passing each container of the result to the
+   * consumer as soon as it is computed, so that no more than one container per input bitmap is
+   * looked at and no result bitmap is built.
+   *
+   * @param consumer receives the non-empty containers of the intersection, in key order
+   * @param bitmaps input bitmaps
+   */
+  public static void and(ContainerConsumer consumer, RoaringBitmap... bitmaps) {
+    if (bitmaps.length == 0) {
+      return;
+    }
+    long[] words = new long[1024];
+    char[] keys = Util.intersectKeys(words, bitmaps);
+    Container[] slice = new Container[bitmaps.length];
+    int[] positions = new int[bitmaps.length];
+    char[] values = new char[ArrayContainer.DEFAULT_MAX_SIZE];
+    for (char key : keys) {
+      for (int j = 0; j < bitmaps.length; ++j) {
+        RoaringArray highLowContainer = bitmaps[j].highLowContainer;
+        positions[j] = highLowContainer.advanceUntil(key, positions[j] - 1);
+        slice[j] = highLowContainer.values[positions[j]];
+      }
+      Container and = and(slice, words, values);
+      if (!and.isEmpty()) {
+        consumer.accept(key, and);
+      }
+    }
+  }
+
+  /**
+   * Computes the union one key at a time, passing each container of the result to the consumer
+   * as soon as it is computed, so that no more than one container per input bitmap is looked at
+   * and no result bitmap is built.
+   *
+   * @param consumer receives the non-empty containers of the union, in key order
+   * @param bitmaps input bitmaps
+   */
+  public static void or(ContainerConsumer consumer, RoaringBitmap... bitmaps) {
+    PriorityQueue<ContainerPointer> pq = pointers(bitmaps);
+    long[] words = new long[1024];
+    while (!pq.isEmpty()) {
+      ContainerPointer first = pq.poll();
+      char key = first.key();
+      Container union = first.getContainer();
+      if (!pq.isEmpty() && pq.peek().key() == key) {
+        Arrays.fill(words, 0L);
+        union = new BitmapContainer(words, -1).lazyIOR(union);
+        do {
+          ContainerPointer next = pq.poll();
+          union = union.lazyIOR(next.getContainer());
+          advance(pq, next);
+        } while (!pq.isEmpty() && pq.peek().key() == key);
+        union = union.repairAfterLazy();
+      }
+      advance(pq, first);
+      consumer.accept(key, union);
+    }
+  }
+
+  /**
+   * Computes the symmetric difference one key at a time, passing each container of the result to
+   * the consumer as soon as it is computed, so that no more than one container per input bitmap
+   * is looked at and no result bitmap is built.
+   *
+   * @param consumer receives the non-empty containers of the symmetric difference, in key order
+   * @param bitmaps input bitmaps
+   */
+  public static void xor(ContainerConsumer consumer, RoaringBitmap... bitmaps) {
+    PriorityQueue<ContainerPointer> pq = pointers(bitmaps);
+    long[] words = new long[1024];
+    while (!pq.isEmpty()) {
+      ContainerPointer first = pq.poll();
+      char key = first.key();
+      Container difference = first.getContainer();
+      if (!pq.isEmpty() && pq.peek().key() == key) {
+        Arrays.fill(words, 0L);
+        difference = new BitmapContainer(words, -1).lazyIXOR(difference);
+        do {
+          ContainerPointer next = pq.poll();
+          difference = difference.lazyIXOR(next.getContainer());
+          advance(pq, next);
+        } while (!pq.isEmpty() && pq.peek().key() == key);
+        difference = difference.repairAfterLazy();
+      }
+      advance(pq, first);
+      if (!difference.isEmpty()) {
+        consumer.accept(key, difference);
+      }
+    }
+  }
+
+  /**
+   * Computes the difference between the minuend and the union of the subtrahends one key at a
+   * time, passing each container of the result to the consumer as soon as it is computed, so that
+   * no more than one container per input bitmap is looked at and no result bitmap is built.
+   *
+   * @param consumer receives the non-empty containers of the difference, in key order
+   * @param minuend the bitmap to remove values from
+   * @param subtrahends the bitmaps whose values are removed
+   */
+  public static void andNot(ContainerConsumer consumer, RoaringBitmap minuend,
+      RoaringBitmap... subtrahends) {
+    RoaringArray minuendArray = minuend.highLowContainer;
+    int[] positions = new int[subtrahends.length];
+    for (int i = 0; i < minuendArray.size; ++i) {
+      char key = minuendArray.keys[i];
+      Container container = minuendArray.values[i];
+      Container difference = container;
+      for (int j = 0; j < subtrahends.length && !difference.isEmpty(); ++j) {
+        RoaringArray highLowContainer = subtrahends[j].highLowContainer;
+        int position = highLowContainer.advanceUntil(key, positions[j] - 1);
+        positions[j] = position;
+        if (position < highLowContainer.size && highLowContainer.keys[position] == key) {
+          Container subtrahend = highLowContainer.values[position];
+          difference = difference == container
+              ? container.andNot(subtrahend)
+              : difference.iandNot(subtrahend);
+        }
+      }
+      if (!difference.isEmpty()) {
+        consumer.accept(key, difference);
+      }
+    }
+  }
+
+  /**
+   * Computes the values present in at least threshold of the bitmaps. The containers sharing a
+   * key are counted with bit-sliced counters: each array value, run or bitmap word is added to
+   * the counters of its 64 bit word with a ripple carry, so that the cost of counting is
+   * logarithmic in the number of bitmaps, and the values reaching the threshold are then
+   * selected a word at a time. Keys held by fewer than threshold bitmaps are skipped.
+   *
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps input bitmaps
+   * @return the values present in at least threshold bitmaps
+   */
+  public static RoaringBitmap threshold(int threshold, RoaringBitmap... bitmaps) {
+    RoaringBitmap result = new RoaringBitmap();
+    threshold((key, container) -> result.highLowContainer.append(key, container.clone()),
+        threshold, bitmaps);
+    return result;
+  }
+
+  /**
+   * Computes the number of values present in at least threshold of the bitmaps, without
+   * materialising them.
+   *
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps input bitmaps
+   * @return the number of values present in at least threshold bitmaps
+   */
+  public static int thresholdCardinality(int threshold, RoaringBitmap... bitmaps) {
+    checkThreshold(threshold);
+    if (threshold == 1) {
+      return orCardinality(bitmaps);
+    }
+    if (threshold == bitmaps.length) {
+      return andCardinality(bitmaps);
+    }
+    int cardinality = 0;
+    if (threshold < bitmaps.length) {
+      PriorityQueue<ContainerPointer> pq = pointers(bitmaps);
+      long[] words = new long[1024];
+      long[] counters = new long[1024 * counterLevels(bitmaps.length)];
+      Container[] slice = new Container[bitmaps.length];
+      while (!pq.isEmpty()) {
+        int count = poll(pq, slice);
+        if (count >= threshold) {
+          cardinality += threshold(threshold, slice, count, words, counters);
+        }
+      }
+    }
+    return cardinality;
+  }
+
+  /**
+   * Computes the values present in at least threshold of the bitmaps one key at a time, passing
+   * each container of the result to the consumer as soon as it is computed.
+   *
+   * @param consumer receives the non-empty containers of the result, in key order
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps input bitmaps
+   */
+  public static void threshold(ContainerConsumer consumer, int threshold,
+      RoaringBitmap... bitmaps) {
+    checkThreshold(threshold);
+    if (threshold == 1) {
+      or(consumer, bitmaps);
+    } else if (threshold == bitmaps.length) {
+      and(consumer, bitmaps);
+    } else if (threshold < bitmaps.length) {
+      PriorityQueue<ContainerPointer> pq = pointers(bitmaps);
+      long[] words = new long[1024];
+      long[] counters = new long[1024 * counterLevels(bitmaps.length)];
+      Container[] slice = new Container[bitmaps.length];
+      while (!pq.isEmpty()) {
+        char key = pq.peek().key();
+        int count = poll(pq, slice);
+        if (count >= threshold) {
+          int cardinality = threshold(threshold, slice, count, words, counters);
+          if (cardinality > 0) {
+            consumer.accept(key, new BitmapContainer(words, cardinality).repairAfterLazy());
+          }
+        }
+      }
+    }
+  }
+
+  static void checkThreshold(int threshold) {
+    if (threshold < 1) {
+      throw new IllegalArgumentException("The threshold must be positive: " + threshold);
+    }
+  }
+
+  /**
+   * @param maxCount the largest count
+   * @return the number of bit slices needed to count up to maxCount
+   */
+  static int counterLevels(int maxCount) {
+    return 32 - Integer.numberOfLeadingZeros(maxCount);
+  }
+
+  /**
+   * Selects the values present in at least threshold of the containers sharing a key.
+   *
+   * @param threshold the minimum number of containers a value must be present in
+   * @param slice the containers, all with the same key
+   * @param count the number of containers in the slice
+   * @param words an 8KB buffer, overwritten with the selected values
+   * @param counters 1024 words per bit slice, enough to count up to count, zeroed and left
+   *        zeroed
+   * @return the number of selected values
+   */
+  static int threshold(int threshold, Container[] slice, int count, long[] words,
+      long[] counters) {
+    int levels = counters.length >>> 10;
+    int minWord = words.length;
+    int maxWord = -1;
+    for (int i = 0; i < count; ++i) {
+      Container container = slice[i];
+      if (container instanceof BitmapContainer) {
+        long[] bitmap = ((BitmapContainer) container).bitmap;
+        for (int w = 0; w < bitmap.length; ++w) {
+          increment(counters, levels, w, bitmap[w]);
+        }
+        minWord = 0;
+        maxWord = bitmap.length - 1;
+      } else if (container instanceof ArrayContainer) {
+        ArrayContainer array = (ArrayContainer) container;
+        if (array.cardinality == 0) {
+          continue;
+        }
+        // the values are sorted, so the values of a word are added to the counters at once
+        int word = array.content[0] >>> 6;
+        long bits = 0;
+        for (int k = 0; k < array.cardinality; ++k) {
+          char value = array.content[k];
+          if (value >>> 6 != word) {
+            increment(counters, levels, word, bits);
+            word = value >>> 6;
+            bits = 0;
+          }
+          bits |= 1L << value;
+        }
+        increment(counters, levels, word, bits);
+        minWord = Math.min(minWord, array.content[0] >>> 6);
+        maxWord = Math.max(maxWord, word);
+      } else {
+        RunContainer runs = (RunContainer) container;
+        for (int r = 0; r < runs.nbrruns; ++r) {
+          int start = runs.getValue(r);
+          int end = start + runs.getLength(r);
+          int first = start >>> 6;
+          int last = end >>> 6;
+          for (int w = first; w <= last; ++w) {
+            long bits = -1L;
+            if (w == first) {
+              bits &= -1L << start;
+            }
+            if (w == last) {
+              bits &= -1L >>> (63 - (end & 63));
+            }
+            increment(counters, levels, w, bits);
+          }
+          minWord = Math.min(minWord, first);
+          maxWord = Math.max(maxWord, last);
+        }
+      }
+    }
+    Arrays.fill(words, 0L);
+    int cardinality = 0;
+    for (int w = minWord; w <= maxWord; ++w) {
+      // compares the counts to the threshold from the most significant slice down
+      int base = w * levels;
+      long above = 0;
+      long equal = -1L;
+      for (int level = levels - 1; level >= 0; --level) {
+        long bits = counters[base + level];
+        counters[base + level] = 0;
+        if ((threshold >>> level & 1) != 0) {
+          equal &= bits;
+        } else {
+          above |= equal & bits;
+          equal &= ~bits;
+        }
+      }
+      words[w] = above | equal;
+      cardinality += Long.bitCount(words[w]);
+    }
+    return cardinality;
+  }
+
+  private static void increment(long[] counters, int levels, int word, long bits) {
+    // a ripple carry adder over the bit slices of the word
+    int base = word * levels;
+    for (int level = 0; bits != 0; ++level) {
+      long carry = counters[base + level] & bits;
+      counters[base + level] ^= bits;
+      bits = carry;
+    }
+  }
+
+  /**
+   * Moves the containers with the smallest key out of the queue.
+   *
+   * @param pq the pointers to the next containers of the bitmaps
+   * @param slice receives the containers with the smallest key
+   * @return the number of containers with the smallest key
+   */
+  private static int poll(PriorityQueue<ContainerPointer> pq, Container[] slice) {
+    char key = pq.peek().key();
+    int count = 0;
+    do {
+      ContainerPointer pointer = pq.poll();
+      slice[count++] = pointer.getContainer();
+      advance(pq, pointer);
+    } while (!pq.isEmpty() && pq.peek().key() == key);
+    return count;
+  }
+
+  private static PriorityQueue<ContainerPointer> pointers(RoaringBitmap... bitmaps) {
+    PriorityQueue<ContainerPointer> pq = new PriorityQueue<>(Math.max(1, bitmaps.length));
+    for (RoaringBitmap bitmap : bitmaps) {
+      ContainerPointer pointer = bitmap.highLowContainer.getContainerPointer();
+      if (pointer.getContainer() != null) {
+        pq.add(pointer);
+      }
+    }
+    return pq;
+  }
+
+  private static void advance(PriorityQueue<ContainerPointer> pq, ContainerPointer pointer) {
+    pointer.advance();
+    if (pointer.getContainer() != null) {
+      pq.add(pointer);
+    }
+  }
+
   /**
    * Private constructor to prevent instantiation of utility class
    */
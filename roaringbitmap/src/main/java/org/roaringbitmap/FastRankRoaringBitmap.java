@@ -148,6 +148,36 @@ public class FastRankRoaringBitmap extends RoaringBitmap {
     super.xor(x2);
   }
 
+  @Override
+  public void lazyAnd(RoaringBitmap x2) {
+    resetCache();
+    super.lazyAnd(x2);
+  }
+
+  @Override
+  public void lazyAndNot(RoaringBitmap x2) {
+    resetCache();
+    super.lazyAndNot(x2);
+  }
+
+  @Override
+  public void lazyOr(RoaringBitmap x2) {
+    resetCache();
+    super.lazyOr(x2);
+  }
+
+  @Override
+  public void lazyXor(RoaringBitmap x2) {
+    resetCache();
+    super.lazyXor(x2);
+  }
+
+  @Override
+  public void repairAfterLazy() {
+    resetCache();
+    super.repairAfterLazy();
+  }
+
   /**
    * On any .rank or .select operation, we pre-compute all cumulated cardinalities. It will enable
    * using a binary-search to spot the relevant underlying bucket. We may prefer to cache
@@ -0,0 +1,404 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.roaringbitmap.RoaringArray.NO_OFFSET_THRESHOLD;
+import static org.roaringbitmap.RoaringArray.SERIAL_COOKIE;
+import static org.roaringbitmap.RoaringArray.SERIAL_COOKIE_NO_RUNCONTAINER;
+
+/**
+ * A bitmap read from the portable format which copies its containers to the heap only when
+ * they are first accessed. Creating it only parses the header of the serialized bitmap, that is
+ * the keys, the cardinalities and the offsets of the containers, so that a caller checking a few
+ * values or reading the cardinality never pays for the containers it does not touch, unlike
+ * {@link RoaringBitmap#deserialize(ByteBuffer)}.
+ *
+ * The lookups by value, such as {@link #contains(int)}, {@link #rank(int)} or
+ * {@link #select(int)}, copy the containers they visit. The other operations, such as the
+ * iterators, copy all the containers once. {@link #toRoaringBitmap()} returns an independent
+ * RoaringBitmap. The buffer must not be modified while the bitmap is in use. The bitmap can be
+ * read from several threads, each container copied on first access being published once, so
+ * that threads racing to copy it end up sharing the same copy.
+ *
+ * <pre>
+ * {@code
+ *      LazyRoaringBitmap bitmap = new LazyRoaringBitmap(buffer);
+ *      if (bitmap.contains(userId)) {
+ *        // only the container of userId was copied
+ *      }
+ * }
+ * </pre>
+ */
+public final class LazyRoaringBitmap implements ImmutableBitmapDataProvider {
+
+  private final ByteBuffer buffer;
+  private final int size;
+  private final char[] keys;
+  private final int[] cardinalities;
+  // the number of values in the containers before each container
+  private final long[] ranks;
+  private final int[] offsets;
+  private final byte[] runMarkers;
+  private final AtomicReferenceArray<Container> containers;
+  private final int serializedSize;
+  private volatile RoaringBitmap materialized;
+
+  /**
+   * Parses the header of a bitmap in the portable format, starting at the position of the
+   * buffer. The buffer is sliced, so that its position, limit and order are left unchanged.
+   *
+   * @param bbf the serialized bitmap
+   * @throws InvalidRoaringFormat if the buffer does not start with a valid cookie
+   */
+  public LazyRoaringBitmap(ByteBuffer bbf) {
+    ByteBuffer buffer = bbf.slice().order(LITTLE_ENDIAN);
+    final int cookie = buffer.getInt();
+    if ((cookie & 0xFFFF) != SERIAL_COOKIE && cookie != SERIAL_COOKIE_NO_RUNCONTAINER) {
+      throw new InvalidRoaringFormat("I failed to find one of the right cookies. " + cookie);
+    }
+    boolean hasRunContainers = (cookie & 0xFFFF) == SERIAL_COOKIE;
+    this.size = hasRunContainers ? (cookie >>> 16) + 1 : buffer.getInt();
+    if (size > (1 << 16)) {
+      throw new InvalidRoaringFormat("Size too large");
+    }
+    if (hasRunContainers) {
+      runMarkers = new byte[(size + 7) / 8];
+      buffer.get(runMarkers);
+    } else {
+      runMarkers = null;
+    }
+    this.keys = new char[size];
+    this.cardinalities = new int[size];
+    this.ranks = new long[size + 1];
+    for (int k = 0; k < size; ++k) {
+      keys[k] = buffer.getChar();
+      cardinalities[k] = 1 + buffer.getChar();
+      ranks[k + 1] = ranks[k] + cardinalities[k];
+    }
+    this.offsets = new int[size];
+    if (!hasRunContainers || size >= NO_OFFSET_THRESHOLD) {
+      for (int k = 0; k < size; ++k) {
+        offsets[k] = buffer.getInt();
+      }
+    } else {
+      // too few containers for the offsets to be stored
+      int offset = buffer.position();
+      for (int k = 0; k < size; ++k) {
+        offsets[k] = offset;
+        offset += containerSize(buffer, k);
+      }
+    }
+    this.serializedSize = size == 0
+        ? buffer.position() : offsets[size - 1] + containerSize(buffer, size - 1);
+    this.buffer = buffer;
+    this.containers = new AtomicReferenceArray<>(size);
+  }
+
+  private boolean isRun(int k) {
+    return runMarkers != null && (runMarkers[k >>> 3] & (1 << (k & 7))) != 0;
+  }
+
+  private boolean isBitmap(int k) {
+    return !isRun(k) && cardinalities[k] > ArrayContainer.DEFAULT_MAX_SIZE;
+  }
+
+  private int containerSize(ByteBuffer buffer, int k) {
+    if (isRun(k)) {
+      return 2 + 4 * buffer.getChar(offsets[k]);
+    }
+    return isBitmap(k) ? BitmapContainer.MAX_CAPACITY / 8 : 2 * cardinalities[k];
+  }
+
+  /**
+   * Copies a container to the heap, unless it already was.
+   *
+   * @param k the position of the container
+   * @return the container
+   */
+  private Container container(int k) {
+    Container container = containers.get(k);
+    if (container == null) {
+      container = read(k);
+      if (!containers.compareAndSet(k, null, container)) {
+        container = containers.get(k);
+      }
+    }
+    return container;
+  }
+
+  private Container read(int k) {
+    ByteBuffer view = buffer.duplicate().order(LITTLE_ENDIAN);
+    view.position(offsets[k]);
+    if (isBitmap(k)) {
+      long[] bitmap = new long[BitmapContainer.MAX_CAPACITY / 64];
+      view.asLongBuffer().get(bitmap);
+      return new BitmapContainer(bitmap, cardinalities[k]);
+    }
+    if (isRun(k)) {
+      int nbrruns = view.getChar();
+      char[] valueslength = new char[2 * nbrruns];
+      view.asCharBuffer().get(valueslength);
+      return new RunContainer(valueslength, nbrruns);
+    }
+    char[] content = new char[cardinalities[k]];
+    view.asCharBuffer().get(content);
+    return new ArrayContainer(content);
+  }
+
+  /**
+   * @return whether the container at this position was copied to the heap
+   */
+  boolean isMaterialized(int k) {
+    return containers.get(k) != null;
+  }
+
+  /**
+   * Copies the bitmap to the heap, reusing neither the containers already copied nor the buffer.
+   *
+   * @return an independent copy of the bitmap
+   */
+  public RoaringBitmap toRoaringBitmap() {
+    RoaringArray array = new RoaringArray(new char[size], new Container[size], 0);
+    for (int k = 0; k < size; ++k) {
+      Container container = containers.get(k);
+      array.append(keys[k], container == null ? read(k) : container.clone());
+    }
+    return new RoaringBitmap(array);
+  }
+
+  /**
+   * @return a bitmap sharing the containers of this bitmap, which must not be modified
+   */
+  private RoaringBitmap materialized() {
+    RoaringBitmap bitmap = materialized;
+    if (bitmap == null) {
+      // racing threads build equivalent bitmaps over the same containers
+      RoaringArray array = new RoaringArray(new char[size], new Container[size], 0);
+      for (int k = 0; k < size; ++k) {
+        array.append(keys[k], container(k));
+      }
+      bitmap = materialized = new RoaringBitmap(array);
+    }
+    return bitmap;
+  }
+
+  private int index(char key) {
+    return Util.unsignedBinarySearch(keys, 0, size, key);
+  }
+
+  @Override
+  public boolean contains(int x) {
+    int k = index(Util.highbits(x));
+    return k >= 0 && container(k).contains(Util.lowbits(x));
+  }
+
+  @Override
+  public int getCardinality() {
+    return (int) ranks[size];
+  }
+
+  @Override
+  public long getLongCardinality() {
+    return ranks[size];
+  }
+
+  @Override
+  public void forEach(IntConsumer ic) {
+    for (int k = 0; k < size; ++k) {
+      container(k).forEach(keys[k], ic);
+    }
+  }
+
+  @Override
+  public PeekableIntIterator getIntIterator() {
+    return materialized().getIntIterator();
+  }
+
+  @Override
+  public PeekableIntIterator getSignedIntIterator() {
+    return materialized().getSignedIntIterator();
+  }
+
+  @Override
+  public IntIterator getReverseIntIterator() {
+    return materialized().getReverseIntIterator();
+  }
+
+  @Override
+  public BatchIterator getBatchIterator() {
+    return materialized().getBatchIterator();
+  }
+
+  @Override
+  public int getSizeInBytes() {
+    return materialized().getSizeInBytes();
+  }
+
+  @Override
+  public long getLongSizeInBytes() {
+    return materialized().getLongSizeInBytes();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public RoaringBitmap limit(int x) {
+    return materialized().limit(x);
+  }
+
+  @Override
+  public int rank(int x) {
+    return (int) rankLong(x);
+  }
+
+  @Override
+  public long rankLong(int x) {
+    int k = index(Util.highbits(x));
+    if (k < 0) {
+      return ranks[-k - 1];
+    }
+    return ranks[k] + container(k).rank(Util.lowbits(x));
+  }
+
+  @Override
+  public long rangeCardinality(long start, long end) {
+    if (Long.compareUnsigned(start, end) >= 0) {
+      return 0;
+    }
+    long cardinality = rankLong((int) (end - 1));
+    return start == 0 ? cardinality : cardinality - rankLong((int) (start - 1));
+  }
+
+  @Override
+  public int select(int j) {
+    long leftover = Util.toUnsignedLong(j);
+    if (leftover >= ranks[size]) {
+      throw new IllegalArgumentException("You are trying to select the "
+          + j + "th value when the cardinality is " + ranks[size] + ".");
+    }
+    // the first container with more than leftover values before its end
+    int low = 0;
+    int high = size - 1;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (ranks[middle + 1] > leftover) {
+        high = middle;
+      } else {
+        low = middle + 1;
+      }
+    }
+    return (keys[low] << 16) | container(low).select((int) (leftover - ranks[low]));
+  }
+
+  @Override
+  public int first() {
+    assertNonEmpty();
+    return (keys[0] << 16) | container(0).first();
+  }
+
+  @Override
+  public int last() {
+    assertNonEmpty();
+    return (keys[size - 1] << 16) | container(size - 1).last();
+  }
+
+  private void assertNonEmpty() {
+    if (size == 0) {
+      throw new NoSuchElementException("Empty bitmap");
+    }
+  }
+
+  @Override
+  public int firstSigned() {
+    return materialized().firstSigned();
+  }
+
+  @Override
+  public int lastSigned() {
+    return materialized().lastSigned();
+  }
+
+  @Override
+  public long nextValue(int fromValue) {
+    return materialized().nextValue(fromValue);
+  }
+
+  @Override
+  public long previousValue(int fromValue) {
+    return materialized().previousValue(fromValue);
+  }
+
+  @Override
+  public long nextAbsentValue(int fromValue) {
+    return materialized().nextAbsentValue(fromValue);
+  }
+
+  @Override
+  public long previousAbsentValue(int fromValue) {
+    return materialized().previousAbsentValue(fromValue);
+  }
+
+  /**
+   * Writes the serialized bytes the bitmap was read from, without copying any container to the
+   * heap.
+   *
+   * @param out the output
+   * @throws IOException if the output fails
+   */
+  @Override
+  public void serialize(DataOutput out) throws IOException {
+    if (buffer.hasArray()) {
+      out.write(buffer.array(), buffer.arrayOffset(), serializedSize);
+    } else {
+      byte[] bytes = new byte[serializedSize];
+      ByteBuffer view = buffer.duplicate();
+      view.position(0);
+      view.get(bytes);
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Writes the serialized bytes the bitmap was read from, without copying any container to the
+   * heap.
+   *
+   * @param out the output, which must have serializedSizeInBytes() bytes remaining
+   */
+  @Override
+  public void serialize(ByteBuffer out) {
+    ByteBuffer bytes = buffer.duplicate();
+    bytes.position(0).limit(serializedSize);
+    out.put(bytes);
+  }
+
+  @Override
+  public int serializedSizeInBytes() {
+    return serializedSize;
+  }
+
+  @Override
+  public int[] toArray() {
+    return materialized().toArray();
+  }
+
+  @Override
+  public int getContainerCount() {
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return materialized().toString();
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The intersection of a set of bitmaps, kept up to date as its members change. The members
+ * must only be modified through this view, which applies each change to the member and then
+ * repairs the intersection: removing values from a member removes them from the intersection,
+ * while adding values only intersects these values with the containers of the other members
+ * under the same keys.
+ *
+ * For each key, the view counts the members having a container under that key, so that the
+ * values added under a key some member has no container for are known not to make it into the
+ * intersection without looking at any member.
+ *
+ * <pre>
+ * {@code
+ *      MaterializedIntersection intersection = new MaterializedIntersection(segments);
+ *      intersection.or(3, subscribed);
+ *      intersection.remove(7, formerUser);
+ *      RoaringBitmap audience = intersection.getIntersection();
+ * }
+ * </pre>
+ */
+public final class MaterializedIntersection {
+
+  private final List<RoaringBitmap> members = new ArrayList<>();
+  // the number of members with a container under each key
+  private final int[] counts = new int[1 << 16];
+  private final RoaringBitmap intersection;
+
+  /**
+   * Materializes the intersection of the members, which are identified by their positions.
+   * There is no value in the intersection of no bitmap.
+   *
+   * @param members the initial members, owned by the view from now on
+   */
+  public MaterializedIntersection(RoaringBitmap... members) {
+    for (RoaringBitmap member : members) {
+      index(member);
+    }
+    this.intersection = FastAggregation.and(members);
+  }
+
+  /**
+   * Adds a member to the intersection.
+   *
+   * @param member the new member, owned by the view from now on
+   * @return the id of the member
+   */
+  public int addMember(RoaringBitmap member) {
+    int id = index(member);
+    if (id == 0) {
+      intersection.or(member);
+    } else {
+      intersection.and(member);
+    }
+    return id;
+  }
+
+  private int index(RoaringBitmap member) {
+    int id = members.size();
+    members.add(member);
+    RoaringArray ra = member.highLowContainer;
+    for (int i = 0; i < ra.size; ++i) {
+      ++counts[ra.keys[i]];
+    }
+    return id;
+  }
+
+  /**
+   * @return the number of members
+   */
+  public int size() {
+    return members.size();
+  }
+
+  /**
+   * @param id the id of a member
+   * @return the member, which must not be modified directly
+   */
+  public RoaringBitmap getMember(int id) {
+    return members.get(id);
+  }
+
+  /**
+   * @return the intersection of the members, which must not be modified
+   */
+  public RoaringBitmap getIntersection() {
+    return intersection;
+  }
+
+  /**
+   * Adds a value to a member.
+   *
+   * @param id the id of the member
+   * @param x the value
+   */
+  public void add(int id, int x) {
+    RoaringBitmap member = members.get(id);
+    char key = Util.highbits(x);
+    boolean hadKey = member.highLowContainer.getIndex(key) >= 0;
+    if (!member.checkedAdd(x)) {
+      return;
+    }
+    if (!hadKey) {
+      ++counts[key];
+    }
+    if (counts[key] < members.size()) {
+      return;
+    }
+    for (int i = 0; i < members.size(); ++i) {
+      if (i != id && !members.get(i).contains(x)) {
+        return;
+      }
+    }
+    intersection.add(x);
+  }
+
+  /**
+   * Removes a value from a member.
+   *
+   * @param id the id of the member
+   * @param x the value
+   */
+  public void remove(int id, int x) {
+    RoaringBitmap member = members.get(id);
+    if (member.checkedRemove(x)) {
+      char key = Util.highbits(x);
+      if (member.highLowContainer.getIndex(key) < 0) {
+        --counts[key];
+      }
+      intersection.remove(x);
+    }
+  }
+
+  /**
+   * Adds the values of a bitmap to a member.
+   *
+   * @param id the id of the member
+   * @param bitmap the values to add
+   */
+  public void or(int id, RoaringBitmap bitmap) {
+    RoaringArray member = members.get(id).highLowContainer;
+    RoaringArray ra = bitmap.highLowContainer;
+    for (int i = 0; i < ra.size; ++i) {
+      if (member.getIndex(ra.keys[i]) < 0) {
+        ++counts[ra.keys[i]];
+      }
+    }
+    members.get(id).or(bitmap);
+    for (int i = 0; i < ra.size; ++i) {
+      if (counts[ra.keys[i]] == members.size()) {
+        gain(id, ra.keys[i], ra.values[i]);
+      }
+    }
+  }
+
+  /**
+   * Removes the values of a bitmap from a member.
+   *
+   * @param id the id of the member
+   * @param bitmap the values to remove
+   */
+  public void andNot(int id, RoaringBitmap bitmap) {
+    RoaringArray member = members.get(id).highLowContainer;
+    RoaringArray ra = bitmap.highLowContainer;
+    // the keys the member may lose its container under
+    char[] shared = new char[Math.min(member.size, ra.size)];
+    int numShared = 0;
+    for (int i = 0; i < ra.size; ++i) {
+      if (member.getIndex(ra.keys[i]) >= 0) {
+        shared[numShared++] = ra.keys[i];
+      }
+    }
+    // before the member, which may be the bitmap itself
+    intersection.andNot(bitmap);
+    members.get(id).andNot(bitmap);
+    // clearing the member replaces its array
+    member = members.get(id).highLowContainer;
+    for (int i = 0; i < numShared; ++i) {
+      if (member.getIndex(shared[i]) < 0) {
+        --counts[shared[i]];
+      }
+    }
+  }
+
+  /**
+   * Adds to the intersection the values of a container added to a member which all the other
+   * members have.
+   */
+  private void gain(int id, char key, Container added) {
+    Container gained = added;
+    for (int i = 0; i < members.size() && !gained.isEmpty(); ++i) {
+      if (i != id) {
+        RoaringArray member = members.get(i).highLowContainer;
+        gained = gained.and(member.values[member.getIndex(key)]);
+      }
+    }
+    if (gained.isEmpty()) {
+      return;
+    }
+    RoaringArray ra = intersection.highLowContainer;
+    int index = ra.getIndex(key);
+    if (index >= 0) {
+      ra.setContainerAtIndex(index, ra.values[index].ior(gained));
+    } else {
+      ra.insertNewKeyValueAt(-index - 1, key, gained == added ? added.clone() : gained);
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The union of a set of bitmaps, kept up to date as its members change. The members must only
+ * be modified through this view, which applies each change to the member and then repairs the
+ * union: adding values to a member adds them to the union, while removing values only
+ * recomputes the containers of the union under the keys the member lost values from.
+ *
+ * For each key, the view keeps the ids of the members having a container under that key, so
+ * that a container of the union is recomputed from these members alone, and dropped without
+ * looking at any member once none of them is left.
+ *
+ * <pre>
+ * {@code
+ *      MaterializedUnion union = new MaterializedUnion(segments);
+ *      union.andNot(3, unsubscribed);
+ *      union.add(7, newUser);
+ *      RoaringBitmap reach = union.getUnion();
+ * }
+ * </pre>
+ */
+public final class MaterializedUnion {
+
+  private final List<RoaringBitmap> members = new ArrayList<>();
+  // the ids of the members with a container under each key
+  private final RoaringBitmap[] holders = new RoaringBitmap[1 << 16];
+  private final RoaringBitmap union;
+
+  /**
+   * Materializes the union of the members, which are identified by their positions.
+   *
+   * @param members the initial members, owned by the view from now on
+   */
+  public MaterializedUnion(RoaringBitmap... members) {
+    for (RoaringBitmap member : members) {
+      index(member);
+    }
+    this.union = FastAggregation.or(members);
+  }
+
+  /**
+   * Adds a member to the union.
+   *
+   * @param member the new member, owned by the view from now on
+   * @return the id of the member
+   */
+  public int addMember(RoaringBitmap member) {
+    int id = index(member);
+    union.or(member);
+    return id;
+  }
+
+  private int index(RoaringBitmap member) {
+    int id = members.size();
+    members.add(member);
+    RoaringArray ra = member.highLowContainer;
+    for (int i = 0; i < ra.size; ++i) {
+      holders(ra.keys[i]).add(id);
+    }
+    return id;
+  }
+
+  /**
+   * @return the number of members
+   */
+  public int size() {
+    return members.size();
+  }
+
+  /**
+   * @param id the id of a member
+   * @return the member, which must not be modified directly
+   */
+  public RoaringBitmap getMember(int id) {
+    return members.get(id);
+  }
+
+  /**
+   * @return the union of the members, which must not be modified
+   */
+  public RoaringBitmap getUnion() {
+    return union;
+  }
+
+  /**
+   * Adds a value to a member.
+   *
+   * @param id the id of the member
+   * @param x the value
+   */
+  public void add(int id, int x) {
+    members.get(id).add(x);
+    holders(Util.highbits(x)).add(id);
+    union.add(x);
+  }
+
+  /**
+   * Removes a value from a member.
+   *
+   * @param id the id of the member
+   * @param x the value
+   */
+  public void remove(int id, int x) {
+    RoaringBitmap member = members.get(id);
+    if (!member.checkedRemove(x)) {
+      return;
+    }
+    char key = Util.highbits(x);
+    RoaringBitmap ids = holders[key];
+    if (member.highLowContainer.getIndex(key) < 0) {
+      ids.remove(id);
+    }
+    for (IntIterator it = ids.getIntIterator(); it.hasNext(); ) {
+      if (members.get(it.next()).contains(x)) {
+        return;
+      }
+    }
+    union.remove(x);
+  }
+
+  /**
+   * Adds the values of a bitmap to a member.
+   *
+   * @param id the id of the member
+   * @param bitmap the values to add
+   */
+  public void or(int id, RoaringBitmap bitmap) {
+    members.get(id).or(bitmap);
+    RoaringArray ra = bitmap.highLowContainer;
+    for (int i = 0; i < ra.size; ++i) {
+      holders(ra.keys[i]).add(id);
+    }
+    union.or(bitmap);
+  }
+
+  /**
+   * Removes the values of a bitmap from a member.
+   *
+   * @param id the id of the member
+   * @param bitmap the values to remove
+   */
+  public void andNot(int id, RoaringBitmap bitmap) {
+    RoaringBitmap member = members.get(id);
+    // the keys the member loses values under, whose containers in the union are recomputed
+    RoaringArray ra = member.highLowContainer;
+    RoaringArray other = bitmap.highLowContainer;
+    char[] touched = new char[Math.min(ra.size, other.size)];
+    int numTouched = 0;
+    for (int i = 0, j = 0; i < ra.size && j < other.size; ) {
+      if (ra.keys[i] < other.keys[j]) {
+        i = ra.advanceUntil(other.keys[j], i);
+      } else if (ra.keys[i] > other.keys[j]) {
+        j = other.advanceUntil(ra.keys[i], j);
+      } else {
+        if (ra.values[i].intersects(other.values[j])) {
+          touched[numTouched++] = ra.keys[i];
+        }
+        ++i;
+        ++j;
+      }
+    }
+    member.andNot(bitmap);
+    // clearing the member replaces its array
+    ra = member.highLowContainer;
+    for (int i = 0; i < numTouched; ++i) {
+      char key = touched[i];
+      if (ra.getIndex(key) < 0) {
+        holders[key].remove(id);
+      }
+      recompute(key);
+    }
+  }
+
+  private RoaringBitmap holders(char key) {
+    RoaringBitmap ids = holders[key];
+    if (ids == null) {
+      ids = holders[key] = new RoaringBitmap();
+    }
+    return ids;
+  }
+
+  private void recompute(char key) {
+    RoaringArray ra = union.highLowContainer;
+    int index = ra.getIndex(key);
+    RoaringBitmap ids = holders[key];
+    if (ids.isEmpty()) {
+      ra.removeAtIndex(index);
+      return;
+    }
+    Container result = null;
+    for (IntIterator it = ids.getIntIterator(); it.hasNext(); ) {
+      RoaringArray member = members.get(it.next()).highLowContainer;
+      Container container = member.values[member.getIndex(key)];
+      result = result == null ? container.clone() : result.lazyIOR(container);
+    }
+    ra.setContainerAtIndex(index, result.repairAfterLazy());
+  }
+}
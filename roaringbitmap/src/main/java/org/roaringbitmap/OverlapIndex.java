@@ -0,0 +1,338 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Finds the bitmaps of a catalog which overlap the most with a query bitmap, for instance the
+ * audience segments sharing the most users with a given segment.
+ *
+ * The index maps each key to the catalog bitmaps having a container under that key, along with
+ * the cardinalities of these containers. A query first scans the lists of its own keys: the
+ * overlap of a container of the query with a container of a catalog bitmap is at most the
+ * smaller of their cardinalities, so summing these minimums bounds the intersection of each
+ * candidate, and the catalog bitmaps sharing no key with the query are never visited. The exact
+ * intersections are then computed in decreasing order of these bounds, until no remaining
+ * candidate can make it into the top k.
+ *
+ * The catalog bitmaps must not be modified once indexed.
+ *
+ * <pre>
+ * {@code
+ *      OverlapIndex index = new OverlapIndex(segments);
+ *      for (OverlapIndex.Match match : index.topK(query, 10, OverlapIndex.Similarity.JACCARD)) {
+ *        System.out.println(match.getId() + " " + match.getScore());
+ *      }
+ * }
+ * </pre>
+ */
+public final class OverlapIndex {
+
+  /**
+   * How the overlap of a catalog bitmap with the query is scored. Scores only grow with the
+   * cardinality of the intersection, the cardinalities of the query and of the catalog bitmap
+   * being fixed.
+   */
+  public enum Similarity {
+    /**
+     * The cardinality of the intersection.
+     */
+    INTERSECTION {
+      @Override
+      double score(int intersection, int queryCardinality, int cardinality) {
+        return intersection;
+      }
+    },
+    /**
+     * The cardinality of the intersection divided by the cardinality of the union.
+     */
+    JACCARD {
+      @Override
+      double score(int intersection, int queryCardinality, int cardinality) {
+        return intersection / ((double) queryCardinality + cardinality - intersection);
+      }
+    },
+    /**
+     * The fraction of the catalog bitmap contained in the query.
+     */
+    CONTAINMENT {
+      @Override
+      double score(int intersection, int queryCardinality, int cardinality) {
+        return intersection / (double) cardinality;
+      }
+    };
+
+    abstract double score(int intersection, int queryCardinality, int cardinality);
+  }
+
+  /**
+   * A catalog bitmap and its score.
+   */
+  public static final class Match {
+
+    private final int id;
+    private final int intersection;
+    private final double score;
+
+    Match(int id, int intersection, double score) {
+      this.id = id;
+      this.intersection = intersection;
+      this.score = score;
+    }
+
+    /**
+     * @return the position of the bitmap in the catalog
+     */
+    public int getId() {
+      return id;
+    }
+
+    /**
+     * @return the cardinality of the intersection of the bitmap with the query
+     */
+    public int getIntersectionCardinality() {
+      return intersection;
+    }
+
+    /**
+     * @return the score of the bitmap
+     */
+    public double getScore() {
+      return score;
+    }
+
+    @Override
+    public String toString() {
+      return "Match{id=" + id + ", intersection=" + intersection + ", score=" + score + '}';
+    }
+  }
+
+  // the best match first, ties going to the smallest id
+  private static final Comparator<Match> BEST_FIRST =
+      Comparator.comparingDouble(Match::getScore).reversed().thenComparingInt(Match::getId);
+
+  private final RoaringBitmap[] bitmaps;
+  private final int[] cardinalities;
+  // the keys held by at least one bitmap, the postings of keys[i] being at offsets[i] until
+  // offsets[i + 1] in ids and containerCardinalities
+  private final char[] keys;
+  private final int[] offsets;
+  private final int[] ids;
+  private final int[] containerCardinalities;
+
+  /**
+   * Indexes a catalog of bitmaps, which are identified by their positions.
+   *
+   * @param bitmaps the catalog
+   */
+  public OverlapIndex(RoaringBitmap... bitmaps) {
+    this.bitmaps = bitmaps.clone();
+    this.cardinalities = new int[bitmaps.length];
+    long[] words = new long[1 << 10];
+    int numContainers = 0;
+    for (int id = 0; id < bitmaps.length; ++id) {
+      RoaringArray ra = bitmaps[id].highLowContainer;
+      for (int i = 0; i < ra.size; ++i) {
+        char key = ra.keys[i];
+        words[key >>> 6] |= 1L << key;
+      }
+      numContainers += ra.size;
+      cardinalities[id] = bitmaps[id].getCardinality();
+    }
+    int[] ranks = new int[words.length];
+    int numKeys = 0;
+    for (int i = 0; i < words.length; ++i) {
+      ranks[i] = numKeys;
+      numKeys += Long.bitCount(words[i]);
+    }
+    this.offsets = new int[numKeys + 1];
+    for (RoaringBitmap bitmap : bitmaps) {
+      RoaringArray ra = bitmap.highLowContainer;
+      for (int i = 0; i < ra.size; ++i) {
+        ++offsets[rank(words, ranks, ra.keys[i]) + 1];
+      }
+    }
+    for (int i = 1; i <= numKeys; ++i) {
+      offsets[i] += offsets[i - 1];
+    }
+    int[] cursors = Arrays.copyOf(offsets, numKeys);
+    this.ids = new int[numContainers];
+    this.containerCardinalities = new int[numContainers];
+    for (int id = 0; id < bitmaps.length; ++id) {
+      RoaringArray ra = bitmaps[id].highLowContainer;
+      for (int i = 0; i < ra.size; ++i) {
+        int posting = cursors[rank(words, ranks, ra.keys[i])]++;
+        ids[posting] = id;
+        containerCardinalities[posting] = ra.values[i].getCardinality();
+      }
+    }
+    this.keys = BitSetUtil.arrayContainerBufferOf(0, words.length, numKeys, words);
+  }
+
+  private static int rank(long[] words, int[] ranks, char key) {
+    return ranks[key >>> 6] + Long.bitCount(words[key >>> 6] & ((1L << key) - 1));
+  }
+
+  /**
+   * @return the number of bitmaps in the catalog
+   */
+  public int size() {
+    return bitmaps.length;
+  }
+
+  /**
+   * @param id the position of a bitmap in the catalog
+   * @return the bitmap
+   */
+  public RoaringBitmap get(int id) {
+    return bitmaps[id];
+  }
+
+  /**
+   * Finds the k catalog bitmaps with the highest scores, computing the exact scores on the
+   * default fork join pool.
+   *
+   * @param query the query bitmap
+   * @param k the maximum number of matches
+   * @param similarity how the bitmaps are scored
+   * @return the matches, best first, ties going to the smallest id. The bitmaps which do not
+   *         intersect the query are never matched, so that there may be fewer than k matches.
+   */
+  public Match[] topK(RoaringBitmap query, int k, Similarity similarity) {
+    return topK(defaultPool(), query, k, similarity);
+  }
+
+  /**
+   * Finds the k catalog bitmaps with the highest scores.
+   *
+   * @param pool the pool computing the exact scores
+   * @param query the query bitmap
+   * @param k the maximum number of matches
+   * @param similarity how the bitmaps are scored
+   * @return the matches, best first, ties going to the smallest id. The bitmaps which do not
+   *         intersect the query are never matched, so that there may be fewer than k matches.
+   */
+  public Match[] topK(ForkJoinPool pool, RoaringBitmap query, int k, Similarity similarity) {
+    if (k < 1) {
+      throw new IllegalArgumentException("The number of matches must be positive: " + k);
+    }
+    int[] bounds = bounds(query);
+    int queryCardinality = query.getCardinality();
+    int numCandidates = 0;
+    for (int bound : bounds) {
+      if (bound != 0) {
+        ++numCandidates;
+      }
+    }
+    int[] candidates = new int[numCandidates];
+    double[] scoreBounds = new double[numCandidates];
+    for (int id = 0, i = 0; i < numCandidates; ++id) {
+      if (bounds[id] != 0) {
+        candidates[i] = id;
+        scoreBounds[i++] = similarity.score(bounds[id], queryCardinality, cardinalities[id]);
+      }
+    }
+    // the candidates are taken by decreasing bound, a batch at a time so that the pool has
+    // enough work, from a heap rather than sorted: most of them are usually pruned
+    for (int i = numCandidates / 2 - 1; i >= 0; --i) {
+      siftDown(candidates, scoreBounds, i, numCandidates);
+    }
+    // k may well exceed the number of candidates when all the matches are wanted
+    int maxMatches = Math.min(k, numCandidates);
+    PriorityQueue<Match> best = new PriorityQueue<>(maxMatches + 1, BEST_FIRST.reversed());
+    int batchSize = Math.max(maxMatches, 32 * pool.getParallelism());
+    int[] batch = new int[Math.min(batchSize, numCandidates)];
+    int[] intersections = new int[batch.length];
+    int remaining = numCandidates;
+    while (remaining > 0
+        && (best.size() < k || scoreBounds[0] >= best.peek().getScore())) {
+      int count = 0;
+      while (count < batch.length && remaining > 0) {
+        batch[count++] = candidates[0];
+        --remaining;
+        candidates[0] = candidates[remaining];
+        scoreBounds[0] = scoreBounds[remaining];
+        siftDown(candidates, scoreBounds, 0, remaining);
+      }
+      int batchCount = count;
+      ParallelAggregation.invoke(pool, batchCount, (from, to) -> {
+        for (int i = from; i < to; ++i) {
+          intersections[i] = RoaringBitmap.andCardinality(query, bitmaps[batch[i]]);
+        }
+      });
+      for (int i = 0; i < batchCount; ++i) {
+        if (intersections[i] == 0) {
+          // shares keys but no values with the query
+          continue;
+        }
+        int id = batch[i];
+        Match match = new Match(id, intersections[i],
+            similarity.score(intersections[i], queryCardinality, cardinalities[id]));
+        if (best.size() < k) {
+          best.offer(match);
+        } else if (BEST_FIRST.compare(match, best.peek()) < 0) {
+          best.poll();
+          best.offer(match);
+        }
+      }
+    }
+    Match[] matches = best.toArray(new Match[0]);
+    Arrays.sort(matches, BEST_FIRST);
+    return matches;
+  }
+
+  /**
+   * @param query the query bitmap
+   * @return for each catalog bitmap, an upper bound on the cardinality of its intersection with
+   *         the query, which is zero when they share no key
+   */
+  private int[] bounds(RoaringBitmap query) {
+    int[] bounds = new int[bitmaps.length];
+    RoaringArray ra = query.highLowContainer;
+    int position = -1;
+    for (int i = 0; i < ra.size; ++i) {
+      position = Util.advanceUntil(keys, position, keys.length, ra.keys[i]);
+      if (position == keys.length) {
+        break;
+      }
+      if (keys[position] == ra.keys[i]) {
+        int cardinality = ra.values[i].getCardinality();
+        for (int p = offsets[position]; p < offsets[position + 1]; ++p) {
+          bounds[ids[p]] += Math.min(cardinality, containerCardinalities[p]);
+        }
+      } else {
+        --position;
+      }
+    }
+    return bounds;
+  }
+
+  private static void siftDown(int[] candidates, double[] scoreBounds, int i, int size) {
+    int candidate = candidates[i];
+    double scoreBound = scoreBounds[i];
+    int child;
+    while ((child = 2 * i + 1) < size) {
+      if (child + 1 < size && scoreBounds[child + 1] > scoreBounds[child]) {
+        ++child;
+      }
+      if (scoreBounds[child] <= scoreBound) {
+        break;
+      }
+      candidates[i] = candidates[child];
+      scoreBounds[i] = scoreBounds[child];
+      i = child;
+    }
+    candidates[i] = candidate;
+    scoreBounds[i] = scoreBound;
+  }
+
+  private static ForkJoinPool defaultPool() {
+    return ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+  }
+}
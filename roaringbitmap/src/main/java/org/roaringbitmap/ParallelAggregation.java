@@ -3,6 +3,7 @@ package org.roaringbitmap;
 import java.util.*;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
@@ -13,16 +14,19 @@ import java.util.stream.IntStream;
 /**
  *
  * These utility methods provide parallel implementations of
- * logical aggregation operators. AND is not implemented
- * because it is unlikely to be profitable.
+ * logical aggregation operators.
  *
- * There is a temporary memory overhead in using these methods,
- * since a materialisation of the rotated containers grouped by key
- * is created in each case.
+ * OR and XOR have a temporary memory overhead,
+ * since the containers of the inputs are first bucketed by key,
+ * in a single array. AND, ANDNOT and the cardinality
+ * aggregations instead split the keys of the result into ranges,
+ * and each task locates the containers of its range in the
+ * input bitmaps directly.
  *
  * Each method executes on the default fork join pool by default.
  * If this is undesirable (it usually is) wrap the call inside
- * a submission of a runnable to your own thread pool.
+ * a submission of a runnable to your own thread pool, or pass
+ * a fork join pool to the methods accepting one.
  *
  * <pre>
  * {@code
@@ -38,12 +42,11 @@ import java.util.stream.IntStream;
  */
 public class ParallelAggregation {
 
-  private static final Collector<Map.Entry<Character, List<Container>>,
-          RoaringArray, RoaringBitmap>
-          XOR = new ContainerCollector(ParallelAggregation::xor);
-
   private static final OrCollector OR = new OrCollector();
 
+  // up to 256KB of bitmap containers, paired with the containers of a range of rows
+  private static final int MATRIX_TILE = 32;
+
   /**
    * Collects containers grouped by their key into a RoaringBitmap, applying the
    * supplied aggregation function to each group.
@@ -130,26 +133,97 @@ public class ParallelAggregation {
   }
 
   /**
-   * Groups the containers by their keys
+   * The containers of some bitmaps bucketed by key: the containers with the key keys[i] are
+   * containers[offsets[i]] to containers[offsets[i + 1] - 1], in the order of the bitmaps,
+   * and ids[j] is the position among the bitmaps of the bitmap holding containers[j].
+   */
+  static final class KeyIndex {
+
+    final char[] keys;
+    final int[] offsets;
+    final List<Container> containers;
+    final int[] ids;
+
+    private KeyIndex(char[] keys, int[] offsets, Container[] containers, int[] ids) {
+      this.keys = keys;
+      this.offsets = offsets;
+      this.containers = Arrays.asList(containers);
+      this.ids = ids;
+    }
+
+    /**
+     * @param position the position of a key
+     * @return a view of the containers with the key
+     */
+    List<Container> slice(int position) {
+      return containers.subList(offsets[position], offsets[position + 1]);
+    }
+  }
+
+  /**
+   * Buckets the containers of the bitmaps by key with a counting sort over the ranks of the
+   * keys, so that no key is boxed and no list is allocated per key.
    * @param bitmaps input bitmaps
-   * @return The containers from the bitmaps grouped by key
+   * @return the containers from the bitmaps bucketed by key
    */
-  public static SortedMap<Character, List<Container>> groupByKey(RoaringBitmap... bitmaps) {
-    Map<Character, List<Container>> grouped = new HashMap<>();
+  static KeyIndex index(RoaringBitmap... bitmaps) {
+    long[] words = new long[1 << 10];
+    int numContainers = 0;
     for (RoaringBitmap bitmap : bitmaps) {
       RoaringArray ra = bitmap.highLowContainer;
       for (int i = 0; i < ra.size; ++i) {
-        Container container = ra.values[i];
-        Character key = ra.keys[i];
-        List<Container> slice = grouped.get(key);
-        if (null == slice) {
-          slice = new ArrayList<>();
-          grouped.put(key, slice);
-        }
-        slice.add(container);
+        char key = ra.keys[i];
+        words[key >>> 6] |= 1L << key;
       }
+      numContainers += ra.size;
     }
-    return new TreeMap<>(grouped);
+    int[] ranks = new int[words.length];
+    int numKeys = 0;
+    for (int i = 0; i < words.length; ++i) {
+      ranks[i] = numKeys;
+      numKeys += Long.bitCount(words[i]);
+    }
+    int[] offsets = new int[numKeys + 1];
+    for (RoaringBitmap bitmap : bitmaps) {
+      RoaringArray ra = bitmap.highLowContainer;
+      for (int i = 0; i < ra.size; ++i) {
+        ++offsets[rank(words, ranks, ra.keys[i]) + 1];
+      }
+    }
+    for (int i = 1; i <= numKeys; ++i) {
+      offsets[i] += offsets[i - 1];
+    }
+    int[] cursors = Arrays.copyOf(offsets, numKeys);
+    Container[] containers = new Container[numContainers];
+    int[] ids = new int[numContainers];
+    for (int id = 0; id < bitmaps.length; ++id) {
+      RoaringArray ra = bitmaps[id].highLowContainer;
+      for (int i = 0; i < ra.size; ++i) {
+        int position = cursors[rank(words, ranks, ra.keys[i])]++;
+        containers[position] = ra.values[i];
+        ids[position] = id;
+      }
+    }
+    char[] keys = BitSetUtil.arrayContainerBufferOf(0, words.length, numKeys, words);
+    return new KeyIndex(keys, offsets, containers, ids);
+  }
+
+  private static int rank(long[] words, int[] ranks, char key) {
+    return ranks[key >>> 6] + Long.bitCount(words[key >>> 6] & ((1L << key) - 1));
+  }
+
+  /**
+   * Groups the containers by their keys
+   * @param bitmaps input bitmaps
+   * @return The containers from the bitmaps grouped by key
+   */
+  public static SortedMap<Character, List<Container>> groupByKey(RoaringBitmap... bitmaps) {
+    KeyIndex index = index(bitmaps);
+    SortedMap<Character, List<Container>> grouped = new TreeMap<>();
+    for (int i = 0; i < index.keys.length; ++i) {
+      grouped.put(index.keys[i], new ArrayList<>(index.slice(i)));
+    }
+    return grouped;
   }
 
 
@@ -159,19 +233,12 @@ public class ParallelAggregation {
    * @return the union of the bitmaps
    */
   public static RoaringBitmap or(RoaringBitmap... bitmaps) {
-    SortedMap<Character, List<Container>> grouped = groupByKey(bitmaps);
-    char[] keys = new char[grouped.size()];
-    Container[] values = new Container[grouped.size()];
-    List<List<Container>> slices = new ArrayList<>(grouped.size());
-    int i = 0;
-    for (Map.Entry<Character, List<Container>> slice : grouped.entrySet()) {
-      keys[i++] = slice.getKey();
-      slices.add(slice.getValue());
-    }
-    IntStream.range(0, i)
+    KeyIndex index = index(bitmaps);
+    Container[] values = new Container[index.keys.length];
+    IntStream.range(0, values.length)
              .parallel()
-             .forEach(position -> values[position] = or(slices.get(position)));
-    return new RoaringBitmap(new RoaringArray(keys, values, i));
+             .forEach(position -> values[position] = or(index.slice(position)));
+    return new RoaringBitmap(new RoaringArray(index.keys, values, values.length));
   }
 
   /**
@@ -180,10 +247,445 @@ public class ParallelAggregation {
    * @return the symmetric difference of the bitmaps
    */
   public static RoaringBitmap xor(RoaringBitmap... bitmaps) {
-    return groupByKey(bitmaps)
-            .entrySet()
-            .parallelStream()
-            .collect(XOR);
+    KeyIndex index = index(bitmaps);
+    Container[] values = new Container[index.keys.length];
+    IntStream.range(0, values.length)
+             .parallel()
+             .forEach(position -> values[position] = xor(index.slice(position)));
+    return new RoaringBitmap(compact(index.keys, values));
+  }
+
+  /**
+   * Computes the bitwise intersection of the input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return the intersection of the bitmaps
+   */
+  public static RoaringBitmap and(RoaringBitmap... bitmaps) {
+    return and(defaultPool(), bitmaps);
+  }
+
+  /**
+   * Computes the bitwise intersection of the input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param bitmaps the input bitmaps
+   * @return the intersection of the bitmaps
+   */
+  public static RoaringBitmap and(ForkJoinPool pool, RoaringBitmap... bitmaps) {
+    if (bitmaps.length == 0) {
+      return new RoaringBitmap();
+    }
+    char[] keys = Util.intersectKeys(new long[1 << 10], bitmaps);
+    Container[] values = new Container[keys.length];
+    invoke(pool, keys.length, (from, to) -> {
+      long[] words = new long[1 << 10];
+      char[] buffer = new char[ArrayContainer.DEFAULT_MAX_SIZE];
+      Container[] slice = new Container[bitmaps.length];
+      int[] positions = new int[bitmaps.length];
+      for (int i = from; i < to; ++i) {
+        for (int j = 0; j < bitmaps.length; ++j) {
+          RoaringArray highLowContainer = bitmaps[j].highLowContainer;
+          positions[j] = highLowContainer.advanceUntil(keys[i], positions[j] - 1);
+          slice[j] = highLowContainer.values[positions[j]];
+        }
+        Container and = FastAggregation.and(slice, words, buffer);
+        values[i] = and instanceof BitmapContainer ? and.clone() : and;
+      }
+    });
+    return new RoaringBitmap(compact(keys, values));
+  }
+
+  /**
+   * Computes the bitwise difference of the minuend and the union of the subtrahends
+   * @param minuend the bitmap to remove values from
+   * @param subtrahends the bitmaps whose values are removed
+   * @return the values of the minuend absent from all the subtrahends
+   */
+  public static RoaringBitmap andNot(RoaringBitmap minuend, RoaringBitmap... subtrahends) {
+    return andNot(defaultPool(), minuend, subtrahends);
+  }
+
+  /**
+   * Computes the bitwise difference of the minuend and the union of the subtrahends
+   * @param pool the pool executing the aggregation
+   * @param minuend the bitmap to remove values from
+   * @param subtrahends the bitmaps whose values are removed
+   * @return the values of the minuend absent from all the subtrahends
+   */
+  public static RoaringBitmap andNot(ForkJoinPool pool, RoaringBitmap minuend,
+      RoaringBitmap... subtrahends) {
+    RoaringArray minuendArray = minuend.highLowContainer;
+    char[] keys = Arrays.copyOf(minuendArray.keys, minuendArray.size);
+    Container[] values = new Container[keys.length];
+    invoke(pool, keys.length, (from, to) -> {
+      int[] positions = new int[subtrahends.length];
+      for (int i = from; i < to; ++i) {
+        Container container = minuendArray.values[i];
+        Container difference = container;
+        for (int j = 0; j < subtrahends.length && !difference.isEmpty(); ++j) {
+          RoaringArray highLowContainer = subtrahends[j].highLowContainer;
+          int position = highLowContainer.advanceUntil(keys[i], positions[j] - 1);
+          positions[j] = position;
+          if (position < highLowContainer.size && highLowContainer.keys[position] == keys[i]) {
+            Container subtrahend = highLowContainer.values[position];
+            difference = difference == container
+                ? container.andNot(subtrahend)
+                : difference.iandNot(subtrahend);
+          }
+        }
+        values[i] = difference == container ? container.clone() : difference;
+      }
+    });
+    return new RoaringBitmap(compact(keys, values));
+  }
+
+  /**
+   * Computes the cardinality of the intersection of the input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return the cardinality of the intersection of the bitmaps
+   */
+  public static int andCardinality(RoaringBitmap... bitmaps) {
+    return andCardinality(defaultPool(), bitmaps);
+  }
+
+  /**
+   * Computes the cardinality of the intersection of the input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param bitmaps the input bitmaps
+   * @return the cardinality of the intersection of the bitmaps
+   */
+  public static int andCardinality(ForkJoinPool pool, RoaringBitmap... bitmaps) {
+    if (bitmaps.length == 0) {
+      return 0;
+    }
+    char[] keys = Util.intersectKeys(new long[1 << 10], bitmaps);
+    int[] cardinalities = new int[keys.length];
+    invoke(pool, keys.length, (from, to) -> {
+      long[] words = new long[1 << 10];
+      char[] buffer = new char[ArrayContainer.DEFAULT_MAX_SIZE];
+      Container[] slice = new Container[bitmaps.length];
+      int[] positions = new int[bitmaps.length];
+      for (int i = from; i < to; ++i) {
+        for (int j = 0; j < bitmaps.length; ++j) {
+          RoaringArray highLowContainer = bitmaps[j].highLowContainer;
+          positions[j] = highLowContainer.advanceUntil(keys[i], positions[j] - 1);
+          slice[j] = highLowContainer.values[positions[j]];
+        }
+        int common = FastAggregation.intersectValues(slice, buffer);
+        cardinalities[i] = common >= 0
+            ? common
+            : FastAggregation.and(slice, words, buffer).getCardinality();
+      }
+    });
+    return sum(cardinalities);
+  }
+
+  /**
+   * Computes the cardinality of the union of the input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return the cardinality of the union of the bitmaps
+   */
+  public static int orCardinality(RoaringBitmap... bitmaps) {
+    return orCardinality(defaultPool(), bitmaps);
+  }
+
+  /**
+   * Computes the cardinality of the union of the input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param bitmaps the input bitmaps
+   * @return the cardinality of the union of the bitmaps
+   */
+  public static int orCardinality(ForkJoinPool pool, RoaringBitmap... bitmaps) {
+    long[] keyWords = new long[1 << 10];
+    int numKeys = 0;
+    for (RoaringBitmap bitmap : bitmaps) {
+      RoaringArray highLowContainer = bitmap.highLowContainer;
+      for (int i = 0; i < highLowContainer.size; ++i) {
+        char key = highLowContainer.keys[i];
+        numKeys += (int) (~keyWords[key >>> 6] >>> key) & 1;
+        keyWords[key >>> 6] |= 1L << key;
+      }
+    }
+    char[] keys = BitSetUtil.arrayContainerBufferOf(0, keyWords.length, numKeys, keyWords);
+    int[] cardinalities = new int[keys.length];
+    invoke(pool, keys.length, (from, to) -> {
+      long[] words = new long[1 << 10];
+      int[] positions = new int[bitmaps.length];
+      for (int i = from; i < to; ++i) {
+        Container first = null;
+        Container union = null;
+        for (int j = 0; j < bitmaps.length; ++j) {
+          RoaringArray highLowContainer = bitmaps[j].highLowContainer;
+          int position = highLowContainer.advanceUntil(keys[i], positions[j] - 1);
+          positions[j] = position;
+          if (position < highLowContainer.size && highLowContainer.keys[position] == keys[i]) {
+            Container container = highLowContainer.values[position];
+            if (first == null) {
+              first = container;
+            } else {
+              if (union == null) {
+                // only materialise a union when the key is shared
+                Arrays.fill(words, 0L);
+                union = new BitmapContainer(words, -1).lazyIOR(first);
+              }
+              Container or = union.lazyIOR(container);
+              if (or != union) {
+                union = or;
+              }
+            }
+          }
+        }
+        cardinalities[i] = union == null
+            ? first.getCardinality()
+            : union.repairAfterLazy().getCardinality();
+      }
+    });
+    return sum(cardinalities);
+  }
+
+  /**
+   * Computes the values present in at least threshold of the input bitmaps
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps the input bitmaps
+   * @return the values present in at least threshold bitmaps
+   */
+  public static RoaringBitmap threshold(int threshold, RoaringBitmap... bitmaps) {
+    return threshold(defaultPool(), threshold, bitmaps);
+  }
+
+  /**
+   * Computes the values present in at least threshold of the input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps the input bitmaps
+   * @return the values present in at least threshold bitmaps
+   */
+  public static RoaringBitmap threshold(ForkJoinPool pool, int threshold,
+      RoaringBitmap... bitmaps) {
+    FastAggregation.checkThreshold(threshold);
+    if (threshold == 1) {
+      return or(bitmaps);
+    }
+    if (threshold == bitmaps.length) {
+      return and(pool, bitmaps);
+    }
+    if (threshold > bitmaps.length) {
+      return new RoaringBitmap();
+    }
+    KeyIndex index = index(bitmaps);
+    char[] keys = index.keys;
+    Container[] values = new Container[keys.length];
+    invoke(pool, keys.length, (from, to) -> {
+      long[] words = new long[1 << 10];
+      long[] counters = new long[(1 << 10) * FastAggregation.counterLevels(bitmaps.length)];
+      Container[] slice = new Container[bitmaps.length];
+      for (int i = from; i < to; ++i) {
+        int count = index.offsets[i + 1] - index.offsets[i];
+        int cardinality = count < threshold ? 0
+            : FastAggregation.threshold(threshold, index.slice(i).toArray(slice), count,
+                words, counters);
+        Container container = cardinality == 0
+            ? new ArrayContainer(0)
+            : new BitmapContainer(words, cardinality).repairAfterLazy();
+        values[i] = container instanceof BitmapContainer ? container.clone() : container;
+      }
+    });
+    return new RoaringBitmap(compact(keys, values));
+  }
+
+  /**
+   * Computes the number of values present in at least threshold of the input bitmaps
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps the input bitmaps
+   * @return the number of values present in at least threshold bitmaps
+   */
+  public static int thresholdCardinality(int threshold, RoaringBitmap... bitmaps) {
+    return thresholdCardinality(defaultPool(), threshold, bitmaps);
+  }
+
+  /**
+   * Computes the number of values present in at least threshold of the input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps the input bitmaps
+   * @return the number of values present in at least threshold bitmaps
+   */
+  public static int thresholdCardinality(ForkJoinPool pool, int threshold,
+      RoaringBitmap... bitmaps) {
+    FastAggregation.checkThreshold(threshold);
+    if (threshold == 1) {
+      return orCardinality(pool, bitmaps);
+    }
+    if (threshold == bitmaps.length) {
+      return andCardinality(pool, bitmaps);
+    }
+    if (threshold > bitmaps.length) {
+      return 0;
+    }
+    KeyIndex index = index(bitmaps);
+    int[] cardinalities = new int[index.keys.length];
+    invoke(pool, cardinalities.length, (from, to) -> {
+      long[] words = new long[1 << 10];
+      long[] counters = new long[(1 << 10) * FastAggregation.counterLevels(bitmaps.length)];
+      Container[] slice = new Container[bitmaps.length];
+      for (int i = from; i < to; ++i) {
+        int count = index.offsets[i + 1] - index.offsets[i];
+        if (count >= threshold) {
+          cardinalities[i] = FastAggregation.threshold(threshold, index.slice(i).toArray(slice),
+              count, words, counters);
+        }
+      }
+    });
+    return sum(cardinalities);
+  }
+
+  /**
+   * Computes the cardinalities of the intersections of all the pairs of input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return a symmetric matrix holding the cardinality of the intersection of bitmaps[i] and
+   *         bitmaps[j] at [i][j], and so the cardinality of bitmaps[i] at [i][i]
+   */
+  public static int[][] andCardinalityMatrix(RoaringBitmap... bitmaps) {
+    return andCardinalityMatrix(defaultPool(), bitmaps);
+  }
+
+  /**
+   * Computes the cardinalities of the intersections of all the pairs of input bitmaps.
+   *
+   * The containers are bucketed by key once, so that the pairs of containers sharing a key are
+   * enumerated without merging the keys of each pair of bitmaps. Each task owns a range of
+   * rows of the matrix, and pairs the containers of its rows with a tile of containers at a
+   * time, so that the tile stays in cache while all its rows are processed.
+   * @param pool the pool executing the aggregation
+   * @param bitmaps the input bitmaps
+   * @return a symmetric matrix holding the cardinality of the intersection of bitmaps[i] and
+   *         bitmaps[j] at [i][j], and so the cardinality of bitmaps[i] at [i][i]
+   */
+  public static int[][] andCardinalityMatrix(ForkJoinPool pool, RoaringBitmap... bitmaps) {
+    int[][] matrix = new int[bitmaps.length][bitmaps.length];
+    KeyIndex index = index(bitmaps);
+    int[] rows = rowRanges(bitmaps.length, Math.min(bitmaps.length, 4 * pool.getParallelism()));
+    invoke(pool, rows.length - 1, (from, to) -> {
+      for (int r = from; r < to; ++r) {
+        andCardinalities(index, rows[r], rows[r + 1], matrix);
+      }
+    });
+    for (int i = 0; i < bitmaps.length; ++i) {
+      matrix[i][i] = bitmaps[i].getCardinality();
+      for (int j = 0; j < i; ++j) {
+        matrix[i][j] = matrix[j][i];
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * Computes the cardinalities of the unions of all the pairs of input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return a symmetric matrix holding the cardinality of the union of bitmaps[i] and
+   *         bitmaps[j] at [i][j]
+   */
+  public static int[][] orCardinalityMatrix(RoaringBitmap... bitmaps) {
+    return orCardinalityMatrix(defaultPool(), bitmaps);
+  }
+
+  /**
+   * Computes the cardinalities of the unions of all the pairs of input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param bitmaps the input bitmaps
+   * @return a symmetric matrix holding the cardinality of the union of bitmaps[i] and
+   *         bitmaps[j] at [i][j]
+   */
+  public static int[][] orCardinalityMatrix(ForkJoinPool pool, RoaringBitmap... bitmaps) {
+    return fromIntersections(andCardinalityMatrix(pool, bitmaps), 1);
+  }
+
+  /**
+   * Computes the cardinalities of the symmetric differences of all the pairs of input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return a symmetric matrix holding the cardinality of the symmetric difference of
+   *         bitmaps[i] and bitmaps[j] at [i][j]
+   */
+  public static int[][] xorCardinalityMatrix(RoaringBitmap... bitmaps) {
+    return xorCardinalityMatrix(defaultPool(), bitmaps);
+  }
+
+  /**
+   * Computes the cardinalities of the symmetric differences of all the pairs of input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param bitmaps the input bitmaps
+   * @return a symmetric matrix holding the cardinality of the symmetric difference of
+   *         bitmaps[i] and bitmaps[j] at [i][j]
+   */
+  public static int[][] xorCardinalityMatrix(ForkJoinPool pool, RoaringBitmap... bitmaps) {
+    return fromIntersections(andCardinalityMatrix(pool, bitmaps), 2);
+  }
+
+  /**
+   * Accumulates the cardinalities of the intersections of the bitmaps of a range of rows with
+   * the bitmaps after them.
+   */
+  private static void andCardinalities(KeyIndex index, int firstRow, int lastRow,
+      int[][] matrix) {
+    for (int k = 0; k < index.keys.length; ++k) {
+      int end = index.offsets[k + 1];
+      // the containers of the rows, which pair with all the containers after them in the slice
+      int from = position(index.ids, index.offsets[k], end, firstRow);
+      int to = position(index.ids, from, end, lastRow);
+      for (int tile = from + 1; tile < end; tile += MATRIX_TILE) {
+        int tileEnd = Math.min(end, tile + MATRIX_TILE);
+        for (int i = from; i < to && i < tileEnd - 1; ++i) {
+          Container container = index.containers.get(i);
+          int[] row = matrix[index.ids[i]];
+          for (int j = Math.max(i + 1, tile); j < tileEnd; ++j) {
+            row[index.ids[j]] += container.andCardinality(index.containers.get(j));
+          }
+        }
+      }
+    }
+  }
+
+  private static int position(int[] ids, int from, int to, int id) {
+    int position = Arrays.binarySearch(ids, from, to, id);
+    return position < 0 ? -position - 1 : position;
+  }
+
+  /**
+   * Splits the rows of an upper triangular matrix into ranges holding as many cells.
+   * @param size the number of rows
+   * @param numRanges the number of ranges
+   * @return the bounds of the ranges, the rows of the range r being rows[r] to rows[r + 1] - 1
+   */
+  private static int[] rowRanges(int size, int numRanges) {
+    int[] rows = new int[numRanges + 1];
+    long cells = (long) size * (size - 1) / 2;
+    long cumulative = 0;
+    int r = 1;
+    for (int i = 0; i < size && r < numRanges; ++i) {
+      cumulative += size - 1 - i;
+      while (r < numRanges && cumulative * numRanges >= cells * r) {
+        rows[r++] = i + 1;
+      }
+    }
+    Arrays.fill(rows, r, rows.length, size);
+    return rows;
+  }
+
+  /**
+   * Derives the cardinalities of unions or symmetric differences from those of intersections,
+   * in place: the cardinality of x op y is |x| + |y| - factor * |x and y|.
+   */
+  private static int[][] fromIntersections(int[][] matrix, int factor) {
+    int[] cardinalities = new int[matrix.length];
+    for (int i = 0; i < matrix.length; ++i) {
+      cardinalities[i] = matrix[i][i];
+    }
+    for (int i = 0; i < matrix.length; ++i) {
+      int[] row = matrix[i];
+      for (int j = 0; j < row.length; ++j) {
+        row[j] = cardinalities[i] + cardinalities[j] - factor * row[j];
+      }
+    }
+    return matrix;
   }
 
   private static Container xor(List<Container> containers) {
@@ -222,6 +724,78 @@ public class ParallelAggregation {
             .collect(OR);
   }
 
+  /**
+   * Processes a range of positions in the keys of a result.
+   */
+  interface KeyRange {
+    void compute(int from, int to);
+  }
+
+  /**
+   * Splits a range of key positions in halves until the ranges are small enough to leave
+   * a few of them to each worker of the pool.
+   */
+  @SuppressWarnings("serial")
+  private static final class KeyRangeTask extends RecursiveAction {
+
+    private final KeyRange range;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    KeyRangeTask(KeyRange range, int from, int to, int grain) {
+      this.range = range;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= grain) {
+        range.compute(from, to);
+      } else {
+        int middle = (from + to) >>> 1;
+        invokeAll(new KeyRangeTask(range, from, middle, grain),
+            new KeyRangeTask(range, middle, to, grain));
+      }
+    }
+  }
+
+  static void invoke(ForkJoinPool pool, int numKeys, KeyRange range) {
+    int grain = Math.max(1, numKeys / (4 * pool.getParallelism()));
+    // a single range is not worth a round trip through the pool
+    if (numKeys <= grain) {
+      range.compute(0, numKeys);
+    } else {
+      pool.invoke(new KeyRangeTask(range, 0, numKeys, grain));
+    }
+  }
+
+  private static RoaringArray compact(char[] keys, Container[] values) {
+    int size = 0;
+    for (int i = 0; i < keys.length; ++i) {
+      if (!values[i].isEmpty()) {
+        keys[size] = keys[i];
+        values[size++] = values[i];
+      }
+    }
+    Arrays.fill(values, size, values.length, null);
+    return new RoaringArray(keys, values, size);
+  }
+
+  private static int sum(int[] cardinalities) {
+    int cardinality = 0;
+    for (int c : cardinalities) {
+      cardinality += c;
+    }
+    return cardinality;
+  }
+
+  private static ForkJoinPool defaultPool() {
+    return ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+  }
+
   private static int availableParallelism() {
     return ForkJoinTask.inForkJoinPool()
             ? ForkJoinTask.getPool().getParallelism()
@@ -0,0 +1,402 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.roaringbitmap.RoaringArray.NO_OFFSET_THRESHOLD;
+import static org.roaringbitmap.RoaringArray.SERIAL_COOKIE;
+import static org.roaringbitmap.RoaringArray.SERIAL_COOKIE_NO_RUNCONTAINER;
+
+/**
+ * Writes a bitmap in the portable format as its values are added, one container at a time, so
+ * that the bitmap is never held in memory, unlike with a {@link RoaringBitmapWriter}: only the
+ * container being filled is, along with the keys, cardinalities and sizes of the containers
+ * already written, that is at most 512KB.
+ *
+ * The values must be added in increasing order of their 16 most significant bits, the values
+ * sharing these bits being added in any order. The containers are run compressed before being
+ * written, and the header of the portable format is written once the bitmap is closed:
+ * <ul>
+ *   <li>into a seekable channel, such as a file, the header is patched in before the containers,
+ *   so that the channel holds a bitmap in the portable format, which starts at
+ *   {@link #getStartPosition()}. The space for the header is reserved for a maximum number of
+ *   containers, the bitmap starting after the space left unused by a smaller header.</li>
+ *   <li>into a channel or stream, the header is written after the containers, followed by its
+ *   size as a little endian int. {@link #deserializeWithFooter(ByteBuffer)} reads such a
+ *   bitmap, which is in the portable format once the footer is moved before the containers.</li>
+ * </ul>
+ *
+ * <pre>
+ * {@code
+ *      try (PortableFormatWriter writer = PortableFormatWriter.patchingHeader(channel)) {
+ *        for (int offset : sortedOffsets) {
+ *          writer.add(offset);
+ *        }
+ *      }
+ * }
+ * </pre>
+ */
+public final class PortableFormatWriter implements Closeable {
+
+  private static final int MAX_CONTAINERS = 1 << 16;
+
+  private final WritableByteChannel channel;
+  // the position of the space reserved for the header, or -1 when it is written as a footer
+  private final long reservedPosition;
+  private final int maxContainers;
+  private long startPosition;
+  private ByteBuffer buffer = ByteBuffer.allocate(BitmapContainer.MAX_CAPACITY / 8)
+      .order(LITTLE_ENDIAN);
+  private char[] keys = new char[16];
+  private char[] cardinalities = new char[16];
+  private int[] sizes = new int[16];
+  private final byte[] runMarkers = new byte[MAX_CONTAINERS / 8];
+  private boolean hasRun;
+  private int size;
+  private Container container = new ArrayContainer();
+  private int currentKey;
+  private boolean closed;
+
+  /**
+   * Writes a bitmap with up to 65536 containers into a seekable channel, from its position. The
+   * header is written before the containers once the writer is closed, which may leave up to
+   * 520KB unused before the bitmap.
+   *
+   * @param channel the output, which is left open
+   * @return the writer, which must be closed to complete the bitmap
+   * @throws IOException if the position of the channel cannot be read
+   */
+  public static PortableFormatWriter patchingHeader(SeekableByteChannel channel)
+      throws IOException {
+    return patchingHeader(channel, MAX_CONTAINERS);
+  }
+
+  /**
+   * Writes a bitmap into a seekable channel, from its position. The header is written before
+   * the containers once the writer is closed, in the space reserved for a header of
+   * maxContainers containers, that is distinct values of the 16 most significant bits: the
+   * bitmap starts within maxContainers / 8 + 16 bytes of the position of the channel when it
+   * has exactly as many containers.
+   *
+   * @param channel the output, which is left open
+   * @param maxContainers the maximum number of containers of the bitmap
+   * @return the writer, which must be closed to complete the bitmap
+   * @throws IOException if the position of the channel cannot be read
+   */
+  public static PortableFormatWriter patchingHeader(SeekableByteChannel channel,
+      int maxContainers) throws IOException {
+    if (maxContainers < 0 || maxContainers > MAX_CONTAINERS) {
+      throw new IllegalArgumentException("The maximum number of containers must be in [0, "
+          + MAX_CONTAINERS + "]: " + maxContainers);
+    }
+    long position = channel.position();
+    channel.position(position + Math.max(headerSize(maxContainers, true),
+        headerSize(maxContainers, false)));
+    return new PortableFormatWriter(channel, position, maxContainers);
+  }
+
+  /**
+   * Writes a bitmap into a channel, the header being written after the containers once the
+   * writer is closed.
+   *
+   * @param channel the output, which is left open
+   * @return the writer, which must be closed to complete the bitmap
+   */
+  public static PortableFormatWriter withFooter(WritableByteChannel channel) {
+    return new PortableFormatWriter(channel, -1, MAX_CONTAINERS);
+  }
+
+  /**
+   * Writes a bitmap into a stream, the header being written after the containers once the
+   * writer is closed.
+   *
+   * @param out the output, which is left open
+   * @return the writer, which must be closed to complete the bitmap
+   */
+  public static PortableFormatWriter withFooter(OutputStream out) {
+    return withFooter(Channels.newChannel(out));
+  }
+
+  private PortableFormatWriter(WritableByteChannel channel, long reservedPosition,
+      int maxContainers) {
+    this.channel = channel;
+    this.reservedPosition = reservedPosition;
+    this.maxContainers = maxContainers;
+  }
+
+  /**
+   * Adds a value to the bitmap.
+   *
+   * @param value the value, whose 16 most significant bits must be at least those of the values
+   *        already added
+   * @throws IOException if a container cannot be written
+   * @throws IllegalStateException if the writer is closed
+   */
+  public void add(int value) throws IOException {
+    checkOpen();
+    int key = Util.highbits(value);
+    if (key != currentKey) {
+      checkKey(key);
+      appendContainer();
+      currentKey = key;
+    }
+    container = container.add(Util.lowbits(value));
+  }
+
+  /**
+   * Adds values to the bitmap, in the order they are given.
+   *
+   * @param values the values, whose 16 most significant bits must not decrease
+   * @throws IOException if a container cannot be written
+   * @throws IllegalStateException if the writer is closed
+   */
+  public void addMany(int... values) throws IOException {
+    checkOpen();
+    for (int value : values) {
+      add(value);
+    }
+  }
+
+  /**
+   * Adds a range of values to the bitmap.
+   *
+   * @param min the inclusive min value, whose 16 most significant bits must be at least those of
+   *        the values already added
+   * @param max the exclusive max value
+   * @throws IOException if a container cannot be written
+   * @throws IllegalStateException if the writer is closed
+   */
+  public void add(long min, long max) throws IOException {
+    checkOpen();
+    RoaringBitmap.rangeSanityCheck(min, max);
+    if (min >= max) {
+      return;
+    }
+    int firstKey = (int) (min >>> 16);
+    int lastKey = (int) ((max - 1) >>> 16);
+    if (firstKey != currentKey) {
+      checkKey(firstKey);
+      appendContainer();
+      currentKey = firstKey;
+    }
+    for (int key = firstKey; key <= lastKey; ++key) {
+      int begin = key == firstKey ? (int) (min & 0xFFFF) : 0;
+      int end = key == lastKey ? (int) ((max - 1) & 0xFFFF) + 1 : 1 << 16;
+      container = container.iadd(begin, end);
+      if (key < lastKey) {
+        appendContainer();
+        currentKey = key + 1;
+      }
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("The writer is closed");
+    }
+  }
+
+  private void checkKey(int key) {
+    if (key < currentKey) {
+      throw new IllegalArgumentException("The values must be added in increasing order of their"
+          + " 16 most significant bits: " + key + " after " + currentKey);
+    }
+  }
+
+  private void appendContainer() throws IOException {
+    if (container.isEmpty()) {
+      return;
+    }
+    if (size == maxContainers) {
+      throw new IllegalStateException("The header was reserved for " + maxContainers
+          + " containers");
+    }
+    Container written = container.runOptimize();
+    if (size == keys.length) {
+      int capacity = Math.min(2 * size, MAX_CONTAINERS);
+      keys = Arrays.copyOf(keys, capacity);
+      cardinalities = Arrays.copyOf(cardinalities, capacity);
+      sizes = Arrays.copyOf(sizes, capacity);
+    }
+    keys[size] = (char) currentKey;
+    cardinalities[size] = (char) (written.getCardinality() - 1);
+    sizes[size] = written.getArraySizeInBytes();
+    if (written instanceof RunContainer) {
+      runMarkers[size >>> 3] |= (byte) (1 << (size & 7));
+      hasRun = true;
+    }
+    if (buffer.capacity() < sizes[size]) {
+      buffer = ByteBuffer.allocate(sizes[size]).order(LITTLE_ENDIAN);
+    }
+    buffer.clear();
+    written.writeArray(buffer);
+    buffer.flip();
+    write(buffer);
+    ++size;
+    container = new ArrayContainer();
+  }
+
+  /**
+   * Writes the last container and the header. The channel is left open, positioned after the
+   * bitmap.
+   *
+   * @throws IOException if the bitmap cannot be completed
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    appendContainer();
+    closed = true;
+    ByteBuffer header = header();
+    if (reservedPosition < 0) {
+      ByteBuffer footer = ByteBuffer.allocate(header.remaining() + 4).order(LITTLE_ENDIAN);
+      footer.putInt(footer.capacity() - 4, header.remaining());
+      footer.put(header).position(0);
+      write(footer);
+    } else {
+      SeekableByteChannel seekable = (SeekableByteChannel) channel;
+      long end = seekable.position();
+      int reserved = Math.max(headerSize(maxContainers, true), headerSize(maxContainers, false));
+      startPosition = reservedPosition + reserved - header.remaining();
+      seekable.position(startPosition);
+      write(header);
+      seekable.position(end);
+    }
+  }
+
+  /**
+   * @return the position of the bitmap in the seekable channel, once the writer is closed
+   */
+  public long getStartPosition() {
+    if (!closed || reservedPosition < 0) {
+      throw new IllegalStateException("The header is only patched into a seekable channel once"
+          + " the writer is closed");
+    }
+    return startPosition;
+  }
+
+  private static int headerSize(int size, boolean hasRun) {
+    if (!hasRun) {
+      return 8 + 8 * size;
+    }
+    return 4 + (size + 7) / 8 + (size < NO_OFFSET_THRESHOLD ? 4 * size : 8 * size);
+  }
+
+  /**
+   * @return the header, the same as the one RoaringBitmap.serialize writes for these containers
+   */
+  private ByteBuffer header() {
+    int headerSize = headerSize(size, hasRun);
+    ByteBuffer header = ByteBuffer.allocate(headerSize).order(LITTLE_ENDIAN);
+    if (hasRun) {
+      header.putInt(SERIAL_COOKIE | ((size - 1) << 16));
+      header.put(runMarkers, 0, (size + 7) / 8);
+    } else {
+      header.putInt(SERIAL_COOKIE_NO_RUNCONTAINER);
+      header.putInt(size);
+    }
+    for (int k = 0; k < size; ++k) {
+      header.putChar(keys[k]);
+      header.putChar(cardinalities[k]);
+    }
+    if (!hasRun || size >= NO_OFFSET_THRESHOLD) {
+      int offset = headerSize;
+      for (int k = 0; k < size; ++k) {
+        header.putInt(offset);
+        offset += sizes[k];
+      }
+    }
+    header.flip();
+    return header;
+  }
+
+  private void write(ByteBuffer source) throws IOException {
+    while (source.hasRemaining()) {
+      channel.write(source);
+    }
+  }
+
+  /**
+   * Reads a bitmap written with a footer, from the position of the buffer until its limit.
+   *
+   * @param bbf the containers followed by the footer, which is left unchanged
+   * @return the bitmap
+   * @throws InvalidRoaringFormat if the footer is not a valid header, or does not match the
+   *         containers
+   */
+  public static RoaringBitmap deserializeWithFooter(ByteBuffer bbf) {
+    ByteBuffer buffer = bbf.slice().order(LITTLE_ENDIAN);
+    if (buffer.limit() < 4) {
+      throw new InvalidRoaringFormat("The footer is missing.");
+    }
+    int headerSize = buffer.getInt(buffer.limit() - 4);
+    if (headerSize < 8 || headerSize > buffer.limit() - 4) {
+      throw new InvalidRoaringFormat("The size of the footer is corrupted: " + headerSize);
+    }
+    ByteBuffer header = buffer.duplicate().order(LITTLE_ENDIAN);
+    header.position(buffer.limit() - 4 - headerSize);
+    final int cookie = header.getInt();
+    if ((cookie & 0xFFFF) != SERIAL_COOKIE && cookie != SERIAL_COOKIE_NO_RUNCONTAINER) {
+      throw new InvalidRoaringFormat("I failed to find one of the right cookies. " + cookie);
+    }
+    boolean hasRunContainers = (cookie & 0xFFFF) == SERIAL_COOKIE;
+    int size = hasRunContainers ? (cookie >>> 16) + 1 : header.getInt();
+    if (size < 0 || size > MAX_CONTAINERS || headerSize(size, hasRunContainers) != headerSize) {
+      throw new InvalidRoaringFormat("The footer does not match its size.");
+    }
+    byte[] runMarkers = null;
+    if (hasRunContainers) {
+      runMarkers = new byte[(size + 7) / 8];
+      header.get(runMarkers);
+    }
+    char[] keys = new char[size];
+    int[] cardinalities = new int[size];
+    for (int k = 0; k < size; ++k) {
+      keys[k] = header.getChar();
+      cardinalities[k] = 1 + header.getChar();
+    }
+    // the offsets within the portable format count the header, which is not before the
+    // containers here
+    int footer = buffer.limit() - 4 - headerSize;
+    int[] offsets = new int[size];
+    if (!hasRunContainers || size >= NO_OFFSET_THRESHOLD) {
+      for (int k = 0; k < size; ++k) {
+        offsets[k] = header.getInt() - headerSize;
+      }
+    } else {
+      int offset = 0;
+      for (int k = 0; k < size; ++k) {
+        offsets[k] = offset;
+        if ((runMarkers[k >>> 3] & (1 << (k & 7))) != 0) {
+          if (offset > footer - 2) {
+            throw new InvalidRoaringFormat("The container " + k + " is truncated.");
+          }
+          offset += 2 + 4 * buffer.getChar(offset);
+        } else if (cardinalities[k] > ArrayContainer.DEFAULT_MAX_SIZE) {
+          offset += BitmapContainer.MAX_CAPACITY / 8;
+        } else {
+          offset += 2 * cardinalities[k];
+        }
+      }
+    }
+    if (RoaringArray.checkOffsets(buffer, runMarkers, cardinalities, offsets, size, 0, footer)
+        != footer) {
+      throw new InvalidRoaringFormat("The containers do not end at the footer.");
+    }
+    Container[] values = new Container[size];
+    RoaringArray.readContainers(buffer, runMarkers, cardinalities, offsets, values, 0, size);
+    return new RoaringBitmap(new RoaringArray(keys, values, size));
+  }
+}
@@ -9,8 +9,13 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.LongBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import static java.nio.ByteOrder.LITTLE_ENDIAN;
 
@@ -20,9 +25,11 @@ import static java.nio.ByteOrder.LITTLE_ENDIAN;
  * by end users.
  */
 public final class RoaringArray implements Cloneable, Externalizable, AppendableStorage<Container> {
-  private static final char SERIAL_COOKIE_NO_RUNCONTAINER = 12346;
-  private static final char SERIAL_COOKIE = 12347;
-  private static final int NO_OFFSET_THRESHOLD = 4;
+  static final char SERIAL_COOKIE_NO_RUNCONTAINER = 12346;
+  static final char SERIAL_COOKIE = 12347;
+  static final int NO_OFFSET_THRESHOLD = 4;
+  // the least number of bytes of containers decoded by a task of a parallel deserialization
+  static final int PARALLEL_DESERIALIZATION_BYTES = 1 << 20;
 
   // bumped serialVersionUID with runcontainers, so default serialization
   // will not work...
@@ -629,6 +636,147 @@ public final class RoaringArray implements Cloneable, Externalizable, Appendable
   }
 
 
+  /**
+   * Deserialize (retrieve) this bitmap in the portable format, decoding its containers on an
+   * executor. The header of the serialized bitmap holds the offsets of the containers, unless
+   * there are run containers and fewer than NO_OFFSET_THRESHOLD containers, so the containers
+   * are split into ranges of about the same number of bytes, each range being copied to the heap
+   * by its own task. Bitmaps whose containers take less than PARALLEL_DESERIALIZATION_BYTES
+   * (1MB) are decoded on the calling thread, which otherwise waits for all the tasks to
+   * complete.
+   *
+   * The offsets read from the header are checked against the sizes of the containers, so that
+   * the result is the same as with {@link #deserialize(ByteBuffer)}. The input ByteBuffer is
+   * left unchanged.
+   *
+   * @param bbf the byte buffer (can be mapped, direct, array backed etc.
+   * @param executor runs the tasks decoding the containers
+   */
+  public void deserialize(ByteBuffer bbf, Executor executor) {
+    ByteBuffer buffer = bbf.slice().order(LITTLE_ENDIAN);
+    final int cookie = buffer.getInt();
+    if ((cookie & 0xFFFF) != SERIAL_COOKIE && cookie != SERIAL_COOKIE_NO_RUNCONTAINER) {
+      throw new InvalidRoaringFormat("I failed to find one of the right cookies. " + cookie);
+    }
+    boolean hasRunContainers = (cookie & 0xFFFF) == SERIAL_COOKIE;
+    final int size = hasRunContainers ? (cookie >>> 16) + 1 : buffer.getInt();
+    if (size > (1 << 16)) {
+      throw new InvalidRoaringFormat("Size too large");
+    }
+    if (hasRunContainers && size < NO_OFFSET_THRESHOLD) {
+      // no offsets, and too few containers to be worth splitting
+      deserialize(bbf);
+      return;
+    }
+    final byte[] runMarkers = hasRunContainers ? new byte[(size + 7) / 8] : null;
+    if (hasRunContainers) {
+      buffer.get(runMarkers);
+    }
+    final char[] keys = new char[size];
+    final int[] cardinalities = new int[size];
+    for (int k = 0; k < size; ++k) {
+      keys[k] = buffer.getChar();
+      cardinalities[k] = 1 + buffer.getChar();
+    }
+    // the offset of each container, and where the last one ends
+    final int[] offsets = new int[size + 1];
+    for (int k = 0; k < size; ++k) {
+      offsets[k] = buffer.getInt();
+    }
+    offsets[size] = checkOffsets(buffer, runMarkers, cardinalities, offsets, size,
+        buffer.position(), buffer.limit());
+
+    final Container[] values = new Container[size];
+    int bytes = offsets[size] - offsets[0];
+    if (bytes < PARALLEL_DESERIALIZATION_BYTES) {
+      readContainers(buffer, runMarkers, cardinalities, offsets, values, 0, size);
+    } else {
+      // tasks of at least half of PARALLEL_DESERIALIZATION_BYTES each
+      int numTasks = Math.min(4 * Runtime.getRuntime().availableProcessors(),
+          Math.max(2, bytes / PARALLEL_DESERIALIZATION_BYTES));
+      List<CompletableFuture<Void>> tasks = new ArrayList<>(numTasks);
+      int bytesPerTask = bytes / numTasks;
+      for (int from = 0, k = 1; k <= size; ++k) {
+        if (k == size || offsets[k] - offsets[from] >= bytesPerTask) {
+          final int start = from;
+          final int end = k;
+          tasks.add(CompletableFuture.runAsync(() ->
+              readContainers(buffer, runMarkers, cardinalities, offsets, values, start, end),
+              executor));
+          from = k;
+        }
+      }
+      try {
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw e;
+      }
+    }
+    this.keys = keys;
+    this.values = values;
+    this.size = size;
+  }
+
+  /**
+   * Checks the offsets of the containers read from a header against the sizes of the
+   * containers, so that corrupted offsets are not used to read the containers.
+   *
+   * @param start where the first container must start
+   * @param limit where the last container must end by
+   * @return where the last container ends
+   * @throws InvalidRoaringFormat if an offset is not where the previous container ends, or the
+   *         containers do not fit before the limit
+   */
+  static int checkOffsets(ByteBuffer buffer, byte[] runMarkers, int[] cardinalities,
+      int[] offsets, int size, int start, int limit) {
+    long expected = start;
+    for (int k = 0; k < size; ++k) {
+      if (offsets[k] != expected) {
+        throw new InvalidRoaringFormat("The offset of the container " + k + " is corrupted.");
+      }
+      if (runMarkers != null && (runMarkers[k >>> 3] & (1 << (k & 7))) != 0) {
+        if (expected + 2 > limit) {
+          throw new InvalidRoaringFormat("The container " + k + " is truncated.");
+        }
+        expected += 2 + 4 * buffer.getChar((int) expected);
+      } else if (cardinalities[k] > ArrayContainer.DEFAULT_MAX_SIZE) {
+        expected += BitmapContainer.MAX_CAPACITY / 8;
+      } else {
+        expected += 2 * cardinalities[k];
+      }
+    }
+    if (expected > limit) {
+      throw new InvalidRoaringFormat("The containers are truncated.");
+    }
+    return (int) expected;
+  }
+
+  // copies the containers from until to to the heap, each one read at its offset in the buffer
+  static void readContainers(ByteBuffer buffer, byte[] runMarkers, int[] cardinalities,
+      int[] offsets, Container[] values, int from, int to) {
+    ByteBuffer view = buffer.duplicate().order(LITTLE_ENDIAN);
+    for (int k = from; k < to; ++k) {
+      view.position(offsets[k]);
+      if (runMarkers != null && (runMarkers[k >>> 3] & (1 << (k & 7))) != 0) {
+        int nbrruns = view.getChar();
+        final char[] lengthsAndValues = new char[2 * nbrruns];
+        view.asCharBuffer().get(lengthsAndValues);
+        values[k] = new RunContainer(lengthsAndValues, nbrruns);
+      } else if (cardinalities[k] > ArrayContainer.DEFAULT_MAX_SIZE) {
+        final long[] bitmapArray = new long[BitmapContainer.MAX_CAPACITY / 64];
+        view.asLongBuffer().get(bitmapArray);
+        values[k] = new BitmapContainer(bitmapArray, cardinalities[k]);
+      } else {
+        final char[] charArray = new char[cardinalities[k]];
+        view.asCharBuffer().get(charArray);
+        values[k] = new ArrayContainer(charArray);
+      }
+    }
+  }
+
   @Override
   public boolean equals(Object o) {
     if (o instanceof RoaringArray) {
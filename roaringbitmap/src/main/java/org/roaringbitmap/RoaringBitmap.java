@@ -11,6 +11,7 @@ import org.roaringbitmap.buffer.MutableRoaringBitmap;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.concurrent.Executor;
 
 import static org.roaringbitmap.RoaringBitmapWriter.writer;
 import static org.roaringbitmap.Util.lowbitsAsInteger;
@@ -201,7 +202,7 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
 
   private static final long serialVersionUID = 6L;
 
-  private static void rangeSanityCheck(final long rangeStart, final long rangeEnd) {
+  static void rangeSanityCheck(final long rangeStart, final long rangeEnd) {
     if (rangeStart < 0 || rangeStart > (1L << 32)-1) {
       throw new IllegalArgumentException("rangeStart="+ rangeStart
                                          +" should be in [0, 0xffffffff]");
@@ -388,6 +389,8 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
         final Container c = c1.and(c2);
         if (!c.isEmpty()) {
           answer.highLowContainer.append(s1, c);
+        } else if (c != c1 && c != c2) {
+          ContainerPool.recycle(c);
         }
         ++pos1;
         ++pos2;
@@ -455,6 +458,8 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
         final Container c = c1.andNot(c2);
         if (!c.isEmpty()) {
           answer.highLowContainer.append(s1, c);
+        } else if (c != c1 && c != c2) {
+          ContainerPool.recycle(c);
         }
         ++pos1;
         ++pos2;
@@ -1079,10 +1084,13 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
 
       while (true) {
         if (s1 == s2) {
-          final Container c = x1.highLowContainer.getContainerAtIndex(pos1)
-              .xor(x2.highLowContainer.getContainerAtIndex(pos2));
+          final Container c1 = x1.highLowContainer.getContainerAtIndex(pos1);
+          final Container c2 = x2.highLowContainer.getContainerAtIndex(pos2);
+          final Container c = c1.xor(c2);
           if (!c.isEmpty()) {
             answer.highLowContainer.append(s1, c);
+          } else if (c != c1 && c != c2) {
+            ContainerPool.recycle(c);
           }
           pos1++;
           pos2++;
@@ -1671,6 +1679,23 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
     highLowContainer = new RoaringArray(); // lose references
   }
 
+  /**
+   * Empties this bitmap and gives the storage of its containers to the {@link ContainerPool} of
+   * the current thread, so that the next operations of the thread can reuse it. Without a pool,
+   * this is the same as {@link #clear()}.
+   *
+   * The containers must not be referenced anywhere else: clones, deserialized bitmaps and the
+   * results of the static operations of this class and of {@link FastAggregation} own their
+   * containers, except the bitmaps returned by the priority queue aggregations, which may share
+   * containers with their inputs.
+   */
+  public void release() {
+    for (int i = 0; i < highLowContainer.size(); ++i) {
+      ContainerPool.recycle(highLowContainer.getContainerAtIndex(i));
+    }
+    clear();
+  }
+
   @Override
   public RoaringBitmap clone() {
     try {
@@ -1810,6 +1835,27 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
     }
   }
 
+  /**
+   * Deserialize (retrieve) this bitmap in the portable format, copying the containers to the
+   * heap on an executor, which pays off for bitmaps of many megabytes. The containers are split
+   * into ranges of about the same number of bytes using the offsets stored in the header, one
+   * task per range, and the calling thread waits for all of them. Small bitmaps, and bitmaps
+   * whose header has no offsets, are deserialized on the calling thread.
+   *
+   * The input ByteBuffer is left unchanged, as with deserialize(ByteBuffer).
+   *
+   * @param bbf the byte buffer (can be mapped, direct, array backed etc.
+   * @param executor runs the tasks copying the containers, such as a ForkJoinPool
+   * @throws IOException if the buffer does not hold a valid bitmap
+   */
+  public void deserialize(ByteBuffer bbf, Executor executor) throws IOException {
+    try {
+      this.highLowContainer.deserialize(bbf, executor);
+    } catch(InvalidRoaringFormat cookie) {
+      throw cookie.toIOException();// we convert it to an IOException
+    }
+  }
+
   @Override
   public boolean equals(Object o) {
     if (o instanceof RoaringBitmap) {
@@ -2352,8 +2398,133 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
   }
 
 
+  /**
+   * In-place bitwise AND (intersection) operation in lazy mode: the containers skip maintaining
+   * their cardinality, so that a chain of lazy operations only pays for it once, when
+   * {@link #repairAfterLazy()} is called. Until then the bitmap may hold empty or
+   * non-canonical containers and must only be used as an operand of other lazy operations.
+   * The argument may itself be in lazy mode and is not modified.
+   *
+   * @param x2 other bitmap
+   */
+  public void lazyAnd(final RoaringBitmap x2) {
+    if(x2 == this) { return; }
+    int pos1 = 0, pos2 = 0, intersectionSize = 0;
+    final int length1 = highLowContainer.size(), length2 = x2.highLowContainer.size();
+
+    while (pos1 < length1 && pos2 < length2) {
+      final char s1 = highLowContainer.getKeyAtIndex(pos1);
+      final char s2 = x2.highLowContainer.getKeyAtIndex(pos2);
+      if (s1 == s2) {
+        final Container c1 = highLowContainer.getContainerAtIndex(pos1);
+        final Container c2 = x2.highLowContainer.getContainerAtIndex(pos2);
+        // empty containers are removed by repairAfterLazy, checking now would count the bits
+        highLowContainer.replaceKeyAndContainerAtIndex(intersectionSize++, s1, c1.lazyIAND(c2));
+        ++pos1;
+        ++pos2;
+      } else if (s1 < s2) {
+        pos1 = highLowContainer.advanceUntil(s2, pos1);
+      } else {
+        pos2 = x2.highLowContainer.advanceUntil(s1, pos2);
+      }
+    }
+    highLowContainer.resize(intersectionSize);
+  }
+
+  /**
+   * In-place bitwise ANDNOT (difference) operation in lazy mode, see {@link #lazyAnd}.
+   *
+   * @param x2 other bitmap
+   */
+  public void lazyAndNot(final RoaringBitmap x2) {
+    if(x2 == this) {
+      clear();
+      return;
+    }
+    int pos1 = 0, pos2 = 0;
+    final int length1 = highLowContainer.size(), length2 = x2.highLowContainer.size();
+
+    while (pos1 < length1 && pos2 < length2) {
+      final char s1 = highLowContainer.getKeyAtIndex(pos1);
+      final char s2 = x2.highLowContainer.getKeyAtIndex(pos2);
+      if (s1 == s2) {
+        final Container c1 = highLowContainer.getContainerAtIndex(pos1);
+        final Container c2 = x2.highLowContainer.getContainerAtIndex(pos2);
+        highLowContainer.setContainerAtIndex(pos1, c1.lazyIANDNOT(c2));
+        ++pos1;
+        ++pos2;
+      } else if (s1 < s2) {
+        pos1 = highLowContainer.advanceUntil(s2, pos1);
+      } else {
+        pos2 = x2.highLowContainer.advanceUntil(s1, pos2);
+      }
+    }
+  }
+
+  /**
+   * In-place bitwise OR (union) operation in lazy mode, see {@link #lazyAnd}.
+   *
+   * @param x2 other bitmap
+   */
+  public void lazyOr(final RoaringBitmap x2) {
+    lazyor(x2);
+  }
+
+  /**
+   * In-place bitwise XOR (symmetric difference) operation in lazy mode, see {@link #lazyAnd}.
+   *
+   * @param x2 other bitmap
+   */
+  public void lazyXor(final RoaringBitmap x2) {
+    if(x2 == this) {
+      clear();
+      return;
+    }
+    int pos1 = 0, pos2 = 0;
+    int length1 = highLowContainer.size();
+    final int length2 = x2.highLowContainer.size();
+
+    main: if (pos1 < length1 && pos2 < length2) {
+      char s1 = highLowContainer.getKeyAtIndex(pos1);
+      char s2 = x2.highLowContainer.getKeyAtIndex(pos2);
+
+      while (true) {
+        if (s1 == s2) {
+          this.highLowContainer.setContainerAtIndex(pos1, highLowContainer.getContainerAtIndex(pos1)
+              .lazyIXOR(x2.highLowContainer.getContainerAtIndex(pos2)));
+          pos1++;
+          pos2++;
+          if ((pos1 == length1) || (pos2 == length2)) {
+            break main;
+          }
+          s1 = highLowContainer.getKeyAtIndex(pos1);
+          s2 = x2.highLowContainer.getKeyAtIndex(pos2);
+        } else if (s1 < s2) {
+          pos1++;
+          if (pos1 == length1) {
+            break main;
+          }
+          s1 = highLowContainer.getKeyAtIndex(pos1);
+        } else {
+          highLowContainer.insertNewKeyValueAt(pos1, s2,
+              x2.highLowContainer.getContainerAtIndex(pos2).clone());
+          pos1++;
+          length1++;
+          pos2++;
+          if (pos2 == length2) {
+            break main;
+          }
+          s2 = x2.highLowContainer.getKeyAtIndex(pos2);
+        }
+      }
+    }
+    if (pos1 == length1) {
+      highLowContainer.appendCopy(x2.highLowContainer, pos2, length2);
+    }
+  }
+
   // don't forget to call repairAfterLazy() afterward
-  // important: x2 should not have been computed lazily
+  // x2 may have been computed lazily as well
   protected void lazyor(final RoaringBitmap x2) {
     if(this == x2) { return; }
     int pos1 = 0, pos2 = 0;
@@ -2748,12 +2919,20 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
     return answer;
   }
 
-  // to be used with lazyor
-  protected void repairAfterLazy() {
+  /**
+   * Brings the bitmap back to a valid state after lazy operations (see {@link #lazyAnd}): the
+   * cardinalities are computed, containers are converted to their best type and empty ones are
+   * removed.
+   */
+  public void repairAfterLazy() {
+    int size = 0;
     for (int k = 0; k < highLowContainer.size(); ++k) {
-      Container c = highLowContainer.getContainerAtIndex(k);
-      highLowContainer.setContainerAtIndex(k, c.repairAfterLazy());
+      Container c = highLowContainer.getContainerAtIndex(k).repairAfterLazy();
+      if (!c.isEmpty()) {
+        highLowContainer.replaceKeyAndContainerAtIndex(size++, highLowContainer.getKeyAtIndex(k), c);
+      }
     }
+    highLowContainer.resize(size);
   }
 
   /**
@@ -2773,6 +2952,25 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
     return answer;
   }
 
+  /**
+   * Use a run-length encoding where the policy asks for it, and remove it elsewhere.
+   *
+   * @param policy decides which containers are run-encoded
+   * @return whether the bitmap has run containers afterwards
+   */
+  public boolean runOptimize(ContainerOptimizationPolicy policy) {
+    boolean answer = false;
+    for (int i = 0; i < this.highLowContainer.size(); i++) {
+      Container c = this.highLowContainer.getContainerAtIndex(i)
+          .runOptimize(this.highLowContainer.getKeyAtIndex(i), policy);
+      if (c instanceof RunContainer) {
+        answer = true;
+      }
+      this.highLowContainer.setContainerAtIndex(i, c);
+    }
+    return answer;
+  }
+
   /**
    * Checks whether the parameter is a subset of this RoaringBitmap or not
    * @param subset the potential subset
@@ -3282,6 +3480,17 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
     this.highLowContainer.trim();
   }
 
+  /**
+   * Choose the container types with the policy, see
+   * {@link #runOptimize(ContainerOptimizationPolicy)}, then recover allocated but unused memory.
+   *
+   * @param policy decides which containers are run-encoded
+   */
+  public void trim(ContainerOptimizationPolicy policy) {
+    runOptimize(policy);
+    trim();
+  }
+
 
   @Override
   public void writeExternal(ObjectOutput out) throws IOException {
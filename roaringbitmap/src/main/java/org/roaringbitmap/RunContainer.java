@@ -22,7 +22,9 @@ import java.util.Iterator;
  */
 public final class RunContainer extends Container implements Cloneable {
   private static final int DEFAULT_INIT_SIZE = 4;
-  private static final boolean ENABLE_GALLOPING_AND = false;
+  // intersections gallop over the runs of a container only when it has this many times more runs
+  // than the other container has runs or values, a linear scan wins otherwise
+  static final int GALLOPING_RATIO = 32;
 
   private static final long serialVersionUID = 1L;
 
@@ -89,7 +91,7 @@ public final class RunContainer extends Container implements Cloneable {
 
   }
 
-  private char[] valueslength;// we interleave values and lengths, so
+  char[] valueslength;// we interleave values and lengths, so
   // that if you have the values 11,12,13,14,15, you store that as 11,4 where 4 means that beyond 11
   // itself, there are
   // 4 contiguous values that follows.
@@ -202,7 +204,7 @@ public final class RunContainer extends Container implements Cloneable {
    * @param capacity The capacity of the container
    */
   public RunContainer(final int capacity) {
-    valueslength = new char[2 * capacity];
+    valueslength = ContainerPool.chars(2 * capacity);
   }
 
 
@@ -303,10 +305,14 @@ public final class RunContainer extends Container implements Cloneable {
 
   @Override
   public Container and(ArrayContainer x) {
+    if (isFull()) {
+      return x.clone();
+    }
     ArrayContainer ac = new ArrayContainer(x.cardinality);
     if (this.nbrruns == 0) {
       return ac;
     }
+    final boolean gallop = this.nbrruns > GALLOPING_RATIO * x.cardinality;
     int rlepos = 0;
     int arraypos = 0;
 
@@ -315,7 +321,11 @@ public final class RunContainer extends Container implements Cloneable {
     while (arraypos < x.cardinality) {
       int arrayval = (x.content[arraypos]);
       while (rleval + rlelength < arrayval) {// this will frequently be false
-        ++rlepos;
+        if (gallop) {
+          rlepos = skipAhead(this, rlepos, arrayval);
+        } else {
+          ++rlepos;
+        }
         if (rlepos == this.nbrruns) {
           return ac;// we are done
         }
@@ -336,6 +346,9 @@ public final class RunContainer extends Container implements Cloneable {
 
   @Override
   public Container and(BitmapContainer x) {
+    if (isFull()) {
+      return x.getCardinality() > ArrayContainer.DEFAULT_MAX_SIZE ? x.clone() : x.toArrayContainer();
+    }
     // could be implemented as return toBitmapOrArrayContainer().iand(x);
     int card = this.getCardinality();
     if (card <= ArrayContainer.DEFAULT_MAX_SIZE) {
@@ -379,8 +392,15 @@ public final class RunContainer extends Container implements Cloneable {
 
   @Override
   public Container and(RunContainer x) {
+    if (isFull()) {
+      return ((RunContainer) x.clone()).toEfficientContainer();
+    } else if (x.isFull()) {
+      return ((RunContainer) clone()).toEfficientContainer();
+    }
+    final boolean gallop = this.nbrruns > GALLOPING_RATIO * x.nbrruns;
+    final boolean xgallop = x.nbrruns > GALLOPING_RATIO * this.nbrruns;
     int maxRunsAfterIntersection = nbrruns + x.nbrruns;
-    RunContainer answer = new RunContainer(new char[2 * maxRunsAfterIntersection], 0);
+    RunContainer answer = new RunContainer(ContainerPool.chars(2 * maxRunsAfterIntersection), 0);
     if (isEmpty()) {
       return answer;
     }
@@ -392,7 +412,7 @@ public final class RunContainer extends Container implements Cloneable {
     int xend = xstart + x.getLength(xrlepos) + 1;
     while (rlepos < this.nbrruns && xrlepos < x.nbrruns) {
       if (end <= xstart) {
-        if (ENABLE_GALLOPING_AND) {
+        if (gallop) {
           rlepos = skipAhead(this, rlepos, xstart); // skip over runs until we have end > xstart (or
                                                     // rlepos is advanced beyond end)
         } else {
@@ -405,7 +425,7 @@ public final class RunContainer extends Container implements Cloneable {
         }
       } else if (xend <= start) {
         // exit the second run
-        if (ENABLE_GALLOPING_AND) {
+        if (xgallop) {
           xrlepos = skipAhead(x, xrlepos, start);
         } else {
           ++xrlepos;
@@ -460,6 +480,7 @@ public final class RunContainer extends Container implements Cloneable {
     if (this.nbrruns == 0) {
       return x.cardinality;
     }
+    final boolean gallop = this.nbrruns > GALLOPING_RATIO * x.cardinality;
     int rlepos = 0;
     int arraypos = 0;
     int andCardinality = 0;
@@ -468,7 +489,11 @@ public final class RunContainer extends Container implements Cloneable {
     while (arraypos < x.cardinality) {
       int arrayval = (x.content[arraypos]);
       while (rleval + rlelength < arrayval) {// this will frequently be false
-        ++rlepos;
+        if (gallop) {
+          rlepos = skipAhead(this, rlepos, arrayval);
+        } else {
+          ++rlepos;
+        }
         if (rlepos == this.nbrruns) {
           return andCardinality;// we are done
         }
@@ -488,6 +513,9 @@ public final class RunContainer extends Container implements Cloneable {
 
   @Override
   public int andCardinality(BitmapContainer x) {
+    if (isFull()) {
+      return x.getCardinality();
+    }
     // could be implemented as return toBitmapOrArrayContainer().iand(x);
     int cardinality = 0;
     for (int rlepos = 0; rlepos < this.nbrruns; ++rlepos) {
@@ -500,6 +528,13 @@ public final class RunContainer extends Container implements Cloneable {
 
   @Override
   public int andCardinality(RunContainer x) {
+    if (isFull()) {
+      return x.getCardinality();
+    } else if (x.isFull()) {
+      return getCardinality();
+    }
+    final boolean gallop = this.nbrruns > GALLOPING_RATIO * x.nbrruns;
+    final boolean xgallop = x.nbrruns > GALLOPING_RATIO * this.nbrruns;
     int cardinality = 0;
     int rlepos = 0;
     int xrlepos = 0;
@@ -509,7 +544,7 @@ public final class RunContainer extends Container implements Cloneable {
     int xend = xstart + (x.getLength(xrlepos)) + 1;
     while ((rlepos < this.nbrruns) && (xrlepos < x.nbrruns)) {
       if (end <= xstart) {
-        if (ENABLE_GALLOPING_AND) {
+        if (gallop) {
           rlepos = skipAhead(this, rlepos, xstart); // skip over runs until we have end > xstart (or
                                                     // rlepos is advanced beyond end)
         } else {
@@ -522,7 +557,7 @@ public final class RunContainer extends Container implements Cloneable {
         }
       } else if (xend <= start) {
         // exit the second run
-        if (ENABLE_GALLOPING_AND) {
+        if (xgallop) {
           xrlepos = skipAhead(x, xrlepos, start);
         } else {
           ++xrlepos;
@@ -635,7 +670,10 @@ public final class RunContainer extends Container implements Cloneable {
 
   @Override
   public Container andNot(RunContainer x) {
-    RunContainer answer = new RunContainer(new char[2 * (this.nbrruns + x.nbrruns)], 0);
+    if (x.isFull()) {
+      return ArrayContainer.empty();
+    }
+    RunContainer answer = new RunContainer(ContainerPool.chars(2 * (this.nbrruns + x.nbrruns)), 0);
     int rlepos = 0;
     int xrlepos = 0;
     int start = (this.getValue(rlepos));
@@ -812,7 +850,7 @@ public final class RunContainer extends Container implements Cloneable {
   @Override
   protected boolean contains(BitmapContainer bitmapContainer) {
     final int cardinality = getCardinality();
-    if (bitmapContainer.getCardinality() != -1 && bitmapContainer.getCardinality() > cardinality) {
+    if (bitmapContainer.getCardinality() > cardinality) {
       return false;
     }
     final int runCount = numberOfRuns();
@@ -1367,7 +1405,10 @@ public final class RunContainer extends Container implements Cloneable {
   public boolean intersects(ArrayContainer x) {
     if (this.nbrruns == 0) {
       return false;
+    } else if (isFull()) {
+      return !x.isEmpty();
     }
+    final boolean gallop = this.nbrruns > GALLOPING_RATIO * x.cardinality;
     int rlepos = 0;
     int arraypos = 0;
     int rleval = this.getValue(rlepos);
@@ -1375,7 +1416,11 @@ public final class RunContainer extends Container implements Cloneable {
     while (arraypos < x.cardinality) {
       int arrayval = (x.content[arraypos]);
       while (rleval + rlelength < arrayval) {// this will frequently be false
-        ++rlepos;
+        if (gallop) {
+          rlepos = skipAhead(this, rlepos, arrayval);
+        } else {
+          ++rlepos;
+        }
         if (rlepos == this.nbrruns) {
           return false;
         }
@@ -1393,6 +1438,9 @@ public final class RunContainer extends Container implements Cloneable {
 
   @Override
   public boolean intersects(BitmapContainer x) {
+    if (isFull()) {
+      return !x.isEmpty();
+    }
     for (int run = 0; run < this.nbrruns; ++run) {
       int runStart = this.getValue(run);
       int runEnd = runStart + this.getLength(run);
@@ -1405,6 +1453,13 @@ public final class RunContainer extends Container implements Cloneable {
 
   @Override
   public boolean intersects(RunContainer x) {
+    if (isFull()) {
+      return !x.isEmpty();
+    } else if (x.isFull()) {
+      return !isEmpty();
+    }
+    final boolean gallop = this.nbrruns > GALLOPING_RATIO * x.nbrruns;
+    final boolean xgallop = x.nbrruns > GALLOPING_RATIO * this.nbrruns;
     int rlepos = 0;
     int xrlepos = 0;
     int start = this.getValue(rlepos);
@@ -1413,7 +1468,7 @@ public final class RunContainer extends Container implements Cloneable {
     int xend = xstart + x.getLength(xrlepos) + 1;
     while (rlepos < this.nbrruns && xrlepos < x.nbrruns) {
       if (end <= xstart) {
-        if (ENABLE_GALLOPING_AND) {
+        if (gallop) {
           rlepos = skipAhead(this, rlepos, xstart); // skip over runs until we have end > xstart (or
                                                     // rlepos is advanced beyond end)
         } else {
@@ -1426,7 +1481,7 @@ public final class RunContainer extends Container implements Cloneable {
         }
       } else if (xend <= start) {
         // exit the second run
-        if (ENABLE_GALLOPING_AND) {
+        if (xgallop) {
           xrlepos = skipAhead(x, xrlepos, start);
         } else {
           ++xrlepos;
@@ -1708,7 +1763,8 @@ public final class RunContainer extends Container implements Cloneable {
     if (x.isEmpty()) {
       return this;
     }
-    RunContainer answer = new RunContainer(new char[2 * (this.nbrruns + x.cardinality)], 0);
+    RunContainer answer =
+        new RunContainer(ContainerPool.chars(2 * (this.nbrruns + x.cardinality)), 0);
     int rlepos = 0;
     int xrlepos = 0;
     int start = (this.getValue(rlepos));
@@ -1771,7 +1827,8 @@ public final class RunContainer extends Container implements Cloneable {
       return full();
     }
     // TODO: should optimize for the frequent case where we have a single run
-    RunContainer answer = new RunContainer(new char[2 * (this.nbrruns + x.getCardinality())], 0);
+    RunContainer answer =
+        new RunContainer(ContainerPool.chars(2 * (this.nbrruns + x.getCardinality())), 0);
     int rlepos = 0;
     PeekableCharIterator i = x.getCharIterator();
 
@@ -1819,7 +1876,8 @@ public final class RunContainer extends Container implements Cloneable {
     if (this.nbrruns == 0) {
       return x;
     }
-    RunContainer answer = new RunContainer(new char[2 * (this.nbrruns + x.getCardinality())], 0);
+    RunContainer answer =
+        new RunContainer(ContainerPool.chars(2 * (this.nbrruns + x.getCardinality())), 0);
     int rlepos = 0;
     CharIterator i = x.getCharIterator();
     char cv = i.next();
@@ -1958,7 +2016,7 @@ public final class RunContainer extends Container implements Cloneable {
     }
     // we really ought to optimize the rest of the code for the frequent case where there is a
     // single run
-    RunContainer answer = new RunContainer(new char[2 * (this.nbrruns + x.nbrruns)], 0);
+    RunContainer answer = new RunContainer(ContainerPool.chars(2 * (this.nbrruns + x.nbrruns)), 0);
     int rlepos = 0;
     int xrlepos = 0;
 
@@ -2084,6 +2142,15 @@ public final class RunContainer extends Container implements Cloneable {
     return toEfficientContainer();
   }
 
+  @Override
+  Container runOptimize(char key, ContainerOptimizationPolicy policy) {
+    int card = getCardinality();
+    if (policy.useRunContainer(key, card, nbrruns)) {
+      return this;
+    }
+    return toBitmapOrArrayContainer(card);
+  }
+
   @Override
   public char select(int j) {
     int offset = 0;
@@ -2130,8 +2197,8 @@ public final class RunContainer extends Container implements Cloneable {
 
 
   // bootstrapping (aka "galloping") binary search. Always skips at least one.
-  // On our "real data" benchmarks, enabling galloping is a minor loss
-  // .."ifdef ENABLE_GALLOPING_AND" :)
+  // On our "real data" benchmarks, galloping on every step is a minor loss, so the
+  // intersections only use it when one side has GALLOPING_RATIO times more runs than the other
   private int skipAhead(RunContainer skippingOn, int pos, int targetToExceed) {
     int left = pos;
     int span = 1;
@@ -2449,7 +2516,7 @@ public final class RunContainer extends Container implements Cloneable {
     if (this.nbrruns == 0) {
       return x.clone();
     }
-    RunContainer answer = new RunContainer(new char[2 * (this.nbrruns + x.nbrruns)], 0);
+    RunContainer answer = new RunContainer(ContainerPool.chars(2 * (this.nbrruns + x.nbrruns)), 0);
     int rlepos = 0;
     int xrlepos = 0;
 
@@ -716,47 +716,7 @@ public final class Util {
    */
   public static int unsignedDifference(final char[] set1, final int length1, final char[] set2,
       final int length2, final char[] buffer) {
-    int pos = 0;
-    int k1 = 0, k2 = 0;
-    if (0 == length2) {
-      System.arraycopy(set1, 0, buffer, 0, length1);
-      return length1;
-    }
-    if (0 == length1) {
-      return 0;
-    }
-    char s1 = set1[k1];
-    char s2 = set2[k2];
-    while (true) {
-      if (s1 < s2) {
-        buffer[pos++] = s1;
-        ++k1;
-        if (k1 >= length1) {
-          break;
-        }
-        s1 = set1[k1];
-      } else if (s1 == s2) {
-        ++k1;
-        ++k2;
-        if (k1 >= length1) {
-          break;
-        }
-        if (k2 >= length2) {
-          System.arraycopy(set1, k1, buffer, pos, length1 - k1);
-          return pos + length1 - k1;
-        }
-        s1 = set1[k1];
-        s2 = set2[k2];
-      } else {// if (val1>val2)
-        ++k2;
-        if (k2 >= length2) {
-          System.arraycopy(set1, k1, buffer, pos, length1 - k1);
-          return pos + length1 - k1;
-        }
-        s2 = set2[k2];
-      }
-    }
-    return pos;
+    return ArrayKernels.difference(set1, length1, set2, length2, buffer);
   }
 
   /**
@@ -828,51 +788,7 @@ public final class Util {
    */
   public static int unsignedExclusiveUnion2by2(final char[] set1, final int length1,
       final char[] set2, final int length2, final char[] buffer) {
-    int pos = 0;
-    int k1 = 0, k2 = 0;
-    if (0 == length2) {
-      System.arraycopy(set1, 0, buffer, 0, length1);
-      return length1;
-    }
-    if (0 == length1) {
-      System.arraycopy(set2, 0, buffer, 0, length2);
-      return length2;
-    }
-    char s1 = set1[k1];
-    char s2 = set2[k2];
-    while (true) {
-      if (s1 < s2) {
-        buffer[pos++] = s1;
-        ++k1;
-        if (k1 >= length1) {
-          System.arraycopy(set2, k2, buffer, pos, length2 - k2);
-          return pos + length2 - k2;
-        }
-        s1 = set1[k1];
-      } else if (s1 == s2) {
-        ++k1;
-        ++k2;
-        if (k1 >= length1) {
-          System.arraycopy(set2, k2, buffer, pos, length2 - k2);
-          return pos + length2 - k2;
-        }
-        if (k2 >= length2) {
-          System.arraycopy(set1, k1, buffer, pos, length1 - k1);
-          return pos + length1 - k1;
-        }
-        s1 = set1[k1];
-        s2 = set2[k2];
-      } else {// if (val1>val2)
-        buffer[pos++] = s2;
-        ++k2;
-        if (k2 >= length2) {
-          System.arraycopy(set1, k1, buffer, pos, length1 - k1);
-          return pos + length1 - k1;
-        }
-        s2 = set2[k2];
-      }
-    }
-    // return pos;
+    return ArrayKernels.exclusiveUnion(set1, length1, set2, length2, buffer);
   }
 
 
@@ -899,6 +815,28 @@ public final class Util {
     }
   }
 
+  /**
+   * Compute the cardinality of the intersection of two sorted lists, galloping through the
+   * larger list when the sizes are very different.
+   *
+   * @param set1 first array
+   * @param length1 length of first array
+   * @param set2 second array
+   * @param length2 length of second array
+   * @return cardinality of the intersection
+   */
+  public static int unsignedIntersect2by2Cardinality(final char[] set1, final int length1,
+      final char[] set2, final int length2) {
+    final int THRESHOLD = 25;
+    if (length1 * THRESHOLD < length2) {
+      return unsignedOneSidedGallopingIntersect2by2Cardinality(set1, length1, set2, length2);
+    } else if (length2 * THRESHOLD < length1) {
+      return unsignedOneSidedGallopingIntersect2by2Cardinality(set2, length2, set1, length1);
+    } else {
+      return unsignedLocalIntersect2by2Cardinality(set1, length1, set2, length2);
+    }
+  }
+
 
 
   /**
@@ -947,53 +885,7 @@ public final class Util {
 
   protected static int unsignedLocalIntersect2by2(final char[] set1, final int length1,
       final char[] set2, final int length2, final char[] buffer) {
-    if ((0 == length1) || (0 == length2)) {
-      return 0;
-    }
-    int k1 = 0;
-    int k2 = 0;
-    int pos = 0;
-    char s1 = set1[k1];
-    char s2 = set2[k2];
-
-    mainwhile: while (true) {
-      int v1 = (s1);
-      int v2 = s2;
-      if (v2 < v1) {
-        do {
-          ++k2;
-          if (k2 == length2) {
-            break mainwhile;
-          }
-          s2 = set2[k2];
-          v2 = s2;
-        } while (v2 < v1);
-      }
-      if (v1 < v2) {
-        do {
-          ++k1;
-          if (k1 == length1) {
-            break mainwhile;
-          }
-          s1 = set1[k1];
-          v1 = s1;
-        } while (v1 < v2);
-      } else {
-        // (set2[k2] == set1[k1])
-        buffer[pos++] = s1;
-        ++k1;
-        if (k1 == length1) {
-          break;
-        }
-        ++k2;
-        if (k2 == length2) {
-          break;
-        }
-        s1 = set1[k1];
-        s2 = set2[k2];
-      }
-    }
-    return pos;
+    return ArrayKernels.intersect(set1, length1, set2, length2, buffer);
   }
 
 
@@ -1007,64 +899,62 @@ public final class Util {
    */
   public static int unsignedLocalIntersect2by2Cardinality(final char[] set1, final int length1,
       final char[] set2, final int length2) {
-    if ((0 == length1) || (0 == length2)) {
+    return ArrayKernels.intersectCardinality(set1, length1, set2, length2);
+  }
+
+
+  protected static int unsignedOneSidedGallopingIntersect2by2(final char[] smallSet,
+      final int smallLength, final char[] largeSet, final int largeLength, final char[] buffer) {
+    if (0 == smallLength) {
       return 0;
     }
     int k1 = 0;
     int k2 = 0;
     int pos = 0;
-    char s1 = set1[k1];
-    char s2 = set2[k2];
-
-    mainwhile: while (true) {
-      int v1 = s1;
-      int v2 = s2;
-      if (v2 < v1) {
-        do {
-          ++k2;
-          if (k2 == length2) {
-            break mainwhile;
-          }
-          s2 = set2[k2];
-          v2 = s2;
-        } while (v2 < v1);
+    char s1 = largeSet[k1];
+    char s2 = smallSet[k2];
+    while (true) {
+      if (s1 < s2) {
+        k1 = advanceUntil(largeSet, k1, largeLength, s2);
+        if (k1 == largeLength) {
+          break;
+        }
+        s1 = largeSet[k1];
       }
-      if (v1 < v2) {
-        do {
-          ++k1;
-          if (k1 == length1) {
-            break mainwhile;
-          }
-          s1 = set1[k1];
-          v1 = s1;
-        } while (v1 < v2);
+      if (s2 < s1) {
+        ++k2;
+        if (k2 == smallLength) {
+          break;
+        }
+        s2 = smallSet[k2];
       } else {
         // (set2[k2] == set1[k1])
-        pos++;
-        ++k1;
-        if (k1 == length1) {
+        buffer[pos++] = s2;
+        ++k2;
+        if (k2 == smallLength) {
           break;
         }
-        ++k2;
-        if (k2 == length2) {
+        s2 = smallSet[k2];
+        k1 = advanceUntil(largeSet, k1, largeLength, s2);
+        if (k1 == largeLength) {
           break;
         }
-        s1 = set1[k1];
-        s2 = set2[k2];
+        s1 = largeSet[k1];
       }
+
     }
     return pos;
-  }
 
+  }
 
-  protected static int unsignedOneSidedGallopingIntersect2by2(final char[] smallSet,
-      final int smallLength, final char[] largeSet, final int largeLength, final char[] buffer) {
-    if (0 == smallLength) {
+  protected static int unsignedOneSidedGallopingIntersect2by2Cardinality(final char[] smallSet,
+      final int smallLength, final char[] largeSet, final int largeLength) {
+    if (0 == smallLength || 0 == largeLength) {
       return 0;
     }
     int k1 = 0;
     int k2 = 0;
-    int pos = 0;
+    int card = 0;
     char s1 = largeSet[k1];
     char s2 = smallSet[k2];
     while (true) {
@@ -1083,7 +973,7 @@ public final class Util {
         s2 = smallSet[k2];
       } else {
         // (set2[k2] == set1[k1])
-        buffer[pos++] = s2;
+        ++card;
         ++k2;
         if (k2 == smallLength) {
           break;
@@ -1095,10 +985,8 @@ public final class Util {
         }
         s1 = largeSet[k1];
       }
-
     }
-    return pos;
-
+    return card;
   }
 
   /**
@@ -1117,54 +1005,7 @@ public final class Util {
           final char[] set1, final int offset1, final int length1,
           final char[] set2, final int offset2, final int length2,
           final char[] buffer) {
-    if (0 == length2) {
-      System.arraycopy(set1, offset1, buffer, 0, length1);
-      return length1;
-    }
-    if (0 == length1) {
-      System.arraycopy(set2, offset2, buffer, 0, length2);
-      return length2;
-    }
-    int pos = 0;
-    int k1 = offset1, k2 = offset2;
-    char s1 = set1[k1];
-    char s2 = set2[k2];
-    while (true) {
-      int v1 = s1;
-      int v2 = s2;
-      if (v1 < v2) {
-        buffer[pos++] = s1;
-        ++k1;
-        if (k1 >= length1 + offset1) {
-          System.arraycopy(set2, k2, buffer, pos, length2 - k2 + offset2);
-          return pos + length2 - k2 + offset2;
-        }
-        s1 = set1[k1];
-      } else if (v1 == v2) {
-        buffer[pos++] = s1;
-        ++k1;
-        ++k2;
-        if (k1 >= length1 + offset1) {
-          System.arraycopy(set2, k2, buffer, pos, length2 - k2 + offset2);
-          return pos + length2 - k2 + offset2;
-        }
-        if (k2 >= length2 + offset2) {
-          System.arraycopy(set1, k1, buffer, pos, length1 - k1 + offset1);
-          return pos + length1 - k1 + offset1;
-        }
-        s1 = set1[k1];
-        s2 = set2[k2];
-      } else {// if (set1[k1]>set2[k2])
-        buffer[pos++] = s2;
-        ++k2;
-        if (k2 >= length2 + offset2) {
-          System.arraycopy(set1, k1, buffer, pos, length1 - k1 + offset1);
-          return pos + length1 - k1 + offset1;
-        }
-        s2 = set2[k2];
-      }
-    }
-    // return pos;
+    return ArrayKernels.union(set1, offset1, length1, set2, offset2, length2, buffer);
   }
 
 
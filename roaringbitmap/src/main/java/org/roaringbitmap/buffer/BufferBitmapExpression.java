@@ -0,0 +1,523 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap.buffer;
+
+import org.roaringbitmap.Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A tree of logical operations over immutable bitmaps, evaluated without materialising the
+ * intermediate bitmaps. This is the buffer counterpart of
+ * {@link org.roaringbitmap.BitmapExpression}.
+ *
+ * Evaluation first plans the tree: nested intersections and unions are flattened, the operands
+ * of intersections are sorted by estimated cardinality so that the most selective come first,
+ * and differences found below intersections are moved above them, so that a subtrahend is only
+ * looked at where the intersection is not empty. The set of keys each operation may produce is
+ * then computed from the keys of the bitmaps, and the result is built one key at a time:
+ * only the containers sharing that key are combined, and an operand is only evaluated for the
+ * keys its parent still needs.
+ *
+ * Expressions are immutable and may be evaluated concurrently, as long as the bitmaps they
+ * refer to are not modified.
+ *
+ * <pre>
+ * {@code
+ *      // (a AND (b OR c)) AND NOT d
+ *      MutableRoaringBitmap result = BufferBitmapExpression.andNot(
+ *          BufferBitmapExpression.and(BufferBitmapExpression.of(a),
+ *              BufferBitmapExpression.or(BufferBitmapExpression.of(b),
+ *                  BufferBitmapExpression.of(c))),
+ *          BufferBitmapExpression.of(d)).evaluate();
+ * }
+ * </pre>
+ */
+public abstract class BufferBitmapExpression {
+
+  private static final Comparator<Operator> BY_CARDINALITY =
+      Comparator.comparingLong(operator -> operator.cardinality);
+
+  BufferBitmapExpression() {
+  }
+
+  /**
+   * @param bitmap a bitmap, which must not be modified while the expression is evaluated
+   * @return an expression evaluating to the values of the bitmap
+   */
+  public static BufferBitmapExpression of(ImmutableRoaringBitmap bitmap) {
+    return new Leaf(bitmap);
+  }
+
+  /**
+   * @param operands at least one expression
+   * @return an expression evaluating to the intersection of the operands
+   */
+  public static BufferBitmapExpression and(BufferBitmapExpression... operands) {
+    if (operands.length == 0) {
+      throw new IllegalArgumentException("An intersection needs at least one operand");
+    }
+    return new And(operands.clone());
+  }
+
+  /**
+   * @param operands the expressions
+   * @return an expression evaluating to the union of the operands
+   */
+  public static BufferBitmapExpression or(BufferBitmapExpression... operands) {
+    return new Or(operands.clone());
+  }
+
+  /**
+   * @param minuend the expression to remove values from
+   * @param subtrahend the expression whose values are removed
+   * @return an expression evaluating to the values of the minuend absent from the subtrahend
+   */
+  public static BufferBitmapExpression andNot(BufferBitmapExpression minuend,
+      BufferBitmapExpression subtrahend) {
+    return new AndNot(minuend, subtrahend);
+  }
+
+  /**
+   * Complements an expression within a range, like {@link ImmutableRoaringBitmap#flip(
+   * ImmutableRoaringBitmap, long, long)}.
+   *
+   * @param operand the expression
+   * @param rangeStart inclusive beginning of range, in [0, 0xffffffff]
+   * @param rangeEnd exclusive ending of range, in [0, 0xffffffff + 1]
+   * @return an expression evaluating to the values of the operand outside the range and to the
+   *     values of the range absent from the operand
+   */
+  public static BufferBitmapExpression flip(BufferBitmapExpression operand, long rangeStart,
+      long rangeEnd) {
+    MutableRoaringBitmap.rangeSanityCheck(rangeStart, rangeEnd);
+    return new Flip(operand, rangeStart, rangeEnd);
+  }
+
+  /**
+   * Computes the value of the expression.
+   *
+   * @return a new bitmap
+   */
+  public MutableRoaringBitmap evaluate() {
+    Operator root = plan();
+    long[] keys = new long[1 << 10];
+    root.addKeys(keys);
+    MutableRoaringArray result = new MutableRoaringArray();
+    for (int i = 0; i < keys.length; ++i) {
+      long word = keys[i];
+      while (word != 0) {
+        char key = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+        MappeableContainer container = root.evaluate(key);
+        if (container != null) {
+          result.append(key, root.owned ? container : container.clone());
+        }
+        word &= word - 1;
+      }
+    }
+    return new MutableRoaringBitmap(result);
+  }
+
+  /**
+   * @return a new operator tree evaluating the expression
+   */
+  abstract Operator plan();
+
+  private static Operator planAnd(List<BufferBitmapExpression> operands,
+      List<BufferBitmapExpression> subtrahends) {
+    List<Operator> intersected = new ArrayList<>();
+    List<Operator> subtracted = new ArrayList<>();
+    for (BufferBitmapExpression operand : operands) {
+      flattenAnd(operand, intersected, subtracted);
+    }
+    for (BufferBitmapExpression subtrahend : subtrahends) {
+      flattenSubtrahend(subtrahend, subtracted);
+    }
+    Operator operator;
+    if (intersected.size() == 1) {
+      operator = intersected.get(0);
+    } else {
+      intersected.sort(BY_CARDINALITY);
+      operator = new AndOperator(intersected.toArray(new Operator[0]));
+    }
+    if (subtracted.isEmpty()) {
+      return operator;
+    }
+    // the largest subtrahends are the most likely to empty a container early
+    subtracted.sort(BY_CARDINALITY.reversed());
+    return new AndNotOperator(operator, subtracted.toArray(new Operator[0]));
+  }
+
+  private static void flattenAnd(BufferBitmapExpression operand, List<Operator> intersected,
+      List<Operator> subtracted) {
+    if (operand instanceof And) {
+      for (BufferBitmapExpression nested : ((And) operand).operands) {
+        flattenAnd(nested, intersected, subtracted);
+      }
+    } else if (operand instanceof AndNot) {
+      // (a AND NOT b) AND c == (a AND c) AND NOT b
+      flattenAnd(((AndNot) operand).minuend, intersected, subtracted);
+      flattenSubtrahend(((AndNot) operand).subtrahend, subtracted);
+    } else {
+      intersected.add(operand.plan());
+    }
+  }
+
+  private static void flattenSubtrahend(BufferBitmapExpression subtrahend,
+      List<Operator> subtracted) {
+    if (subtrahend instanceof Or) {
+      // a AND NOT (b OR c) == (a AND NOT b) AND NOT c
+      for (BufferBitmapExpression nested : ((Or) subtrahend).operands) {
+        flattenSubtrahend(nested, subtracted);
+      }
+    } else {
+      subtracted.add(subtrahend.plan());
+    }
+  }
+
+  private static void flattenOr(BufferBitmapExpression operand, List<Operator> united) {
+    if (operand instanceof Or) {
+      for (BufferBitmapExpression nested : ((Or) operand).operands) {
+        flattenOr(nested, united);
+      }
+    } else {
+      united.add(operand.plan());
+    }
+  }
+
+  private static final class Leaf extends BufferBitmapExpression {
+
+    private final ImmutableRoaringBitmap bitmap;
+
+    Leaf(ImmutableRoaringBitmap bitmap) {
+      this.bitmap = bitmap;
+    }
+
+    @Override
+    Operator plan() {
+      return new LeafOperator(bitmap.highLowContainer, bitmap.getLongCardinality());
+    }
+  }
+
+  private static final class And extends BufferBitmapExpression {
+
+    private final BufferBitmapExpression[] operands;
+
+    And(BufferBitmapExpression[] operands) {
+      this.operands = operands;
+    }
+
+    @Override
+    Operator plan() {
+      return planAnd(Arrays.asList(operands), new ArrayList<>());
+    }
+  }
+
+  private static final class Or extends BufferBitmapExpression {
+
+    private final BufferBitmapExpression[] operands;
+
+    Or(BufferBitmapExpression[] operands) {
+      this.operands = operands;
+    }
+
+    @Override
+    Operator plan() {
+      List<Operator> united = new ArrayList<>();
+      for (BufferBitmapExpression operand : operands) {
+        flattenOr(operand, united);
+      }
+      return united.size() == 1
+          ? united.get(0)
+          : new OrOperator(united.toArray(new Operator[0]));
+    }
+  }
+
+  private static final class AndNot extends BufferBitmapExpression {
+
+    private final BufferBitmapExpression minuend;
+    private final BufferBitmapExpression subtrahend;
+
+    AndNot(BufferBitmapExpression minuend, BufferBitmapExpression subtrahend) {
+      this.minuend = minuend;
+      this.subtrahend = subtrahend;
+    }
+
+    @Override
+    Operator plan() {
+      List<BufferBitmapExpression> minuends = new ArrayList<>();
+      minuends.add(minuend);
+      List<BufferBitmapExpression> subtrahends = new ArrayList<>();
+      subtrahends.add(subtrahend);
+      return planAnd(minuends, subtrahends);
+    }
+  }
+
+  private static final class Flip extends BufferBitmapExpression {
+
+    private final BufferBitmapExpression operand;
+    private final long rangeStart;
+    private final long rangeEnd;
+
+    Flip(BufferBitmapExpression operand, long rangeStart, long rangeEnd) {
+      this.operand = operand;
+      this.rangeStart = rangeStart;
+      this.rangeEnd = rangeEnd;
+    }
+
+    @Override
+    Operator plan() {
+      Operator planned = operand.plan();
+      return rangeStart >= rangeEnd ? planned : new FlipOperator(planned, rangeStart, rangeEnd);
+    }
+  }
+
+  /**
+   * Evaluates a node of a planned expression. The keys an operator is evaluated for must
+   * increase from one call to the next.
+   */
+  abstract static class Operator {
+
+    /**
+     * An upper bound of the cardinality of the result, used for ordering operands.
+     */
+    final long cardinality;
+
+    /**
+     * Whether the last container returned belongs to the caller, which may then modify it,
+     * rather than to a bitmap of the expression.
+     */
+    boolean owned;
+
+    Operator(long cardinality) {
+      this.cardinality = cardinality;
+    }
+
+    /**
+     * Sets the bits of the keys the operator may produce a container for.
+     *
+     * @param words a 1024-word bitmap of keys
+     */
+    abstract void addKeys(long[] words);
+
+    /**
+     * @param key the key of the container
+     * @return the container of the result with the key, or null if it is empty
+     */
+    abstract MappeableContainer evaluate(char key);
+  }
+
+  private abstract static class CompositeOperator extends Operator {
+
+    final long[] keys = new long[1 << 10];
+
+    CompositeOperator(long cardinality) {
+      super(cardinality);
+    }
+
+    @Override
+    void addKeys(long[] words) {
+      for (int i = 0; i < words.length; ++i) {
+        words[i] |= keys[i];
+      }
+    }
+
+    @Override
+    MappeableContainer evaluate(char key) {
+      return (keys[key >>> 6] & (1L << key)) == 0 ? null : compute(key);
+    }
+
+    abstract MappeableContainer compute(char key);
+  }
+
+  private static final class LeafOperator extends Operator {
+
+    private final PointableRoaringArray highLowContainer;
+    private int position;
+
+    LeafOperator(PointableRoaringArray highLowContainer, long cardinality) {
+      super(cardinality);
+      this.highLowContainer = highLowContainer;
+    }
+
+    @Override
+    void addKeys(long[] words) {
+      for (int i = 0; i < highLowContainer.size(); ++i) {
+        char key = highLowContainer.getKeyAtIndex(i);
+        words[key >>> 6] |= 1L << key;
+      }
+    }
+
+    @Override
+    MappeableContainer evaluate(char key) {
+      position = highLowContainer.advanceUntil(key, position - 1);
+      owned = false;
+      return position < highLowContainer.size() && highLowContainer.getKeyAtIndex(position) == key
+          ? highLowContainer.getContainerAtIndex(position)
+          : null;
+    }
+  }
+
+  private static final class AndOperator extends CompositeOperator {
+
+    private final Operator[] operands;
+    private final MappeableContainer[] slice;
+    private final long[] words = new long[1 << 10];
+    private final char[] values = new char[MappeableArrayContainer.DEFAULT_MAX_SIZE];
+
+    AndOperator(Operator[] operands) {
+      super(operands[0].cardinality);
+      this.operands = operands;
+      this.slice = new MappeableContainer[operands.length];
+      operands[0].addKeys(keys);
+      for (int i = 1; i < operands.length; ++i) {
+        Arrays.fill(words, 0L);
+        operands[i].addKeys(words);
+        for (int k = 0; k < keys.length; ++k) {
+          keys[k] &= words[k];
+        }
+      }
+    }
+
+    @Override
+    MappeableContainer compute(char key) {
+      for (int i = 0; i < operands.length; ++i) {
+        MappeableContainer container = operands[i].evaluate(key);
+        if (container == null) {
+          return null;
+        }
+        slice[i] = container;
+      }
+      MappeableContainer and = BufferFastAggregation.and(slice, words, values);
+      Arrays.fill(slice, null);
+      if (and.isEmpty()) {
+        return null;
+      }
+      owned = true;
+      // a bitmap is backed by the words of this operator
+      return and instanceof MappeableBitmapContainer ? and.clone() : and;
+    }
+  }
+
+  private static final class OrOperator extends CompositeOperator {
+
+    private final Operator[] operands;
+
+    OrOperator(Operator[] operands) {
+      super(sumOfCardinalities(operands));
+      this.operands = operands;
+      for (Operator operand : operands) {
+        operand.addKeys(keys);
+      }
+    }
+
+    private static long sumOfCardinalities(Operator[] operands) {
+      long cardinality = 0;
+      for (Operator operand : operands) {
+        cardinality += operand.cardinality;
+      }
+      return Math.min(cardinality, 1L << 32);
+    }
+
+    @Override
+    MappeableContainer compute(char key) {
+      MappeableContainer union = null;
+      boolean unionOwned = false;
+      boolean lazy = false;
+      for (Operator operand : operands) {
+        MappeableContainer container = operand.evaluate(key);
+        if (container == null) {
+          continue;
+        }
+        if (union == null) {
+          union = container;
+          unionOwned = operand.owned;
+        } else {
+          union = unionOwned ? union.lazyIOR(container) : union.lazyOR(container);
+          unionOwned = true;
+          lazy = true;
+        }
+      }
+      owned = unionOwned;
+      return lazy ? union.repairAfterLazy() : union;
+    }
+  }
+
+  private static final class AndNotOperator extends CompositeOperator {
+
+    private final Operator minuend;
+    private final Operator[] subtrahends;
+
+    AndNotOperator(Operator minuend, Operator[] subtrahends) {
+      super(minuend.cardinality);
+      this.minuend = minuend;
+      this.subtrahends = subtrahends;
+      minuend.addKeys(keys);
+    }
+
+    @Override
+    MappeableContainer compute(char key) {
+      MappeableContainer difference = minuend.evaluate(key);
+      if (difference == null) {
+        return null;
+      }
+      boolean differenceOwned = minuend.owned;
+      for (Operator subtrahend : subtrahends) {
+        MappeableContainer container = subtrahend.evaluate(key);
+        if (container != null) {
+          difference = differenceOwned
+              ? difference.iandNot(container)
+              : difference.andNot(container);
+          differenceOwned = true;
+          if (difference.isEmpty()) {
+            return null;
+          }
+        }
+      }
+      owned = differenceOwned;
+      return difference;
+    }
+  }
+
+  private static final class FlipOperator extends CompositeOperator {
+
+    private final Operator operand;
+    private final int startKey;
+    private final int lastKey;
+    private final int startLow;
+    private final int lastLow;
+
+    FlipOperator(Operator operand, long rangeStart, long rangeEnd) {
+      super(Math.min(operand.cardinality + rangeEnd - rangeStart, 1L << 32));
+      this.operand = operand;
+      this.startKey = BufferUtil.highbits(rangeStart);
+      this.lastKey = BufferUtil.highbits(rangeEnd - 1);
+      this.startLow = BufferUtil.lowbits(rangeStart);
+      this.lastLow = BufferUtil.lowbits(rangeEnd - 1);
+      operand.addKeys(keys);
+      Util.setBitmapRange(keys, startKey, lastKey + 1);
+    }
+
+    @Override
+    MappeableContainer compute(char key) {
+      MappeableContainer container = operand.evaluate(key);
+      if (key < startKey || key > lastKey) {
+        owned = operand.owned;
+        return container;
+      }
+      int start = key == startKey ? startLow : 0;
+      int end = key == lastKey ? lastLow + 1 : 1 << 16;
+      owned = true;
+      if (container == null) {
+        return MappeableContainer.rangeOfOnes(start, end);
+      }
+      MappeableContainer flipped =
+          operand.owned ? container.inot(start, end) : container.not(start, end);
+      return flipped.isEmpty() ? null : flipped;
+    }
+  }
+}
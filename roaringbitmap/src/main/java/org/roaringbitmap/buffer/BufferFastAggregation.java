@@ -140,6 +140,486 @@ public final class BufferFastAggregation {
     }
   }
 
+  /**
+   * Compute cardinality of the XOR aggregate.
+   *
+   * @param bitmaps input bitmaps
+   * @return aggregated cardinality
+   */
+  public static int xorCardinality(ImmutableRoaringBitmap... bitmaps) {
+    switch (bitmaps.length) {
+      case 0:
+        return 0;
+      case 1:
+        return bitmaps[0].getCardinality();
+      case 2:
+        return ImmutableRoaringBitmap.xorCardinality(bitmaps[0], bitmaps[1]);
+      default:
+        return xorCardinality(new long[1024], bitmaps);
+    }
+  }
+
+  /**
+   * Compute cardinality of the XOR aggregate without materialising any container: the
+   * containers sharing a key are flipped into the buffer, and the cardinality of a container
+   * whose key no other bitmap holds is used as is.
+   *
+   * @param aggregationBuffer a buffer for aggregation, overwritten
+   * @param bitmaps input bitmaps
+   * @return aggregated cardinality
+   */
+  public static int xorCardinality(long[] aggregationBuffer, ImmutableRoaringBitmap... bitmaps) {
+    if (aggregationBuffer.length < 1024) {
+      throw new IllegalArgumentException("buffer should have at least 1024 elements.");
+    }
+    long[] words = aggregationBuffer;
+    int[] positions = new int[bitmaps.length];
+    int cardinality = 0;
+    for (int key = nextKey(positions, bitmaps); key >= 0; key = nextKey(positions, bitmaps)) {
+      MappeableContainer first = null;
+      boolean shared = false;
+      for (int j = 0; j < bitmaps.length; ++j) {
+        PointableRoaringArray highLowContainer = bitmaps[j].highLowContainer;
+        if (positions[j] < highLowContainer.size()
+            && highLowContainer.getKeyAtIndex(positions[j]) == key) {
+          MappeableContainer container = highLowContainer.getContainerAtIndex(positions[j]++);
+          if (first == null) {
+            first = container;
+          } else {
+            if (!shared) {
+              Arrays.fill(words, 0, 1024, 0L);
+              flip(words, first);
+              shared = true;
+            }
+            flip(words, container);
+          }
+        }
+      }
+      cardinality += shared
+          ? Util.cardinalityInBitmapRange(words, 0, 1 << 16)
+          : first.getCardinality();
+    }
+    return cardinality;
+  }
+
+  /**
+   * Compute cardinality of the difference between the minuend and the union of the subtrahends.
+   *
+   * @param minuend the bitmap to remove values from
+   * @param subtrahends the bitmaps whose values are removed
+   * @return aggregated cardinality
+   */
+  public static int andNotCardinality(ImmutableRoaringBitmap minuend,
+      ImmutableRoaringBitmap... subtrahends) {
+    switch (subtrahends.length) {
+      case 0:
+        return minuend.getCardinality();
+      case 1:
+        return ImmutableRoaringBitmap.andNotCardinality(minuend, subtrahends[0]);
+      default:
+        return andNotCardinality(new long[1024], minuend, subtrahends);
+    }
+  }
+
+  /**
+   * Compute cardinality of the difference between the minuend and the union of the subtrahends
+   * without materialising any container: the values of an array container of the minuend are
+   * looked up in the subtrahends, other containers are copied into the buffer and the
+   * subtrahends cleared from it.
+   *
+   * @param aggregationBuffer a buffer for aggregation, overwritten
+   * @param minuend the bitmap to remove values from
+   * @param subtrahends the bitmaps whose values are removed
+   * @return aggregated cardinality
+   */
+  public static int andNotCardinality(long[] aggregationBuffer, ImmutableRoaringBitmap minuend,
+      ImmutableRoaringBitmap... subtrahends) {
+    if (aggregationBuffer.length < 1024) {
+      throw new IllegalArgumentException("buffer should have at least 1024 elements.");
+    }
+    long[] words = aggregationBuffer;
+    MappeableContainer[] slice = new MappeableContainer[subtrahends.length];
+    int[] positions = new int[subtrahends.length];
+    int cardinality = 0;
+    MappeableContainerPointer pointer = minuend.highLowContainer.getContainerPointer();
+    for (; pointer.getContainer() != null; pointer.advance()) {
+      char key = pointer.key();
+      MappeableContainer container = pointer.getContainer();
+      int count = 0;
+      for (int j = 0; j < subtrahends.length; ++j) {
+        PointableRoaringArray highLowContainer = subtrahends[j].highLowContainer;
+        int position = highLowContainer.advanceUntil(key, positions[j] - 1);
+        positions[j] = position;
+        if (position < highLowContainer.size()
+            && highLowContainer.getKeyAtIndex(position) == key) {
+          slice[count++] = highLowContainer.getContainerAtIndex(position);
+        }
+      }
+      if (count == 0) {
+        cardinality += container.getCardinality();
+      } else if (container instanceof MappeableArrayContainer) {
+        MappeableArrayContainer array = (MappeableArrayContainer) container;
+        for (int k = 0; k < array.cardinality; ++k) {
+          char value = array.content.get(k);
+          int j = 0;
+          while (j < count && !slice[j].contains(value)) {
+            ++j;
+          }
+          cardinality += j == count ? 1 : 0;
+        }
+      } else {
+        Arrays.fill(words, 0, 1024, 0L);
+        flip(words, container);
+        for (int j = 0; j < count; ++j) {
+          clear(words, slice[j]);
+        }
+        cardinality += Util.cardinalityInBitmapRange(words, 0, 1 << 16);
+      }
+    }
+    return cardinality;
+  }
+
+  /**
+   * Checks whether all the bitmaps share at least one value, without computing their
+   * intersection. The bitmaps with the fewest containers are looked at first, so that the keys
+   * missing from one of them are skipped early, and the search stops at the first key whose
+   * containers share a value.
+   *
+   * @param bitmaps input bitmaps
+   * @return whether the intersection of the bitmaps is not empty
+   */
+  public static boolean intersects(ImmutableRoaringBitmap... bitmaps) {
+    switch (bitmaps.length) {
+      case 0:
+        return false;
+      case 1:
+        return !bitmaps[0].isEmpty();
+      case 2:
+        return ImmutableRoaringBitmap.intersects(bitmaps[0], bitmaps[1]);
+      default:
+    }
+    ImmutableRoaringBitmap[] sorted = bitmaps.clone();
+    Arrays.sort(sorted, Comparator.comparingInt(bitmap -> bitmap.highLowContainer.size()));
+    PointableRoaringArray driver = sorted[0].highLowContainer;
+    MappeableContainer[] slice = new MappeableContainer[sorted.length];
+    int[] positions = new int[sorted.length];
+    long[] words = null;
+    char[] values = null;
+    int i = 0;
+    while (i < driver.size()) {
+      char key = driver.getKeyAtIndex(i);
+      int next = -1;
+      for (int j = 1; j < sorted.length && next < 0; ++j) {
+        PointableRoaringArray highLowContainer = sorted[j].highLowContainer;
+        int position = highLowContainer.advanceUntil(key, positions[j] - 1);
+        positions[j] = position;
+        if (position == highLowContainer.size()) {
+          // no larger key is common to all the bitmaps
+          return false;
+        }
+        if (highLowContainer.getKeyAtIndex(position) == key) {
+          slice[j] = highLowContainer.getContainerAtIndex(position);
+        } else {
+          next = highLowContainer.getKeyAtIndex(position);
+        }
+      }
+      if (next < 0) {
+        if (words == null) {
+          words = new long[1024];
+          values = new char[MappeableArrayContainer.DEFAULT_MAX_SIZE];
+        }
+        slice[0] = driver.getContainerAtIndex(i);
+        if (intersects(slice, words, values)) {
+          return true;
+        }
+        ++i;
+      } else {
+        // leapfrogs to the first key of the driver which may be common to all the bitmaps
+        i = driver.advanceUntil((char) next, i);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the union of the bitmaps contains any of the values of a bitmap, without
+   * computing the union, stopping at the first key where a common value is found.
+   *
+   * @param bitmap the values to look for
+   * @param bitmaps input bitmaps
+   * @return whether the bitmap intersects any of the bitmaps
+   */
+  public static boolean containsAny(ImmutableRoaringBitmap bitmap,
+      ImmutableRoaringBitmap... bitmaps) {
+    MappeableContainerPointer pointer = bitmap.highLowContainer.getContainerPointer();
+    MappeableContainer[] slice = new MappeableContainer[bitmaps.length];
+    int[] positions = new int[bitmaps.length];
+    long[] words = null;
+    for (; pointer.getContainer() != null; pointer.advance()) {
+      MappeableContainer container = pointer.getContainer();
+      int count = slice(pointer.key(), positions, slice, bitmaps);
+      if (count == 0) {
+        continue;
+      }
+      if (count == 1) {
+        if (container.intersects(slice[0])) {
+          return true;
+        }
+      } else if (probes(container, count)) {
+        MappeableArrayContainer values = (MappeableArrayContainer) container;
+        for (int k = 0; k < values.cardinality; ++k) {
+          for (int j = 0; j < count; ++j) {
+            if (slice[j].contains(values.content.get(k))) {
+              return true;
+            }
+          }
+        }
+      } else {
+        words = zeroed(words);
+        flip(words, container);
+        for (int j = 0; j < count; ++j) {
+          if (intersects(words, slice[j])) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the union of the bitmaps contains all the values of a bitmap, without
+   * computing the union, stopping at the first key where a value is missing from all the
+   * bitmaps.
+   *
+   * @param subset the values to look for
+   * @param bitmaps input bitmaps
+   * @return whether the subset is a subset of the union of the bitmaps
+   */
+  public static boolean containsAll(ImmutableRoaringBitmap subset,
+      ImmutableRoaringBitmap... bitmaps) {
+    MappeableContainerPointer pointer = subset.highLowContainer.getContainerPointer();
+    MappeableContainer[] slice = new MappeableContainer[bitmaps.length];
+    int[] positions = new int[bitmaps.length];
+    long[] words = null;
+    for (; pointer.getContainer() != null; pointer.advance()) {
+      MappeableContainer container = pointer.getContainer();
+      int count = slice(pointer.key(), positions, slice, bitmaps);
+      if (count == 0) {
+        return false;
+      }
+      if (count == 1) {
+        if (!slice[0].contains(container)) {
+          return false;
+        }
+      } else if (probes(container, count)) {
+        MappeableArrayContainer values = (MappeableArrayContainer) container;
+        for (int k = 0; k < values.cardinality; ++k) {
+          char value = values.content.get(k);
+          int j = 0;
+          while (j < count && !slice[j].contains(value)) {
+            ++j;
+          }
+          if (j == count) {
+            return false;
+          }
+        }
+      } else {
+        words = zeroed(words);
+        flip(words, container);
+        for (int j = 0; j < count; ++j) {
+          clear(words, slice[j]);
+        }
+        for (long word : words) {
+          if (word != 0) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Collects the containers with a key.
+   *
+   * @param key the key
+   * @param positions the positions of the cursors in the bitmaps, advanced to the key
+   * @param slice receives the containers with the key
+   * @param bitmaps input bitmaps
+   * @return the number of containers with the key
+   */
+  private static int slice(char key, int[] positions, MappeableContainer[] slice,
+      ImmutableRoaringBitmap... bitmaps) {
+    int count = 0;
+    for (int j = 0; j < bitmaps.length; ++j) {
+      PointableRoaringArray highLowContainer = bitmaps[j].highLowContainer;
+      int position = highLowContainer.advanceUntil(key, positions[j] - 1);
+      positions[j] = position;
+      if (position < highLowContainer.size() && highLowContainer.getKeyAtIndex(position) == key) {
+        slice[count++] = highLowContainer.getContainerAtIndex(position);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param container a container
+   * @param count the number of containers to look its values up in
+   * @return whether looking each value up is cheaper than setting up a buffer
+   */
+  private static boolean probes(MappeableContainer container, int count) {
+    return container instanceof MappeableArrayContainer
+        && container.getCardinality() * count < 1024;
+  }
+
+  private static long[] zeroed(long[] words) {
+    if (words == null) {
+      return new long[1024];
+    }
+    Arrays.fill(words, 0L);
+    return words;
+  }
+
+  /**
+   * @param slice containers sharing a key
+   * @param words an 8KB buffer, overwritten
+   * @param values a buffer of 4096 values, overwritten
+   * @return whether the containers share at least one value
+   */
+  private static boolean intersects(MappeableContainer[] slice, long[] words, char[] values) {
+    int common = intersectValues(slice, values);
+    if (common >= 0) {
+      return common > 0;
+    }
+    Arrays.fill(words, -1L);
+    for (MappeableContainer container : slice) {
+      if (container instanceof MappeableRunContainer) {
+        // clears the gaps between the runs
+        MappeableRunContainer runs = (MappeableRunContainer) container;
+        int start = 0;
+        for (int r = 0; r < runs.nbrruns; ++r) {
+          Util.resetBitmapRange(words, start, runs.getValue(r));
+          start = runs.getValue(r) + runs.getLength(r) + 1;
+        }
+        Util.resetBitmapRange(words, start, 1 << 16);
+      }
+    }
+    // a block of words at a time, which is abandoned as soon as it is empty
+    for (int from = 0; from < words.length; from += 32) {
+      long any = 0;
+      for (int w = from; w < from + 32; ++w) {
+        any |= words[w];
+      }
+      for (int j = 0; j < slice.length && any != 0; ++j) {
+        if (slice[j] instanceof MappeableBitmapContainer) {
+          LongBuffer bitmap = ((MappeableBitmapContainer) slice[j]).bitmap;
+          any = 0;
+          for (int w = from; w < from + 32; ++w) {
+            words[w] &= bitmap.get(w);
+            any |= words[w];
+          }
+        }
+      }
+      if (any != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param words the values of a container
+   * @param container a container with the same key
+   * @return whether the container holds any of the values
+   */
+  private static boolean intersects(long[] words, MappeableContainer container) {
+    if (container instanceof MappeableBitmapContainer) {
+      LongBuffer bitmap = ((MappeableBitmapContainer) container).bitmap;
+      for (int w = 0; w < 1024; ++w) {
+        if ((words[w] & bitmap.get(w)) != 0) {
+          return true;
+        }
+      }
+    } else if (container instanceof MappeableArrayContainer) {
+      MappeableArrayContainer array = (MappeableArrayContainer) container;
+      for (int k = 0; k < array.cardinality; ++k) {
+        char value = array.content.get(k);
+        if ((words[value >>> 6] & (1L << value)) != 0) {
+          return true;
+        }
+      }
+    } else {
+      MappeableRunContainer runs = (MappeableRunContainer) container;
+      for (int r = 0; r < runs.nbrruns; ++r) {
+        int start = runs.getValue(r);
+        if (Util.cardinalityInBitmapRange(words, start, start + runs.getLength(r) + 1) > 0) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param positions the positions of the next containers of the bitmaps
+   * @param bitmaps input bitmaps
+   * @return the smallest key of the next containers, or -1 if all the bitmaps are exhausted
+   */
+  private static int nextKey(int[] positions, ImmutableRoaringBitmap... bitmaps) {
+    int key = -1;
+    for (int j = 0; j < bitmaps.length; ++j) {
+      PointableRoaringArray highLowContainer = bitmaps[j].highLowContainer;
+      if (positions[j] < highLowContainer.size()
+          && (key < 0 || highLowContainer.getKeyAtIndex(positions[j]) < key)) {
+        key = highLowContainer.getKeyAtIndex(positions[j]);
+      }
+    }
+    return key;
+  }
+
+  private static void flip(long[] words, MappeableContainer container) {
+    if (container instanceof MappeableBitmapContainer) {
+      LongBuffer bitmap = ((MappeableBitmapContainer) container).bitmap;
+      for (int w = 0; w < 1024; ++w) {
+        words[w] ^= bitmap.get(w);
+      }
+    } else if (container instanceof MappeableArrayContainer) {
+      MappeableArrayContainer array = (MappeableArrayContainer) container;
+      for (int k = 0; k < array.cardinality; ++k) {
+        char value = array.content.get(k);
+        words[value >>> 6] ^= 1L << value;
+      }
+    } else {
+      MappeableRunContainer runs = (MappeableRunContainer) container;
+      for (int r = 0; r < runs.nbrruns; ++r) {
+        int start = runs.getValue(r);
+        Util.flipBitmapRange(words, start, start + runs.getLength(r) + 1);
+      }
+    }
+  }
+
+  private static void clear(long[] words, MappeableContainer container) {
+    if (container instanceof MappeableBitmapContainer) {
+      LongBuffer bitmap = ((MappeableBitmapContainer) container).bitmap;
+      for (int w = 0; w < 1024; ++w) {
+        words[w] &= ~bitmap.get(w);
+      }
+    } else if (container instanceof MappeableArrayContainer) {
+      MappeableArrayContainer array = (MappeableArrayContainer) container;
+      for (int k = 0; k < array.cardinality; ++k) {
+        char value = array.content.get(k);
+        words[value >>> 6] &= ~(1L << value);
+      }
+    } else {
+      MappeableRunContainer runs = (MappeableRunContainer) container;
+      for (int r = 0; r < runs.nbrruns; ++r) {
+        int start = runs.getValue(r);
+        Util.resetBitmapRange(words, start, start + runs.getLength(r) + 1);
+      }
+    }
+  }
+
   /**
    * Convenience method converting one type of iterator into another, to avoid unnecessary warnings.
    *
@@ -447,20 +927,9 @@ public final class BufferFastAggregation {
 
     MutableRoaringArray array =
             new MutableRoaringArray(keys, new MappeableContainer[numContainers], 0);
+    char[] values = new char[MappeableArrayContainer.DEFAULT_MAX_SIZE];
     for (int i = 0; i < numContainers; ++i) {
-      MappeableContainer[] slice = containers[i];
-      Arrays.fill(words, -1L);
-      MappeableContainer tmp = new MappeableBitmapContainer(LongBuffer.wrap(words), -1);
-      for (MappeableContainer container : slice) {
-        // We only assign to 'tmp' when 'tmp != tmp.iand(container)'
-        // as a garbage-collection optimization: we want to avoid
-        // the write barrier. (Richard Startin)
-        MappeableContainer and = tmp.iand(container);
-        if (and != tmp) {
-          tmp = and;
-        }
-      }
-      tmp = tmp.repairAfterLazy();
+      MappeableContainer tmp = and(containers[i], words, values);
       if (!tmp.isEmpty()) {
         array.append(keys[i], tmp instanceof MappeableBitmapContainer ? tmp.clone() : tmp);
       }
@@ -468,6 +937,124 @@ public final class BufferFastAggregation {
     return new MutableRoaringBitmap(array);
   }
 
+  /**
+   * Intersects the containers sharing a key. When one of them is an array container, its values
+   * are filtered through all the others at once, smallest arrays first, galloping over the larger
+   * arrays and testing bits of the bitmaps, so that no intermediate container is built. Otherwise
+   * the containers are folded into the words of a lazy bitmap container.
+   *
+   * @param slice the containers, all with the same key
+   * @param words an 8KB buffer, overwritten
+   * @param values a buffer of 4096 values, overwritten
+   * @return the intersection, may be empty or backed by words
+   */
+  static MappeableContainer and(MappeableContainer[] slice, long[] words,
+      char[] values) {
+    int cardinality = intersectValues(slice, values);
+    if (cardinality >= 0) {
+      return new MappeableArrayContainer(CharBuffer.wrap(Arrays.copyOf(values, cardinality)),
+          cardinality);
+    }
+    Arrays.fill(words, -1L);
+    MappeableContainer tmp = new MappeableBitmapContainer(LongBuffer.wrap(words), -1);
+    for (MappeableContainer container : slice) {
+      // We only assign to 'tmp' when 'tmp != tmp.iand(container)'
+      // as a garbage-collection optimization: we want to avoid
+      // the write barrier. (Richard Startin)
+      MappeableContainer and = tmp.iand(container);
+      if (and != tmp) {
+        tmp = and;
+      }
+    }
+    return tmp.repairAfterLazy();
+  }
+
+  /**
+   * Writes the values common to all the containers to values when at least one of them is an
+   * array container.
+   *
+   * @param slice the containers, all with the same key
+   * @param values a buffer of 4096 values, overwritten
+   * @return the number of common values, or -1 if there is no array container
+   */
+  static int intersectValues(MappeableContainer[] slice, char[] values) {
+    MappeableArrayContainer smallest = null;
+    for (MappeableContainer container : slice) {
+      if (container instanceof MappeableArrayContainer
+          && (smallest == null || container.getCardinality() < smallest.cardinality)) {
+        smallest = (MappeableArrayContainer) container;
+      }
+    }
+    if (smallest == null) {
+      return -1;
+    }
+    int cardinality = smallest.cardinality;
+    if (BufferUtil.isBackedBySimpleArray(smallest.content)) {
+      System.arraycopy(smallest.content.array(), 0, values, 0, cardinality);
+    } else {
+      for (int k = 0; k < cardinality; ++k) {
+        values[k] = smallest.content.get(k);
+      }
+    }
+    // the bitmaps first: a branch-free lookup per value is cheaper than merging arrays of
+    // similar sizes
+    for (int i = 0; i < slice.length && cardinality > 0; ++i) {
+      if (slice[i] instanceof MappeableBitmapContainer) {
+        MappeableBitmapContainer bitmap = (MappeableBitmapContainer) slice[i];
+        int pos = 0;
+        for (int k = 0; k < cardinality; ++k) {
+          char v = values[k];
+          values[pos] = v;
+          pos += (int) bitmap.bitValue(v);
+        }
+        cardinality = pos;
+      }
+    }
+    // then the other arrays, galloping over the larger ones
+    CharBuffer wrapped = CharBuffer.wrap(values);
+    for (int i = 0; i < slice.length && cardinality > 0; ++i) {
+      if (slice[i] instanceof MappeableArrayContainer && slice[i] != smallest) {
+        MappeableArrayContainer array = (MappeableArrayContainer) slice[i];
+        cardinality = BufferUtil.unsignedIntersect2by2(wrapped, cardinality,
+            array.content, array.cardinality, values);
+      }
+    }
+    for (int i = 0; i < slice.length && cardinality > 0; ++i) {
+      if (slice[i] instanceof MappeableRunContainer && !slice[i].isFull()) {
+        cardinality = intersectRuns(values, cardinality, (MappeableRunContainer) slice[i]);
+      }
+    }
+    return cardinality;
+  }
+
+  private static int intersectRuns(char[] values, int cardinality, MappeableRunContainer runs) {
+    int pos = 0;
+    if (runs.nbrruns > MappeableRunContainer.GALLOPING_RATIO * cardinality) {
+      for (int k = 0; k < cardinality; ++k) {
+        char v = values[k];
+        if (runs.contains(v)) {
+          values[pos++] = v;
+        }
+      }
+      return pos;
+    }
+    int rlepos = 0;
+    int runEnd = runs.getValue(0) + runs.getLength(0);
+    for (int k = 0; k < cardinality; ++k) {
+      char v = values[k];
+      while (runEnd < v) {
+        if (++rlepos == runs.nbrruns) {
+          return pos;
+        }
+        runEnd = runs.getValue(rlepos) + runs.getLength(rlepos);
+      }
+      if (v >= runs.getValue(rlepos)) {
+        values[pos++] = v;
+      }
+    }
+    return pos;
+  }
+
   /**
    * Computes the intersection by first intersecting the keys, avoids
    * materialising containers.
@@ -524,20 +1111,9 @@ public final class BufferFastAggregation {
 
     MutableRoaringArray array =
             new MutableRoaringArray(keys, new MappeableContainer[numContainers], 0);
+    char[] values = new char[MappeableArrayContainer.DEFAULT_MAX_SIZE];
     for (int i = 0; i < numContainers; ++i) {
-      MappeableContainer[] slice = containers[i];
-      Arrays.fill(words, -1L);
-      MappeableContainer tmp = new MappeableBitmapContainer(LongBuffer.wrap(words), -1);
-      for (MappeableContainer container : slice) {
-        // We only assign to 'tmp' when 'tmp != tmp.iand(container)'
-        // as a garbage-collection optimization: we want to avoid
-        // the write barrier. (Richard Startin)
-        MappeableContainer and = tmp.iand(container);
-        if (and != tmp) {
-          tmp = and;
-        }
-      }
-      tmp = tmp.repairAfterLazy();
+      MappeableContainer tmp = and(containers[i], words, values);
       if (!tmp.isEmpty()) {
         array.append(keys[i], tmp instanceof MappeableBitmapContainer ? tmp.clone() : tmp);
       }
@@ -552,26 +1128,16 @@ public final class BufferFastAggregation {
       return 0;
     }
 
-    LongBuffer longBuffer = LongBuffer.wrap(words);
     int cardinality = 0;
+    MappeableContainer[] slice = new MappeableContainer[bitmaps.length];
+    char[] values = new char[MappeableArrayContainer.DEFAULT_MAX_SIZE];
     for (char key : keys) {
-      Arrays.fill(words, -1L);
-      MappeableContainer tmp = new MappeableBitmapContainer(longBuffer, -1);
-      for (ImmutableRoaringBitmap bitmap : bitmaps) {
-        int index = bitmap.highLowContainer.getIndex(key);
-        if (index < 0) {
-          continue;
-        }
-        MappeableContainer container = bitmap.highLowContainer.getContainerAtIndex(index);
-        // We only assign to 'tmp' when 'tmp != tmp.iand(container)'
-        // as a garbage-collection optimization: we want to avoid
-        // the write barrier. (Richard Startin)
-        MappeableContainer and = tmp.iand(container);
-        if (and != tmp) {
-          tmp = and;
-        }
+      for (int j = 0; j < bitmaps.length; ++j) {
+        PointableRoaringArray highLowContainer = bitmaps[j].highLowContainer;
+        slice[j] = highLowContainer.getContainerAtIndex(highLowContainer.getIndex(key));
       }
-      cardinality += tmp.repairAfterLazy().getCardinality();
+      int common = intersectValues(slice, values);
+      cardinality += common >= 0 ? common : and(slice, words, values).getCardinality();
     }
     return cardinality;
   }
@@ -638,25 +1204,15 @@ public final class BufferFastAggregation {
 
     MutableRoaringArray array =
             new MutableRoaringArray(keys, new MappeableContainer[numContainers], 0);
+    MappeableContainer[] slice = new MappeableContainer[bitmaps.length];
+    char[] values = new char[MappeableArrayContainer.DEFAULT_MAX_SIZE];
     for (int i = 0; i < numContainers; ++i) {
       char MatchingKey = keys[i];
-      Arrays.fill(words, -1L);
-      MappeableContainer tmp = new MappeableBitmapContainer(LongBuffer.wrap(words), -1);
-      for(ImmutableRoaringBitmap bitmap: bitmaps) {
-        int idx = bitmap.highLowContainer.getIndex(MatchingKey);
-        if(idx < 0) {
-          continue;
-        }
-        MappeableContainer container = bitmap.highLowContainer.getContainerAtIndex(idx);
-        // We only assign to 'tmp' when 'tmp != tmp.iand(container)'
-        // as a garbage-collection optimization: we want to avoid
-        // the write barrier. (Richard Startin)
-        MappeableContainer and = tmp.iand(container);
-        if (and != tmp) {
-          tmp = and;
-        }
+      for (int j = 0; j < bitmaps.length; ++j) {
+        PointableRoaringArray highLowContainer = bitmaps[j].highLowContainer;
+        slice[j] = highLowContainer.getContainerAtIndex(highLowContainer.getIndex(MatchingKey));
       }
-      tmp = tmp.repairAfterLazy();
+      MappeableContainer tmp = and(slice, words, values);
       if (!tmp.isEmpty()) {
         array.append(keys[i], tmp instanceof MappeableBitmapContainer ? tmp.clone() : tmp);
       }
@@ -986,6 +1542,368 @@ public final class BufferFastAggregation {
     return naive_xor(bitmaps);
   }
 
+  /**
+   * Computes the intersection one key at a time, passing each container of the result to the
+   * consumer as soon as it is computed, so that no more than one container per input bitmap is
+   * looked at and no result bitmap is built.
+   *
+   * @param consumer receives the non-empty containers of the intersection, in key order
+   * @param bitmaps input bitmaps
+   */
+  public static void and(MappeableContainerConsumer consumer, ImmutableRoaringBitmap... bitmaps) {
+    if (bitmaps.length == 0) {
+      return;
+    }
+    long[] words = new long[1024];
+    char[] keys = BufferUtil.intersectKeys(words, bitmaps);
+    MappeableContainer[] slice = new MappeableContainer[bitmaps.length];
+    int[] positions = new int[bitmaps.length];
+    char[] values = new char[MappeableArrayContainer.DEFAULT_MAX_SIZE];
+    for (char key : keys) {
+      for (int j = 0; j < bitmaps.length; ++j) {
+        PointableRoaringArray highLowContainer = bitmaps[j].highLowContainer;
+        positions[j] = highLowContainer.advanceUntil(key, positions[j] - 1);
+        slice[j] = highLowContainer.getContainerAtIndex(positions[j]);
+      }
+      MappeableContainer and = and(slice, words, values);
+      if (!and.isEmpty()) {
+        consumer.accept(key, and);
+      }
+    }
+  }
+
+  /**
+   * Computes the union one key at a time, passing each container of the result to the consumer
+   * as soon as it is computed, so that no more than one container per input bitmap is looked at
+   * and no result bitmap is built.
+   *
+   * @param consumer receives the non-empty containers of the union, in key order
+   * @param bitmaps input bitmaps
+   */
+  public static void or(MappeableContainerConsumer consumer, ImmutableRoaringBitmap... bitmaps) {
+    PriorityQueue<MappeableContainerPointer> pq = pointers(bitmaps);
+    LongBuffer words = LongBuffer.allocate(1024);
+    while (!pq.isEmpty()) {
+      MappeableContainerPointer first = pq.poll();
+      char key = first.key();
+      MappeableContainer union = first.getContainer();
+      if (!pq.isEmpty() && pq.peek().key() == key) {
+        Arrays.fill(words.array(), 0L);
+        union = new MappeableBitmapContainer(words, -1).lazyIOR(union);
+        do {
+          MappeableContainerPointer next = pq.poll();
+          union = union.lazyIOR(next.getContainer());
+          advance(pq, next);
+        } while (!pq.isEmpty() && pq.peek().key() == key);
+        union = union.repairAfterLazy();
+      }
+      advance(pq, first);
+      consumer.accept(key, union);
+    }
+  }
+
+  /**
+   * Computes the symmetric difference one key at a time, passing each container of the result to
+   * the consumer as soon as it is computed, so that no more than one container per input bitmap
+   * is looked at and no result bitmap is built.
+   *
+   * @param consumer receives the non-empty containers of the symmetric difference, in key order
+   * @param bitmaps input bitmaps
+   */
+  public static void xor(MappeableContainerConsumer consumer, ImmutableRoaringBitmap... bitmaps) {
+    PriorityQueue<MappeableContainerPointer> pq = pointers(bitmaps);
+    while (!pq.isEmpty()) {
+      MappeableContainerPointer first = pq.poll();
+      char key = first.key();
+      MappeableContainer difference = first.getContainer();
+      if (!pq.isEmpty() && pq.peek().key() == key) {
+        MappeableContainerPointer second = pq.poll();
+        difference = difference.xor(second.getContainer());
+        advance(pq, second);
+        while (!pq.isEmpty() && pq.peek().key() == key) {
+          MappeableContainerPointer next = pq.poll();
+          difference = difference.ixor(next.getContainer());
+          advance(pq, next);
+        }
+      }
+      advance(pq, first);
+      if (!difference.isEmpty()) {
+        consumer.accept(key, difference);
+      }
+    }
+  }
+
+  /**
+   * Computes the difference between the minuend and the union of the subtrahends one key at a
+   * time, passing each container of the result to the consumer as soon as it is computed, so that
+   * no more than one container per input bitmap is looked at and no result bitmap is built.
+   *
+   * @param consumer receives the non-empty containers of the difference, in key order
+   * @param minuend the bitmap to remove values from
+   * @param subtrahends the bitmaps whose values are removed
+   */
+  public static void andNot(MappeableContainerConsumer consumer, ImmutableRoaringBitmap minuend,
+      ImmutableRoaringBitmap... subtrahends) {
+    MappeableContainerPointer pointer = minuend.highLowContainer.getContainerPointer();
+    int[] positions = new int[subtrahends.length];
+    for (; pointer.getContainer() != null; pointer.advance()) {
+      char key = pointer.key();
+      MappeableContainer container = pointer.getContainer();
+      MappeableContainer difference = container;
+      for (int j = 0; j < subtrahends.length && !difference.isEmpty(); ++j) {
+        PointableRoaringArray highLowContainer = subtrahends[j].highLowContainer;
+        int position = highLowContainer.advanceUntil(key, positions[j] - 1);
+        positions[j] = position;
+        if (position < highLowContainer.size()
+            && highLowContainer.getKeyAtIndex(position) == key) {
+          MappeableContainer subtrahend = highLowContainer.getContainerAtIndex(position);
+          difference = difference == container
+              ? container.andNot(subtrahend)
+              : difference.iandNot(subtrahend);
+        }
+      }
+      if (!difference.isEmpty()) {
+        consumer.accept(key, difference);
+      }
+    }
+  }
+
+  /**
+   * Computes the values present in at least threshold of the bitmaps. The containers sharing a
+   * key are counted with bit-sliced counters: each array value, run or bitmap word is added to
+   * the counters of its 64 bit word with a ripple carry, so that the cost of counting is
+   * logarithmic in the number of bitmaps, and the values reaching the threshold are then
+   * selected a word at a time. Keys held by fewer than threshold bitmaps are skipped.
+   *
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps input bitmaps
+   * @return the values present in at least threshold bitmaps
+   */
+  public static MutableRoaringBitmap threshold(int threshold, ImmutableRoaringBitmap... bitmaps) {
+    MutableRoaringBitmap result = new MutableRoaringBitmap();
+    threshold((key, container) -> result.getMappeableRoaringArray().append(key, container.clone()),
+        threshold, bitmaps);
+    return result;
+  }
+
+  /**
+   * Computes the number of values present in at least threshold of the bitmaps, without
+   * materialising them.
+   *
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps input bitmaps
+   * @return the number of values present in at least threshold bitmaps
+   */
+  public static int thresholdCardinality(int threshold, ImmutableRoaringBitmap... bitmaps) {
+    checkThreshold(threshold);
+    if (threshold == 1) {
+      return orCardinality(bitmaps);
+    }
+    if (threshold == bitmaps.length) {
+      return andCardinality(bitmaps);
+    }
+    int cardinality = 0;
+    if (threshold < bitmaps.length) {
+      PriorityQueue<MappeableContainerPointer> pq = pointers(bitmaps);
+      long[] words = new long[1024];
+      long[] counters = new long[1024 * counterLevels(bitmaps.length)];
+      MappeableContainer[] slice = new MappeableContainer[bitmaps.length];
+      while (!pq.isEmpty()) {
+        int count = poll(pq, slice);
+        if (count >= threshold) {
+          cardinality += threshold(threshold, slice, count, words, counters);
+        }
+      }
+    }
+    return cardinality;
+  }
+
+  /**
+   * Computes the values present in at least threshold of the bitmaps one key at a time, passing
+   * each container of the result to the consumer as soon as it is computed.
+   *
+   * @param consumer receives the non-empty containers of the result, in key order
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps input bitmaps
+   */
+  public static void threshold(MappeableContainerConsumer consumer, int threshold,
+      ImmutableRoaringBitmap... bitmaps) {
+    checkThreshold(threshold);
+    if (threshold == 1) {
+      or(consumer, bitmaps);
+    } else if (threshold == bitmaps.length) {
+      and(consumer, bitmaps);
+    } else if (threshold < bitmaps.length) {
+      PriorityQueue<MappeableContainerPointer> pq = pointers(bitmaps);
+      long[] words = new long[1024];
+      long[] counters = new long[1024 * counterLevels(bitmaps.length)];
+      MappeableContainer[] slice = new MappeableContainer[bitmaps.length];
+      while (!pq.isEmpty()) {
+        char key = pq.peek().key();
+        int count = poll(pq, slice);
+        if (count >= threshold && threshold(threshold, slice, count, words, counters) > 0) {
+          consumer.accept(key,
+              new MappeableBitmapContainer(LongBuffer.wrap(words), -1).repairAfterLazy());
+        }
+      }
+    }
+  }
+
+  static void checkThreshold(int threshold) {
+    if (threshold < 1) {
+      throw new IllegalArgumentException("The threshold must be positive: " + threshold);
+    }
+  }
+
+  /**
+   * @param maxCount the largest count
+   * @return the number of bit slices needed to count up to maxCount
+   */
+  static int counterLevels(int maxCount) {
+    return 32 - Integer.numberOfLeadingZeros(maxCount);
+  }
+
+  /**
+   * Selects the values present in at least threshold of the containers sharing a key.
+   *
+   * @param threshold the minimum number of containers a value must be present in
+   * @param slice the containers, all with the same key
+   * @param count the number of containers in the slice
+   * @param words an 8KB buffer, overwritten with the selected values
+   * @param counters 1024 words per bit slice, enough to count up to count, zeroed and left
+   *        zeroed
+   * @return the number of selected values
+   */
+  static int threshold(int threshold, MappeableContainer[] slice, int count, long[] words,
+      long[] counters) {
+    int levels = counters.length >>> 10;
+    int minWord = words.length;
+    int maxWord = -1;
+    for (int i = 0; i < count; ++i) {
+      MappeableContainer container = slice[i];
+      if (container instanceof MappeableBitmapContainer) {
+        LongBuffer bitmap = ((MappeableBitmapContainer) container).bitmap;
+        for (int w = 0; w < words.length; ++w) {
+          increment(counters, levels, w, bitmap.get(w));
+        }
+        minWord = 0;
+        maxWord = words.length - 1;
+      } else if (container instanceof MappeableArrayContainer) {
+        MappeableArrayContainer array = (MappeableArrayContainer) container;
+        if (array.cardinality == 0) {
+          continue;
+        }
+        CharBuffer content = array.content;
+        // the values are sorted, so the values of a word are added to the counters at once
+        int word = content.get(0) >>> 6;
+        long bits = 0;
+        for (int k = 0; k < array.cardinality; ++k) {
+          char value = content.get(k);
+          if (value >>> 6 != word) {
+            increment(counters, levels, word, bits);
+            word = value >>> 6;
+            bits = 0;
+          }
+          bits |= 1L << value;
+        }
+        increment(counters, levels, word, bits);
+        minWord = Math.min(minWord, content.get(0) >>> 6);
+        maxWord = Math.max(maxWord, word);
+      } else {
+        MappeableRunContainer runs = (MappeableRunContainer) container;
+        for (int r = 0; r < runs.nbrruns; ++r) {
+          int start = runs.getValue(r);
+          int end = start + runs.getLength(r);
+          int first = start >>> 6;
+          int last = end >>> 6;
+          for (int w = first; w <= last; ++w) {
+            long bits = -1L;
+            if (w == first) {
+              bits &= -1L << start;
+            }
+            if (w == last) {
+              bits &= -1L >>> (63 - (end & 63));
+            }
+            increment(counters, levels, w, bits);
+          }
+          minWord = Math.min(minWord, first);
+          maxWord = Math.max(maxWord, last);
+        }
+      }
+    }
+    Arrays.fill(words, 0L);
+    int cardinality = 0;
+    for (int w = minWord; w <= maxWord; ++w) {
+      // compares the counts to the threshold from the most significant slice down
+      int base = w * levels;
+      long above = 0;
+      long equal = -1L;
+      for (int level = levels - 1; level >= 0; --level) {
+        long bits = counters[base + level];
+        counters[base + level] = 0;
+        if ((threshold >>> level & 1) != 0) {
+          equal &= bits;
+        } else {
+          above |= equal & bits;
+          equal &= ~bits;
+        }
+      }
+      words[w] = above | equal;
+      cardinality += Long.bitCount(words[w]);
+    }
+    return cardinality;
+  }
+
+  private static void increment(long[] counters, int levels, int word, long bits) {
+    // a ripple carry adder over the bit slices of the word
+    int base = word * levels;
+    for (int level = 0; bits != 0; ++level) {
+      long carry = counters[base + level] & bits;
+      counters[base + level] ^= bits;
+      bits = carry;
+    }
+  }
+
+  /**
+   * Moves the containers with the smallest key out of the queue.
+   *
+   * @param pq the pointers to the next containers of the bitmaps
+   * @param slice receives the containers with the smallest key
+   * @return the number of containers with the smallest key
+   */
+  private static int poll(PriorityQueue<MappeableContainerPointer> pq,
+      MappeableContainer[] slice) {
+    char key = pq.peek().key();
+    int count = 0;
+    do {
+      MappeableContainerPointer pointer = pq.poll();
+      slice[count++] = pointer.getContainer();
+      advance(pq, pointer);
+    } while (!pq.isEmpty() && pq.peek().key() == key);
+    return count;
+  }
+
+  private static PriorityQueue<MappeableContainerPointer> pointers(
+      ImmutableRoaringBitmap... bitmaps) {
+    PriorityQueue<MappeableContainerPointer> pq =
+        new PriorityQueue<>(Math.max(1, bitmaps.length));
+    for (ImmutableRoaringBitmap bitmap : bitmaps) {
+      MappeableContainerPointer pointer = bitmap.highLowContainer.getContainerPointer();
+      if (pointer.getContainer() != null) {
+        pq.add(pointer);
+      }
+    }
+    return pq;
+  }
+
+  private static void advance(PriorityQueue<MappeableContainerPointer> pq,
+      MappeableContainerPointer pointer) {
+    pointer.advance();
+    if (pointer.getContainer() != null) {
+      pq.add(pointer);
+    }
+  }
+
   /**
    * Private constructor to prevent instantiation of utility class
    */
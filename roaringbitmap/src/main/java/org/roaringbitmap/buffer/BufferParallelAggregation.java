@@ -1,9 +1,12 @@
 package org.roaringbitmap.buffer;
 
+import org.roaringbitmap.BitSetUtil;
+
 import java.nio.LongBuffer;
 import java.util.*;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
@@ -14,16 +17,19 @@ import java.util.stream.IntStream;
 /**
  *
  * These utility methods provide parallel implementations of
- * logical aggregation operators. AND is not implemented
- * because it is unlikely to be profitable.
+ * logical aggregation operators.
  *
- * There is a temporary memory overhead in using these methods,
- * since a materialisation of the rotated containers grouped by key
- * is created in each case.
+ * OR and XOR have a temporary memory overhead,
+ * since the containers of the inputs are first bucketed by key,
+ * in a single array. AND, ANDNOT and the cardinality
+ * aggregations instead split the keys of the result into ranges,
+ * and each task locates the containers of its range in the
+ * input bitmaps directly.
  *
  * Each method executes on the default fork join pool by default.
  * If this is undesirable (it usually is) wrap the call inside
- * a submission of a runnable to your own thread pool.
+ * a submission of a runnable to your own thread pool, or pass
+ * a fork join pool to the methods accepting one.
  *
  * <pre>
  * {@code
@@ -40,12 +46,11 @@ import java.util.stream.IntStream;
  */
 public class BufferParallelAggregation {
 
-  private static final Collector<Map.Entry<Character, List<MappeableContainer>>,
-          MutableRoaringArray, MutableRoaringBitmap>
-          XOR = new ContainerCollector(BufferParallelAggregation::xor);
-
   private static final OrCollector OR = new OrCollector();
 
+  // up to 256KB of bitmap containers, paired with the containers of a range of rows
+  private static final int MATRIX_TILE = 32;
+
   /**
    * Collects containers grouped by their key into a RoaringBitmap, applying the
    * supplied aggregation function to each group.
@@ -133,6 +138,86 @@ public class BufferParallelAggregation {
     }
   }
 
+  /**
+   * The containers of some bitmaps bucketed by key: the containers with the key keys[i] are
+   * containers[offsets[i]] to containers[offsets[i + 1] - 1], in the order of the bitmaps,
+   * and ids[j] is the position among the bitmaps of the bitmap holding containers[j].
+   */
+  static final class KeyIndex {
+
+    final char[] keys;
+    final int[] offsets;
+    final List<MappeableContainer> containers;
+    final int[] ids;
+
+    private KeyIndex(char[] keys, int[] offsets, MappeableContainer[] containers, int[] ids) {
+      this.keys = keys;
+      this.offsets = offsets;
+      this.containers = Arrays.asList(containers);
+      this.ids = ids;
+    }
+
+    /**
+     * @param position the position of a key
+     * @return a view of the containers with the key
+     */
+    List<MappeableContainer> slice(int position) {
+      return containers.subList(offsets[position], offsets[position + 1]);
+    }
+  }
+
+  /**
+   * Buckets the containers of the bitmaps by key with a counting sort over the ranks of the
+   * keys, so that no key is boxed and no list is allocated per key.
+   * @param bitmaps input bitmaps
+   * @return the containers from the bitmaps bucketed by key
+   */
+  static KeyIndex index(ImmutableRoaringBitmap... bitmaps) {
+    long[] words = new long[1 << 10];
+    int numContainers = 0;
+    for (ImmutableRoaringBitmap bitmap : bitmaps) {
+      PointableRoaringArray ra = bitmap.highLowContainer;
+      for (int i = 0; i < ra.size(); ++i) {
+        char key = ra.getKeyAtIndex(i);
+        words[key >>> 6] |= 1L << key;
+      }
+      numContainers += ra.size();
+    }
+    int[] ranks = new int[words.length];
+    int numKeys = 0;
+    for (int i = 0; i < words.length; ++i) {
+      ranks[i] = numKeys;
+      numKeys += Long.bitCount(words[i]);
+    }
+    int[] offsets = new int[numKeys + 1];
+    for (ImmutableRoaringBitmap bitmap : bitmaps) {
+      PointableRoaringArray ra = bitmap.highLowContainer;
+      for (int i = 0; i < ra.size(); ++i) {
+        ++offsets[rank(words, ranks, ra.getKeyAtIndex(i)) + 1];
+      }
+    }
+    for (int i = 1; i <= numKeys; ++i) {
+      offsets[i] += offsets[i - 1];
+    }
+    int[] cursors = Arrays.copyOf(offsets, numKeys);
+    MappeableContainer[] containers = new MappeableContainer[numContainers];
+    int[] ids = new int[numContainers];
+    for (int id = 0; id < bitmaps.length; ++id) {
+      PointableRoaringArray ra = bitmaps[id].highLowContainer;
+      for (int i = 0; i < ra.size(); ++i) {
+        int position = cursors[rank(words, ranks, ra.getKeyAtIndex(i))]++;
+        containers[position] = ra.getContainerAtIndex(i);
+        ids[position] = id;
+      }
+    }
+    char[] keys = BitSetUtil.arrayContainerBufferOf(0, words.length, numKeys, words);
+    return new KeyIndex(keys, offsets, containers, ids);
+  }
+
+  private static int rank(long[] words, int[] ranks, char key) {
+    return ranks[key >>> 6] + Long.bitCount(words[key >>> 6] & ((1L << key) - 1));
+  }
+
   /**
    * Groups the containers by their keys
    * @param bitmaps input bitmaps
@@ -140,22 +225,12 @@ public class BufferParallelAggregation {
    */
   public static SortedMap<Character, List<MappeableContainer>> groupByKey(
           ImmutableRoaringBitmap... bitmaps) {
-    Map<Character, List<MappeableContainer>> grouped = new HashMap<>();
-    for (ImmutableRoaringBitmap bitmap : bitmaps) {
-      MappeableContainerPointer it = bitmap.highLowContainer.getContainerPointer();
-      while (null != it.getContainer()) {
-        MappeableContainer container = it.getContainer();
-        Character key = it.key();
-        List<MappeableContainer> slice = grouped.get(key);
-        if (null == slice) {
-          slice = new ArrayList<>();
-          grouped.put(key, slice);
-        }
-        slice.add(container);
-        it.advance();
-      }
+    KeyIndex index = index(bitmaps);
+    SortedMap<Character, List<MappeableContainer>> grouped = new TreeMap<>();
+    for (int i = 0; i < index.keys.length; ++i) {
+      grouped.put(index.keys[i], new ArrayList<>(index.slice(i)));
     }
-    return new TreeMap<>(grouped);
+    return grouped;
   }
 
   /**
@@ -164,19 +239,12 @@ public class BufferParallelAggregation {
    * @return the union of the bitmaps
    */
   public static MutableRoaringBitmap or(ImmutableRoaringBitmap... bitmaps) {
-    SortedMap<Character, List<MappeableContainer>> grouped = groupByKey(bitmaps);
-    char[] keys = new char[grouped.size()];
-    MappeableContainer[] values = new MappeableContainer[grouped.size()];
-    List<List<MappeableContainer>> slices = new ArrayList<>(grouped.size());
-    int i = 0;
-    for (Map.Entry<Character, List<MappeableContainer>> slice : grouped.entrySet()) {
-      keys[i++] = slice.getKey();
-      slices.add(slice.getValue());
-    }
-    IntStream.range(0, i)
+    KeyIndex index = index(bitmaps);
+    MappeableContainer[] values = new MappeableContainer[index.keys.length];
+    IntStream.range(0, values.length)
             .parallel()
-            .forEach(position -> values[position] = or(slices.get(position)));
-    return new MutableRoaringBitmap(new MutableRoaringArray(keys, values, i));
+            .forEach(position -> values[position] = or(index.slice(position)));
+    return new MutableRoaringBitmap(new MutableRoaringArray(index.keys, values, values.length));
   }
 
   /**
@@ -185,13 +253,455 @@ public class BufferParallelAggregation {
    * @return the symmetric difference of the bitmaps
    */
   public static MutableRoaringBitmap xor(ImmutableRoaringBitmap... bitmaps) {
-    return groupByKey(bitmaps)
-            .entrySet()
-            .parallelStream()
-            .collect(XOR);
+    KeyIndex index = index(bitmaps);
+    MappeableContainer[] values = new MappeableContainer[index.keys.length];
+    IntStream.range(0, values.length)
+            .parallel()
+            .forEach(position -> values[position] = xor(index.slice(position)));
+    return new MutableRoaringBitmap(compact(index.keys, values));
+  }
+
+  /**
+   * Computes the bitwise intersection of the input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return the intersection of the bitmaps
+   */
+  public static MutableRoaringBitmap and(ImmutableRoaringBitmap... bitmaps) {
+    return and(defaultPool(), bitmaps);
+  }
+
+  /**
+   * Computes the bitwise intersection of the input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param bitmaps the input bitmaps
+   * @return the intersection of the bitmaps
+   */
+  public static MutableRoaringBitmap and(ForkJoinPool pool, ImmutableRoaringBitmap... bitmaps) {
+    if (bitmaps.length == 0) {
+      return new MutableRoaringBitmap();
+    }
+    char[] keys = BufferUtil.intersectKeys(new long[1 << 10], bitmaps);
+    MappeableContainer[] values = new MappeableContainer[keys.length];
+    invoke(pool, keys.length, (from, to) -> {
+      long[] words = new long[1 << 10];
+      char[] buffer = new char[MappeableArrayContainer.DEFAULT_MAX_SIZE];
+      MappeableContainer[] slice = new MappeableContainer[bitmaps.length];
+      int[] positions = new int[bitmaps.length];
+      for (int i = from; i < to; ++i) {
+        for (int j = 0; j < bitmaps.length; ++j) {
+          PointableRoaringArray highLowContainer = bitmaps[j].highLowContainer;
+          positions[j] = highLowContainer.advanceUntil(keys[i], positions[j] - 1);
+          slice[j] = highLowContainer.getContainerAtIndex(positions[j]);
+        }
+        MappeableContainer and = BufferFastAggregation.and(slice, words, buffer);
+        values[i] = and instanceof MappeableBitmapContainer ? and.clone() : and;
+      }
+    });
+    return new MutableRoaringBitmap(compact(keys, values));
+  }
+
+  /**
+   * Computes the bitwise difference of the minuend and the union of the subtrahends
+   * @param minuend the bitmap to remove values from
+   * @param subtrahends the bitmaps whose values are removed
+   * @return the values of the minuend absent from all the subtrahends
+   */
+  public static MutableRoaringBitmap andNot(ImmutableRoaringBitmap minuend,
+      ImmutableRoaringBitmap... subtrahends) {
+    return andNot(defaultPool(), minuend, subtrahends);
+  }
+
+  /**
+   * Computes the bitwise difference of the minuend and the union of the subtrahends
+   * @param pool the pool executing the aggregation
+   * @param minuend the bitmap to remove values from
+   * @param subtrahends the bitmaps whose values are removed
+   * @return the values of the minuend absent from all the subtrahends
+   */
+  public static MutableRoaringBitmap andNot(ForkJoinPool pool, ImmutableRoaringBitmap minuend,
+      ImmutableRoaringBitmap... subtrahends) {
+    PointableRoaringArray minuendArray = minuend.highLowContainer;
+    char[] keys = new char[minuendArray.size()];
+    for (int i = 0; i < keys.length; ++i) {
+      keys[i] = minuendArray.getKeyAtIndex(i);
+    }
+    MappeableContainer[] values = new MappeableContainer[keys.length];
+    invoke(pool, keys.length, (from, to) -> {
+      int[] positions = new int[subtrahends.length];
+      for (int i = from; i < to; ++i) {
+        MappeableContainer container = minuendArray.getContainerAtIndex(i);
+        MappeableContainer difference = container;
+        for (int j = 0; j < subtrahends.length && !difference.isEmpty(); ++j) {
+          PointableRoaringArray highLowContainer = subtrahends[j].highLowContainer;
+          int position = highLowContainer.advanceUntil(keys[i], positions[j] - 1);
+          positions[j] = position;
+          if (position < highLowContainer.size()
+              && highLowContainer.getKeyAtIndex(position) == keys[i]) {
+            MappeableContainer subtrahend = highLowContainer.getContainerAtIndex(position);
+            difference = difference == container
+                ? container.andNot(subtrahend)
+                : difference.iandNot(subtrahend);
+          }
+        }
+        values[i] = difference == container ? container.clone() : difference;
+      }
+    });
+    return new MutableRoaringBitmap(compact(keys, values));
+  }
+
+  /**
+   * Computes the cardinality of the intersection of the input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return the cardinality of the intersection of the bitmaps
+   */
+  public static int andCardinality(ImmutableRoaringBitmap... bitmaps) {
+    return andCardinality(defaultPool(), bitmaps);
+  }
+
+  /**
+   * Computes the cardinality of the intersection of the input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param bitmaps the input bitmaps
+   * @return the cardinality of the intersection of the bitmaps
+   */
+  public static int andCardinality(ForkJoinPool pool, ImmutableRoaringBitmap... bitmaps) {
+    if (bitmaps.length == 0) {
+      return 0;
+    }
+    char[] keys = BufferUtil.intersectKeys(new long[1 << 10], bitmaps);
+    int[] cardinalities = new int[keys.length];
+    invoke(pool, keys.length, (from, to) -> {
+      long[] words = new long[1 << 10];
+      char[] buffer = new char[MappeableArrayContainer.DEFAULT_MAX_SIZE];
+      MappeableContainer[] slice = new MappeableContainer[bitmaps.length];
+      int[] positions = new int[bitmaps.length];
+      for (int i = from; i < to; ++i) {
+        for (int j = 0; j < bitmaps.length; ++j) {
+          PointableRoaringArray highLowContainer = bitmaps[j].highLowContainer;
+          positions[j] = highLowContainer.advanceUntil(keys[i], positions[j] - 1);
+          slice[j] = highLowContainer.getContainerAtIndex(positions[j]);
+        }
+        int common = BufferFastAggregation.intersectValues(slice, buffer);
+        cardinalities[i] = common >= 0
+            ? common
+            : BufferFastAggregation.and(slice, words, buffer).getCardinality();
+      }
+    });
+    return sum(cardinalities);
+  }
+
+  /**
+   * Computes the cardinality of the union of the input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return the cardinality of the union of the bitmaps
+   */
+  public static int orCardinality(ImmutableRoaringBitmap... bitmaps) {
+    return orCardinality(defaultPool(), bitmaps);
+  }
+
+  /**
+   * Computes the cardinality of the union of the input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param bitmaps the input bitmaps
+   * @return the cardinality of the union of the bitmaps
+   */
+  public static int orCardinality(ForkJoinPool pool, ImmutableRoaringBitmap... bitmaps) {
+    long[] keyWords = new long[1 << 10];
+    int numKeys = 0;
+    for (ImmutableRoaringBitmap bitmap : bitmaps) {
+      PointableRoaringArray highLowContainer = bitmap.highLowContainer;
+      for (int i = 0; i < highLowContainer.size(); ++i) {
+        char key = highLowContainer.getKeyAtIndex(i);
+        numKeys += (int) (~keyWords[key >>> 6] >>> key) & 1;
+        keyWords[key >>> 6] |= 1L << key;
+      }
+    }
+    char[] keys = BitSetUtil.arrayContainerBufferOf(0, keyWords.length, numKeys, keyWords);
+    int[] cardinalities = new int[keys.length];
+    invoke(pool, keys.length, (from, to) -> {
+      long[] words = new long[1 << 10];
+      LongBuffer wrapped = LongBuffer.wrap(words);
+      int[] positions = new int[bitmaps.length];
+      for (int i = from; i < to; ++i) {
+        MappeableContainer first = null;
+        MappeableContainer union = null;
+        for (int j = 0; j < bitmaps.length; ++j) {
+          PointableRoaringArray highLowContainer = bitmaps[j].highLowContainer;
+          int position = highLowContainer.advanceUntil(keys[i], positions[j] - 1);
+          positions[j] = position;
+          if (position < highLowContainer.size()
+              && highLowContainer.getKeyAtIndex(position) == keys[i]) {
+            MappeableContainer container = highLowContainer.getContainerAtIndex(position);
+            if (first == null) {
+              first = container;
+            } else {
+              if (union == null) {
+                // only materialise a union when the key is shared
+                Arrays.fill(words, 0L);
+                union = new MappeableBitmapContainer(wrapped, -1).lazyIOR(first);
+              }
+              MappeableContainer or = union.lazyIOR(container);
+              if (or != union) {
+                union = or;
+              }
+            }
+          }
+        }
+        cardinalities[i] = union == null
+            ? first.getCardinality()
+            : union.repairAfterLazy().getCardinality();
+      }
+    });
+    return sum(cardinalities);
+  }
+
+  /**
+   * Computes the values present in at least threshold of the input bitmaps
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps the input bitmaps
+   * @return the values present in at least threshold bitmaps
+   */
+  public static MutableRoaringBitmap threshold(int threshold, ImmutableRoaringBitmap... bitmaps) {
+    return threshold(defaultPool(), threshold, bitmaps);
+  }
+
+  /**
+   * Computes the values present in at least threshold of the input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps the input bitmaps
+   * @return the values present in at least threshold bitmaps
+   */
+  public static MutableRoaringBitmap threshold(ForkJoinPool pool, int threshold,
+      ImmutableRoaringBitmap... bitmaps) {
+    BufferFastAggregation.checkThreshold(threshold);
+    if (threshold == 1) {
+      return or(bitmaps);
+    }
+    if (threshold == bitmaps.length) {
+      return and(pool, bitmaps);
+    }
+    if (threshold > bitmaps.length) {
+      return new MutableRoaringBitmap();
+    }
+    KeyIndex index = index(bitmaps);
+    char[] keys = index.keys;
+    MappeableContainer[] values = new MappeableContainer[keys.length];
+    invoke(pool, keys.length, (from, to) -> {
+      long[] words = new long[1 << 10];
+      long[] counters =
+          new long[(1 << 10) * BufferFastAggregation.counterLevels(bitmaps.length)];
+      MappeableContainer[] slice = new MappeableContainer[bitmaps.length];
+      for (int i = from; i < to; ++i) {
+        int count = index.offsets[i + 1] - index.offsets[i];
+        int cardinality = count < threshold ? 0
+            : BufferFastAggregation.threshold(threshold, index.slice(i).toArray(slice), count,
+                words, counters);
+        MappeableContainer container = cardinality == 0
+            ? new MappeableArrayContainer(0)
+            : new MappeableBitmapContainer(LongBuffer.wrap(words), -1).repairAfterLazy();
+        values[i] = container instanceof MappeableBitmapContainer ? container.clone() : container;
+      }
+    });
+    return new MutableRoaringBitmap(compact(keys, values));
+  }
+
+  /**
+   * Computes the number of values present in at least threshold of the input bitmaps
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps the input bitmaps
+   * @return the number of values present in at least threshold bitmaps
+   */
+  public static int thresholdCardinality(int threshold, ImmutableRoaringBitmap... bitmaps) {
+    return thresholdCardinality(defaultPool(), threshold, bitmaps);
+  }
+
+  /**
+   * Computes the number of values present in at least threshold of the input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param threshold the minimum number of bitmaps a value must be present in
+   * @param bitmaps the input bitmaps
+   * @return the number of values present in at least threshold bitmaps
+   */
+  public static int thresholdCardinality(ForkJoinPool pool, int threshold,
+      ImmutableRoaringBitmap... bitmaps) {
+    BufferFastAggregation.checkThreshold(threshold);
+    if (threshold == 1) {
+      return orCardinality(pool, bitmaps);
+    }
+    if (threshold == bitmaps.length) {
+      return andCardinality(pool, bitmaps);
+    }
+    if (threshold > bitmaps.length) {
+      return 0;
+    }
+    KeyIndex index = index(bitmaps);
+    int[] cardinalities = new int[index.keys.length];
+    invoke(pool, cardinalities.length, (from, to) -> {
+      long[] words = new long[1 << 10];
+      long[] counters =
+          new long[(1 << 10) * BufferFastAggregation.counterLevels(bitmaps.length)];
+      MappeableContainer[] slice = new MappeableContainer[bitmaps.length];
+      for (int i = from; i < to; ++i) {
+        int count = index.offsets[i + 1] - index.offsets[i];
+        if (count >= threshold) {
+          cardinalities[i] = BufferFastAggregation.threshold(threshold,
+              index.slice(i).toArray(slice), count, words, counters);
+        }
+      }
+    });
+    return sum(cardinalities);
+  }
+
+  /**
+   * Computes the cardinalities of the intersections of all the pairs of input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return a symmetric matrix holding the cardinality of the intersection of bitmaps[i] and
+   *         bitmaps[j] at [i][j], and so the cardinality of bitmaps[i] at [i][i]
+   */
+  public static int[][] andCardinalityMatrix(ImmutableRoaringBitmap... bitmaps) {
+    return andCardinalityMatrix(defaultPool(), bitmaps);
+  }
+
+  /**
+   * Computes the cardinalities of the intersections of all the pairs of input bitmaps.
+   *
+   * The containers are bucketed by key once, so that the pairs of containers sharing a key are
+   * enumerated without merging the keys of each pair of bitmaps. Each task owns a range of
+   * rows of the matrix, and pairs the containers of its rows with a tile of containers at a
+   * time, so that the tile stays in cache while all its rows are processed.
+   * @param pool the pool executing the aggregation
+   * @param bitmaps the input bitmaps
+   * @return a symmetric matrix holding the cardinality of the intersection of bitmaps[i] and
+   *         bitmaps[j] at [i][j], and so the cardinality of bitmaps[i] at [i][i]
+   */
+  public static int[][] andCardinalityMatrix(ForkJoinPool pool, ImmutableRoaringBitmap... bitmaps) {
+    int[][] matrix = new int[bitmaps.length][bitmaps.length];
+    KeyIndex index = index(bitmaps);
+    int[] rows = rowRanges(bitmaps.length, Math.min(bitmaps.length, 4 * pool.getParallelism()));
+    invoke(pool, rows.length - 1, (from, to) -> {
+      for (int r = from; r < to; ++r) {
+        andCardinalities(index, rows[r], rows[r + 1], matrix);
+      }
+    });
+    for (int i = 0; i < bitmaps.length; ++i) {
+      matrix[i][i] = bitmaps[i].getCardinality();
+      for (int j = 0; j < i; ++j) {
+        matrix[i][j] = matrix[j][i];
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * Computes the cardinalities of the unions of all the pairs of input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return a symmetric matrix holding the cardinality of the union of bitmaps[i] and
+   *         bitmaps[j] at [i][j]
+   */
+  public static int[][] orCardinalityMatrix(ImmutableRoaringBitmap... bitmaps) {
+    return orCardinalityMatrix(defaultPool(), bitmaps);
+  }
+
+  /**
+   * Computes the cardinalities of the unions of all the pairs of input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param bitmaps the input bitmaps
+   * @return a symmetric matrix holding the cardinality of the union of bitmaps[i] and
+   *         bitmaps[j] at [i][j]
+   */
+  public static int[][] orCardinalityMatrix(ForkJoinPool pool, ImmutableRoaringBitmap... bitmaps) {
+    return fromIntersections(andCardinalityMatrix(pool, bitmaps), 1);
+  }
+
+  /**
+   * Computes the cardinalities of the symmetric differences of all the pairs of input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return a symmetric matrix holding the cardinality of the symmetric difference of
+   *         bitmaps[i] and bitmaps[j] at [i][j]
+   */
+  public static int[][] xorCardinalityMatrix(ImmutableRoaringBitmap... bitmaps) {
+    return xorCardinalityMatrix(defaultPool(), bitmaps);
+  }
+
+  /**
+   * Computes the cardinalities of the symmetric differences of all the pairs of input bitmaps
+   * @param pool the pool executing the aggregation
+   * @param bitmaps the input bitmaps
+   * @return a symmetric matrix holding the cardinality of the symmetric difference of
+   *         bitmaps[i] and bitmaps[j] at [i][j]
+   */
+  public static int[][] xorCardinalityMatrix(ForkJoinPool pool, ImmutableRoaringBitmap... bitmaps) {
+    return fromIntersections(andCardinalityMatrix(pool, bitmaps), 2);
   }
 
+  /**
+   * Accumulates the cardinalities of the intersections of the bitmaps of a range of rows with
+   * the bitmaps after them.
+   */
+  private static void andCardinalities(KeyIndex index, int firstRow, int lastRow,
+      int[][] matrix) {
+    for (int k = 0; k < index.keys.length; ++k) {
+      int end = index.offsets[k + 1];
+      // the containers of the rows, which pair with all the containers after them in the slice
+      int from = position(index.ids, index.offsets[k], end, firstRow);
+      int to = position(index.ids, from, end, lastRow);
+      for (int tile = from + 1; tile < end; tile += MATRIX_TILE) {
+        int tileEnd = Math.min(end, tile + MATRIX_TILE);
+        for (int i = from; i < to && i < tileEnd - 1; ++i) {
+          MappeableContainer container = index.containers.get(i);
+          int[] row = matrix[index.ids[i]];
+          for (int j = Math.max(i + 1, tile); j < tileEnd; ++j) {
+            row[index.ids[j]] += container.andCardinality(index.containers.get(j));
+          }
+        }
+      }
+    }
+  }
 
+  private static int position(int[] ids, int from, int to, int id) {
+    int position = Arrays.binarySearch(ids, from, to, id);
+    return position < 0 ? -position - 1 : position;
+  }
+
+  /**
+   * Splits the rows of an upper triangular matrix into ranges holding as many cells.
+   * @param size the number of rows
+   * @param numRanges the number of ranges
+   * @return the bounds of the ranges, the rows of the range r being rows[r] to rows[r + 1] - 1
+   */
+  private static int[] rowRanges(int size, int numRanges) {
+    int[] rows = new int[numRanges + 1];
+    long cells = (long) size * (size - 1) / 2;
+    long cumulative = 0;
+    int r = 1;
+    for (int i = 0; i < size && r < numRanges; ++i) {
+      cumulative += size - 1 - i;
+      while (r < numRanges && cumulative * numRanges >= cells * r) {
+        rows[r++] = i + 1;
+      }
+    }
+    Arrays.fill(rows, r, rows.length, size);
+    return rows;
+  }
+
+  /**
+   * Derives the cardinalities of unions or symmetric differences from those of intersections,
+   * in place: the cardinality of x op y is |x| + |y| - factor * |x and y|.
+   */
+  private static int[][] fromIntersections(int[][] matrix, int factor) {
+    int[] cardinalities = new int[matrix.length];
+    for (int i = 0; i < matrix.length; ++i) {
+      cardinalities[i] = matrix[i][i];
+    }
+    for (int i = 0; i < matrix.length; ++i) {
+      int[] row = matrix[i];
+      for (int j = 0; j < row.length; ++j) {
+        row[j] = cardinalities[i] + cardinalities[j] - factor * row[j];
+      }
+    }
+    return matrix;
+  }
 
   private static MappeableContainer xor(List<MappeableContainer> containers) {
     MappeableContainer result = containers.get(0).clone();
@@ -229,6 +739,78 @@ public class BufferParallelAggregation {
             .collect(OR);
   }
 
+  /**
+   * Processes a range of positions in the keys of a result.
+   */
+  private interface KeyRange {
+    void compute(int from, int to);
+  }
+
+  /**
+   * Splits a range of key positions in halves until the ranges are small enough to leave
+   * a few of them to each worker of the pool.
+   */
+  @SuppressWarnings("serial")
+  private static final class KeyRangeTask extends RecursiveAction {
+
+    private final KeyRange range;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    KeyRangeTask(KeyRange range, int from, int to, int grain) {
+      this.range = range;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= grain) {
+        range.compute(from, to);
+      } else {
+        int middle = (from + to) >>> 1;
+        invokeAll(new KeyRangeTask(range, from, middle, grain),
+            new KeyRangeTask(range, middle, to, grain));
+      }
+    }
+  }
+
+  private static void invoke(ForkJoinPool pool, int numKeys, KeyRange range) {
+    int grain = Math.max(1, numKeys / (4 * pool.getParallelism()));
+    // a single range is not worth a round trip through the pool
+    if (numKeys <= grain) {
+      range.compute(0, numKeys);
+    } else {
+      pool.invoke(new KeyRangeTask(range, 0, numKeys, grain));
+    }
+  }
+
+  private static MutableRoaringArray compact(char[] keys, MappeableContainer[] values) {
+    int size = 0;
+    for (int i = 0; i < keys.length; ++i) {
+      if (!values[i].isEmpty()) {
+        keys[size] = keys[i];
+        values[size++] = values[i];
+      }
+    }
+    Arrays.fill(values, size, values.length, null);
+    return new MutableRoaringArray(keys, values, size);
+  }
+
+  private static int sum(int[] cardinalities) {
+    int cardinality = 0;
+    for (int c : cardinalities) {
+      cardinality += c;
+    }
+    return cardinality;
+  }
+
+  private static ForkJoinPool defaultPool() {
+    return ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+  }
+
   private static int availableParallelism() {
     return ForkJoinTask.inForkJoinPool()
             ? ForkJoinTask.getPool().getParallelism()
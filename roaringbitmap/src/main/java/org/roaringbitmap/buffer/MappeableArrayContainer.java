@@ -314,6 +314,17 @@ public final class MappeableArrayContainer extends MappeableContainer implements
 
   @Override
   public MappeableArrayContainer andNot(final MappeableArrayContainer value2) {
+    if (cardinality == 1) {
+      // a binary search rather than a merge over all of value2
+      char value = content.get(0);
+      if (value2.contains(value)) {
+        return empty();
+      }
+      MappeableArrayContainer answer = new MappeableArrayContainer(1);
+      answer.content.put(0, value);
+      answer.cardinality = 1;
+      return answer;
+    }
     final MappeableArrayContainer value1 = this;
     final int desiredCapacity = value1.getCardinality();
     final MappeableArrayContainer answer = new MappeableArrayContainer(desiredCapacity);
@@ -847,6 +858,11 @@ public final class MappeableArrayContainer extends MappeableContainer implements
 
   @Override
   public boolean intersects(MappeableArrayContainer value2) {
+    if (cardinality == 1) {
+      return value2.contains(content.get(0));
+    } else if (value2.cardinality == 1) {
+      return contains(value2.content.get(0));
+    }
     MappeableArrayContainer value1 = this;
     return BufferUtil.unsignedIntersects(value1.content, value1.getCardinality(), value2.content,
         value2.getCardinality());
@@ -1347,6 +1363,15 @@ public final class MappeableArrayContainer extends MappeableContainer implements
     }
   }
 
+  @Override
+  MappeableContainer runOptimize(char key, ContainerOptimizationPolicy policy) {
+    int numRuns = numberOfRuns();
+    if (policy.useRunContainer(key, cardinality, numRuns)) {
+      return new MappeableRunContainer(this, numRuns);
+    }
+    return this;
+  }
+
   @Override
   public char select(int j) {
     return this.content.get(j);
@@ -1624,7 +1649,7 @@ public final class MappeableArrayContainer extends MappeableContainer implements
   public int andCardinality(MappeableArrayContainer value2) {
     if (BufferUtil.isBackedBySimpleArray(content)
         && BufferUtil.isBackedBySimpleArray(value2.content)) {
-      return Util.unsignedLocalIntersect2by2Cardinality(content.array(), cardinality,
+      return Util.unsignedIntersect2by2Cardinality(content.array(), cardinality,
           value2.content.array(), value2.getCardinality());
     }
     return BufferUtil.unsignedLocalIntersect2by2Cardinality(content, cardinality,
@@ -182,12 +182,7 @@ public final class MappeableBitmapContainer extends MappeableContainer implement
     int newCardinality = 0;
     if (BufferUtil.isBackedBySimpleArray(this.bitmap)
         && BufferUtil.isBackedBySimpleArray(value2.bitmap)) {
-      long[] tb = this.bitmap.array();
-      long[] v2b = value2.bitmap.array();
-      int len = this.bitmap.limit();
-      for (int k = 0; k < len; ++k) {
-        newCardinality += Long.bitCount(tb[k] & v2b[k]);
-      }
+      newCardinality = BitmapKernels.andCardinality(this.bitmap.array(), value2.bitmap.array());
     } else {
       int len = this.bitmap.limit();
       for (int k = 0; k < len; ++k) {
@@ -280,13 +275,8 @@ public final class MappeableBitmapContainer extends MappeableContainer implement
     int newCardinality = 0;
     if (BufferUtil.isBackedBySimpleArray(this.bitmap)
         && BufferUtil.isBackedBySimpleArray(value2.bitmap)) {
-      long[] b = this.bitmap.array();
-      long[] v2 = value2.bitmap.array();
-      int len = this.bitmap.limit();
-      for (int k = 0; k < len; ++k) {
-        newCardinality += Long.bitCount(b[k] & (~v2[k]));
-      }
-
+      newCardinality = BitmapKernels.andNotCardinality(this.bitmap.array(),
+          value2.bitmap.array());
     } else {
       int len = this.bitmap.limit();
       for (int k = 0; k < len; ++k) {
@@ -330,6 +320,9 @@ public final class MappeableBitmapContainer extends MappeableContainer implement
 
   @Override
   public MappeableContainer andNot(final MappeableRunContainer value2) {
+    if (value2.isFull()) {
+      return MappeableArrayContainer.empty();
+    }
     MappeableBitmapContainer answer = this.clone();
     long[] b = answer.bitmap.array();
     for (int rlepos = 0; rlepos < value2.nbrruns; ++rlepos) {
@@ -947,13 +940,7 @@ public final class MappeableBitmapContainer extends MappeableContainer implement
     long[] b = this.bitmap.array();
     this.cardinality = 0;
     if (BufferUtil.isBackedBySimpleArray(b2.bitmap)) {
-      long[] b2Arr = b2.bitmap.array();
-      int len = this.bitmap.limit();
-      for (int k = 0; k < len; k++) {
-        long w = b[k] | b2Arr[k];
-        b[k] = w;
-        this.cardinality += Long.bitCount(w);
-      }
+      this.cardinality = BitmapKernels.or(b, b2.bitmap.array(), b);
       if (isFull()) {
         return MappeableRunContainer.full();
       }
@@ -1112,26 +1099,12 @@ public final class MappeableBitmapContainer extends MappeableContainer implement
     }
     long[] b = bitmap.array();
     if (BufferUtil.isBackedBySimpleArray(b2.bitmap)) {
-      long[] b2Arr = b2.bitmap.array();
-
-      int newCardinality = 0;
-      int len = this.bitmap.limit();
-      for (int k = 0; k < len; ++k) {
-        newCardinality += Long.bitCount(b[k] ^ b2Arr[k]);
-      }
-      if (newCardinality > MappeableArrayContainer.DEFAULT_MAX_SIZE) {
-        for (int k = 0; k < len; ++k) {
-          b[k] ^= b2Arr[k];
-        }
-        this.cardinality = newCardinality;
+      // we have to compute the xor no matter what, so count the bits while we are at it
+      this.cardinality = BitmapKernels.xor(b, b2.bitmap.array(), b);
+      if (this.cardinality > MappeableArrayContainer.DEFAULT_MAX_SIZE) {
         return this;
       }
-      final MappeableArrayContainer ac = new MappeableArrayContainer(newCardinality);
-
-      org.roaringbitmap.Util.fillArrayXOR(ac.content.array(), b, b2Arr);
-      ac.cardinality = newCardinality;
-      return ac;
-
+      return toArrayContainer();
     }
     int newCardinality = 0;
     int len = this.bitmap.limit();
@@ -1694,6 +1667,15 @@ public final class MappeableBitmapContainer extends MappeableContainer implement
     }
   }
 
+  @Override
+  MappeableContainer runOptimize(char key, ContainerOptimizationPolicy policy) {
+    int numRuns = numberOfRuns();
+    if (policy.useRunContainer(key, getCardinality(), numRuns)) {
+      return new MappeableRunContainer(this, numRuns);
+    }
+    return this;
+  }
+
   @Override
   public char select(int j) {
     if (BufferUtil.isBackedBySimpleArray(this.bitmap)) {
@@ -1910,12 +1892,7 @@ public final class MappeableBitmapContainer extends MappeableContainer implement
     int newCardinality = 0;
     if (BufferUtil.isBackedBySimpleArray(this.bitmap)
         && BufferUtil.isBackedBySimpleArray(value2.bitmap)) {
-      long[] b = this.bitmap.array();
-      long[] v2 = value2.bitmap.array();
-      int len = this.bitmap.limit();
-      for (int k = 0; k < len; ++k) {
-        newCardinality += Long.bitCount(b[k] ^ v2[k]);
-      }
+      newCardinality = BitmapKernels.xorCardinality(this.bitmap.array(), value2.bitmap.array());
     } else {
       int len = this.bitmap.limit();
       for (int k = 0; k < len; ++k) {
@@ -1994,11 +1971,7 @@ public final class MappeableBitmapContainer extends MappeableContainer implement
     int newCardinality = 0;
     if (BufferUtil.isBackedBySimpleArray(this.bitmap)
         && BufferUtil.isBackedBySimpleArray(value2.bitmap)) {
-      long[] b1 = this.bitmap.array();
-      long[] b2 = value2.bitmap.array();
-      for (int k = 0; k < b1.length; ++k) {
-        newCardinality += Long.bitCount(b1[k] & b2[k]);
-      }
+      newCardinality = BitmapKernels.andCardinality(this.bitmap.array(), value2.bitmap.array());
     } else {
       final int size = this.bitmap.limit();
       for (int k = 0; k < size; ++k) {
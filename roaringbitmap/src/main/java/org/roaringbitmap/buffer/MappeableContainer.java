@@ -797,6 +797,15 @@ public abstract class MappeableContainer implements Iterable<Character>, Cloneab
    */
   public abstract MappeableContainer runOptimize();
 
+  /**
+   * Convert to or from a MappeableRunContainer as decided by the policy.
+   *
+   * @param key the high 16 bits of the container, passed to the policy
+   * @param policy decides whether the container should be run-encoded
+   * @return the new container
+   */
+  abstract MappeableContainer runOptimize(char key, ContainerOptimizationPolicy policy);
+
 
   /**
    * Return the jth value
@@ -100,6 +100,10 @@ public final class MappeableRunContainer extends MappeableContainer implements C
 
   protected int nbrruns = 0;// how many runs, this number should fit in 16 bits.
 
+  // intersections gallop over the runs of a container only when it has this many times more runs
+  // than the other container has runs or values, a linear scan wins otherwise
+  static final int GALLOPING_RATIO = 32;
+
 
   /**
    * Create a container with default capacity
@@ -396,10 +400,14 @@ public final class MappeableRunContainer extends MappeableContainer implements C
 
   @Override
   public MappeableContainer and(MappeableArrayContainer x) {
+    if (isFull()) {
+      return x.clone();
+    }
     MappeableArrayContainer ac = new MappeableArrayContainer(x.cardinality);
     if (this.nbrruns == 0) {
       return ac;
     }
+    final boolean gallop = this.nbrruns > GALLOPING_RATIO * x.cardinality;
     int rlepos = 0;
     int arraypos = 0;
 
@@ -408,7 +416,11 @@ public final class MappeableRunContainer extends MappeableContainer implements C
     while (arraypos < x.cardinality) {
       int arrayval = (x.content.get(arraypos));
       while (rleval + rlelength < arrayval) {// this will frequently be false
-        ++rlepos;
+        if (gallop) {
+          rlepos = skipAhead(this, rlepos, arrayval);
+        } else {
+          ++rlepos;
+        }
         if (rlepos == this.nbrruns) {
           return ac;// we are done
         }
@@ -429,6 +441,11 @@ public final class MappeableRunContainer extends MappeableContainer implements C
 
   @Override
   public MappeableContainer and(MappeableBitmapContainer x) {
+    if (isFull()) {
+      return x.getCardinality() > MappeableArrayContainer.DEFAULT_MAX_SIZE
+          ? x.clone()
+          : x.toArrayContainer();
+    }
     int card = this.getCardinality();
     if (card <= MappeableArrayContainer.DEFAULT_MAX_SIZE) {
       // result can only be an array (assuming that we never make a RunContainer)
@@ -472,6 +489,13 @@ public final class MappeableRunContainer extends MappeableContainer implements C
 
   @Override
   public MappeableContainer and(MappeableRunContainer x) {
+    if (isFull()) {
+      return x.clone();
+    } else if (x.isFull()) {
+      return clone();
+    }
+    final boolean gallop = this.nbrruns > GALLOPING_RATIO * x.nbrruns;
+    final boolean xgallop = x.nbrruns > GALLOPING_RATIO * this.nbrruns;
     MappeableRunContainer answer =
         new MappeableRunContainer(CharBuffer.allocate(2 * (this.nbrruns + x.nbrruns)), 0);
     char[] vl = answer.valueslength.array();
@@ -484,14 +508,22 @@ public final class MappeableRunContainer extends MappeableContainer implements C
     while ((rlepos < this.nbrruns) && (xrlepos < x.nbrruns)) {
       if (end <= xstart) {
         // exit the first run
-        rlepos++;
+        if (gallop) {
+          rlepos = skipAhead(this, rlepos, xstart);
+        } else {
+          rlepos++;
+        }
         if (rlepos < this.nbrruns) {
           start = (this.getValue(rlepos));
           end = start + (this.getLength(rlepos)) + 1;
         }
       } else if (xend <= start) {
         // exit the second run
-        xrlepos++;
+        if (xgallop) {
+          xrlepos = skipAhead(x, xrlepos, start);
+        } else {
+          xrlepos++;
+        }
         if (xrlepos < x.nbrruns) {
           xstart = (x.getValue(xrlepos));
           xend = xstart + (x.getLength(xrlepos)) + 1;
@@ -598,6 +630,9 @@ public final class MappeableRunContainer extends MappeableContainer implements C
 
   @Override
   public MappeableContainer andNot(MappeableRunContainer x) {
+    if (x.isFull()) {
+      return MappeableArrayContainer.empty();
+    }
     MappeableRunContainer answer =
         new MappeableRunContainer(CharBuffer.allocate(2 * (this.nbrruns + x.nbrruns)), 0);
     char[] vl = answer.valueslength.array();
@@ -1299,7 +1334,10 @@ public final class MappeableRunContainer extends MappeableContainer implements C
   public boolean intersects(MappeableArrayContainer x) {
     if (this.nbrruns == 0) {
       return false;
+    } else if (isFull()) {
+      return !x.isEmpty();
     }
+    final boolean gallop = this.nbrruns > GALLOPING_RATIO * x.cardinality;
     int rlepos = 0;
     int arraypos = 0;
 
@@ -1308,7 +1346,11 @@ public final class MappeableRunContainer extends MappeableContainer implements C
     while (arraypos < x.cardinality) {
       int arrayval = (x.content.get(arraypos));
       while (rleval + rlelength < arrayval) {// this will frequently be false
-        ++rlepos;
+        if (gallop) {
+          rlepos = skipAhead(this, rlepos, arrayval);
+        } else {
+          ++rlepos;
+        }
         if (rlepos == this.nbrruns) {
           return false;
         }
@@ -1327,6 +1369,9 @@ public final class MappeableRunContainer extends MappeableContainer implements C
 
   @Override
   public boolean intersects(MappeableBitmapContainer x) {
+    if (isFull()) {
+      return !x.isEmpty();
+    }
     for (int rlepos = 0; rlepos < this.nbrruns; ++rlepos) {
       int runStart = this.getValue(rlepos);
       int runEnd = runStart + this.getLength(rlepos);
@@ -1339,6 +1384,13 @@ public final class MappeableRunContainer extends MappeableContainer implements C
 
   @Override
   public boolean intersects(MappeableRunContainer x) {
+    if (isFull()) {
+      return !x.isEmpty();
+    } else if (x.isFull()) {
+      return !isEmpty();
+    }
+    final boolean gallop = this.nbrruns > GALLOPING_RATIO * x.nbrruns;
+    final boolean xgallop = x.nbrruns > GALLOPING_RATIO * this.nbrruns;
     int rlepos = 0;
     int xrlepos = 0;
     int start = (this.getValue(rlepos));
@@ -1348,14 +1400,22 @@ public final class MappeableRunContainer extends MappeableContainer implements C
     while ((rlepos < this.nbrruns) && (xrlepos < x.nbrruns)) {
       if (end <= xstart) {
         // exit the first run
-        rlepos++;
+        if (gallop) {
+          rlepos = skipAhead(this, rlepos, xstart);
+        } else {
+          rlepos++;
+        }
         if (rlepos < this.nbrruns) {
           start = (this.getValue(rlepos));
           end = start + (this.getLength(rlepos)) + 1;
         }
       } else if (xend <= start) {
         // exit the second run
-        xrlepos++;
+        if (xgallop) {
+          xrlepos = skipAhead(x, xrlepos, start);
+        } else {
+          xrlepos++;
+        }
         if (xrlepos < x.nbrruns) {
           xstart = (x.getValue(xrlepos));
           xend = xstart + (x.getLength(xrlepos)) + 1;
@@ -2047,6 +2107,15 @@ public final class MappeableRunContainer extends MappeableContainer implements C
     return toEfficientContainer(); // which had the same functionality.
   }
 
+  @Override
+  MappeableContainer runOptimize(char key, ContainerOptimizationPolicy policy) {
+    int card = getCardinality();
+    if (policy.useRunContainer(key, card, nbrruns)) {
+      return this;
+    }
+    return toBitmapOrArrayContainer(card);
+  }
+
   @Override
   public char select(int j) {
     int offset = 0;
@@ -2093,6 +2162,43 @@ public final class MappeableRunContainer extends MappeableContainer implements C
   // will never actually *be* in place if they are
   // to return ArrayContainer or BitmapContainer
 
+  // bootstrapping (aka "galloping") binary search over the runs: returns the first run position at
+  // or after pos + 1 whose end exceeds targetToExceed, or nbrruns. Always skips at least one.
+  private static int skipAhead(MappeableRunContainer skippingOn, int pos, int targetToExceed) {
+    int left = pos;
+    int span = 1;
+    int probePos;
+    int end;
+    // jump ahead to find a spot where end > targetToExceed (if it exists)
+    do {
+      probePos = left + span;
+      if (probePos >= skippingOn.nbrruns - 1) {
+        // expect it might be quite common to find the container cannot be advanced as far as
+        // requested. Optimize for it.
+        probePos = skippingOn.nbrruns - 1;
+        end = (skippingOn.getValue(probePos)) + (skippingOn.getLength(probePos)) + 1;
+        if (end <= targetToExceed) {
+          return skippingOn.nbrruns;
+        }
+      }
+      end = (skippingOn.getValue(probePos)) + (skippingOn.getLength(probePos)) + 1;
+      span *= 2;
+    } while (end <= targetToExceed);
+    int right = probePos;
+    // left and right are both valid positions. Invariant: left <= targetToExceed && right >
+    // targetToExceed
+    while (right - left > 1) {
+      int mid = (right + left) / 2;
+      int midVal = (skippingOn.getValue(mid)) + (skippingOn.getLength(mid)) + 1;
+      if (midVal > targetToExceed) {
+        right = mid;
+      } else {
+        left = mid;
+      }
+    }
+    return right;
+  }
+
   private void smartAppend(char[] vl, char val) {
     int oldend;
     if ((nbrruns == 0) || (
@@ -2481,6 +2587,7 @@ public final class MappeableRunContainer extends MappeableContainer implements C
     if (this.nbrruns == 0) {
       return 0;
     }
+    final boolean gallop = this.nbrruns > GALLOPING_RATIO * x.cardinality;
     int rlepos = 0;
     int arraypos = 0;
     int andCardinality = 0;
@@ -2489,7 +2596,11 @@ public final class MappeableRunContainer extends MappeableContainer implements C
     while (arraypos < x.cardinality) {
       int arrayval = (x.content.get(arraypos));
       while (rleval + rlelength < arrayval) {// this will frequently be false
-        ++rlepos;
+        if (gallop) {
+          rlepos = skipAhead(this, rlepos, arrayval);
+        } else {
+          ++rlepos;
+        }
         if (rlepos == this.nbrruns) {
           return andCardinality;// we are done
         }
@@ -2510,6 +2621,9 @@ public final class MappeableRunContainer extends MappeableContainer implements C
 
   @Override
   public int andCardinality(MappeableBitmapContainer x) {
+    if (isFull()) {
+      return x.getCardinality();
+    }
     // could be implemented as return toBitmapOrArrayContainer().iand(x);
     int cardinality = 0;
     for (int rlepos = 0; rlepos < this.nbrruns; ++rlepos) {
@@ -2522,6 +2636,13 @@ public final class MappeableRunContainer extends MappeableContainer implements C
 
   @Override
   public int andCardinality(MappeableRunContainer x) {
+    if (isFull()) {
+      return x.getCardinality();
+    } else if (x.isFull()) {
+      return getCardinality();
+    }
+    final boolean gallop = this.nbrruns > GALLOPING_RATIO * x.nbrruns;
+    final boolean xgallop = x.nbrruns > GALLOPING_RATIO * this.nbrruns;
     int cardinality = 0;
     int rlepos = 0;
     int xrlepos = 0;
@@ -2531,14 +2652,21 @@ public final class MappeableRunContainer extends MappeableContainer implements C
     int xend = xstart + (x.getLength(xrlepos)) + 1;
     while ((rlepos < this.nbrruns) && (xrlepos < x.nbrruns)) {
       if (end <= xstart) {
-        ++rlepos;
+        if (gallop) {
+          rlepos = skipAhead(this, rlepos, xstart);
+        } else {
+          ++rlepos;
+        }
         if (rlepos < this.nbrruns) {
           start = (this.getValue(rlepos));
           end = start + (this.getLength(rlepos)) + 1;
         }
       } else if (xend <= start) {
-        ++xrlepos;
-
+        if (xgallop) {
+          xrlepos = skipAhead(x, xrlepos, start);
+        } else {
+          ++xrlepos;
+        }
         if (xrlepos < x.nbrruns) {
           xstart = (x.getValue(xrlepos));
           xend = xstart + (x.getLength(xrlepos)) + 1;
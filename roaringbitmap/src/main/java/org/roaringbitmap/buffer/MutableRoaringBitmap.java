@@ -10,6 +10,7 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.util.Iterator;
+import java.util.concurrent.Executor;
 
 /**
  * MutableRoaringBitmap, a compressed alternative to the BitSet. It is similar to
@@ -1160,6 +1161,27 @@ public class MutableRoaringBitmap extends ImmutableRoaringBitmap
     }
   }
 
+  /**
+   * Deserialize (retrieve) this bitmap in the portable format, copying the containers to the
+   * heap on an executor, which pays off for bitmaps of many megabytes. The containers are split
+   * into ranges of about the same number of bytes using the offsets stored in the header, one
+   * task per range, and the calling thread waits for all of them. Small bitmaps, and bitmaps
+   * whose header has no offsets, are deserialized on the calling thread.
+   *
+   * The input ByteBuffer is left unchanged, as with deserialize(ByteBuffer).
+   *
+   * @param buffer the byte buffer (can be mapped, direct, array backed etc.
+   * @param executor runs the tasks copying the containers, such as a ForkJoinPool
+   * @throws IOException if the buffer does not hold a valid bitmap
+   */
+  public void deserialize(ByteBuffer buffer, Executor executor) throws IOException {
+    try {
+      getMappeableRoaringArray().deserialize(buffer, executor);
+    } catch(InvalidRoaringFormat cookie) {
+      throw cookie.toIOException();// we convert it to an IOException
+    }
+  }
+
   /**
    * Add the value if it is not already present, otherwise remove it.
    *
@@ -1605,6 +1627,25 @@ public class MutableRoaringBitmap extends ImmutableRoaringBitmap
     return answer;
   }
 
+  /**
+   * Use a run-length encoding where the policy asks for it, and remove it elsewhere.
+   *
+   * @param policy decides which containers are run-encoded
+   * @return whether the bitmap has run containers afterwards
+   */
+  public boolean runOptimize(ContainerOptimizationPolicy policy) {
+    boolean answer = false;
+    for (int i = 0; i < this.highLowContainer.size(); i++) {
+      MappeableContainer c = getMappeableRoaringArray().getContainerAtIndex(i)
+          .runOptimize(this.highLowContainer.getKeyAtIndex(i), policy);
+      if (c instanceof MappeableRunContainer) {
+        answer = true;
+      }
+      getMappeableRoaringArray().setContainerAtIndex(i, c);
+    }
+    return answer;
+  }
+
   /**
    * Convenience method, effectively casts the object to an object of class ImmutableRoaringBitmap.
    *
@@ -1660,6 +1701,17 @@ public class MutableRoaringBitmap extends ImmutableRoaringBitmap
     getMappeableRoaringArray().trim();
   }
 
+  /**
+   * Choose the container types with the policy, see
+   * {@link #runOptimize(ContainerOptimizationPolicy)}, then recover allocated but unused memory.
+   *
+   * @param policy decides which containers are run-encoded
+   */
+  public void trim(ContainerOptimizationPolicy policy) {
+    runOptimize(policy);
+    trim();
+  }
+
   @Override
   public void writeExternal(ObjectOutput out) throws IOException {
     getMappeableRoaringArray().writeExternal(out);
@@ -0,0 +1,302 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap.buffer;
+
+import org.roaringbitmap.ImmutableBitmapDataProvider;
+import org.roaringbitmap.InvalidRoaringFormat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+/**
+ * A file of bitmaps identified by long ids, which are memory mapped rather than read: a lookup
+ * binary searches the directory of the file and returns an {@link ImmutableRoaringBitmap}
+ * backed by the mapped bytes, so that no bitmap is copied to the heap.
+ *
+ * The file starts with a header holding a cookie, the number of bitmaps and the offset of the
+ * directory. The bitmaps follow in the portable format, in the order of their ids, and the
+ * directory comes last, as pairs of longs made of an id and the offset of its bitmap, so that
+ * the writer streams the bitmaps and only keeps the directory in memory. All the numbers are
+ * little endian, as in the portable format.
+ *
+ * A mapping covers at most 2GB, so that larger files are mapped as several regions, each
+ * holding whole bitmaps.
+ *
+ * <pre>
+ * {@code
+ *      try (RoaringArchive.Writer writer = RoaringArchive.writer(path)) {
+ *        for (Segment segment : segments) {
+ *          writer.append(segment.id(), segment.bitmap());
+ *        }
+ *      }
+ *      RoaringArchive archive = RoaringArchive.open(path);
+ *      ImmutableRoaringBitmap bitmap = archive.get(42L);
+ * }
+ * </pre>
+ */
+public final class RoaringArchive {
+
+  private static final int COOKIE = 0x52415243;
+  private static final int VERSION = 1;
+  // cookie, version, number of bitmaps, offset of the directory
+  private static final int HEADER_SIZE = 24;
+  private static final int ENTRY_SIZE = 16;
+
+  private final LongBuffer directory;
+  private final int size;
+  private final long[] regionOffsets;
+  private final ByteBuffer[] regions;
+
+  /**
+   * Starts writing an archive, replacing the file if it exists.
+   *
+   * @param path the file
+   * @return a writer, which must be closed to complete the archive
+   * @throws IOException if the file cannot be opened
+   */
+  public static Writer writer(Path path) throws IOException {
+    return new Writer(FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+  }
+
+  /**
+   * Maps an archive. The mappings outlive the file channel, which is closed once mapped.
+   *
+   * @param path the file
+   * @return the archive
+   * @throws IOException if the file cannot be mapped
+   */
+  public static RoaringArchive open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new RoaringArchive(channel, Integer.MAX_VALUE);
+    }
+  }
+
+  /**
+   * Maps an archive.
+   *
+   * @param channel a channel over the archive, which may be closed once mapped
+   * @throws IOException if the file cannot be mapped
+   */
+  public RoaringArchive(FileChannel channel) throws IOException {
+    this(channel, Integer.MAX_VALUE);
+  }
+
+  RoaringArchive(FileChannel channel, int maxRegionSize) throws IOException {
+    if (channel.size() < HEADER_SIZE) {
+      throw new InvalidRoaringFormat("The archive is too short to have a header.");
+    }
+    ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+        .order(LITTLE_ENDIAN);
+    if (header.getInt(0) != COOKIE || header.getInt(4) != VERSION) {
+      throw new InvalidRoaringFormat("I failed to find a valid archive cookie.");
+    }
+    long count = header.getLong(8);
+    long directoryOffset = header.getLong(16);
+    if (count < 0 || count > Integer.MAX_VALUE / ENTRY_SIZE || directoryOffset < HEADER_SIZE
+        || directoryOffset > channel.size() - count * ENTRY_SIZE) {
+      throw new InvalidRoaringFormat("The archive directory is corrupted.");
+    }
+    this.size = (int) count;
+    this.directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset,
+        count * ENTRY_SIZE).order(LITTLE_ENDIAN).asLongBuffer();
+    // a new region starts at the first bitmap which does not fit in the current region
+    long[] offsets = new long[1];
+    ByteBuffer[] mapped = new ByteBuffer[1];
+    int numRegions = 0;
+    long start = HEADER_SIZE;
+    for (int i = 0; i < size; ++i) {
+      if (offset(i) < (i == 0 ? HEADER_SIZE : offset(i - 1) + 1)
+          || offset(i) >= directoryOffset) {
+        throw new InvalidRoaringFormat("The offset of bitmap " + i + " is corrupted.");
+      }
+      if (end(i, directoryOffset) - start > maxRegionSize && offset(i) > start) {
+        if (numRegions == offsets.length) {
+          offsets = Arrays.copyOf(offsets, 2 * numRegions);
+          mapped = Arrays.copyOf(mapped, 2 * numRegions);
+        }
+        offsets[numRegions] = start;
+        mapped[numRegions++] = map(channel, start, offset(i));
+        start = offset(i);
+      }
+    }
+    this.regionOffsets = Arrays.copyOf(offsets, numRegions + 1);
+    this.regions = Arrays.copyOf(mapped, numRegions + 1);
+    regionOffsets[numRegions] = start;
+    regions[numRegions] = map(channel, start, directoryOffset);
+  }
+
+  private static ByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start).order(LITTLE_ENDIAN);
+  }
+
+  /**
+   * @return the number of bitmaps in the archive
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param index the position of a bitmap in the archive, in the order of the ids
+   * @return the id of the bitmap
+   */
+  public long getId(int index) {
+    return directory.get(2 * index);
+  }
+
+  /**
+   * @param id an id
+   * @return whether the archive has a bitmap with this id
+   */
+  public boolean contains(long id) {
+    return indexOf(id) >= 0;
+  }
+
+  /**
+   * Looks up a bitmap in O(log n).
+   *
+   * @param id the id of the bitmap
+   * @return a view of the bitmap over the mapped file, or null if there is no bitmap with the id
+   */
+  public ImmutableRoaringBitmap get(long id) {
+    int index = indexOf(id);
+    return index < 0 ? null : getAt(index);
+  }
+
+  /**
+   * @param index the position of a bitmap in the archive, in the order of the ids
+   * @return a view of the bitmap over the mapped file
+   */
+  public ImmutableRoaringBitmap getAt(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("index " + index + " out of bounds for " + size);
+    }
+    long offset = offset(index);
+    int region = Arrays.binarySearch(regionOffsets, offset);
+    if (region < 0) {
+      region = -region - 2;
+    }
+    // positioned on a duplicate, so that concurrent lookups do not interfere
+    ByteBuffer buffer = regions[region].duplicate();
+    buffer.position((int) (offset - regionOffsets[region]));
+    return new ImmutableRoaringBitmap(buffer);
+  }
+
+  private int indexOf(long id) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long value = directory.get(2 * middle);
+      if (value < id) {
+        low = middle + 1;
+      } else if (value > id) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private long offset(int index) {
+    return directory.get(2 * index + 1);
+  }
+
+  private long end(int index, long directoryOffset) {
+    return index + 1 == size ? directoryOffset : offset(index + 1);
+  }
+
+  /**
+   * Appends bitmaps to an archive, in increasing order of their ids.
+   */
+  public static final class Writer implements Closeable {
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(LITTLE_ENDIAN);
+    private long[] entries = new long[2 * 1024];
+    private int count;
+    private long position = HEADER_SIZE;
+    private boolean closed;
+
+    private Writer(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Appends a bitmap in the portable format.
+     *
+     * @param id the id of the bitmap, greater than the ids already appended
+     * @param bitmap the bitmap
+     * @throws IOException if the bitmap cannot be written
+     * @throws IllegalStateException if the writer is closed
+     */
+    public void append(long id, ImmutableBitmapDataProvider bitmap) throws IOException {
+      if (closed) {
+        throw new IllegalStateException("The writer is closed");
+      }
+      if (count > 0 && id <= entries[2 * count - 2]) {
+        throw new IllegalArgumentException("The ids must be increasing: " + id + " after "
+            + entries[2 * count - 2]);
+      }
+      if (count == Integer.MAX_VALUE / ENTRY_SIZE) {
+        throw new IllegalStateException("The archive is full");
+      }
+      int serializedSize = bitmap.serializedSizeInBytes();
+      if (buffer.capacity() < serializedSize) {
+        buffer = ByteBuffer.allocate(serializedSize).order(LITTLE_ENDIAN);
+      }
+      buffer.clear();
+      bitmap.serialize(buffer);
+      buffer.flip();
+      write(buffer, position);
+      if (2 * count == entries.length) {
+        entries = Arrays.copyOf(entries, 2 * entries.length);
+      }
+      entries[2 * count] = id;
+      entries[2 * count + 1] = position;
+      ++count;
+      position += serializedSize;
+    }
+
+    /**
+     * Writes the directory and the header, and closes the file. Closing the writer again has no
+     * effect.
+     *
+     * @throws IOException if the archive cannot be completed
+     */
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        ByteBuffer directory = ByteBuffer.allocate(count * ENTRY_SIZE).order(LITTLE_ENDIAN);
+        directory.asLongBuffer().put(entries, 0, 2 * count);
+        write(directory, position);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(LITTLE_ENDIAN);
+        header.putInt(COOKIE).putInt(VERSION).putLong(count).putLong(position).flip();
+        write(header, 0);
+      } finally {
+        channel.close();
+      }
+    }
+
+    private void write(ByteBuffer source, long offset) throws IOException {
+      while (source.hasRemaining()) {
+        offset += channel.write(source, offset);
+      }
+    }
+  }
+}
@@ -8,11 +8,22 @@ import org.junit.jupiter.api.parallel.ExecutionMode;
 import org.roaringbitmap.buffer.BufferFastAggregation;
 import org.roaringbitmap.buffer.BufferParallelAggregation;
 import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
-
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SplittableRandom;
 import java.util.concurrent.ForkJoinPool;
 import java.util.stream.IntStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.roaringbitmap.SeededTestData.TestDataSet.testCase;
 
 @Execution(ExecutionMode.CONCURRENT)
@@ -380,5 +391,206 @@ public class ParallelAggregationTest {
     assertEquals(BufferFastAggregation.xor(one, two, three), BufferParallelAggregation.xor(one, two, three));
   }
 
+  private static RoaringBitmap[] manyKeys(long seed, int count) {
+    SplittableRandom random = new SplittableRandom(seed);
+    RoaringBitmap[] bitmaps = new RoaringBitmap[count];
+    for (int i = 0; i < count; ++i) {
+      SeededTestData.TestDataSet testCase = testCase();
+      for (int key = 0; key < 300; ++key) {
+        switch (random.nextInt(4)) {
+          case 0:
+            testCase.withRunAt(key);
+            break;
+          case 1:
+            testCase.withArrayAt(key);
+            break;
+          case 2:
+            testCase.withBitmapAt(key);
+            break;
+          default:
+            // a missing key
+        }
+      }
+      bitmaps[i] = testCase.build();
+    }
+    return bitmaps;
+  }
+
+  private static ImmutableRoaringBitmap[] toBuffers(RoaringBitmap[] bitmaps) {
+    return Arrays.stream(bitmaps)
+        .map(RoaringBitmap::toMutableRoaringBitmap)
+        .toArray(ImmutableRoaringBitmap[]::new);
+  }
+
+  @Test
+  public void groupByKey() {
+    RoaringBitmap[] input = manyKeys(7, 4);
+    SortedMap<Character, List<Container>> grouped = ParallelAggregation.groupByKey(input);
+    assertEquals(FastAggregation.or(input).highLowContainer.size, grouped.size());
+    for (Map.Entry<Character, List<Container>> group : grouped.entrySet()) {
+      Iterator<Container> containers = group.getValue().iterator();
+      for (RoaringBitmap bitmap : input) {
+        int index = bitmap.highLowContainer.getIndex(group.getKey());
+        if (index >= 0) {
+          assertSame(bitmap.highLowContainer.getContainerAtIndex(index), containers.next());
+        }
+      }
+      assertFalse(containers.hasNext());
+    }
+    assertTrue(ParallelAggregation.groupByKey().isEmpty());
+    assertEquals(new RoaringBitmap(), ParallelAggregation.or());
+    assertEquals(new RoaringBitmap(), ParallelAggregation.xor());
+  }
+
+  @Test
+  public void manyKeysORAndXOR() {
+    RoaringBitmap[] input = manyKeys(8, 6);
+    assertEquals(FastAggregation.or(input), ParallelAggregation.or(input));
+    assertEquals(FastAggregation.xor(input), ParallelAggregation.xor(input));
+    ImmutableRoaringBitmap[] buffers = toBuffers(input);
+    assertEquals(BufferFastAggregation.or(buffers), BufferParallelAggregation.or(buffers));
+    assertEquals(BufferFastAggregation.xor(buffers), BufferParallelAggregation.xor(buffers));
+  }
+
+  @Test
+  public void manyKeysAND() {
+    RoaringBitmap[] input = manyKeys(1, 3);
+    RoaringBitmap expected = FastAggregation.and(input);
+    assertEquals(expected, ParallelAggregation.and(input));
+    assertEquals(expected, ParallelAggregation.and(POOL, input));
+    assertEquals(expected, ParallelAggregation.and(BIG_POOL, input));
+    assertEquals(expected, ParallelAggregation.and(NO_PARALLELISM_AVAILABLE, input));
+    assertEquals(expected, POOL.submit(() -> ParallelAggregation.and(input)).join());
+  }
+
+  @Test
+  public void disjointAND() {
+    RoaringBitmap one = testCase().withRunAt(0).withArrayAt(2).build();
+    RoaringBitmap two = testCase().withBitmapAt(1).build();
+    assertEquals(new RoaringBitmap(), ParallelAggregation.and(POOL, one, two));
+    assertEquals(new RoaringBitmap(), ParallelAggregation.and());
+    assertEquals(one, ParallelAggregation.and(POOL, one));
+  }
+
+  @Test
+  public void manyKeysANDNOT() {
+    RoaringBitmap[] input = manyKeys(2, 4);
+    RoaringBitmap[] subtrahends = Arrays.copyOfRange(input, 1, input.length);
+    RoaringBitmap expected = RoaringBitmap.andNot(input[0], FastAggregation.or(subtrahends));
+    assertEquals(expected, ParallelAggregation.andNot(input[0], subtrahends));
+    assertEquals(expected, ParallelAggregation.andNot(BIG_POOL, input[0], subtrahends));
+    assertEquals(expected,
+        ParallelAggregation.andNot(NO_PARALLELISM_AVAILABLE, input[0], subtrahends));
+    assertEquals(input[0], ParallelAggregation.andNot(POOL, input[0]));
+    assertEquals(new RoaringBitmap(), ParallelAggregation.andNot(POOL, input[0], input[0]));
+  }
+
+  @Test
+  public void manyKeysCardinalities() {
+    RoaringBitmap[] input = manyKeys(3, 5);
+    int and = FastAggregation.and(input).getCardinality();
+    int or = FastAggregation.or(input).getCardinality();
+    assertEquals(and, ParallelAggregation.andCardinality(input));
+    assertEquals(and, ParallelAggregation.andCardinality(BIG_POOL, input));
+    assertEquals(or, ParallelAggregation.orCardinality(input));
+    assertEquals(or, ParallelAggregation.orCardinality(BIG_POOL, input));
+    assertEquals(or, ParallelAggregation.orCardinality(NO_PARALLELISM_AVAILABLE, input));
+    assertEquals(0, ParallelAggregation.andCardinality(POOL));
+    assertEquals(0, ParallelAggregation.orCardinality(POOL));
+  }
+
+  @Test
+  public void manyKeysAND_Buffer() {
+    ImmutableRoaringBitmap[] input = toBuffers(manyKeys(4, 3));
+    MutableRoaringBitmap expected = BufferFastAggregation.and(input);
+    assertEquals(expected, BufferParallelAggregation.and(input));
+    assertEquals(expected, BufferParallelAggregation.and(BIG_POOL, input));
+    assertEquals(expected, BufferParallelAggregation.and(NO_PARALLELISM_AVAILABLE, input));
+    assertEquals(new MutableRoaringBitmap(), BufferParallelAggregation.and());
+  }
+
+  @Test
+  public void manyKeysANDNOT_Buffer() {
+    ImmutableRoaringBitmap[] input = toBuffers(manyKeys(5, 4));
+    ImmutableRoaringBitmap[] subtrahends = Arrays.copyOfRange(input, 1, input.length);
+    MutableRoaringBitmap expected =
+        ImmutableRoaringBitmap.andNot(input[0], BufferFastAggregation.or(subtrahends));
+    assertEquals(expected, BufferParallelAggregation.andNot(input[0], subtrahends));
+    assertEquals(expected, BufferParallelAggregation.andNot(BIG_POOL, input[0], subtrahends));
+    assertEquals(input[0], BufferParallelAggregation.andNot(POOL, input[0]));
+  }
+
+  @Test
+  public void manyKeysCardinalities_Buffer() {
+    ImmutableRoaringBitmap[] input = toBuffers(manyKeys(6, 5));
+    int and = BufferFastAggregation.and(input).getCardinality();
+    int or = BufferFastAggregation.or(input).getCardinality();
+    assertEquals(and, BufferParallelAggregation.andCardinality(input));
+    assertEquals(and, BufferParallelAggregation.andCardinality(BIG_POOL, input));
+    assertEquals(or, BufferParallelAggregation.orCardinality(input));
+    assertEquals(or, BufferParallelAggregation.orCardinality(BIG_POOL, input));
+  }
+
+  @Test
+  public void manyKeysTHRESHOLD() {
+    RoaringBitmap[] input = manyKeys(9, 7);
+    for (int threshold = 1; threshold <= input.length + 1; ++threshold) {
+      RoaringBitmap expected = FastAggregation.threshold(threshold, input);
+      assertEquals(expected, ParallelAggregation.threshold(threshold, input));
+      assertEquals(expected, ParallelAggregation.threshold(BIG_POOL, threshold, input));
+      assertEquals(expected.getCardinality(),
+          ParallelAggregation.thresholdCardinality(threshold, input));
+      assertEquals(expected.getCardinality(),
+          ParallelAggregation.thresholdCardinality(NO_PARALLELISM_AVAILABLE, threshold, input));
+    }
+  }
+
+  @Test
+  public void manyKeysTHRESHOLD_Buffer() {
+    ImmutableRoaringBitmap[] input = toBuffers(manyKeys(10, 7));
+    for (int threshold = 1; threshold <= input.length + 1; ++threshold) {
+      MutableRoaringBitmap expected = BufferFastAggregation.threshold(threshold, input);
+      assertEquals(expected, BufferParallelAggregation.threshold(threshold, input));
+      assertEquals(expected, BufferParallelAggregation.threshold(BIG_POOL, threshold, input));
+      assertEquals(expected.getCardinality(),
+          BufferParallelAggregation.thresholdCardinality(BIG_POOL, threshold, input));
+    }
+  }
+
+  @Test
+  public void manyKeysCardinalityMatrices() {
+    // more bitmaps than a tile of containers
+    RoaringBitmap[] input = manyKeys(11, 40);
+    for (ForkJoinPool pool : new ForkJoinPool[] {POOL, BIG_POOL, NO_PARALLELISM_AVAILABLE}) {
+      int[][] and = ParallelAggregation.andCardinalityMatrix(pool, input);
+      int[][] or = ParallelAggregation.orCardinalityMatrix(pool, input);
+      int[][] xor = ParallelAggregation.xorCardinalityMatrix(pool, input);
+      for (int i = 0; i < input.length; ++i) {
+        for (int j = 0; j < input.length; ++j) {
+          assertEquals(RoaringBitmap.andCardinality(input[i], input[j]), and[i][j]);
+          assertEquals(RoaringBitmap.orCardinality(input[i], input[j]), or[i][j]);
+          assertEquals(RoaringBitmap.xorCardinality(input[i], input[j]), xor[i][j]);
+        }
+      }
+    }
+    assertEquals(0, ParallelAggregation.andCardinalityMatrix().length);
+    assertArrayEquals(new int[][] {{input[0].getCardinality()}},
+        ParallelAggregation.orCardinalityMatrix(input[0]));
+  }
+
+  @Test
+  public void manyKeysCardinalityMatrices_Buffer() {
+    ImmutableRoaringBitmap[] input = toBuffers(manyKeys(12, 40));
+    int[][] and = BufferParallelAggregation.andCardinalityMatrix(BIG_POOL, input);
+    int[][] or = BufferParallelAggregation.orCardinalityMatrix(input);
+    int[][] xor = BufferParallelAggregation.xorCardinalityMatrix(NO_PARALLELISM_AVAILABLE, input);
+    for (int i = 0; i < input.length; ++i) {
+      for (int j = 0; j < input.length; ++j) {
+        assertEquals(ImmutableRoaringBitmap.andCardinality(input[i], input[j]), and[i][j]);
+        assertEquals(ImmutableRoaringBitmap.orCardinality(input[i], input[j]), or[i][j]);
+        assertEquals(ImmutableRoaringBitmap.xorCardinality(input[i], input[j]), xor[i][j]);
+      }
+    }
+  }
 
 }
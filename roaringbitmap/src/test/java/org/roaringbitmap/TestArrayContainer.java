@@ -212,7 +212,7 @@ public class TestArrayContainer {
         ArrayContainer ac = new ArrayContainer(0, 1 << 15);
         ArrayContainer ac2 = new ArrayContainer(1 << 15, 1 << 16);
         Container rbc = ac.lazyor(ac2);
-        assertEquals(-1, rbc.getCardinality());
+        assertEquals(-1, ((BitmapContainer) rbc).cardinality);
         Container repaired = rbc.repairAfterLazy();
         assertEquals(1 << 16, repaired.getCardinality());
         assertTrue(repaired instanceof RunContainer);
@@ -961,6 +961,21 @@ public class TestArrayContainer {
         consumer7.assertAllPresent();
     }
 
+    @Test
+    public void testSingletonShortcuts() {
+        ArrayContainer singleton = (ArrayContainer) new ArrayContainer().add((char) 1000);
+        ArrayContainer containing = new ArrayContainer(0, 4000);
+        ArrayContainer notContaining = new ArrayContainer(2000, 5000);
+        assertTrue(singleton.andNot(containing).isEmpty());
+        assertEquals(singleton, singleton.andNot(notContaining));
+        assertNotSame(singleton, singleton.andNot(notContaining));
+        assertTrue(singleton.intersects(containing));
+        assertTrue(containing.intersects(singleton));
+        assertFalse(singleton.intersects(notContaining));
+        assertFalse(notContaining.intersects(singleton));
+        assertEquals(3999, containing.andNot(singleton).getCardinality());
+    }
+
     private static int lower16Bits(int x) {
         return ((char)x) & 0xFFFF;
     }
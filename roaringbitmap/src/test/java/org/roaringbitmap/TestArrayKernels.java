@@ -0,0 +1,181 @@
+package org.roaringbitmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Execution(ExecutionMode.CONCURRENT)
+public class TestArrayKernels {
+
+  private static final int[] SIZES = {0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 4096};
+
+  private static char[] sortedValues(Random r, int size, int range) {
+    TreeSet<Character> values = new TreeSet<>();
+    while (values.size() < size) {
+      values.add((char) r.nextInt(range));
+    }
+    char[] array = new char[size];
+    int i = 0;
+    for (char v : values) {
+      array[i++] = v;
+    }
+    return array;
+  }
+
+  private static char[] intersection(char[] set1, char[] set2) {
+    TreeSet<Character> values = new TreeSet<>();
+    for (char v : set1) {
+      values.add(v);
+    }
+    TreeSet<Character> common = new TreeSet<>();
+    for (char v : set2) {
+      if (values.contains(v)) {
+        common.add(v);
+      }
+    }
+    char[] array = new char[common.size()];
+    int i = 0;
+    for (char v : common) {
+      array[i++] = v;
+    }
+    return array;
+  }
+
+  // half full runs of 32 values, set1 takes the even runs and set2 the odd ones
+  private static char[] clusteredValues(Random r, int size, int parity) {
+    TreeSet<Character> values = new TreeSet<>();
+    while (values.size() < size) {
+      int v = r.nextInt(4 * size + 64);
+      if (((v >>> 5) & 1) == parity) {
+        values.add((char) v);
+      }
+    }
+    char[] array = new char[size];
+    int i = 0;
+    for (char v : values) {
+      array[i++] = v;
+    }
+    return array;
+  }
+
+  private static TreeSet<Character> toSet(char[] array) {
+    TreeSet<Character> values = new TreeSet<>();
+    for (char v : array) {
+      values.add(v);
+    }
+    return values;
+  }
+
+  private static char[] toArray(TreeSet<Character> values) {
+    char[] array = new char[values.size()];
+    int i = 0;
+    for (char v : values) {
+      array[i++] = v;
+    }
+    return array;
+  }
+
+  private static void checkMerges(char[] set1, char[] set2) {
+    TreeSet<Character> union = toSet(set1);
+    union.addAll(toSet(set2));
+    TreeSet<Character> difference = toSet(set1);
+    difference.removeAll(toSet(set2));
+    TreeSet<Character> common = toSet(set1);
+    common.retainAll(toSet(set2));
+    TreeSet<Character> exclusiveUnion = new TreeSet<>(union);
+    exclusiveUnion.removeAll(common);
+    char[] buffer = new char[set1.length + set2.length];
+    int card = ArrayKernels.union(set1, 0, set1.length, set2, 0, set2.length, buffer);
+    assertArrayEquals(toArray(union), Arrays.copyOf(buffer, card));
+    card = ArrayKernels.difference(set1, set1.length, set2, set2.length, buffer);
+    assertArrayEquals(toArray(difference), Arrays.copyOf(buffer, card));
+    card = ArrayKernels.exclusiveUnion(set1, set1.length, set2, set2.length, buffer);
+    assertArrayEquals(toArray(exclusiveUnion), Arrays.copyOf(buffer, card));
+  }
+
+  @Test
+  public void testMerges() {
+    Random r = new Random(4321);
+    for (int size1 : SIZES) {
+      for (int size2 : SIZES) {
+        for (int range : new int[] {Math.max(size1, size2) * 2 + 1, 1 << 16}) {
+          checkMerges(sortedValues(r, size1, range), sortedValues(r, size2, range));
+        }
+        checkMerges(clusteredValues(r, size1, 0), clusteredValues(r, size2, 1));
+      }
+    }
+  }
+
+  @Test
+  public void testMergesInPlace() {
+    Random r = new Random(8765);
+    for (int size : SIZES) {
+      char[] set1 = sortedValues(r, size, 3 * size + 1);
+      char[] set2 = sortedValues(r, size, 3 * size + 1);
+      TreeSet<Character> difference = toSet(set1);
+      difference.removeAll(toSet(set2));
+      char[] content = set1.clone();
+      int card = ArrayKernels.difference(content, size, set2, size, content);
+      assertArrayEquals(toArray(difference), Arrays.copyOf(content, card));
+      // the layout used by ArrayContainer.ior: the first list is shifted right by the length of
+      // the second one within the output
+      TreeSet<Character> union = toSet(set1);
+      union.addAll(toSet(set2));
+      content = new char[2 * size];
+      System.arraycopy(set1, 0, content, size, size);
+      card = ArrayKernels.union(content, size, size, set2, 0, size, content);
+      assertArrayEquals(toArray(union), Arrays.copyOf(content, card));
+    }
+  }
+
+  @Test
+  public void testIntersect() {
+    Random r = new Random(1234);
+    for (int size1 : SIZES) {
+      for (int size2 : SIZES) {
+        // small ranges give many common values, large ones few
+        for (int range : new int[] {Math.max(size1, size2) * 2 + 1, 1 << 16}) {
+          char[] set1 = sortedValues(r, size1, range);
+          char[] set2 = sortedValues(r, size2, range);
+          char[] expected = intersection(set1, set2);
+          char[] buffer = new char[Math.min(size1, size2)];
+          int card = ArrayKernels.intersect(set1, size1, set2, size2, buffer);
+          assertArrayEquals(expected, Arrays.copyOf(buffer, card));
+          assertEquals(expected.length, ArrayKernels.intersectCardinality(set1, size1, set2, size2));
+          assertEquals(expected.length, Util.unsignedIntersect2by2Cardinality(set1, size1,
+              set2, size2));
+          buffer = new char[Math.min(size1, size2)];
+          card = Util.unsignedIntersect2by2(set1, size1, set2, size2, buffer);
+          assertArrayEquals(expected, Arrays.copyOf(buffer, card));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testIntersectInPlace() {
+    Random r = new Random(5678);
+    for (int size : SIZES) {
+      char[] set1 = sortedValues(r, size, 3 * size + 1);
+      char[] set2 = sortedValues(r, size, 3 * size + 1);
+      char[] expected = intersection(set1, set2);
+      int card = ArrayKernels.intersect(set1, size, set2, size, set1);
+      assertArrayEquals(expected, Arrays.copyOf(set1, card));
+    }
+  }
+
+  @Test
+  public void testIntersectUsesLengths() {
+    char[] set1 = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18};
+    char[] set2 = {2, 4, 6, 8, 10, 12, 14, 16, 18, 20, 22, 24, 26, 28, 30, 32, 34, 36};
+    assertEquals(4, ArrayKernels.intersectCardinality(set1, 9, set2, 16));
+    assertEquals(8, ArrayKernels.intersectCardinality(set1, 16, set2, 8));
+  }
+}
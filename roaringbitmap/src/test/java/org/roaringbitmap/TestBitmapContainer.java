@@ -137,8 +137,8 @@ public class TestBitmapContainer {
     BitmapContainer bc2 = new BitmapContainer(3210, 1 << 16);
     Container result = bc.lazyor(bc2);
     Container iresult = bc.ilazyor(bc2);
-    assertEquals(-1, result.getCardinality());
-    assertEquals(-1, iresult.getCardinality());
+    assertEquals(-1, ((BitmapContainer) result).cardinality);
+    assertEquals(-1, ((BitmapContainer) iresult).cardinality);
     Container repaired = result.repairAfterLazy();
     Container irepaired = iresult.repairAfterLazy();
     assertEquals(1 << 16, repaired.getCardinality());
@@ -153,8 +153,8 @@ public class TestBitmapContainer {
     ArrayContainer ac = new ArrayContainer(0, 1 << 10);
     Container result = bc.lazyor(ac);
     Container iresult = bc.ilazyor(ac);
-    assertEquals(-1, result.getCardinality());
-    assertEquals(-1, iresult.getCardinality());
+    assertEquals(-1, ((BitmapContainer) result).cardinality);
+    assertEquals(-1, ((BitmapContainer) iresult).cardinality);
     Container repaired = result.repairAfterLazy();
     Container irepaired = iresult.repairAfterLazy();
     assertEquals(1 << 16, repaired.getCardinality());
@@ -169,8 +169,8 @@ public class TestBitmapContainer {
     Container rc = Container.rangeOfOnes(1 << 15, 1 << 16);
     Container result = bc.lazyor((RunContainer) rc);
     Container iresult = bc.ilazyor((RunContainer) rc);
-    assertEquals(-1, result.getCardinality());
-    assertEquals(-1, iresult.getCardinality());
+    assertEquals(-1, ((BitmapContainer) result).cardinality);
+    assertEquals(-1, ((BitmapContainer) iresult).cardinality);
     Container repaired = result.repairAfterLazy();
     Container irepaired = iresult.repairAfterLazy();
     assertEquals(1 << 16, repaired.getCardinality());
@@ -1343,6 +1343,104 @@ public class TestBitmapContainer {
     consumer10.assertAllPresent();
   }
 
+  @Test
+  public void testLazyInPlaceOperations() {
+    Random random = new Random(1234);
+    BitmapContainer base = generateContainer((char) 0, (char) 60000, 3);
+    ArrayContainer ac = new ArrayContainer();
+    BitmapContainer bc = new BitmapContainer();
+    for (int k = 0; k < 3000; ++k) {
+      ac = (ArrayContainer) ac.add((char) random.nextInt(1 << 16));
+    }
+    for (int k = 0; k < 20000; ++k) {
+      bc.add((char) random.nextInt(1 << 16));
+    }
+    Container rc = new RunContainer().iadd(100, 2000).iadd(30000, 50000);
+    for (Container x : new Container[] {ac, bc, rc}) {
+      Container[] eager = {base.clone().iand(x), base.clone().iandNot(x), base.clone().ior(x),
+          base.clone().ixor(x)};
+      Container[] lazy = {base.clone().lazyIAND(x), base.clone().lazyIANDNOT(x),
+          base.clone().lazyIOR(x), base.clone().lazyIXOR(x)};
+      for (int k = 0; k < eager.length; ++k) {
+        assertEquals(-1, ((BitmapContainer) lazy[k]).cardinality);
+        Container repaired = lazy[k].clone().repairAfterLazy();
+        // the first call to getCardinality resolves the lazy mode
+        assertEquals(eager[k].getCardinality(), lazy[k].getCardinality());
+        assertEquals(eager[k], repaired);
+        assertEquals(eager[k], lazy[k].repairAfterLazy());
+      }
+      Container chained = base.clone().lazyIAND(bc).lazyIXOR(x).lazyIANDNOT(rc).inot(0, 1000);
+      assertEquals(-1, ((BitmapContainer) chained).cardinality);
+      assertEquals(base.clone().iand(bc).ixor(x).iandNot(rc).inot(0, 1000),
+          chained.repairAfterLazy());
+    }
+  }
+
+  @Test
+  public void testLazyOperandOfLazyOperation() {
+    BitmapContainer lazy = (BitmapContainer) generateContainer((char) 0, (char) 60000, 3)
+        .lazyIANDNOT(new RunContainer().iadd(0, 59000));
+    ArrayContainer ac = new ArrayContainer(58000, 59500);
+    Container expected = ac.clone().ior(lazy.clone().repairAfterLazy());
+    assertEquals(expected, ac.clone().lazyIOR(lazy).repairAfterLazy());
+    expected = ac.clone().iand(lazy.clone().repairAfterLazy());
+    assertEquals(expected, ac.clone().lazyIAND(lazy).repairAfterLazy());
+    assertEquals(-1, lazy.cardinality);
+  }
+
+  @Test
+  public void testLazyEmptyResult() {
+    BitmapContainer bc = generateContainer((char) 0, (char) 60000, 3);
+    Container lazy = bc.clone().lazyIAND(new ArrayContainer(60001, 60100));
+    assertTrue(lazy.isEmpty());
+    assertTrue(lazy.repairAfterLazy() instanceof ArrayContainer);
+    assertTrue(bc.lazyIXOR(bc.clone()).repairAfterLazy().isEmpty());
+  }
+
+  @Test
+  public void testRankSelectAfterModifications() {
+    Random random = new Random(42);
+    BitmapContainer bc = generateContainer((char) 0, (char) 65535, 3);
+    Container[] operands = {
+        new ArrayContainer(1000, 1100),
+        generateContainer((char) 500, (char) 40000, 7),
+        new RunContainer().iadd(20000, 30000)
+    };
+    for (int round = 0; round < 40; ++round) {
+      Container operand = operands[round % operands.length];
+      Container modified;
+      switch (round % 8) {
+        case 0: modified = bc.add((char) random.nextInt(65536)); break;
+        case 1: modified = bc.remove((char) random.nextInt(65536)); break;
+        case 2: modified = bc.flip((char) random.nextInt(65536)); break;
+        case 3: modified = bc.ixor(operand); break;
+        case 4: modified = bc.ior(operand); break;
+        case 5: modified = bc.iandNot(operand); break;
+        case 6: modified = bc.inot(100, 200); break;
+        default: modified = bc.iremove(60000, 60100).iadd(10, 20); break;
+      }
+      if (!(modified instanceof BitmapContainer)) {
+        continue;
+      }
+      bc = (BitmapContainer) modified;
+      // rank and select on a clone never use a directory
+      BitmapContainer reference = bc.clone();
+      for (int query = 0; query < 3; ++query) {
+        for (int x = 0; x < 65536; x += 1 + random.nextInt(200)) {
+          assertEquals(reference.clone().rank((char) x), bc.rank((char) x));
+        }
+        assertEquals(bc.getCardinality(), bc.rank((char) 65535));
+        for (int j = 0; j < bc.getCardinality(); j += 1 + random.nextInt(100)) {
+          assertEquals(reference.clone().select(j), bc.select(j));
+        }
+        assertEquals(bc.last(), bc.select(bc.getCardinality() - 1));
+      }
+      final BitmapContainer container = bc;
+      assertThrows(IllegalArgumentException.class,
+          () -> container.select(container.getCardinality()));
+    }
+  }
+
   private static long[] evenBits() {
     long[] bitmap = new long[1 << 10];
     Arrays.fill(bitmap, 0x5555555555555555L);
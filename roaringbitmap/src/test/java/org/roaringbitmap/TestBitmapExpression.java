@@ -0,0 +1,138 @@
+package org.roaringbitmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+public class TestBitmapExpression {
+
+  private static final class Case {
+    final BitmapExpression expression;
+    final RoaringBitmap expected;
+
+    Case(BitmapExpression expression, RoaringBitmap expected) {
+      this.expression = expression;
+      this.expected = expected;
+    }
+  }
+
+  private static Case randomCase(Random random, RoaringBitmap[] bitmaps, int depth) {
+    int operation = depth == 0 ? 0 : random.nextInt(6);
+    switch (operation) {
+      case 0:
+      case 1: {
+        RoaringBitmap bitmap = bitmaps[random.nextInt(bitmaps.length)];
+        return new Case(BitmapExpression.of(bitmap), bitmap);
+      }
+      case 2: {
+        Case[] operands = randomCases(random, bitmaps, depth, 1 + random.nextInt(4));
+        RoaringBitmap expected = operands[0].expected;
+        for (int i = 1; i < operands.length; ++i) {
+          expected = RoaringBitmap.and(expected, operands[i].expected);
+        }
+        return new Case(BitmapExpression.and(expressions(operands)), expected);
+      }
+      case 3: {
+        Case[] operands = randomCases(random, bitmaps, depth, random.nextInt(5));
+        RoaringBitmap expected = new RoaringBitmap();
+        for (Case operand : operands) {
+          expected = RoaringBitmap.or(expected, operand.expected);
+        }
+        return new Case(BitmapExpression.or(expressions(operands)), expected);
+      }
+      case 4: {
+        Case minuend = randomCase(random, bitmaps, depth - 1);
+        Case subtrahend = randomCase(random, bitmaps, depth - 1);
+        return new Case(BitmapExpression.andNot(minuend.expression, subtrahend.expression),
+            RoaringBitmap.andNot(minuend.expected, subtrahend.expected));
+      }
+      default: {
+        Case operand = randomCase(random, bitmaps, depth - 1);
+        long start = random.nextInt(10 << 16);
+        long end = start + random.nextInt(3 << 16);
+        return new Case(BitmapExpression.flip(operand.expression, start, end),
+            RoaringBitmap.flip(operand.expected, start, end));
+      }
+    }
+  }
+
+  private static Case[] randomCases(Random random, RoaringBitmap[] bitmaps, int depth,
+      int count) {
+    Case[] cases = new Case[count];
+    for (int i = 0; i < count; ++i) {
+      cases[i] = randomCase(random, bitmaps, depth - 1);
+    }
+    return cases;
+  }
+
+  private static BitmapExpression[] expressions(Case[] cases) {
+    BitmapExpression[] expressions = new BitmapExpression[cases.length];
+    for (int i = 0; i < cases.length; ++i) {
+      expressions[i] = cases[i].expression;
+    }
+    return expressions;
+  }
+
+  @Test
+  public void testRandomExpressions() {
+    Random random = new Random(1234);
+    RoaringBitmap[] bitmaps = TestFastAggregation.mixedContainers(random, 8);
+    RoaringBitmap[] copies = new RoaringBitmap[bitmaps.length];
+    for (int i = 0; i < bitmaps.length; ++i) {
+      copies[i] = bitmaps[i].clone();
+    }
+    for (int i = 0; i < 300; ++i) {
+      Case testCase = randomCase(random, bitmaps, 1 + random.nextInt(4));
+      assertEquals(testCase.expected, testCase.expression.evaluate());
+    }
+    // evaluation never writes to the containers of the operands
+    assertArrayEquals(copies, bitmaps);
+  }
+
+  @Test
+  public void testPlanRewrites() {
+    RoaringBitmap a = RoaringBitmap.bitmapOfRange(0, 200000);
+    RoaringBitmap b = RoaringBitmap.bitmapOf(1, 5, 70000, 140000, 300000);
+    RoaringBitmap c = RoaringBitmap.bitmapOf(5, 140000);
+    RoaringBitmap d = RoaringBitmap.bitmapOf(70000);
+    // (a AND NOT c) AND (b AND NOT d), with the subtrahends moved above the intersection
+    BitmapExpression expression = BitmapExpression.and(
+        BitmapExpression.andNot(BitmapExpression.of(a), BitmapExpression.of(c)),
+        BitmapExpression.andNot(BitmapExpression.of(b), BitmapExpression.of(d)));
+    assertEquals(RoaringBitmap.bitmapOf(1), expression.evaluate());
+    // a AND NOT (c OR d), with the union of subtrahends split
+    expression = BitmapExpression.andNot(BitmapExpression.of(b),
+        BitmapExpression.or(BitmapExpression.of(c), BitmapExpression.of(d)));
+    assertEquals(RoaringBitmap.bitmapOf(1, 300000), expression.evaluate());
+  }
+
+  @Test
+  public void testResultIsIndependent() {
+    RoaringBitmap bitmap = RoaringBitmap.bitmapOf(1, 2, 3, 1 << 20);
+    RoaringBitmap result = BitmapExpression.of(bitmap).evaluate();
+    result.add(4);
+    assertEquals(RoaringBitmap.bitmapOf(1, 2, 3, 1 << 20), bitmap);
+    RoaringBitmap union = BitmapExpression.or(BitmapExpression.of(bitmap),
+        BitmapExpression.of(new RoaringBitmap())).evaluate();
+    union.remove(1);
+    assertTrue(bitmap.contains(1));
+  }
+
+  @Test
+  public void testEdgeCases() {
+    assertThrows(IllegalArgumentException.class, BitmapExpression::and);
+    assertThrows(IllegalArgumentException.class,
+        () -> BitmapExpression.flip(BitmapExpression.or(), -1, 10));
+    assertEquals(new RoaringBitmap(), BitmapExpression.or().evaluate());
+    assertEquals(RoaringBitmap.bitmapOfRange(0, 1L << 32),
+        BitmapExpression.flip(BitmapExpression.or(), 0, 1L << 32).evaluate());
+    RoaringBitmap bitmap = RoaringBitmap.bitmapOf(7, 1 << 17);
+    assertEquals(bitmap,
+        BitmapExpression.flip(BitmapExpression.of(bitmap), 10, 10).evaluate());
+  }
+}
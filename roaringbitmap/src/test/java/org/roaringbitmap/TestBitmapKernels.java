@@ -0,0 +1,107 @@
+package org.roaringbitmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Execution(ExecutionMode.CONCURRENT)
+public class TestBitmapKernels {
+
+  private static long[][] randomWords(int length, long seed) {
+    Random r = new Random(seed);
+    long[][] words = new long[2][length];
+    for (int i = 0; i < length; ++i) {
+      words[0][i] = r.nextLong();
+      words[1][i] = r.nextBoolean() ? r.nextLong() : words[0][i];
+    }
+    return words;
+  }
+
+  @Test
+  public void testVectorizedWhenRequested() {
+    // set by the testVectorized task, which must not silently fall back to the scalar kernels
+    if (Boolean.getBoolean("roaringbitmap.vectorized")) {
+      assertTrue(BitmapKernels.isVectorized());
+      assertTrue(ArrayKernels.isVectorized());
+    }
+  }
+
+  @Test
+  public void testKernelsMatchScalarLoops() {
+    // odd lengths exercise the tail handling of the vectorized kernels when they are used, that
+    // is under the testVectorized task
+    for (int length : new int[] {0, 1, 3, 7, 17, 1000, 1024}) {
+      long[][] words = randomWords(length, length);
+      long[] a = words[0];
+      long[] b = words[1];
+      long[] and = new long[length];
+      long[] andNot = new long[length];
+      long[] or = new long[length];
+      long[] xor = new long[length];
+      int card = 0;
+      int andCard = 0;
+      int andNotCard = 0;
+      int orCard = 0;
+      int xorCard = 0;
+      for (int k = 0; k < length; ++k) {
+        and[k] = a[k] & b[k];
+        andNot[k] = a[k] & ~b[k];
+        or[k] = a[k] | b[k];
+        xor[k] = a[k] ^ b[k];
+        card += Long.bitCount(a[k]);
+        andCard += Long.bitCount(and[k]);
+        andNotCard += Long.bitCount(andNot[k]);
+        orCard += Long.bitCount(or[k]);
+        xorCard += Long.bitCount(xor[k]);
+      }
+      assertEquals(card, BitmapKernels.cardinality(a));
+      assertEquals(andCard, BitmapKernels.andCardinality(a, b));
+      assertEquals(andNotCard, BitmapKernels.andNotCardinality(a, b));
+      assertEquals(orCard, BitmapKernels.orCardinality(a, b));
+      assertEquals(xorCard, BitmapKernels.xorCardinality(a, b));
+      long[] dest = new long[length];
+      assertEquals(andCard, BitmapKernels.and(a, b, dest));
+      assertArrayEquals(and, dest);
+      assertEquals(andNotCard, BitmapKernels.andNot(a, b, dest));
+      assertArrayEquals(andNot, dest);
+      assertEquals(orCard, BitmapKernels.or(a, b, dest));
+      assertArrayEquals(or, dest);
+      assertEquals(xorCard, BitmapKernels.xor(a, b, dest));
+      assertArrayEquals(xor, dest);
+    }
+  }
+
+  @Test
+  public void testKernelsInPlace() {
+    long[][] words = randomWords(1024, 42);
+    long[] a = words[0].clone();
+    long[] b = words[1];
+    int expected = 0;
+    for (int k = 0; k < a.length; ++k) {
+      expected += Long.bitCount(a[k] ^ b[k]);
+    }
+    assertEquals(expected, BitmapKernels.xor(a, b, a));
+    assertEquals(0, BitmapKernels.xor(a, a, a));
+    assertEquals(0, BitmapKernels.cardinality(a));
+  }
+
+  @Test
+  public void testContainerOperationsAgreeWithKernels() {
+    long[][] words = randomWords(1024, 7);
+    BitmapContainer bc1 = new BitmapContainer(words[0].clone(), BitmapKernels.cardinality(words[0]));
+    BitmapContainer bc2 = new BitmapContainer(words[1].clone(), BitmapKernels.cardinality(words[1]));
+    assertEquals(BitmapKernels.orCardinality(words[0], words[1]), bc1.or(bc2).getCardinality());
+    assertEquals(BitmapKernels.xorCardinality(words[0], words[1]), bc1.xor(bc2).getCardinality());
+    assertEquals(BitmapKernels.andNotCardinality(words[0], words[1]),
+        bc1.andNot(bc2).getCardinality());
+    Container and = bc1.clone().iand(bc2);
+    assertEquals(BitmapKernels.andCardinality(words[0], words[1]), and.getCardinality());
+    assertEquals(bc1.and(bc2), and);
+  }
+}
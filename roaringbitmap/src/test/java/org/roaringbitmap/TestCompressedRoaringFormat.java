@@ -0,0 +1,213 @@
+package org.roaringbitmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+public class TestCompressedRoaringFormat {
+
+  private static byte[] serialize(RoaringBitmap bitmap) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      CompressedRoaringFormat.serialize(bitmap, out);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static RoaringBitmap deserialize(byte[] bytes) throws IOException {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      return CompressedRoaringFormat.deserialize(in);
+    }
+  }
+
+  private static void assertRoundTrip(RoaringBitmap bitmap) throws IOException {
+    byte[] bytes = serialize(bitmap);
+    assertEquals(bytes.length, CompressedRoaringFormat.serializedSizeInBytes(bitmap));
+    RoaringBitmap streamed = deserialize(bytes);
+    assertEquals(bitmap, streamed);
+    for (int i = 0; i < bitmap.highLowContainer.size; ++i) {
+      assertEquals(bitmap.highLowContainer.values[i].getClass(),
+          streamed.highLowContainer.values[i].getClass());
+    }
+    ByteBuffer heap = ByteBuffer.allocate(bytes.length + 5);
+    heap.position(2);
+    CompressedRoaringFormat.serialize(bitmap, heap);
+    assertEquals(bytes.length + 2, heap.position());
+    heap.position(2);
+    assertEquals(bitmap, CompressedRoaringFormat.deserialize(heap));
+    assertEquals(bytes.length + 2, heap.position());
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    assertEquals(bitmap, CompressedRoaringFormat.deserialize(direct));
+    assertFalse(direct.hasRemaining());
+  }
+
+  @ParameterizedTest(name = "runOptimise={0}")
+  @ValueSource(booleans = {true, false})
+  public void testRandomBitmaps(boolean runOptimise) throws IOException {
+    for (int i = 0; i < 20; ++i) {
+      RoaringBitmap bitmap = SeededTestData.randomBitmap(64);
+      if (runOptimise) {
+        bitmap.runOptimize();
+      }
+      assertRoundTrip(bitmap);
+    }
+  }
+
+  @Test
+  public void testEdgeCases() throws IOException {
+    assertRoundTrip(new RoaringBitmap());
+    assertRoundTrip(RoaringBitmap.bitmapOf(0));
+    assertRoundTrip(RoaringBitmap.bitmapOf(-1));
+    assertRoundTrip(RoaringBitmap.bitmapOf(0, 65535, 65536, 1 << 20, -2, -1));
+    assertRoundTrip(RoaringBitmap.bitmapOfRange(0, 1L << 32));
+    RoaringBitmap full = RoaringBitmap.bitmapOfRange(0, 1L << 20);
+    full.flip(12345);
+    full.flip(700000);
+    full.removeRunCompression();
+    assertRoundTrip(full);
+    // every value of the array containers on the same bit width
+    RoaringBitmap strided = new RoaringBitmap();
+    for (int x = 0; x < 200 << 16; x += 17) {
+      strided.add(x);
+    }
+    assertRoundTrip(strided);
+  }
+
+  @Test
+  public void testSmallerThanPortableFormat() throws IOException {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    for (int x = 0; x < 100 << 16; x += 100) {
+      bitmap.add(x);
+    }
+    RoaringBitmap dense = new RoaringBitmap();
+    for (int x = 0; x < 100 << 16; ++x) {
+      if (x % 1000 != 0) {
+        dense.add(x);
+      }
+    }
+    for (RoaringBitmap b : Arrays.asList(bitmap, dense)) {
+      assertTrue(serialize(b).length * 4 < b.serializedSizeInBytes());
+    }
+  }
+
+  @Test
+  public void testConsecutiveBitmaps() throws IOException {
+    RoaringBitmap first = SeededTestData.randomBitmap(10);
+    RoaringBitmap second = SeededTestData.randomBitmap(10);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      CompressedRoaringFormat.serialize(first, out);
+      CompressedRoaringFormat.serialize(second, out);
+    }
+    try (DataInputStream in =
+             new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertEquals(first, CompressedRoaringFormat.deserialize(in));
+      assertEquals(second, CompressedRoaringFormat.deserialize(in));
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    assertEquals(first, CompressedRoaringFormat.deserialize(buffer));
+    assertEquals(second, CompressedRoaringFormat.deserialize(buffer));
+    assertFalse(buffer.hasRemaining());
+  }
+
+  @Test
+  public void testInvalidInput() throws IOException {
+    RoaringBitmap bitmap = SeededTestData.randomBitmap(10);
+    ByteBuffer portable = ByteBuffer.allocate(bitmap.serializedSizeInBytes());
+    bitmap.serialize(portable);
+    assertThrows(IOException.class, () -> deserialize(portable.array()));
+    assertThrows(InvalidRoaringFormat.class,
+        () -> CompressedRoaringFormat.deserialize(ByteBuffer.wrap(portable.array())));
+    byte[] compressed = serialize(bitmap);
+    assertThrows(IOException.class,
+        () -> new RoaringBitmap().deserialize(ByteBuffer.wrap(compressed)));
+    assertThrows(IOException.class,
+        () -> deserialize(Arrays.copyOf(compressed, compressed.length - 1)));
+    assertThrows(RuntimeException.class, () -> CompressedRoaringFormat.deserialize(
+        ByteBuffer.wrap(Arrays.copyOf(compressed, compressed.length - 1))));
+  }
+
+  @Test
+  public void testTruncatedInput() throws IOException {
+    RoaringBitmap bitmap = RoaringBitmap.bitmapOf(1, 2, 1 << 16, 3 << 16);
+    bitmap.add(5L << 16, 6L << 16);
+    byte[] compressed = serialize(bitmap);
+    for (int length = 0; length < compressed.length; ++length) {
+      byte[] truncated = Arrays.copyOf(compressed, length);
+      assertThrows(InvalidRoaringFormat.class,
+          () -> CompressedRoaringFormat.deserialize(ByteBuffer.wrap(truncated)));
+      assertThrows(IOException.class, () -> deserialize(truncated));
+    }
+  }
+
+  // a bitmap of a single container under the key 0
+  private static byte[] crafted(int type, int... payload) {
+    byte[] bytes = new byte[8 + payload.length];
+    ByteBuffer.wrap(bytes).order(LITTLE_ENDIAN).putInt(CompressedRoaringFormat.COOKIE);
+    bytes[4] = 1;
+    bytes[5] = 0;
+    bytes[6] = (byte) type;
+    bytes[7] = (byte) payload.length;
+    for (int i = 0; i < payload.length; ++i) {
+      bytes[8 + i] = (byte) payload[i];
+    }
+    return bytes;
+  }
+
+  private static void assertInvalid(byte[] bytes) {
+    assertThrows(InvalidRoaringFormat.class,
+        () -> CompressedRoaringFormat.deserialize(ByteBuffer.wrap(bytes)));
+    assertThrows(IOException.class, () -> deserialize(bytes));
+  }
+
+  @Test
+  public void testInvalidCardinalities() throws IOException {
+    // a valid array container of the value 5, then a valid bitmap container of every value
+    assertEquals(RoaringBitmap.bitmapOf(5), CompressedRoaringFormat.deserialize(
+        ByteBuffer.wrap(crafted(0, 0, 5, 0))));
+    assertEquals(RoaringBitmap.bitmapOfRange(0, 1 << 16), CompressedRoaringFormat.deserialize(
+        ByteBuffer.wrap(crafted(1, 0xFF, 0xFF, 0x03, 0x81, 0x20))));
+    // varints overflowing into the sign bit
+    assertInvalid(crafted(0, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F, 5, 0));
+    assertInvalid(crafted(0, 0xFF, 0xFF, 0xFF, 0xFF, 0x70, 5, 0));
+    assertInvalid(crafted(0, 0x80, 0x80, 0x80, 0x80, 0x08, 5, 0));
+    assertInvalid(crafted(1, 0xFE, 0xFF, 0xFF, 0xFF, 0x0F, 0x81, 0x20));
+    // too many values for an array container
+    assertInvalid(crafted(0, 0x80, 0x20, 5, 0));
+    // too few or too many values for a bitmap container
+    assertInvalid(crafted(1, 0, 0x81, 0x20));
+    assertInvalid(crafted(1, 0xFF, 0x1F, 0x81, 0x20));
+    assertInvalid(crafted(1, 0x80, 0x80, 0x04, 0x81, 0x20));
+    // a cardinality other than the number of bits set
+    assertInvalid(crafted(1, 0xFE, 0xFF, 0x03, 0x81, 0x20));
+  }
+
+  @Test
+  public void testLazyBitmapContainer() throws IOException {
+    BitmapContainer bitmap = new BitmapContainer();
+    for (int x = 0; x < 10000; x += 2) {
+      bitmap.add((char) x);
+    }
+    Container lazy = bitmap.lazyor(new BitmapContainer(0, 100));
+    RoaringBitmap expected = new RoaringBitmap();
+    expected.highLowContainer.append((char) 0, lazy.clone().repairAfterLazy());
+    RoaringBitmap lazyBitmap = new RoaringBitmap();
+    lazyBitmap.highLowContainer.append((char) 0, lazy);
+    assertEquals(expected, deserialize(serialize(lazyBitmap)));
+  }
+}
@@ -0,0 +1,107 @@
+package org.roaringbitmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+public class TestContainerPool {
+
+  @Test
+  public void testDisabledByDefault() {
+    assertFalse(ContainerPool.isEnabled());
+    RoaringBitmap bitmap = RoaringBitmap.bitmapOf(1, 2, 1 << 20);
+    bitmap.release();
+    assertTrue(bitmap.isEmpty());
+    assertThrows(IllegalArgumentException.class, () -> ContainerPool.enable(0));
+  }
+
+  @Test
+  public void testPoolIsThreadConfined() throws InterruptedException {
+    ContainerPool.enable();
+    try {
+      AtomicBoolean enabledElsewhere = new AtomicBoolean(true);
+      Thread thread = new Thread(() -> enabledElsewhere.set(ContainerPool.isEnabled()));
+      thread.start();
+      thread.join();
+      assertTrue(ContainerPool.isEnabled());
+      assertFalse(enabledElsewhere.get());
+    } finally {
+      ContainerPool.disable();
+    }
+    assertFalse(ContainerPool.isEnabled());
+  }
+
+  @Test
+  public void testReleasedStorageIsReused() {
+    RoaringBitmap left = new RoaringBitmap();
+    for (int i = 0; i < 20000; i += 2) {
+      left.add(i);
+    }
+    RoaringBitmap right = RoaringBitmap.bitmapOf(30000, 40000);
+    ContainerPool.enable();
+    try {
+      RoaringBitmap result = RoaringBitmap.or(left, right);
+      long[] words = ((BitmapContainer) result.highLowContainer.getContainerAtIndex(0)).bitmap;
+      result.release();
+      assertTrue(result.isEmpty());
+      RoaringBitmap reused = RoaringBitmap.xor(left, right);
+      assertSame(words, ((BitmapContainer) reused.highLowContainer.getContainerAtIndex(0)).bitmap);
+      assertEquals(10002, reused.getCardinality());
+      assertTrue(reused.contains(19998));
+      assertFalse(reused.contains(19999));
+    } finally {
+      ContainerPool.disable();
+    }
+  }
+
+  @Test
+  public void testOperationsWithRecycledStorage() {
+    Random random = new Random(4321);
+    RoaringBitmap[] bitmaps = TestFastAggregation.mixedContainers(random, 12);
+    RoaringBitmap[][] expected = new RoaringBitmap[bitmaps.length][];
+    for (int i = 0; i < bitmaps.length; ++i) {
+      RoaringBitmap other = bitmaps[(i + 1) % bitmaps.length];
+      expected[i] = new RoaringBitmap[] {
+          RoaringBitmap.and(bitmaps[i], other),
+          RoaringBitmap.or(bitmaps[i], other),
+          RoaringBitmap.xor(bitmaps[i], other),
+          RoaringBitmap.andNot(bitmaps[i], other)
+      };
+    }
+    RoaringBitmap expectedOr = FastAggregation.or(bitmaps);
+    RoaringBitmap expectedXor = FastAggregation.xor(bitmaps);
+    // a small pool, so that it both overflows and runs dry
+    ContainerPool.enable(4);
+    try {
+      for (int round = 0; round < 3; ++round) {
+        for (int i = 0; i < bitmaps.length; ++i) {
+          RoaringBitmap other = bitmaps[(i + 1) % bitmaps.length];
+          RoaringBitmap[] actual = {
+              RoaringBitmap.and(bitmaps[i], other),
+              RoaringBitmap.or(bitmaps[i], other),
+              RoaringBitmap.xor(bitmaps[i], other),
+              RoaringBitmap.andNot(bitmaps[i], other)
+          };
+          for (int op = 0; op < actual.length; ++op) {
+            assertEquals(expected[i][op], actual[op]);
+            actual[op].release();
+          }
+        }
+        RoaringBitmap or = FastAggregation.or(bitmaps);
+        assertEquals(expectedOr, or);
+        or.release();
+        RoaringBitmap xor = FastAggregation.xor(bitmaps);
+        assertEquals(expectedXor, xor);
+        xor.release();
+      }
+    } finally {
+      ContainerPool.disable();
+    }
+  }
+}
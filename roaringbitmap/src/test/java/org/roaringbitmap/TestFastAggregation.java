@@ -9,6 +9,8 @@ import org.junit.jupiter.params.provider.MethodSource;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -280,4 +282,232 @@ public class TestFastAggregation {
         }
     }
 
+    private static void assertXorAndNotCardinalities(RoaringBitmap[] bitmaps) {
+        long[] buffer = new long[1024];
+        int xor = FastAggregation.xor(bitmaps).getCardinality();
+        assertEquals(xor, FastAggregation.xorCardinality(bitmaps));
+        assertEquals(xor, FastAggregation.xorCardinality(buffer, bitmaps));
+        if (bitmaps.length > 0) {
+            RoaringBitmap[] subtrahends = Arrays.copyOfRange(bitmaps, 1, bitmaps.length);
+            int andNot = RoaringBitmap.andNot(bitmaps[0], FastAggregation.or(subtrahends))
+                    .getCardinality();
+            assertEquals(andNot, FastAggregation.andNotCardinality(bitmaps[0], subtrahends));
+            assertEquals(andNot,
+                    FastAggregation.andNotCardinality(buffer, bitmaps[0], subtrahends));
+        }
+    }
+
+    @MethodSource("bitmaps")
+    @ParameterizedTest(name = "testXorAndNotCardinality")
+    public void testXorAndNotCardinality(List<RoaringBitmap> list) {
+        RoaringBitmap[] bitmaps = list.toArray(new RoaringBitmap[0]);
+        for (int length = 0; length <= bitmaps.length; length++) {
+            assertXorAndNotCardinalities(Arrays.copyOf(bitmaps, length));
+        }
+    }
+
+    @Test
+    public void testXorAndNotCardinalityMixedContainers() {
+        Random random = new Random(86420);
+        for (int trial = 0; trial < 50; ++trial) {
+            assertXorAndNotCardinalities(mixedContainers(random, 1 + random.nextInt(12)));
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> FastAggregation.xorCardinality(new long[1023], new RoaringBitmap()));
+    }
+
+    private static void assertPredicates(RoaringBitmap[] bitmaps) {
+        assertEquals(!FastAggregation.naive_and(bitmaps).isEmpty() && bitmaps.length > 0,
+                FastAggregation.intersects(bitmaps));
+        if (bitmaps.length > 0) {
+            RoaringBitmap[] others = Arrays.copyOfRange(bitmaps, 1, bitmaps.length);
+            RoaringBitmap union = FastAggregation.or(others);
+            assertEquals(RoaringBitmap.intersects(bitmaps[0], union),
+                    FastAggregation.containsAny(bitmaps[0], others));
+            assertEquals(union.contains(bitmaps[0]),
+                    FastAggregation.containsAll(bitmaps[0], others));
+            RoaringBitmap subset = RoaringBitmap.and(bitmaps[0], union);
+            assertTrue(FastAggregation.containsAll(subset, others));
+            subset.add(subset.isEmpty() ? 0 : subset.last() + 1);
+            assertEquals(union.contains(subset), FastAggregation.containsAll(subset, others));
+        }
+    }
+
+    @MethodSource("bitmaps")
+    @ParameterizedTest(name = "testPredicates")
+    public void testPredicates(List<RoaringBitmap> list) {
+        RoaringBitmap[] bitmaps = list.toArray(new RoaringBitmap[0]);
+        for (int length = 0; length <= bitmaps.length; length++) {
+            assertPredicates(Arrays.copyOf(bitmaps, length));
+        }
+    }
+
+    @Test
+    public void testPredicatesMixedContainers() {
+        Random random = new Random(11235);
+        for (int trial = 0; trial < 100; ++trial) {
+            RoaringBitmap[] bitmaps = mixedContainers(random, 1 + random.nextInt(12));
+            assertPredicates(bitmaps);
+            // sparse bitmaps, so that some have no value in common
+            for (RoaringBitmap bitmap : bitmaps) {
+                bitmap.and(RoaringBitmap.bitmapOf(random.ints(64, 0, 8 << 16).toArray()));
+            }
+            assertPredicates(bitmaps);
+        }
+    }
+
+    private static RoaringBitmap collect(Consumer<ContainerConsumer> aggregation) {
+        RoaringBitmap result = new RoaringBitmap();
+        RoaringArray array = result.highLowContainer;
+        aggregation.accept((key, container) -> {
+            assertFalse(container.isEmpty());
+            assertTrue(array.size == 0 || array.keys[array.size - 1] < key);
+            array.append(key, container.clone());
+        });
+        return result;
+    }
+
+    private static void assertStreamingAggregations(RoaringBitmap[] bitmaps) {
+        assertEquals(FastAggregation.or(bitmaps),
+                collect(consumer -> FastAggregation.or(consumer, bitmaps)));
+        assertEquals(FastAggregation.xor(bitmaps),
+                collect(consumer -> FastAggregation.xor(consumer, bitmaps)));
+        if (bitmaps.length > 0) {
+            RoaringBitmap[] subtrahends = Arrays.copyOfRange(bitmaps, 1, bitmaps.length);
+            assertEquals(FastAggregation.naive_and(bitmaps),
+                    collect(consumer -> FastAggregation.and(consumer, bitmaps)));
+            assertEquals(RoaringBitmap.andNot(bitmaps[0], FastAggregation.or(subtrahends)),
+                    collect(consumer -> FastAggregation.andNot(consumer, bitmaps[0], subtrahends)));
+        }
+    }
+
+    @MethodSource("bitmaps")
+    @ParameterizedTest(name = "testStreamingAggregations")
+    public void testStreamingAggregations(List<RoaringBitmap> list) {
+        RoaringBitmap[] bitmaps = list.toArray(new RoaringBitmap[0]);
+        for (int length = 0; length <= bitmaps.length; length++) {
+            assertStreamingAggregations(Arrays.copyOf(bitmaps, length));
+        }
+    }
+
+    @Test
+    public void testStreamingAggregationsMixedContainers() {
+        Random random = new Random(24680);
+        for (int trial = 0; trial < 50; ++trial) {
+            assertStreamingAggregations(mixedContainers(random, 1 + random.nextInt(12)));
+        }
+        long[] cardinality = new long[1];
+        RoaringBitmap[] bitmaps = mixedContainers(random, 6);
+        FastAggregation.or((key, container) -> cardinality[0] += container.getCardinality(),
+                bitmaps);
+        assertEquals(FastAggregation.orCardinality(bitmaps), cardinality[0]);
+    }
+
+    // keys 0 to 7 hold an array, a bitmap or a run container chosen at random in each bitmap,
+    // arrays of very different sizes so that the k-ary intersection gallops
+    public static RoaringBitmap[] mixedContainers(Random random, int count) {
+        RoaringBitmap[] bitmaps = new RoaringBitmap[count];
+        for (int i = 0; i < count; ++i) {
+            RoaringBitmap bitmap = new RoaringBitmap();
+            for (int key = 0; key < 8; ++key) {
+                int base = key << 16;
+                switch (random.nextInt(8)) {
+                    case 0:
+                        break;
+                    case 1:
+                    case 2:
+                        for (int v = 0; v < 16384; ++v) {
+                            if (random.nextInt(10) < 7) {
+                                bitmap.add(base + v);
+                            }
+                        }
+                        break;
+                    case 3:
+                        for (int r = 0; r < 20; ++r) {
+                            int start = base + random.nextInt(8192);
+                            bitmap.add((long) start, start + 1 + random.nextInt(300));
+                        }
+                        break;
+                    default:
+                        int cardinality = 1 << random.nextInt(12);
+                        for (int v = 0; v < cardinality; ++v) {
+                            bitmap.add(base + random.nextInt(8192));
+                        }
+                }
+            }
+            bitmap.runOptimize();
+            bitmaps[i] = bitmap;
+        }
+        return bitmaps;
+    }
+
+    @Test
+    public void testAndMixedContainers() {
+        Random random = new Random(97531);
+        long[] buffer = new long[1024];
+        for (int trial = 0; trial < 100; ++trial) {
+            RoaringBitmap[] bitmaps = mixedContainers(random, 2 + random.nextInt(12));
+            RoaringBitmap expected = FastAggregation.naive_and(bitmaps);
+            Arrays.fill(buffer, 0L);
+            assertEquals(expected, FastAggregation.workShyAnd(buffer, bitmaps));
+            Arrays.fill(buffer, 0L);
+            assertEquals(expected, FastAggregation.workAndMemoryShyAnd(buffer, bitmaps));
+            assertEquals(expected, FastAggregation.and(bitmaps));
+            assertEquals(expected.getCardinality(), FastAggregation.andCardinality(bitmaps));
+        }
+    }
+
+    private static RoaringBitmap naiveThreshold(int threshold, RoaringBitmap... bitmaps) {
+        RoaringBitmap result = new RoaringBitmap();
+        for (int value : FastAggregation.naive_or(bitmaps)) {
+            int count = 0;
+            for (RoaringBitmap bitmap : bitmaps) {
+                count += bitmap.contains(value) ? 1 : 0;
+            }
+            if (count >= threshold) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testThresholdMixedContainers() {
+        Random random = new Random(13579);
+        for (int trial = 0; trial < 20; ++trial) {
+            RoaringBitmap[] bitmaps = mixedContainers(random, 1 + random.nextInt(20));
+            for (int threshold = 1; threshold <= bitmaps.length + 1; ++threshold) {
+                int t = threshold;
+                RoaringBitmap expected = naiveThreshold(t, bitmaps);
+                assertEquals(expected, FastAggregation.threshold(t, bitmaps));
+                assertEquals(expected.getCardinality(),
+                        FastAggregation.thresholdCardinality(t, bitmaps));
+                assertEquals(expected,
+                        collect(consumer -> FastAggregation.threshold(consumer, t, bitmaps)));
+            }
+        }
+    }
+
+    @Test
+    public void testThreshold() {
+        // a value v of the key 0 is in v + 1 bitmaps, a value of the key 1 in a single bitmap
+        RoaringBitmap[] bitmaps = new RoaringBitmap[70];
+        for (int i = 0; i < bitmaps.length; ++i) {
+            bitmaps[i] = new RoaringBitmap();
+            bitmaps[i].add((long) i, 70);
+            bitmaps[i].add(1 << 16 | i);
+        }
+        for (int threshold = 1; threshold <= 71; ++threshold) {
+            RoaringBitmap expected = new RoaringBitmap();
+            expected.add(threshold - 1L, 70);
+            if (threshold == 1) {
+                expected.add((long) 1 << 16, (1 << 16) + 70);
+            }
+            assertEquals(expected, FastAggregation.threshold(threshold, bitmaps));
+            assertEquals(expected.getCardinality(),
+                    FastAggregation.thresholdCardinality(threshold, bitmaps));
+        }
+        assertEquals(new RoaringBitmap(), FastAggregation.threshold(1));
+        assertThrows(IllegalArgumentException.class, () -> FastAggregation.threshold(0, bitmaps));
+    }
 }
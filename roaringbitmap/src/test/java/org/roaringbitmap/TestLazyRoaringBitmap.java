@@ -0,0 +1,164 @@
+package org.roaringbitmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+public class TestLazyRoaringBitmap {
+
+  private static ByteBuffer serialize(RoaringBitmap bitmap, boolean direct) {
+    ByteBuffer buffer = direct
+        ? ByteBuffer.allocateDirect(bitmap.serializedSizeInBytes() + 3)
+        : ByteBuffer.allocate(bitmap.serializedSizeInBytes() + 3);
+    // the bitmap does not start at the beginning of the buffer
+    buffer.position(3);
+    bitmap.serialize(buffer.slice());
+    return buffer;
+  }
+
+  private static void assertSameValues(RoaringBitmap expected, LazyRoaringBitmap actual,
+      Random random) throws IOException {
+    assertEquals(expected.getContainerCount(), actual.getContainerCount());
+    assertEquals(expected.getLongCardinality(), actual.getLongCardinality());
+    assertEquals(expected.isEmpty(), actual.isEmpty());
+    assertEquals(expected.serializedSizeInBytes(), actual.serializedSizeInBytes());
+    for (int i = 0; i < 1000; ++i) {
+      int x = random.nextInt(12 << 16);
+      assertEquals(expected.contains(x), actual.contains(x));
+      assertEquals(expected.rankLong(x), actual.rankLong(x));
+      assertEquals(expected.rangeCardinality(x, x + 100_000L),
+          actual.rangeCardinality(x, x + 100_000L));
+      if (!expected.isEmpty()) {
+        int j = random.nextInt(expected.getCardinality());
+        assertEquals(expected.select(j), actual.select(j));
+      }
+    }
+    assertEquals(expected, actual.toRoaringBitmap());
+    assertArrayEquals(expected.toArray(), actual.toArray());
+    RoaringBitmap iterated = new RoaringBitmap();
+    actual.forEach((IntConsumer) iterated::add);
+    assertEquals(expected, iterated);
+    assertEquals(expected, RoaringBitmap.bitmapOf(actual.getIntIterator().hasNext()
+        ? actual.stream().toArray() : new int[0]));
+    if (!expected.isEmpty()) {
+      assertEquals(expected.first(), actual.first());
+      assertEquals(expected.last(), actual.last());
+      assertEquals(expected.nextValue(70000), actual.nextValue(70000));
+    }
+    ByteBuffer copy = ByteBuffer.allocate(actual.serializedSizeInBytes());
+    actual.serialize(copy);
+    copy.flip();
+    assertEquals(expected, new LazyRoaringBitmap(copy).toRoaringBitmap());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    actual.serialize(new DataOutputStream(bytes));
+    assertArrayEquals(copy.array(), bytes.toByteArray());
+  }
+
+  @Test
+  public void testFormats() throws IOException {
+    Random random = new Random(1234);
+    // with and without run containers, with and without stored offsets
+    for (int count : new int[] {1, 3, 4, 10}) {
+      RoaringBitmap[] bitmaps = TestFastAggregation.mixedContainers(random, count);
+      RoaringBitmap withRuns = FastAggregation.or(bitmaps);
+      withRuns.add(9L << 16, (9L << 16) + 1000);
+      withRuns.runOptimize();
+      RoaringBitmap withoutRuns = withRuns.clone();
+      withoutRuns.removeRunCompression();
+      for (RoaringBitmap bitmap : new RoaringBitmap[] {withRuns, withoutRuns,
+          RoaringBitmap.bitmapOf(1), RoaringBitmap.bitmapOfRange(0, 3 << 16)}) {
+        for (boolean direct : new boolean[] {false, true}) {
+          ByteBuffer buffer = serialize(bitmap, direct);
+          LazyRoaringBitmap lazy = new LazyRoaringBitmap(buffer);
+          assertEquals(3, buffer.position());
+          assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+          assertSameValues(bitmap, lazy, random);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testContainersAreCopiedOnFirstAccess() {
+    RoaringBitmap bitmap = RoaringBitmap.bitmapOf(1, 2, 1 << 16, 3 << 16);
+    bitmap.add(5L << 16, 6L << 16);
+    LazyRoaringBitmap lazy = new LazyRoaringBitmap(serialize(bitmap, false));
+    assertEquals(bitmap.getCardinality(), lazy.getCardinality());
+    for (int k = 0; k < lazy.getContainerCount(); ++k) {
+      assertFalse(lazy.isMaterialized(k));
+    }
+    assertTrue(lazy.contains(1 << 16));
+    assertFalse(lazy.contains(4 << 16));
+    assertFalse(lazy.isMaterialized(0));
+    assertTrue(lazy.isMaterialized(1));
+    assertFalse(lazy.isMaterialized(2));
+    assertEquals(5 << 16, lazy.select(4));
+    assertTrue(lazy.isMaterialized(3));
+    assertFalse(lazy.isMaterialized(2));
+    RoaringBitmap copy = lazy.toRoaringBitmap();
+    copy.add(4 << 16);
+    assertFalse(lazy.contains(4 << 16));
+    assertNotSame(copy.highLowContainer.getContainerAtIndex(1), lazy.limit(3)
+        .highLowContainer.getContainerAtIndex(1));
+  }
+
+  @Test
+  public void testEmptyAndInvalid() throws IOException {
+    LazyRoaringBitmap empty = new LazyRoaringBitmap(serialize(new RoaringBitmap(), false));
+    assertTrue(empty.isEmpty());
+    assertEquals(0, empty.getCardinality());
+    assertFalse(empty.contains(0));
+    assertEquals(0, empty.rank(-1));
+    assertThrows(NoSuchElementException.class, empty::first);
+    assertThrows(IllegalArgumentException.class, () -> empty.select(0));
+    assertSameValues(new RoaringBitmap(), empty, new Random(1));
+    assertThrows(InvalidRoaringFormat.class,
+        () -> new LazyRoaringBitmap(ByteBuffer.allocate(16)));
+  }
+
+  @Test
+  public void testConcurrentReads() throws Exception {
+    RoaringBitmap expected = SeededTestData.randomBitmap(200);
+    LazyRoaringBitmap lazy = new LazyRoaringBitmap(serialize(expected, true));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 8; ++t) {
+        final int seed = t;
+        results.add(executor.submit(() -> {
+          Random random = new Random(seed);
+          for (int i = 0; i < 10_000; ++i) {
+            int x = random.nextInt(200 << 16);
+            if (expected.contains(x) != lazy.contains(x)) {
+              return false;
+            }
+          }
+          return Arrays.equals(expected.toArray(), lazy.toArray());
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(expected, lazy.toRoaringBitmap());
+  }
+}
@@ -0,0 +1,100 @@
+package org.roaringbitmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+public class TestMaterializedIntersection {
+
+  private static RoaringBitmap[] members(MaterializedIntersection intersection) {
+    RoaringBitmap[] members = new RoaringBitmap[intersection.size()];
+    for (int i = 0; i < members.length; ++i) {
+      members[i] = intersection.getMember(i);
+    }
+    return members;
+  }
+
+  @Test
+  public void testUpdates() {
+    Random random = new Random(4321);
+    RoaringBitmap[] initial = TestFastAggregation.mixedContainers(random, 4);
+    RoaringBitmap[] copies = new RoaringBitmap[initial.length];
+    for (int i = 0; i < initial.length; ++i) {
+      copies[i] = initial[i].clone();
+    }
+    MaterializedIntersection intersection = new MaterializedIntersection(initial);
+    assertEquals(FastAggregation.and(copies), intersection.getIntersection());
+    for (int step = 0; step < 300; ++step) {
+      int id = random.nextInt(intersection.size());
+      RoaringBitmap member = intersection.getMember(id);
+      RoaringBitmap other = intersection.getMember(random.nextInt(intersection.size()));
+      switch (random.nextInt(7)) {
+        case 0:
+          if (!other.isEmpty()) {
+            // likely to be held by the other members too
+            intersection.add(id, other.select(random.nextInt(other.getCardinality())));
+          }
+          break;
+        case 1:
+          if (!member.isEmpty()) {
+            intersection.remove(id, member.select(random.nextInt(member.getCardinality())));
+          }
+          break;
+        case 2:
+          intersection.or(id, other.clone());
+          break;
+        case 3:
+          intersection.or(id, TestFastAggregation.mixedContainers(random, 1)[0]);
+          break;
+        case 4:
+          intersection.andNot(id, TestFastAggregation.mixedContainers(random, 1)[0]);
+          break;
+        case 5:
+          intersection.or(id, RoaringBitmap.bitmapOfRange(0, 8 << 16));
+          break;
+        default:
+          if (intersection.size() < 8) {
+            intersection.addMember(RoaringBitmap.bitmapOfRange(random.nextInt(1 << 16),
+                random.nextInt(1 << 16) + (7 << 16)));
+          }
+      }
+      assertEquals(FastAggregation.and(members(intersection)), intersection.getIntersection());
+    }
+  }
+
+  @Test
+  public void testAddMembers() {
+    MaterializedIntersection intersection = new MaterializedIntersection();
+    assertTrue(intersection.getIntersection().isEmpty());
+    assertEquals(0, intersection.addMember(RoaringBitmap.bitmapOf(1, 2, 3, 1 << 16)));
+    assertEquals(RoaringBitmap.bitmapOf(1, 2, 3, 1 << 16), intersection.getIntersection());
+    assertEquals(1, intersection.addMember(RoaringBitmap.bitmapOf(2, 3)));
+    assertEquals(RoaringBitmap.bitmapOf(2, 3), intersection.getIntersection());
+    intersection.add(1, 1 << 16);
+    assertEquals(RoaringBitmap.bitmapOf(2, 3, 1 << 16), intersection.getIntersection());
+    intersection.add(1, 4);
+    intersection.remove(0, 3);
+    assertEquals(RoaringBitmap.bitmapOf(2, 1 << 16), intersection.getIntersection());
+    intersection.or(0, RoaringBitmap.bitmapOf(3, 4, 2 << 16));
+    assertEquals(RoaringBitmap.bitmapOf(2, 3, 4, 1 << 16), intersection.getIntersection());
+  }
+
+  @Test
+  public void testUpdateWithMember() {
+    MaterializedIntersection intersection = new MaterializedIntersection(
+        RoaringBitmap.bitmapOf(1, 2, 3), RoaringBitmap.bitmapOf(1, 2, 3, 4));
+    intersection.or(1, intersection.getMember(1));
+    assertEquals(RoaringBitmap.bitmapOf(1, 2, 3, 4), intersection.getMember(1));
+    assertEquals(RoaringBitmap.bitmapOf(1, 2, 3), intersection.getIntersection());
+    intersection.andNot(0, intersection.getMember(0));
+    assertTrue(intersection.getMember(0).isEmpty());
+    assertTrue(intersection.getIntersection().isEmpty());
+    intersection.or(0, RoaringBitmap.bitmapOf(2));
+    assertEquals(RoaringBitmap.bitmapOf(2), intersection.getIntersection());
+  }
+}
@@ -0,0 +1,93 @@
+package org.roaringbitmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+public class TestMaterializedUnion {
+
+  private static RoaringBitmap[] members(MaterializedUnion union) {
+    RoaringBitmap[] members = new RoaringBitmap[union.size()];
+    for (int i = 0; i < members.length; ++i) {
+      members[i] = union.getMember(i);
+    }
+    return members;
+  }
+
+  @Test
+  public void testUpdates() {
+    Random random = new Random(1234);
+    RoaringBitmap[] initial = TestFastAggregation.mixedContainers(random, 10);
+    RoaringBitmap[] copies = new RoaringBitmap[initial.length];
+    for (int i = 0; i < initial.length; ++i) {
+      copies[i] = initial[i].clone();
+    }
+    MaterializedUnion union = new MaterializedUnion(initial);
+    assertEquals(FastAggregation.or(copies), union.getUnion());
+    for (int step = 0; step < 300; ++step) {
+      int id = random.nextInt(union.size());
+      RoaringBitmap member = union.getMember(id);
+      switch (random.nextInt(6)) {
+        case 0:
+          union.add(id, random.nextInt(9 << 16));
+          break;
+        case 1:
+          if (!member.isEmpty()) {
+            union.remove(id, member.select(random.nextInt(member.getCardinality())));
+          }
+          break;
+        case 2:
+          union.or(id, TestFastAggregation.mixedContainers(random, 1)[0]);
+          break;
+        case 3:
+          union.andNot(id, TestFastAggregation.mixedContainers(random, 1)[0]);
+          break;
+        case 4:
+          // empties the member
+          union.andNot(id, member.clone());
+          assertTrue(member.isEmpty());
+          break;
+        default:
+          if (union.size() < 16) {
+            assertEquals(union.size(),
+                union.addMember(TestFastAggregation.mixedContainers(random, 1)[0]));
+          }
+      }
+      assertEquals(FastAggregation.or(members(union)), union.getUnion());
+    }
+  }
+
+  @Test
+  public void testRemoveValueHeldByOtherMembers() {
+    MaterializedUnion union = new MaterializedUnion(RoaringBitmap.bitmapOf(1, 2, 1 << 16),
+        RoaringBitmap.bitmapOf(2, 3));
+    union.remove(0, 2);
+    assertEquals(RoaringBitmap.bitmapOf(1, 2, 3, 1 << 16), union.getUnion());
+    union.remove(0, 1 << 16);
+    union.remove(0, 1 << 16);
+    assertEquals(RoaringBitmap.bitmapOf(1, 2, 3), union.getUnion());
+    union.andNot(1, RoaringBitmap.bitmapOf(2, 3));
+    assertEquals(RoaringBitmap.bitmapOf(1), union.getUnion());
+    union.remove(0, 1);
+    assertTrue(union.getUnion().isEmpty());
+    assertTrue(new MaterializedUnion().getUnion().isEmpty());
+  }
+
+  @Test
+  public void testUpdateWithMember() {
+    MaterializedUnion union = new MaterializedUnion(RoaringBitmap.bitmapOf(1, 2, 1 << 16),
+        RoaringBitmap.bitmapOf(2, 3));
+    union.or(1, union.getMember(1));
+    assertEquals(RoaringBitmap.bitmapOf(1, 2, 3, 1 << 16), union.getUnion());
+    union.andNot(0, union.getMember(0));
+    assertTrue(union.getMember(0).isEmpty());
+    assertEquals(RoaringBitmap.bitmapOf(2, 3), union.getUnion());
+    union.andNot(1, RoaringBitmap.bitmapOf(2, 3));
+    assertTrue(union.getUnion().isEmpty());
+  }
+}
@@ -0,0 +1,139 @@
+package org.roaringbitmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+public class TestOverlapIndex {
+
+  private static RoaringBitmap[] catalog(Random random, int size) {
+    RoaringBitmap[] catalog = new RoaringBitmap[size];
+    for (int id = 0; id < size; ++id) {
+      RoaringBitmap bitmap = new RoaringBitmap();
+      int numKeys = 1 + random.nextInt(6);
+      for (int i = 0; i < numKeys; ++i) {
+        int key = random.nextInt(16);
+        switch (random.nextInt(3)) {
+          case 0:
+            for (int j = 0; j < 100; ++j) {
+              bitmap.add((key << 16) | random.nextInt(1 << 16));
+            }
+            break;
+          case 1:
+            for (int j = 0; j < 10000; ++j) {
+              bitmap.add((key << 16) | random.nextInt(1 << 16));
+            }
+            break;
+          default:
+            int start = random.nextInt(1 << 15);
+            bitmap.add((key << 16) + (long) start, (key << 16) + start + random.nextInt(1 << 15));
+            bitmap.runOptimize();
+        }
+      }
+      catalog[id] = bitmap;
+    }
+    return catalog;
+  }
+
+  private static OverlapIndex.Match[] naiveTopK(RoaringBitmap[] catalog, RoaringBitmap query,
+      int k, OverlapIndex.Similarity similarity) {
+    int queryCardinality = query.getCardinality();
+    return IntStream.range(0, catalog.length)
+        .mapToObj(id -> {
+          int intersection = RoaringBitmap.andCardinality(query, catalog[id]);
+          return new OverlapIndex.Match(id, intersection,
+              similarity.score(intersection, queryCardinality, catalog[id].getCardinality()));
+        })
+        .filter(match -> match.getIntersectionCardinality() > 0)
+        .sorted(Comparator.comparingDouble(OverlapIndex.Match::getScore).reversed()
+            .thenComparingInt(OverlapIndex.Match::getId))
+        .limit(k)
+        .toArray(OverlapIndex.Match[]::new);
+  }
+
+  private static void assertMatches(OverlapIndex.Match[] expected, OverlapIndex.Match[] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; ++i) {
+      assertEquals(expected[i].getId(), actual[i].getId());
+      assertEquals(expected[i].getIntersectionCardinality(),
+          actual[i].getIntersectionCardinality());
+      assertEquals(expected[i].getScore(), actual[i].getScore());
+    }
+  }
+
+  @Test
+  public void testTopK() {
+    Random random = new Random(1234);
+    RoaringBitmap[] catalog = catalog(random, 300);
+    OverlapIndex index = new OverlapIndex(catalog);
+    assertEquals(catalog.length, index.size());
+    assertSame(catalog[7], index.get(7));
+    ForkJoinPool pool = new ForkJoinPool(3);
+    try {
+      for (int round = 0; round < 5; ++round) {
+        RoaringBitmap query = catalog(random, 1)[0];
+        for (OverlapIndex.Similarity similarity : OverlapIndex.Similarity.values()) {
+          for (int k : new int[] {1, 5, 40, 1000}) {
+            OverlapIndex.Match[] expected = naiveTopK(catalog, query, k, similarity);
+            assertMatches(expected, index.topK(query, k, similarity));
+            assertMatches(expected, index.topK(pool, query, k, similarity));
+          }
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testTopKOfACatalogMember() {
+    RoaringBitmap[] catalog = catalog(new Random(42), 100);
+    OverlapIndex index = new OverlapIndex(catalog);
+    OverlapIndex.Match[] matches = index.topK(catalog[17], 3, OverlapIndex.Similarity.JACCARD);
+    assertEquals(17, matches[0].getId());
+    assertEquals(1D, matches[0].getScore());
+    assertEquals(catalog[17].getCardinality(), matches[0].getIntersectionCardinality());
+  }
+
+  @Test
+  public void testNoOverlap() {
+    OverlapIndex index = new OverlapIndex(RoaringBitmap.bitmapOf(1, 2, 3),
+        RoaringBitmap.bitmapOf(1 << 16), new RoaringBitmap());
+    assertEquals(0, index.topK(new RoaringBitmap(), 2, OverlapIndex.Similarity.INTERSECTION)
+        .length);
+    assertEquals(0, index.topK(RoaringBitmap.bitmapOf(4, 1 << 20), 2,
+        OverlapIndex.Similarity.INTERSECTION).length);
+    // shares a key but no value with the first bitmap
+    OverlapIndex.Match[] matches = index.topK(RoaringBitmap.bitmapOf(4, 1 << 16), 2,
+        OverlapIndex.Similarity.CONTAINMENT);
+    assertEquals(1, matches.length);
+    assertEquals(1, matches[0].getId());
+    assertEquals(1D, matches[0].getScore());
+    assertEquals(0, new OverlapIndex().topK(RoaringBitmap.bitmapOf(1), 1,
+        OverlapIndex.Similarity.JACCARD).length);
+    assertThrows(IllegalArgumentException.class,
+        () -> index.topK(RoaringBitmap.bitmapOf(1), 0, OverlapIndex.Similarity.JACCARD));
+  }
+
+  @Test
+  public void testAllMatches() {
+    OverlapIndex index = new OverlapIndex(RoaringBitmap.bitmapOf(1, 2, 3),
+        RoaringBitmap.bitmapOf(2, 1 << 16));
+    OverlapIndex.Match[] matches = index.topK(RoaringBitmap.bitmapOf(2, 3), Integer.MAX_VALUE,
+        OverlapIndex.Similarity.INTERSECTION);
+    assertEquals(2, matches.length);
+    assertEquals(0, matches[0].getId());
+    assertEquals(2, matches[0].getIntersectionCardinality());
+    assertEquals(1, matches[1].getId());
+    assertEquals(1, matches[1].getIntersectionCardinality());
+  }
+}
@@ -0,0 +1,191 @@
+package org.roaringbitmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+public class TestPortableFormatWriter {
+
+  @TempDir
+  Path dir;
+
+  private static void write(RoaringBitmap bitmap, PortableFormatWriter writer)
+      throws IOException {
+    try (PortableFormatWriter w = writer) {
+      bitmap.forEach((IntConsumer) value -> {
+        try {
+          w.add(value);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      });
+    }
+  }
+
+  private static byte[] serialize(RoaringBitmap bitmap) {
+    ByteBuffer buffer = ByteBuffer.allocate(bitmap.serializedSizeInBytes());
+    bitmap.serialize(buffer);
+    return buffer.array();
+  }
+
+  private static RoaringBitmap runOptimized(RoaringBitmap bitmap) {
+    RoaringBitmap optimized = bitmap.clone();
+    optimized.runOptimize();
+    return optimized;
+  }
+
+  @ParameterizedTest(name = "density={0}")
+  @ValueSource(doubles = {0.001, 0.1, 0.5, 0.999})
+  public void testPatchedHeaderIsPortableFormat(double density) throws IOException {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    for (int key = 0; key < 20; ++key) {
+      for (int low = 0; low < 1 << 16; ++low) {
+        if (Math.floorMod(low * 2654435761L + key, 1000) < density * 1000) {
+          bitmap.add((key * 3) << 16 | low);
+        }
+      }
+    }
+    byte[] expected = serialize(runOptimized(bitmap));
+    Path file = dir.resolve("exact-" + density);
+    long start;
+    try (FileChannel channel = FileChannel.open(file, CREATE, WRITE)) {
+      PortableFormatWriter writer =
+          PortableFormatWriter.patchingHeader(channel, bitmap.getContainerCount());
+      write(bitmap, writer);
+      start = writer.getStartPosition();
+      assertEquals(start + expected.length, channel.position());
+    }
+    byte[] written = Files.readAllBytes(file);
+    assertArrayEquals(expected, Arrays.copyOfRange(written, (int) start, written.length));
+  }
+
+  @Test
+  public void testPatchedHeaderWithDefaultReservation() throws IOException {
+    RoaringBitmap bitmap = SeededTestData.randomBitmap(50);
+    Path file = dir.resolve("default");
+    long start;
+    try (FileChannel channel = FileChannel.open(file, CREATE, WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+      PortableFormatWriter writer = PortableFormatWriter.patchingHeader(channel);
+      write(bitmap, writer);
+      start = writer.getStartPosition();
+      assertEquals(channel.size(), channel.position());
+    }
+    try (FileChannel channel = FileChannel.open(file, READ)) {
+      ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, channel.size() - start);
+      RoaringBitmap read = new RoaringBitmap();
+      read.deserialize(mapped);
+      assertEquals(bitmap, read);
+    }
+  }
+
+  @ParameterizedTest(name = "maxKeys={0}")
+  @ValueSource(ints = {0, 2, 4, 5, 50})
+  public void testFooter(int maxKeys) throws IOException {
+    RoaringBitmap bitmap = maxKeys == 0 ? new RoaringBitmap()
+        : SeededTestData.randomBitmap(maxKeys);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    write(bitmap, PortableFormatWriter.withFooter(bytes));
+    byte[] written = bytes.toByteArray();
+    assertEquals(serialize(runOptimized(bitmap)).length + 4, written.length);
+    assertEquals(bitmap, PortableFormatWriter.deserializeWithFooter(ByteBuffer.wrap(written)));
+    ByteBuffer direct = ByteBuffer.allocateDirect(written.length + 2);
+    direct.position(2);
+    direct.put(written).position(2);
+    assertEquals(bitmap, PortableFormatWriter.deserializeWithFooter(direct));
+    assertEquals(2, direct.position());
+  }
+
+  @Test
+  public void testRangesAndValues() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (PortableFormatWriter writer = PortableFormatWriter.withFooter(bytes)) {
+      writer.add(5);
+      writer.add(10, 20);
+      writer.add(3);
+      writer.add(65530L, 3 * 65536 + 7);
+      writer.addMany(3 * 65536 + 100, 3 * 65536 + 50, 10 << 16);
+      writer.add((1L << 32) - 10, 1L << 32);
+    }
+    RoaringBitmap expected = RoaringBitmap.bitmapOf(5, 3, 3 * 65536 + 100, 3 * 65536 + 50,
+        10 << 16);
+    expected.add(10L, 20L);
+    expected.add(65530L, 3 * 65536 + 7);
+    expected.add((1L << 32) - 10, 1L << 32);
+    assertEquals(expected,
+        PortableFormatWriter.deserializeWithFooter(ByteBuffer.wrap(bytes.toByteArray())));
+  }
+
+  @Test
+  public void testInvalidUse() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (PortableFormatWriter writer = PortableFormatWriter.withFooter(bytes)) {
+      writer.add(2 << 16);
+      assertThrows(IllegalArgumentException.class, () -> writer.add(1 << 16));
+      assertThrows(IllegalArgumentException.class, () -> writer.add(0L, 10L));
+    }
+    try (FileChannel channel = FileChannel.open(dir.resolve("small"), CREATE, WRITE)) {
+      PortableFormatWriter writer = PortableFormatWriter.patchingHeader(channel, 1);
+      writer.addMany(0, 1 << 16);
+      assertThrows(IllegalStateException.class, writer::getStartPosition);
+      assertThrows(IllegalStateException.class, () -> writer.add(2 << 16));
+    }
+    byte[] written = bytes.toByteArray();
+    assertThrows(InvalidRoaringFormat.class, () -> PortableFormatWriter.deserializeWithFooter(
+        ByteBuffer.wrap(Arrays.copyOf(written, written.length - 1))));
+  }
+
+  @Test
+  public void testAddAfterClose() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PortableFormatWriter writer = PortableFormatWriter.withFooter(bytes);
+    writer.add(1 << 16);
+    writer.close();
+    // values under the last key, which would otherwise be dropped silently
+    assertThrows(IllegalStateException.class, () -> writer.add((1 << 16) + 1));
+    assertThrows(IllegalStateException.class, () -> writer.addMany((1 << 16) + 2));
+    assertThrows(IllegalStateException.class, () -> writer.add((1L << 16) + 3, (1L << 16) + 9));
+    assertThrows(IllegalStateException.class, () -> writer.add(2 << 16));
+    assertThrows(IllegalStateException.class, () -> writer.add(5L, 5L));
+    writer.close();
+    assertEquals(RoaringBitmap.bitmapOf(1 << 16),
+        PortableFormatWriter.deserializeWithFooter(ByteBuffer.wrap(bytes.toByteArray())));
+  }
+
+  @Test
+  public void testCorruptedFooterOffsets() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (PortableFormatWriter writer = PortableFormatWriter.withFooter(bytes)) {
+      for (int key = 0; key < 5; ++key) {
+        writer.add(key << 16);
+      }
+    }
+    byte[] written = bytes.toByteArray();
+    // 5 array containers of one value, then the cookie, the size, the keys and cardinalities
+    int offsets = 5 * 2 + 4 + 4 + 5 * 4;
+    for (int offset : new int[] {-1, 0, 2, 1 << 20, Integer.MAX_VALUE}) {
+      byte[] corrupted = written.clone();
+      ByteBuffer.wrap(corrupted).order(LITTLE_ENDIAN).putInt(offsets + 4 * 3, offset);
+      assertThrows(InvalidRoaringFormat.class,
+          () -> PortableFormatWriter.deserializeWithFooter(ByteBuffer.wrap(corrupted)));
+    }
+  }
+}
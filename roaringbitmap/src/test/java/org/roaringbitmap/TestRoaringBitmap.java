@@ -5587,4 +5587,138 @@ public class TestRoaringBitmap {
         RoaringBitmap r = RoaringBitmap.bitmapOfRange(1, 100);
         assertEquals(1, r.getContainerCount());
     }
+
+    @Test
+    public void testLazyOperations() {
+        Random random = new Random(42);
+        RoaringBitmap[] bitmaps = new RoaringBitmap[5];
+        for (int k = 0; k < bitmaps.length; ++k) {
+            bitmaps[k] = new RoaringBitmap();
+            // dense, sparse and run containers
+            for (int i = 0; i < 200000 / (k + 1); ++i) {
+                bitmaps[k].add(random.nextInt(1 << 20));
+            }
+            bitmaps[k].add(k * 70000L, k * 70000L + 100000);
+            bitmaps[k].runOptimize();
+        }
+        RoaringBitmap expected = RoaringBitmap.or(RoaringBitmap.and(bitmaps[0], bitmaps[1]),
+            RoaringBitmap.xor(bitmaps[2], bitmaps[3]));
+        expected.andNot(bitmaps[4]);
+        RoaringBitmap left = bitmaps[0].clone();
+        left.lazyAnd(bitmaps[1]);
+        RoaringBitmap right = bitmaps[2].clone();
+        right.lazyXor(bitmaps[3]);
+        // the intermediate results are used without being repaired
+        left.lazyOr(right);
+        left.lazyAndNot(bitmaps[4]);
+        assertEquals(expected.getCardinality(), left.getCardinality());
+        left.repairAfterLazy();
+        assertEquals(expected, left);
+        for (int k = 0; k < bitmaps.length; ++k) {
+            assertNotEquals(0, bitmaps[k].getCardinality());
+        }
+    }
+
+    @Test
+    public void testLazyOperationsRemoveEmptyContainers() {
+        RoaringBitmap even = new RoaringBitmap();
+        RoaringBitmap odd = new RoaringBitmap();
+        for (int i = 0; i < 1 << 18; i += 2) {
+            even.add(i);
+            odd.add(i + 1);
+        }
+        RoaringBitmap lazy = even.clone();
+        lazy.lazyAnd(odd);
+        lazy.repairAfterLazy();
+        assertTrue(lazy.isEmpty());
+        assertEquals(0, lazy.getContainerCount());
+        lazy = even.clone();
+        lazy.lazyXor(even.clone());
+        lazy.repairAfterLazy();
+        assertTrue(lazy.isEmpty());
+    }
+
+    @Test
+    public void testPointUpdatesBeforeRepairAfterLazy() {
+        RoaringBitmap x = new RoaringBitmap();
+        RoaringBitmap y = new RoaringBitmap();
+        for (int i = 0; i < 20000; i += 3) {
+            x.add(i);
+            y.add(i + 1);
+        }
+        RoaringBitmap expected = RoaringBitmap.or(x, y);
+        expected.add(30001);
+        expected.add(30002);
+        expected.remove(4);
+        expected.remove(5);
+        expected.flip(7);
+        expected.flip(8);
+        RoaringBitmap lazy = x.clone();
+        lazy.lazyOr(y);
+        lazy.add(30001);
+        lazy.add(30002);
+        lazy.add(30002);
+        lazy.remove(4);
+        lazy.remove(5);
+        lazy.flip(7);
+        lazy.flip(8);
+        lazy.repairAfterLazy();
+        assertEquals(expected.getCardinality(), lazy.getCardinality());
+        assertEquals(expected, lazy);
+    }
+
+    private static String containerTypes(RoaringBitmap bitmap) {
+        StringBuilder types = new StringBuilder();
+        ContainerPointer cp = bitmap.getContainerPointer();
+        while (cp.getContainer() != null) {
+            types.append(cp.isRunContainer() ? 'R' : cp.isBitmapContainer() ? 'B' : 'A');
+            cp.advance();
+        }
+        return types.toString();
+    }
+
+    @Test
+    public void testRunOptimizeWithPolicy() {
+        // a bitmap container with 2 runs, an array container with 1 run and a sparse array
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int i = 0; i < 50000; ++i) {
+            if (i < 20000 || i >= 30000) {
+                bitmap.add(i);
+            }
+        }
+        for (int i = 0; i < 1000; ++i) {
+            bitmap.add((1 << 16) + i);
+        }
+        for (int i = 0; i < 100; ++i) {
+            bitmap.add((2 << 16) + 7 * i);
+        }
+        assertEquals("BAA", containerTypes(bitmap));
+
+        RoaringBitmap smallest = bitmap.clone();
+        assertTrue(smallest.runOptimize(ContainerOptimizationPolicy.SMALLEST));
+        RoaringBitmap expected = bitmap.clone();
+        expected.runOptimize();
+        assertEquals(containerTypes(expected), containerTypes(smallest));
+        assertEquals("RRA", containerTypes(smallest));
+        assertEquals(bitmap, smallest);
+
+        // the first container stays a bitmap for fast lookups
+        RoaringBitmap hot = bitmap.clone();
+        assertTrue(hot.runOptimize((key, cardinality, runs) -> key != 0
+            && ContainerOptimizationPolicy.SMALLEST.useRunContainer(key, cardinality, runs)));
+        assertEquals("BRA", containerTypes(hot));
+        assertEquals(bitmap, hot);
+
+        // run containers are converted back when the policy no longer wants them
+        assertFalse(smallest.runOptimize(ContainerOptimizationPolicy.sizeRatio(1000)));
+        assertEquals("BAA", containerTypes(smallest));
+        assertEquals(bitmap, smallest);
+
+        RoaringBitmap trimmed = bitmap.clone();
+        trimmed.trim(ContainerOptimizationPolicy.sizeRatio(500));
+        assertEquals("RAA", containerTypes(trimmed));
+        assertEquals(bitmap, trimmed);
+        assertThrows(IllegalArgumentException.class,
+            () -> ContainerOptimizationPolicy.sizeRatio(0.5));
+    }
 }
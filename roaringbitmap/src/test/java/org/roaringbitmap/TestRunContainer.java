@@ -3220,7 +3220,7 @@ public class TestRunContainer {
     Container rc = Container.rangeOfOnes(0, 1 << 15);
     BitmapContainer bc2 = new BitmapContainer(3210, 1 << 16);
     Container rbc = rc.lazyOR(bc2);
-    assertEquals(-1, rbc.getCardinality());
+    assertEquals(-1, ((BitmapContainer) rbc).cardinality);
     Container repaired = rbc.repairAfterLazy();
     assertEquals(1 << 16, repaired.getCardinality());
     assertTrue(repaired instanceof RunContainer);
@@ -3994,6 +3994,70 @@ public class TestRunContainer {
     assertEquals(rc.getCardinality(), bitmapContainer.getCardinality());
   }
 
+  @Test
+  public void testSkewedIntersections() {
+    Random r = new Random(2468);
+    // many short runs against a handful of values or runs, so that the intersections gallop
+    RunContainer many = new RunContainer();
+    for (int start = 3; start < 65000; start += 16) {
+      many = (RunContainer) many.iadd(start, start + 1 + r.nextInt(6));
+    }
+    for (int trial = 0; trial < 50; ++trial) {
+      ArrayContainer fewValues = new ArrayContainer();
+      RunContainer fewRuns = new RunContainer();
+      for (int i = 0; i < 1 + r.nextInt(40); ++i) {
+        int start = r.nextInt(65000);
+        fewValues = (ArrayContainer) fewValues.add((char) start);
+        fewRuns = (RunContainer) fewRuns.iadd(start, start + 1 + r.nextInt(20));
+      }
+      if (trial == 0) {
+        fewValues = (ArrayContainer) fewValues.add((char) 65535);
+        fewRuns = (RunContainer) fewRuns.iadd(65530, 65536);
+      }
+      for (Container few : new Container[] {fewValues, fewRuns}) {
+        Container expected = many.toBitmapContainer().and(few.toBitmapContainer());
+        assertEquals(expected, many.and(few));
+        assertEquals(expected, few.and(many));
+        assertEquals(expected.getCardinality(), many.andCardinality(few));
+        assertEquals(expected.getCardinality(), few.andCardinality(many));
+        assertEquals(!expected.isEmpty(), many.intersects(few));
+        assertEquals(!expected.isEmpty(), few.intersects(many));
+      }
+    }
+  }
+
+  @Test
+  public void testFullContainerShortcuts() {
+    RunContainer full = RunContainer.full();
+    Container bitmap = new BitmapContainer();
+    for (int i = 0; i < 65536; i += 3) {
+      bitmap = bitmap.add((char) i);
+    }
+    Container[] others = {
+        new ArrayContainer(),
+        new ArrayContainer(1000, 1010),
+        bitmap,
+        new RunContainer(100, 60000).add((char) 65535),
+        RunContainer.full()
+    };
+    for (Container other : others) {
+      Container copy = other.clone();
+      assertEquals(other, full.and(other));
+      assertEquals(other, other.and(full));
+      assertEquals(other.getCardinality(), full.andCardinality(other));
+      assertEquals(other.getCardinality(), other.andCardinality(full));
+      assertEquals(!other.isEmpty(), full.intersects(other));
+      assertEquals(!other.isEmpty(), other.intersects(full));
+      assertTrue(other.andNot(full).isEmpty());
+      assertEquals(other.not(0, 1 << 16), full.andNot(other));
+      // the results do not share storage with the operands
+      full.and(other).iadd(0, 1 << 16);
+      other.and(full).iremove(0, 1 << 16);
+      assertEquals(copy, other);
+      assertTrue(full.isFull());
+    }
+  }
+
   private static int lower16Bits(int x) {
     return ((char)x) & 0xFFFF;
   }
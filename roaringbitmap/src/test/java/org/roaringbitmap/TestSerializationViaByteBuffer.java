@@ -3,12 +3,14 @@ package org.roaringbitmap;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.api.parallel.Execution;
 import org.junit.jupiter.api.parallel.ExecutionMode;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -16,11 +18,13 @@ import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
 import static java.nio.file.Files.delete;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @Execution(ExecutionMode.CONCURRENT)
 public class TestSerializationViaByteBuffer {
@@ -206,6 +210,51 @@ public class TestSerializationViaByteBuffer {
     assertEquals(input, roundtrip);
   }
 
+  @ParameterizedTest(name = "{1}/{0} keys/runOptimise={2}")
+  @MethodSource("params")
+  public void testParallelDeserializeFromHeap(int keys, ByteOrder order, boolean runOptimise) throws IOException {
+    RoaringBitmap input = SeededTestData.randomBitmap(keys);
+    byte[] serialised = serialise(input, runOptimise);
+    ByteBuffer buffer = ByteBuffer.wrap(serialised).order(order);
+    RoaringBitmap deserialised = new RoaringBitmap();
+    deserialised.deserialize(buffer, ForkJoinPool.commonPool());
+    assertEquals(input, deserialised);
+    assertEquals(0, buffer.position());
+  }
+
+  @ParameterizedTest(name = "runOptimise={0}")
+  @ValueSource(booleans = {true, false})
+  public void testParallelDeserializeLargeBitmap(boolean runOptimise) throws IOException {
+    RoaringBitmap input = SeededTestData.randomBitmap(1024, 0.3, 0.6);
+    byte[] serialised = serialise(input, runOptimise);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(10 + serialised.length);
+    buffer.position(10);
+    buffer.put(serialised);
+    buffer.position(10);
+    RoaringBitmap deserialised = new RoaringBitmap();
+    deserialised.deserialize(buffer, ForkJoinPool.commonPool());
+    assertEquals(input, deserialised);
+    RoaringBitmap sameThread = new RoaringBitmap();
+    sameThread.deserialize(buffer, Runnable::run);
+    assertEquals(input, sameThread);
+    assertEquals(10, buffer.position());
+  }
+
+  @Test
+  public void testParallelDeserializeCorruptedOffset() throws IOException {
+    // bitmap containers only, so that the header has no run markers
+    RoaringBitmap input = new RoaringBitmap();
+    for (int x = 0; x < 256 << 16; x += 8) {
+      input.add(x);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(serialise(input, false)).order(ByteOrder.LITTLE_ENDIAN);
+    // the offset of the second container follows the cookie, the size, the keys and cardinalities
+    int offset = 8 + 4 * input.getContainerCount() + 4;
+    buffer.putInt(offset, buffer.getInt(offset) + 2);
+    assertThrows(IOException.class,
+        () -> new RoaringBitmap().deserialize(buffer, ForkJoinPool.commonPool()));
+  }
+
   private static byte[] serialise(RoaringBitmap input, boolean runOptimise) throws IOException {
     if (runOptimise) {
       input.runOptimize();
@@ -0,0 +1,109 @@
+package org.roaringbitmap.buffer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.roaringbitmap.BitmapExpression;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.SeededTestData;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+public class TestBufferBitmapExpression {
+
+  // the same expression over heap and over immutable bitmaps
+  private static final class Pair {
+    final BitmapExpression heap;
+    final BufferBitmapExpression buffer;
+
+    Pair(BitmapExpression heap, BufferBitmapExpression buffer) {
+      this.heap = heap;
+      this.buffer = buffer;
+    }
+  }
+
+  private static ImmutableRoaringBitmap mapped(RoaringBitmap bitmap) throws IOException {
+    MutableRoaringBitmap mutable = bitmap.toMutableRoaringBitmap();
+    ByteBuffer buffer = ByteBuffer.allocate(mutable.serializedSizeInBytes());
+    mutable.serialize(new DataOutputStream(new ByteBufferBackedOutputStream(buffer)));
+    buffer.flip();
+    return new ImmutableRoaringBitmap(buffer);
+  }
+
+  private static Pair randomPair(Random random, RoaringBitmap[] bitmaps,
+      ImmutableRoaringBitmap[] immutables, int depth) {
+    int operation = depth == 0 ? 0 : random.nextInt(5);
+    switch (operation) {
+      case 0: {
+        int i = random.nextInt(bitmaps.length);
+        return new Pair(BitmapExpression.of(bitmaps[i]), BufferBitmapExpression.of(immutables[i]));
+      }
+      case 1:
+      case 2: {
+        int count = 1 + random.nextInt(4);
+        BitmapExpression[] heap = new BitmapExpression[count];
+        BufferBitmapExpression[] buffer = new BufferBitmapExpression[count];
+        for (int i = 0; i < count; ++i) {
+          Pair operand = randomPair(random, bitmaps, immutables, depth - 1);
+          heap[i] = operand.heap;
+          buffer[i] = operand.buffer;
+        }
+        return operation == 1
+            ? new Pair(BitmapExpression.and(heap), BufferBitmapExpression.and(buffer))
+            : new Pair(BitmapExpression.or(heap), BufferBitmapExpression.or(buffer));
+      }
+      case 3: {
+        Pair minuend = randomPair(random, bitmaps, immutables, depth - 1);
+        Pair subtrahend = randomPair(random, bitmaps, immutables, depth - 1);
+        return new Pair(BitmapExpression.andNot(minuend.heap, subtrahend.heap),
+            BufferBitmapExpression.andNot(minuend.buffer, subtrahend.buffer));
+      }
+      default: {
+        Pair operand = randomPair(random, bitmaps, immutables, depth - 1);
+        long start = random.nextInt(10 << 16);
+        long end = start + random.nextInt(3 << 16);
+        return new Pair(BitmapExpression.flip(operand.heap, start, end),
+            BufferBitmapExpression.flip(operand.buffer, start, end));
+      }
+    }
+  }
+
+  @Test
+  public void testRandomExpressions() throws IOException {
+    Random random = new Random(4321);
+    RoaringBitmap[] bitmaps = new RoaringBitmap[6];
+    ImmutableRoaringBitmap[] immutables = new ImmutableRoaringBitmap[bitmaps.length];
+    for (int i = 0; i < bitmaps.length; ++i) {
+      bitmaps[i] = SeededTestData.randomBitmap(10);
+      immutables[i] = i % 2 == 0 ? mapped(bitmaps[i]) : bitmaps[i].toMutableRoaringBitmap();
+    }
+    for (int i = 0; i < 200; ++i) {
+      Pair pair = randomPair(random, bitmaps, immutables, 1 + random.nextInt(4));
+      assertEquals(pair.heap.evaluate().toMutableRoaringBitmap(), pair.buffer.evaluate());
+    }
+    // evaluation never writes to the containers of the operands
+    for (int i = 0; i < bitmaps.length; ++i) {
+      assertEquals(bitmaps[i].toMutableRoaringBitmap(), immutables[i]);
+    }
+  }
+
+  @Test
+  public void testEdgeCases() {
+    assertThrows(IllegalArgumentException.class, BufferBitmapExpression::and);
+    assertThrows(IllegalArgumentException.class,
+        () -> BufferBitmapExpression.flip(BufferBitmapExpression.or(), 0, (1L << 32) + 1));
+    assertEquals(new MutableRoaringBitmap(), BufferBitmapExpression.or().evaluate());
+    MutableRoaringBitmap bitmap = MutableRoaringBitmap.bitmapOf(7, 1 << 17);
+    MutableRoaringBitmap result = BufferBitmapExpression.of(bitmap).evaluate();
+    result.add(8);
+    assertEquals(MutableRoaringBitmap.bitmapOf(7, 1 << 17), bitmap);
+    assertEquals(MutableRoaringBitmap.bitmapOf(0, 1, 2, 3, 4, 5, 6, 8, 9, 1 << 17),
+        BufferBitmapExpression.flip(BufferBitmapExpression.of(bitmap), 0, 10).evaluate());
+  }
+}
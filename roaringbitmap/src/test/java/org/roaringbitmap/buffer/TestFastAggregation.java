@@ -7,6 +7,8 @@ import org.junit.jupiter.api.parallel.ExecutionMode;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
@@ -15,10 +17,14 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.roaringbitmap.SeededTestData.TestDataSet.testCase;
 
 @Execution(ExecutionMode.CONCURRENT)
@@ -298,4 +304,170 @@ public class TestFastAggregation {
       assertEquals(or.getCardinality(), andCardinality);
     }
   }
+
+  private static void assertXorAndNotCardinalities(ImmutableRoaringBitmap[] bitmaps) {
+    long[] buffer = new long[1024];
+    int xor = BufferFastAggregation.xor(bitmaps).getCardinality();
+    assertEquals(xor, BufferFastAggregation.xorCardinality(bitmaps));
+    assertEquals(xor, BufferFastAggregation.xorCardinality(buffer, bitmaps));
+    if (bitmaps.length > 0) {
+      ImmutableRoaringBitmap[] subtrahends = Arrays.copyOfRange(bitmaps, 1, bitmaps.length);
+      int andNot = ImmutableRoaringBitmap.andNot(bitmaps[0], BufferFastAggregation.or(subtrahends))
+          .getCardinality();
+      assertEquals(andNot, BufferFastAggregation.andNotCardinality(bitmaps[0], subtrahends));
+      assertEquals(andNot,
+          BufferFastAggregation.andNotCardinality(buffer, bitmaps[0], subtrahends));
+    }
+  }
+
+  @MethodSource("bitmaps")
+  @ParameterizedTest(name = "testXorAndNotCardinality")
+  public void testXorAndNotCardinality(List<ImmutableRoaringBitmap> list) {
+    ImmutableRoaringBitmap[] bitmaps = list.toArray(new ImmutableRoaringBitmap[0]);
+    for (int length = 0; length <= bitmaps.length; length++) {
+      assertXorAndNotCardinalities(Arrays.copyOf(bitmaps, length));
+    }
+  }
+
+  @Test
+  public void testXorAndNotCardinalityMixedContainers() {
+    Random random = new Random(86420);
+    for (int trial = 0; trial < 50; ++trial) {
+      RoaringBitmap[] heap =
+          org.roaringbitmap.TestFastAggregation.mixedContainers(random, 1 + random.nextInt(12));
+      ImmutableRoaringBitmap[] bitmaps = new ImmutableRoaringBitmap[heap.length];
+      for (int i = 0; i < heap.length; ++i) {
+        MutableRoaringBitmap bitmap = heap[i].toMutableRoaringBitmap();
+        bitmaps[i] = i % 2 == 0 ? bitmap : toDirect(bitmap);
+      }
+      assertXorAndNotCardinalities(bitmaps);
+    }
+  }
+
+  @Test
+  public void testPredicatesMixedContainers() {
+    Random random = new Random(11235);
+    for (int trial = 0; trial < 100; ++trial) {
+      RoaringBitmap[] heap =
+          org.roaringbitmap.TestFastAggregation.mixedContainers(random, 1 + random.nextInt(12));
+      if (trial % 2 == 1) {
+        // sparse bitmaps, so that some have no value in common
+        for (RoaringBitmap bitmap : heap) {
+          bitmap.and(RoaringBitmap.bitmapOf(random.ints(64, 0, 8 << 16).toArray()));
+        }
+      }
+      ImmutableRoaringBitmap[] bitmaps = new ImmutableRoaringBitmap[heap.length];
+      for (int i = 0; i < heap.length; ++i) {
+        MutableRoaringBitmap bitmap = heap[i].toMutableRoaringBitmap();
+        bitmaps[i] = i % 2 == 0 ? bitmap : toDirect(bitmap);
+      }
+      RoaringBitmap[] others = Arrays.copyOfRange(heap, 1, heap.length);
+      ImmutableRoaringBitmap[] bufferOthers = Arrays.copyOfRange(bitmaps, 1, bitmaps.length);
+      assertEquals(FastAggregation.intersects(heap), BufferFastAggregation.intersects(bitmaps));
+      assertEquals(FastAggregation.containsAny(heap[0], others),
+          BufferFastAggregation.containsAny(bitmaps[0], bufferOthers));
+      assertEquals(FastAggregation.containsAll(heap[0], others),
+          BufferFastAggregation.containsAll(bitmaps[0], bufferOthers));
+      MutableRoaringBitmap subset =
+          ImmutableRoaringBitmap.and(bitmaps[0], BufferFastAggregation.or(bufferOthers));
+      assertTrue(BufferFastAggregation.containsAll(subset, bufferOthers));
+    }
+  }
+
+  private static MutableRoaringBitmap collect(Consumer<MappeableContainerConsumer> aggregation) {
+    MutableRoaringBitmap result = new MutableRoaringBitmap();
+    MutableRoaringArray array = result.getMappeableRoaringArray();
+    aggregation.accept((key, container) -> {
+      assertFalse(container.isEmpty());
+      assertTrue(array.size == 0 || array.keys[array.size - 1] < key);
+      array.append(key, container.clone());
+    });
+    return result;
+  }
+
+  private static void assertStreamingAggregations(ImmutableRoaringBitmap[] bitmaps) {
+    assertEquals(BufferFastAggregation.or(bitmaps),
+        collect(consumer -> BufferFastAggregation.or(consumer, bitmaps)));
+    assertEquals(BufferFastAggregation.xor(bitmaps),
+        collect(consumer -> BufferFastAggregation.xor(consumer, bitmaps)));
+    if (bitmaps.length > 0) {
+      ImmutableRoaringBitmap[] subtrahends = Arrays.copyOfRange(bitmaps, 1, bitmaps.length);
+      assertEquals(BufferFastAggregation.naive_and(bitmaps),
+          collect(consumer -> BufferFastAggregation.and(consumer, bitmaps)));
+      assertEquals(ImmutableRoaringBitmap.andNot(bitmaps[0], BufferFastAggregation.or(subtrahends)),
+          collect(consumer -> BufferFastAggregation.andNot(consumer, bitmaps[0], subtrahends)));
+    }
+  }
+
+  @MethodSource("bitmaps")
+  @ParameterizedTest(name = "testStreamingAggregations")
+  public void testStreamingAggregations(List<ImmutableRoaringBitmap> list) {
+    ImmutableRoaringBitmap[] bitmaps = list.toArray(new ImmutableRoaringBitmap[0]);
+    for (int length = 0; length <= bitmaps.length; length++) {
+      assertStreamingAggregations(Arrays.copyOf(bitmaps, length));
+    }
+  }
+
+  @Test
+  public void testStreamingAggregationsMixedContainers() {
+    Random random = new Random(24680);
+    for (int trial = 0; trial < 50; ++trial) {
+      RoaringBitmap[] heap =
+          org.roaringbitmap.TestFastAggregation.mixedContainers(random, 1 + random.nextInt(12));
+      ImmutableRoaringBitmap[] bitmaps = new ImmutableRoaringBitmap[heap.length];
+      for (int i = 0; i < heap.length; ++i) {
+        MutableRoaringBitmap bitmap = heap[i].toMutableRoaringBitmap();
+        bitmaps[i] = i % 2 == 0 ? bitmap : toDirect(bitmap);
+      }
+      assertStreamingAggregations(bitmaps);
+    }
+  }
+
+  @Test
+  public void testAndMixedContainers() {
+    Random random = new Random(97531);
+    long[] buffer = new long[1024];
+    for (int trial = 0; trial < 100; ++trial) {
+      RoaringBitmap[] heap =
+          org.roaringbitmap.TestFastAggregation.mixedContainers(random, 2 + random.nextInt(12));
+      ImmutableRoaringBitmap[] bitmaps = new ImmutableRoaringBitmap[heap.length];
+      for (int i = 0; i < heap.length; ++i) {
+        MutableRoaringBitmap bitmap = heap[i].toMutableRoaringBitmap();
+        bitmaps[i] = i % 2 == 0 ? bitmap : toDirect(bitmap);
+      }
+      MutableRoaringBitmap expected = BufferFastAggregation.naive_and(bitmaps);
+      Arrays.fill(buffer, 0L);
+      assertEquals(expected, BufferFastAggregation.workShyAnd(buffer, bitmaps));
+      Arrays.fill(buffer, 0L);
+      assertEquals(expected,
+          BufferFastAggregation.workShyAnd(buffer, Arrays.asList(bitmaps).iterator()));
+      Arrays.fill(buffer, 0L);
+      assertEquals(expected, BufferFastAggregation.workAndMemoryShyAnd(buffer, bitmaps));
+      assertEquals(expected, BufferFastAggregation.and(bitmaps));
+      assertEquals(expected.getCardinality(), BufferFastAggregation.andCardinality(bitmaps));
+    }
+  }
+  @Test
+  public void testThresholdMixedContainers() {
+    Random random = new Random(13579);
+    for (int trial = 0; trial < 20; ++trial) {
+      RoaringBitmap[] heap =
+          org.roaringbitmap.TestFastAggregation.mixedContainers(random, 1 + random.nextInt(20));
+      ImmutableRoaringBitmap[] bitmaps = new ImmutableRoaringBitmap[heap.length];
+      for (int i = 0; i < heap.length; ++i) {
+        MutableRoaringBitmap bitmap = heap[i].toMutableRoaringBitmap();
+        bitmaps[i] = i % 2 == 0 ? bitmap : toDirect(bitmap);
+      }
+      for (int threshold = 1; threshold <= bitmaps.length + 1; ++threshold) {
+        int t = threshold;
+        MutableRoaringBitmap expected = FastAggregation.threshold(t, heap).toMutableRoaringBitmap();
+        assertEquals(expected, BufferFastAggregation.threshold(t, bitmaps));
+        assertEquals(expected.getCardinality(),
+            BufferFastAggregation.thresholdCardinality(t, bitmaps));
+        assertEquals(expected,
+            collect(consumer -> BufferFastAggregation.threshold(consumer, t, bitmaps)));
+      }
+    }
+    assertThrows(IllegalArgumentException.class, () -> BufferFastAggregation.threshold(0));
+  }
 }
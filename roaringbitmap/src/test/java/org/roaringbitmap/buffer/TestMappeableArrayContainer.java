@@ -727,6 +727,22 @@ public class TestMappeableArrayContainer {
     assertEquals(-1L, bits[0]);
   }
 
+  @Test
+  public void testSingletonShortcuts() {
+    MappeableArrayContainer singleton =
+        (MappeableArrayContainer) new MappeableArrayContainer().add((char) 1000);
+    MappeableArrayContainer containing = new MappeableArrayContainer(0, 4000);
+    MappeableArrayContainer notContaining = new MappeableArrayContainer(2000, 5000);
+    assertTrue(singleton.andNot(containing).isEmpty());
+    assertEquals(singleton, singleton.andNot(notContaining));
+    assertNotSame(singleton, singleton.andNot(notContaining));
+    assertTrue(singleton.intersects(containing));
+    assertTrue(containing.intersects(singleton));
+    assertFalse(singleton.intersects(notContaining));
+    assertFalse(notContaining.intersects(singleton));
+    assertEquals(3999, containing.andNot(singleton).getCardinality());
+  }
+
   private static int lower16Bits(int x) {
     return ((char)x);
   }
@@ -13,6 +13,7 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.LongBuffer;
 import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.roaringbitmap.buffer.MappeableBitmapContainer.MAX_CAPACITY;
@@ -330,4 +331,68 @@ public class TestMappeableRunContainer {
     container.orInto(bits);
     assertEquals(-1L, bits[0]);
   }
+
+  @Test
+  public void testFullContainerShortcuts() {
+    MappeableRunContainer full = MappeableRunContainer.full();
+    MappeableContainer bitmap = new MappeableBitmapContainer();
+    for (int i = 0; i < 65536; i += 3) {
+      bitmap = bitmap.add((char) i);
+    }
+    MappeableContainer[] others = {
+        new MappeableArrayContainer(),
+        new MappeableArrayContainer(1000, 1010),
+        bitmap,
+        new MappeableRunContainer(100, 60000).add((char) 65535),
+        MappeableRunContainer.full()
+    };
+    for (MappeableContainer other : others) {
+      MappeableContainer copy = other.clone();
+      assertEquals(other, full.and(other));
+      assertEquals(other, other.and(full));
+      assertEquals(other.getCardinality(), full.andCardinality(other));
+      assertEquals(other.getCardinality(), other.andCardinality(full));
+      assertEquals(!other.isEmpty(), full.intersects(other));
+      assertEquals(!other.isEmpty(), other.intersects(full));
+      assertTrue(other.andNot(full).isEmpty());
+      assertEquals(other.not(0, 1 << 16), full.andNot(other));
+      // the results do not share storage with the operands
+      full.and(other).iadd(0, 1 << 16);
+      other.and(full).iremove(0, 1 << 16);
+      assertEquals(copy, other);
+      assertTrue(full.isFull());
+    }
+  }
+
+  @Test
+  public void testSkewedIntersections() {
+    Random r = new Random(2468);
+    // many short runs against a handful of values or runs, so that the intersections gallop
+    MappeableRunContainer many = new MappeableRunContainer();
+    for (int start = 3; start < 65000; start += 16) {
+      many = (MappeableRunContainer) many.iadd(start, start + 1 + r.nextInt(6));
+    }
+    for (int trial = 0; trial < 50; ++trial) {
+      MappeableArrayContainer fewValues = new MappeableArrayContainer();
+      MappeableRunContainer fewRuns = new MappeableRunContainer();
+      for (int i = 0; i < 1 + r.nextInt(40); ++i) {
+        int start = r.nextInt(65000);
+        fewValues = (MappeableArrayContainer) fewValues.add((char) start);
+        fewRuns = (MappeableRunContainer) fewRuns.iadd(start, start + 1 + r.nextInt(20));
+      }
+      if (trial == 0) {
+        fewValues = (MappeableArrayContainer) fewValues.add((char) 65535);
+        fewRuns = (MappeableRunContainer) fewRuns.iadd(65530, 65536);
+      }
+      for (MappeableContainer few : new MappeableContainer[] {fewValues, fewRuns}) {
+        MappeableContainer expected = many.toBitmapContainer().and(few.toBitmapContainer());
+        assertEquals(expected, many.and(few));
+        assertEquals(expected, few.and(many));
+        assertEquals(expected.getCardinality(), many.andCardinality(few));
+        assertEquals(expected.getCardinality(), few.andCardinality(many));
+        assertEquals(!expected.isEmpty(), many.intersects(few));
+        assertEquals(!expected.isEmpty(), few.intersects(many));
+      }
+    }
+  }
 }
@@ -0,0 +1,153 @@
+package org.roaringbitmap.buffer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.roaringbitmap.InvalidRoaringFormat;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+public class TestRoaringArchive {
+
+  private static MutableRoaringBitmap[] bitmaps(SplittableRandom random, int count) {
+    MutableRoaringBitmap[] bitmaps = new MutableRoaringBitmap[count];
+    for (int i = 0; i < count; ++i) {
+      MutableRoaringBitmap bitmap = new MutableRoaringBitmap();
+      int cardinality = random.nextInt(20000);
+      for (int j = 0; j < cardinality; ++j) {
+        bitmap.add(random.nextInt(1 << 20));
+      }
+      if (random.nextBoolean()) {
+        bitmap.add(random.nextInt(1 << 20), 1L << 20);
+        bitmap.runOptimize();
+      }
+      bitmaps[i] = bitmap;
+    }
+    return bitmaps;
+  }
+
+  private static void write(Path path, long[] ids, MutableRoaringBitmap[] bitmaps)
+      throws IOException {
+    try (RoaringArchive.Writer writer = RoaringArchive.writer(path)) {
+      for (int i = 0; i < ids.length; ++i) {
+        writer.append(ids[i], bitmaps[i]);
+      }
+    }
+  }
+
+  private static void assertArchive(RoaringArchive archive, long[] ids,
+      MutableRoaringBitmap[] bitmaps) {
+    assertEquals(ids.length, archive.size());
+    for (int i = 0; i < ids.length; ++i) {
+      assertEquals(ids[i], archive.getId(i));
+      assertTrue(archive.contains(ids[i]));
+      assertFalse(archive.contains(ids[i] + 1));
+      assertNull(archive.get(ids[i] - 1));
+      assertEquals(bitmaps[i], archive.get(ids[i]));
+      assertEquals(bitmaps[i], archive.getAt(i));
+    }
+  }
+
+  @Test
+  public void testWriteThenMap(@TempDir Path dir) throws IOException {
+    SplittableRandom random = new SplittableRandom(1234);
+    MutableRoaringBitmap[] bitmaps = bitmaps(random, 200);
+    long[] ids = new long[bitmaps.length];
+    for (int i = 0; i < ids.length; ++i) {
+      ids[i] = (i == 0 ? Long.MIN_VALUE / 2 : ids[i - 1]) + 2 + random.nextInt(1 << 30);
+    }
+    Path path = dir.resolve("archive");
+    write(path, ids, bitmaps);
+    assertArchive(RoaringArchive.open(path), ids, bitmaps);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      // as many regions as bitmaps, as if the bitmaps were about 2GB each
+      assertArchive(new RoaringArchive(channel, 1), ids, bitmaps);
+      assertArchive(new RoaringArchive(channel, 100_000), ids, bitmaps);
+    }
+  }
+
+  @Test
+  public void testHeapBitmapsAndEmptyArchive(@TempDir Path dir) throws IOException {
+    Path path = dir.resolve("archive");
+    try (RoaringArchive.Writer writer = RoaringArchive.writer(path)) {
+      writer.append(3, RoaringBitmap.bitmapOf(1, 2, 3));
+      writer.append(5, new RoaringBitmap());
+    }
+    RoaringArchive archive = RoaringArchive.open(path);
+    assertEquals(MutableRoaringBitmap.bitmapOf(1, 2, 3), archive.get(3));
+    assertTrue(archive.get(5).isEmpty());
+    assertNull(archive.get(4));
+    assertThrows(IndexOutOfBoundsException.class, () -> archive.getAt(2));
+
+    RoaringArchive.writer(path).close();
+    assertEquals(0, RoaringArchive.open(path).size());
+    assertNull(RoaringArchive.open(path).get(0));
+  }
+
+  @Test
+  public void testInvalidArchives(@TempDir Path dir) throws IOException {
+    Path path = dir.resolve("archive");
+    try (RoaringArchive.Writer writer = RoaringArchive.writer(path)) {
+      writer.append(3, MutableRoaringBitmap.bitmapOf(1));
+      assertThrows(IllegalArgumentException.class,
+          () -> writer.append(3, MutableRoaringBitmap.bitmapOf(2)));
+    }
+    Path bitmap = dir.resolve("bitmap");
+    Files.write(bitmap, new byte[] {1, 2, 3});
+    assertThrows(InvalidRoaringFormat.class, () -> RoaringArchive.open(bitmap));
+    Files.write(bitmap, new byte[64]);
+    assertThrows(InvalidRoaringFormat.class, () -> RoaringArchive.open(bitmap));
+  }
+
+  @Test
+  public void testCloseTwice(@TempDir Path dir) throws IOException {
+    Path path = dir.resolve("archive");
+    RoaringArchive.Writer writer = RoaringArchive.writer(path);
+    writer.append(3, MutableRoaringBitmap.bitmapOf(1));
+    writer.close();
+    writer.close();
+    assertThrows(IllegalStateException.class,
+        () -> writer.append(4, MutableRoaringBitmap.bitmapOf(2)));
+    assertEquals(MutableRoaringBitmap.bitmapOf(1), RoaringArchive.open(path).get(3));
+  }
+
+  @Test
+  public void testCorruptedOffsets(@TempDir Path dir) throws IOException {
+    Path path = dir.resolve("archive");
+    try (RoaringArchive.Writer writer = RoaringArchive.writer(path)) {
+      writer.append(3, MutableRoaringBitmap.bitmapOf(1));
+      writer.append(4, MutableRoaringBitmap.bitmapOf(2));
+    }
+    byte[] archive = Files.readAllBytes(path);
+    ByteBuffer header = ByteBuffer.wrap(archive).order(LITTLE_ENDIAN);
+    int directoryOffset = (int) header.getLong(16);
+    Path corrupted = dir.resolve("corrupted");
+    // the directory overlapping the header
+    Files.write(corrupted, patch(archive, 16, 8));
+    assertThrows(InvalidRoaringFormat.class, () -> RoaringArchive.open(corrupted));
+    // the second bitmap before the first
+    Files.write(corrupted, patch(archive, directoryOffset + 24, 0));
+    assertThrows(InvalidRoaringFormat.class, () -> RoaringArchive.open(corrupted));
+    // the second bitmap past the directory
+    Files.write(corrupted, patch(archive, directoryOffset + 24, archive.length));
+    assertThrows(InvalidRoaringFormat.class, () -> RoaringArchive.open(corrupted));
+  }
+
+  private static byte[] patch(byte[] archive, int position, long value) {
+    byte[] patched = archive.clone();
+    ByteBuffer.wrap(patched).order(LITTLE_ENDIAN).putLong(position, value);
+    return patched;
+  }
+}
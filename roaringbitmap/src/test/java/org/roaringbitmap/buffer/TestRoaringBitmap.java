@@ -4019,4 +4019,59 @@ public class TestRoaringBitmap {
             }
         }
     }
+
+    private static String containerTypes(MutableRoaringBitmap bitmap) {
+        StringBuilder types = new StringBuilder();
+        MappeableContainerPointer cp = bitmap.getContainerPointer();
+        while (cp.getContainer() != null) {
+            types.append(cp.isRunContainer() ? 'R' : cp.isBitmapContainer() ? 'B' : 'A');
+            cp.advance();
+        }
+        return types.toString();
+    }
+
+    @Test
+    public void testRunOptimizeWithPolicy() {
+        // a bitmap container with 2 runs, an array container with 1 run and a sparse array
+        MutableRoaringBitmap bitmap = new MutableRoaringBitmap();
+        for (int i = 0; i < 50000; ++i) {
+            if (i < 20000 || i >= 30000) {
+                bitmap.add(i);
+            }
+        }
+        for (int i = 0; i < 1000; ++i) {
+            bitmap.add((1 << 16) + i);
+        }
+        for (int i = 0; i < 100; ++i) {
+            bitmap.add((2 << 16) + 7 * i);
+        }
+        assertEquals("BAA", containerTypes(bitmap));
+
+        MutableRoaringBitmap smallest = bitmap.clone();
+        assertTrue(smallest.runOptimize(ContainerOptimizationPolicy.SMALLEST));
+        MutableRoaringBitmap expected = bitmap.clone();
+        expected.runOptimize();
+        assertEquals(containerTypes(expected), containerTypes(smallest));
+        assertEquals("RRA", containerTypes(smallest));
+        assertEquals(bitmap, smallest);
+
+        // the first container stays a bitmap for fast lookups
+        MutableRoaringBitmap hot = bitmap.clone();
+        assertTrue(hot.runOptimize((key, cardinality, runs) -> key != 0
+            && ContainerOptimizationPolicy.SMALLEST.useRunContainer(key, cardinality, runs)));
+        assertEquals("BRA", containerTypes(hot));
+        assertEquals(bitmap, hot);
+
+        // run containers are converted back when the policy no longer wants them
+        assertFalse(smallest.runOptimize(ContainerOptimizationPolicy.sizeRatio(1000)));
+        assertEquals("BAA", containerTypes(smallest));
+        assertEquals(bitmap, smallest);
+
+        MutableRoaringBitmap trimmed = bitmap.clone();
+        trimmed.trim(ContainerOptimizationPolicy.sizeRatio(500));
+        assertEquals("RAA", containerTypes(trimmed));
+        assertEquals(bitmap, trimmed);
+        assertThrows(IllegalArgumentException.class,
+            () -> ContainerOptimizationPolicy.sizeRatio(0.5));
+    }
 }